@@ -773,7 +773,7 @@ body.glass-mode.glass-optimized .btn,body.glass-mode.glass-optimized .diff-btn {
     var msgs = typeof window.msgLoad === 'function' ? window.msgLoad() : {};
     if (!msgs[window._msgCurrentChat]) msgs[window._msgCurrentChat] = [];
     msgs[window._msgCurrentChat].push(msg);
-    typeof window.msgSave === 'function' && window.msgSave(msgs);
+    typeof window.msgSave === 'function' && window.msgSave(msgs, window._msgCurrentChat);
     typeof window.messengerRenderMessages === 'function' && window.messengerRenderMessages(true);
     if (typeof window.sbInsert === 'function'){
       window.sbInsert('messages',{
@@ -904,7 +904,7 @@ body.glass-mode.glass-optimized .btn,body.glass-mode.glass-optimized .diff-btn {
     var msgs = typeof window.msgLoad==='function' ? window.msgLoad() : {};
     if (!msgs[window._msgCurrentChat]) msgs[window._msgCurrentChat] = [];
     msgs[window._msgCurrentChat].push(msg);
-    typeof window.msgSave==='function' && window.msgSave(msgs);
+    typeof window.msgSave==='function' && window.msgSave(msgs, window._msgCurrentChat);
     typeof window.messengerRenderMessages==='function' && window.messengerRenderMessages(true);
     if (window._mcStickerPanelOpen) typeof window.mcToggleStickerPanel==='function' && window.mcToggleStickerPanel();
   }
@@ -1038,7 +1038,7 @@ body.glass-mode.glass-optimized .btn,body.glass-mode.glass-optimized .diff-btn {
         var msgs = typeof window.msgLoad==='function' ? window.msgLoad() : {};
         if (!msgs[to]) msgs[to] = [];
         msgs[to].push(msg);
-        typeof window.msgSave==='function' && window.msgSave(msgs);
+        typeof window.msgSave==='function' && window.msgSave(msgs, to);
         var c = typeof window.chatsLoad==='function' ? window.chatsLoad() : [];
         if (!c.includes(to)){ c.unshift(to); typeof window.chatsSave==='function' && window.chatsSave(c); }
         if (typeof window.sbInsert==='function'){
@@ -1392,7 +1392,7 @@ body.glass-mode.glass-optimized .btn,body.glass-mode.glass-optimized .diff-btn {
       var msgs = typeof window.msgLoad==='function' ? window.msgLoad() : {};
       if (!msgs[window._msgCurrentChat]) msgs[window._msgCurrentChat] = [];
       msgs[window._msgCurrentChat].push(msg);
-      typeof window.msgSave==='function' && window.msgSave(msgs);
+      typeof window.msgSave==='function' && window.msgSave(msgs, window._msgCurrentChat);
       typeof window.messengerRenderMessages==='function' && window.messengerRenderMessages(true);
       if (typeof window.sbInsert==='function'){
         window.sbInsert('messages',{
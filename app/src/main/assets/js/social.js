@@ -1889,6 +1889,7 @@ async function profileSaveEdit() {
 
     // 5. Перезапускаем потоки с новыми chat_key
     Object.values(_fbMsgStreams).forEach(t => clearInterval(t));
+    sbRealtimeStopAll();
     _fbMsgStreams = {};
   }
 
@@ -2013,6 +2014,7 @@ async function _doDeleteAccount(p) {
   delete accounts[p.username];
   accountsSave(accounts);
 
+  msgClearAll();
   const keysToRemove = [
     PROFILE_KEY, FRIENDS_KEY,
     _msgStoreKey(), _msgChatsKey(),
@@ -2081,13 +2083,48 @@ function sbReady(){ return true; }
 // ┄┄ Прямое подключение к Supabase (P2P удалён) ┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄
 async function _sbFetch(method, path, body, extraHeaders) {
   const url = `${sbUrl()}${path}`;
-  const r = await fetch(url, {
-    method,
-    headers: { apikey: sbKey(), Authorization: `Bearer ${sbKey()}`, ...extraHeaders },
-    body: body ? JSON.stringify(body) : undefined,
-    signal: AbortSignal.timeout(8000),
+  try {
+    const r = await fetch(url, {
+      method,
+      headers: { apikey: sbKey(), Authorization: `Bearer ${sbKey()}`, ...extraHeaders },
+      body: body ? JSON.stringify(body) : undefined,
+      signal: AbortSignal.timeout(8000),
+    });
+    return { ok: r.ok, status: r.status, json: () => r.json(), text: () => r.text() };
+  } finally {
+    if (method !== 'GET') _sbCacheInvalidate(path);
+  }
+}
+
+// Запись мимо SupabaseClient: нативный кэш SELECT этой таблицы устарел
+// (в т.ч. по таймауту — запись могла дойти до сервера)
+function _sbCacheInvalidate(path) {
+  const m = /^\/rest\/v1\/([^?\/]+)/.exec(path);
+  if (!m || !window.Android || typeof window.Android.supabaseCacheInvalidate !== 'function') return;
+  try { window.Android.supabaseCacheInvalidate(m[1]); } catch (e) {}
+}
+
+// ┄┄ Неблокирующий Java-мост (Android.*Async с callbackId) ┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄
+// Java сразу освобождает JavaBridge-поток и потом зовёт _sbAsyncResolve(id, {ok,status,body}).
+const _sbAsyncCbs = {};
+let _sbAsyncSeq = 0;
+window._sbAsyncResolve = function(id, r) {
+  const cb = _sbAsyncCbs[id];
+  if (!cb) return;
+  delete _sbAsyncCbs[id];
+  cb(r);
+};
+function sbNativeAsync(method, ...args) {
+  return new Promise(resolve => {
+    if (!window.Android || typeof window.Android[method] !== 'function') {
+      resolve({ ok: false, status: 0, body: '', error: 'no bridge: ' + method });
+      return;
+    }
+    const id = 'sb' + (++_sbAsyncSeq);
+    _sbAsyncCbs[id] = resolve;
+    try { window.Android[method](id, ...args); }
+    catch (e) { delete _sbAsyncCbs[id]; resolve({ ok: false, status: 0, body: '', error: e.message }); }
   });
-  return { ok: r.ok, status: r.status, json: () => r.json(), text: () => r.text() };
 }
 
 // ══════════════════════════════════════════════════════════════════════════
@@ -2318,7 +2355,7 @@ async function outboxFlush() {
           const chat = msgs[item.localChat];
           if (chat) {
             const m = chat.find(x => x.ts === item.ts);
-            if (m) { m.delivered = true; m.pending = false; msgSave(msgs); }
+            if (m) { m.delivered = true; m.pending = false; msgSave(msgs, item.localChat); }
           }
         }
       } catch(e) { /* оставляем в очереди, попробуем позже */ }
@@ -2397,9 +2434,22 @@ function p2pStartHealthCheck() {}
 function p2pStopHealthCheck()  {}
 
 // ┄┄ Supabase REST helpers ┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄
+// Дефолтный проект и есть мост — REST идёт через нативный клиент (sbNativeAsync):
+// общий пул соединений, кэш, single-flight и политика повторов Java-стороны.
+function _sbNativeRest() {
+  return typeof Android !== 'undefined' && typeof Android.supabaseSelectAsync === 'function' &&
+         sbUrl() === SB_DEFAULT_URL && sbKey() === SB_DEFAULT_KEY;
+}
+
 async function sbGet(table, query = '') {
   if (!sbReady()) return null;
   try {
+    if (_sbNativeRest()) {
+      const n = await sbNativeAsync('supabaseSelectAsync', table, query);
+      if (!n.ok) return null;
+      _lastSuccessfulPoll = Date.now();
+      return JSON.parse(n.body || '[]');
+    }
     const r = await _sbFetch('GET', `/rest/v1/${table}?${query}`, null, {});
     if (!r.ok && r.status !== 200) return null;
     _lastSuccessfulPoll = Date.now(); // watchdog: соединение живо
@@ -2407,9 +2457,73 @@ async function sbGet(table, query = '') {
   } catch(e) { return null; }
 }
 
+// Горячие таблицы (presence, leaderboard) пишем через нативную пакетную очередь:
+// повторные записи одной строки склеиваются в Java и уходят одним POST.
+// Только для дефолтного проекта — у нативного клиента свой URL/ключ.
+const _SB_BATCHED_TABLES = { presence: 1, leaderboard: 1 };
+function _sbBatchedUpsert(table, data) {
+  if (!_SB_BATCHED_TABLES[table] || Array.isArray(data)) return false;
+  if (typeof Android === 'undefined' || typeof Android.supabaseUpsertBatched !== 'function') return false;
+  if (sbUrl() !== SB_DEFAULT_URL || sbKey() !== SB_DEFAULT_KEY) return false;
+  try {
+    return JSON.parse(Android.supabaseUpsertBatched(table, JSON.stringify(data))).ok === true;
+  } catch(e) { return false; }
+}
+
+// ┄┄ Аватары в Storage ┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄
+// Картинка в строки users/presence не пишется: она уходит в бакет avatars под
+// именем sha256 содержимого, в avatar_data — только ссылка (её же отдаёт
+// колонка avatar_ref). С мостом грузит AvatarStore (тот же хэш и дисковый кэш),
+// без него — прямой POST в Storage. undefined — загрузить не вышло: поле не пишем,
+// на сервере остаётся прежнее значение.
+const _SB_AVATAR_BUCKET = 'avatars';
+const _sbAvatarRefs = new Map();   // data-URL → ссылка, последние несколько
+async function _sbAvatarRef(data) {
+  if (!data || /^https?:/.test(data)) return data || null;
+  const known = _sbAvatarRefs.get(data);
+  if (known) return known;
+  let url;
+  if (typeof Android !== 'undefined' && typeof Android.avatarOffloadAsync === 'function' &&
+      sbUrl() === SB_DEFAULT_URL && sbKey() === SB_DEFAULT_KEY) {
+    const r = await sbNativeAsync('avatarOffloadAsync', data);
+    url = r.ok ? r.body : undefined;
+  } else {
+    url = await _sbAvatarUpload(data);
+  }
+  if (!url) return undefined;
+  if (_sbAvatarRefs.size >= 8) _sbAvatarRefs.delete(_sbAvatarRefs.keys().next().value);
+  _sbAvatarRefs.set(data, url);
+  return url;
+}
+
+async function _sbAvatarUpload(data) {
+  try {
+    const m = /^data:([^;,]+)?(;base64)?,/.exec(data);
+    const mime = (m && m[1]) || 'image/jpeg';
+    const bin = atob(m ? data.slice(m[0].length) : data);
+    const bytes = new Uint8Array(bin.length);
+    for (let i = 0; i < bin.length; i++) bytes[i] = bin.charCodeAt(i);
+    const digest = new Uint8Array(await crypto.subtle.digest('SHA-256', bytes));
+    const hash = Array.from(digest, b => b.toString(16).padStart(2, '0')).join('');
+    const ext = { 'image/png': 'png', 'image/gif': 'gif', 'image/webp': 'webp' }[mime] || 'jpg';
+    const name = `${hash}.${ext}`;
+    const r = await fetch(`${sbUrl()}/storage/v1/object/${_SB_AVATAR_BUCKET}/${name}`, {
+      method: 'POST',
+      headers: { apikey: sbKey(), Authorization: `Bearer ${sbKey()}`, 'Content-Type': mime },
+      body: bytes,
+    });
+    // Объект с этим хэшем уже загрузил кто-то другой — это тот же файл
+    if (!r.ok && r.status !== 409 && !/Duplicate|already exists/.test(await r.text().catch(() => ''))) return undefined;
+    return `${sbUrl()}/storage/v1/object/public/${_SB_AVATAR_BUCKET}/${name}`;
+  } catch(e) { return undefined; }
+}
+
 async function sbUpsert(table, data) {
   if (!sbReady()) return false;
+  if (_sbBatchedUpsert(table, data)) return true;
   try {
+    if (_sbNativeRest())
+      return (await sbNativeAsync('supabaseUpsertAsync', table, JSON.stringify(data))).ok === true;
     const r = await _sbFetch('POST', `/rest/v1/${table}`, data, {
       'Content-Type': 'application/json',
       'Prefer': 'resolution=merge-duplicates,return=minimal',
@@ -2421,6 +2535,10 @@ async function sbUpsert(table, data) {
 async function sbInsert(table, data) {
   if (!sbReady()) return null;
   try {
+    if (_sbNativeRest()) {
+      const n = await sbNativeAsync('supabaseInsertAsync', table, JSON.stringify(data));
+      return n.ok ? JSON.parse(n.body || '[]') : null;
+    }
     const r = await _sbFetch('POST', `/rest/v1/${table}`, data, {
       'Content-Type': 'application/json',
       'Prefer': 'return=representation',
@@ -2433,6 +2551,7 @@ async function sbInsert(table, data) {
 async function sbDelete(table, query) {
   if (!sbReady()) return;
   try {
+    if (_sbNativeRest()) { await sbNativeAsync('supabaseDeleteAsync', table, query); return; }
     await _sbFetch('DELETE', `/rest/v1/${table}?${query}`, null, {});
   } catch(e) {}
 }
@@ -2511,6 +2630,126 @@ async function _inboxTsRecover() {
   } catch(e) {}
 }
 let _fbInboxLastTs = _inboxTsLoad();
+
+// Входящие может тянуть нативный InboxSyncEngine: один запрос на всё приложение
+// (вместе с фоновым сервисом и уведомлениями). Тогда JS свой inbox
+// не опрашивает, а получает строки в window.onInboxMessages.
+function _inboxViaEngine() {
+  return !!(window.Android && typeof Android.inboxSyncNow === 'function');
+}
+
+// Реакции и "прочитано" живут в message_events (supabase_migration_message_events.sql):
+// строка на сообщение / на читателя, дельтой по серверному updated_at. Без движка
+// забираем их сами и превращаем в прежние служебные строки для sbHandleIncomingMessages.
+const EVENTS_TS_KEY = 'sapp_events_updated_at';
+const EVENTS_POLL_MS = 6000;
+let _sbEventsLastPoll = 0;
+let _sbEventsMissing  = false;
+async function _sbEventsPoll(username) {
+  if (_sbEventsMissing || !sbReady() || Date.now() - _sbEventsLastPoll < EVENTS_POLL_MS) return;
+  _sbEventsLastPoll = Date.now();
+  let since = 0;
+  try { since = parseInt(localStorage.getItem(EVENTS_TS_KEY) || '0') || 0; } catch(e) {}
+  if (!since) since = Date.now() - 60000;
+  const me = encodeURIComponent(username);
+  let r;
+  try {
+    r = await _sbFetch('GET', `/rest/v1/message_events?select=chat_key,kind,target_ts,from_user,to_user,reactions,up_to_ts,ts,updated_at` +
+      `&to_user=eq.${me}&from_user=neq.${me}&updated_at=gt.${since}&order=updated_at.asc&limit=200`, null, {});
+  } catch(e) { return; }
+  // Таблицы нет (миграция не применена)   события идут обычными строками messages
+  if (r.status === 404) { _sbEventsMissing = true; return; }
+  if (!r.ok) return;
+  const data = await r.json().catch(() => null);
+  if (!Array.isArray(data) || !data.length) return;
+  const bySender = {};
+  data.forEach(ev => {
+    since = Math.max(since, ev.updated_at || 0);
+    const extra = ev.kind === 'read'
+      ? { type: 'read_receipt', upToTs: ev.up_to_ts }
+      : { type: 'reaction', msgTs: ev.target_ts, reactions: ev.reactions || {} };
+    (bySender[ev.from_user] = bySender[ev.from_user] || []).push({
+      chat_key: ev.chat_key, from_user: ev.from_user, to_user: ev.to_user,
+      text: '', ts: ev.ts, extra: JSON.stringify(extra)
+    });
+  });
+  try { localStorage.setItem(EVENTS_TS_KEY, String(since)); } catch(e) {}
+  Object.entries(bySender).forEach(([sender, rows]) => sbHandleIncomingMessages(username, sender, rows));
+}
+
+// Дельта выше начинается с курсора (на свежей установке — минуту назад), поэтому
+// реакции и "прочитано" старых сообщений так не приходят никогда. При открытии
+// чата забираем все его события разом. Реакции, чьих сообщений локально ещё нет
+// (история догружается следом), ждут в _sbChatEvents до sbHandleIncomingMessages.
+const _sbChatEvents = {};  // chat_key → { reactions: {target_ts → reactions}, readUpTo }
+async function _sbEventsLoadChat(myUsername, peer) {
+  if (_sbEventsMissing || !sbReady() || peer === PUBLIC_GROUP_ID || peer.startsWith('grp_')) return;
+  const chatKey = sbChatKey(myUsername, peer);
+  if (_sbChatEvents[chatKey]) { _sbEventsApply(myUsername, peer); return; }
+  let r;
+  try {
+    r = await _sbFetch('GET', `/rest/v1/message_events?select=kind,target_ts,reader,reactions,up_to_ts` +
+      `&chat_key=eq.${encodeURIComponent(chatKey)}&limit=1000`, null, {});
+  } catch(e) { return; }
+  if (r.status === 404) { _sbEventsMissing = true; return; }
+  if (!r.ok) return;
+  const data = await r.json().catch(() => null);
+  if (!Array.isArray(data)) return;
+  const pending = { reactions: {}, readUpTo: 0 };
+  data.forEach(ev => {
+    if (ev.kind === 'reaction') pending.reactions[ev.target_ts] = ev.reactions || {};
+    else if (ev.kind === 'read' && ev.reader === peer) pending.readUpTo = Math.max(pending.readUpTo, ev.up_to_ts || 0);
+  });
+  _sbChatEvents[chatKey] = pending;
+  _sbEventsApply(myUsername, peer);
+}
+
+function _sbEventsApply(myUsername, peer) {
+  const pending = _sbChatEvents[sbChatKey(myUsername, peer)];
+  if (!pending) return;
+  const msgs = msgLoad();
+  const chat = msgs[peer];
+  if (!chat || !chat.length) return;
+  let changed = false;
+  chat.forEach(m => {
+    const re = pending.reactions[m.ts];
+    if (re !== undefined) {
+      delete pending.reactions[m.ts];
+      if (JSON.stringify(m.reactions || {}) !== JSON.stringify(re)) { m.reactions = re; changed = true; }
+    }
+    if (m.from === myUsername && !m.read && m.ts <= pending.readUpTo) { m.read = true; changed = true; }
+  });
+  if (!changed) return;
+  msgSave(msgs, peer);
+  if (_msgCurrentChat === peer) messengerRenderMessages();
+}
+
+// Строки приходят и живым синком, и replay при старте (что пришло, пока приложение
+// было закрыто). Обработанное подтверждаем inboxAck — это курсор данных JS в движке.
+window.onInboxMessages = function(rows) {
+  const p = profileLoad();
+  if (!p || !Array.isArray(rows) || !rows.length) return;
+  const bySender = {};
+  let ackTs = 0, ackId = 0;
+  rows.forEach(msg => {
+    // id 0 — события message_events, у них свой курсор
+    if (msg.id && (msg.ts > ackTs || (msg.ts === ackTs && msg.id > ackId))) { ackTs = msg.ts; ackId = msg.id; }
+    _fbInboxLastTs = Math.max(_fbInboxLastTs, msg.ts);
+    if (msg.to_user !== p.username) {
+      // Групповое   дочитает поток группы (у него свой lastTs)
+      if (typeof window.sbRealtimeWake === 'function') window.sbRealtimeWake(msg.chat_key);
+      return;
+    }
+    (bySender[msg.from_user] = bySender[msg.from_user] || []).push(msg);
+  });
+  _inboxTsSave(_fbInboxLastTs);
+  Object.entries(bySender).forEach(([sender, msgs]) => {
+    sbPollChat(p.username, sender);
+    sbHandleIncomingMessages(p.username, sender, msgs);
+  });
+  // Подтверждаем только сохранённое: сначала на диск, потом курсор
+  if (ackTs) try { msgFlush(); window.Android?.inboxAck?.(String(ackTs), String(ackId)); } catch(_) {}
+};
 let _superPoller         = null; // единый таймер вместо всех отдельных
 // ┄┄ Watchdog: следит что соединение реально живо ┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄
 let _watchdogTimer      = null;
@@ -2552,7 +2791,7 @@ async function sbSaveUser(p) {
     pwd_hash:         p.pwdHash         || null,
     avatar:           p.avatar          || '😊',
     avatar_type:      p.avatarType      || 'emoji',
-    avatar_data:      p.avatarData      || null,
+    avatar_data:      await _sbAvatarRef(p.avatarData),
     avatar_video_url: p.avatarVideoUrl  || null,
     bio:              p.bio             || '',
     status:           p.status          || 'online',
@@ -2564,6 +2803,7 @@ async function sbSaveUser(p) {
     created_at:       p.createdAt       || Date.now(),
     avatar_history:   history.length    ? JSON.stringify(history) : null,
   };
+  if (payload.avatar_data === undefined) delete payload.avatar_data;
   try {
     await _sbFetch('POST', '/rest/v1/users', payload, {
       'Content-Type': 'application/json',
@@ -2827,6 +3067,7 @@ async function profileConnect(p) {
   clearInterval(_superPoller);     _superPoller = null;
   p2pStopHealthCheck();
   Object.values(_fbMsgStreams).forEach(t => clearInterval(t));
+  sbRealtimeStopAll();
   _fbMsgStreams = {};
   _profilePeerReady = false;
 
@@ -3013,8 +3254,8 @@ window._javaTick = async function() {
     } catch(e) {}
   }
 
-  // Каждый тик: inbox
-  try {
+  // Каждый тик: inbox (если его не ведёт InboxSyncEngine)
+  if (!_inboxViaEngine()) try {
     const data = await sbGet('messages',
       `select=*&to_user=eq.${encodeURIComponent(pr.username)}&ts=gt.${_fbInboxLastTs}&order=ts.asc&limit=100`
     );
@@ -3032,6 +3273,7 @@ window._javaTick = async function() {
         sbHandleIncomingMessages(pr.username, sender, msgs);
       });
     }
+    await _sbEventsPoll(pr.username);
   } catch(e) {}
 
   // Каждый тик: открытый чат
@@ -3067,7 +3309,7 @@ window._javaTick = async function() {
                 hasNew2 = true;
               }
             });
-            if (hasNew2) { msgs2[_msgCurrentChat].sort((a,b)=>a.ts-b.ts); msgSave(msgs2); messengerRenderMessages(); }
+            if (hasNew2) { msgs2[_msgCurrentChat].sort((a,b)=>a.ts-b.ts); msgSave(msgs2, _msgCurrentChat); messengerRenderMessages(); }
           }
         }
       } else {
@@ -3172,6 +3414,7 @@ function profileDisconnect() {
   clearInterval(_superPoller);   _superPoller = null;
   p2pStopHealthCheck();
   Object.values(_fbMsgStreams).forEach(t => clearInterval(t));
+  sbRealtimeStopAll();
   _fbMsgStreams = {};
   _sbPresenceTimer = null;
   _fbPollTimer = null;
@@ -3215,12 +3458,13 @@ async function sbPresencePut(p) {
   const payload = {
     username: p.username, name: p.name,
     avatar: p.avatar || '\u{1F60A}', avatar_type: p.avatarType || 'emoji',
-    avatar_data: avatarDataToStore,
+    avatar_data: await _sbAvatarRef(avatarDataToStore),
     color: p.color || '#e87722', status: p.status || 'online',
     vip: p.vip || false, badge: p.badge || null,
     pwd_hash: p.pwdHash || null,
     ts: Date.now()
   };
+  if (payload.avatar_data === undefined) delete payload.avatar_data;
   try {
     if (_presenceFirstPut) {
       _presenceFirstPut = false;
@@ -3239,6 +3483,11 @@ async function sbPresencePut(p) {
         },
         body: JSON.stringify(payload)
       });
+    } else if (window.Android && typeof Android.presenceSetSelf === 'function') {
+      // Последующие heartbeat шлёт нативный PresenceService — один на процесс
+      Android.presenceSetSelf(JSON.stringify(payload));
+    } else if (_sbBatchedUpsert('presence', payload)) {
+      // Последующие heartbeat: через нативную пакетную очередь
     } else {
       // Последующие heartbeat: обычный upsert
       await fetch(`${sbUrl()}/rest/v1/presence?on_conflict=username`, {
@@ -3254,9 +3503,21 @@ async function sbPresencePut(p) {
   } catch(e) {}
 }
 
+// С Android-мостом строки presence держит PresenceService (дельта по ts),
+// JS читает снимок без запроса и перерисовывается по sbOnPresenceChanged.
+function _presenceNative() {
+  return !!(window.Android && typeof Android.presenceSnapshot === 'function');
+}
+window.sbOnPresenceChanged = () => { sbPollPresence().catch(() => {}); };
+
 async function sbPollPresence() {
   if (!sbReady()) return;
-  const data = await sbGet('presence', 'select=*&order=ts.desc&limit=500');
+  let data;
+  if (_presenceNative()) {
+    try { data = JSON.parse(Android.presenceSnapshot()); } catch(e) { return; }
+  } else {
+    data = await sbGet('presence', 'select=*&order=ts.desc&limit=500');
+  }
   if (!Array.isArray(data)) return;
   const p = profileLoad();
   const now = Date.now();
@@ -3341,6 +3602,44 @@ function profileUpdateOnlineCount() {
 // ┄┄ Сообщения ┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄
 function sbChatKey(a, b) { return [a, b].sort().join('__'); }
 
+// Realtime: нативный WebSocket будит doCheck сразу при INSERT по chat_key
+// (и после переподключения сокета). Пока канал жив, интервальный тик пропускается —
+// остаётся только страховочный опрос раз в SB_RT_SAFETY_TICKS тиков.
+// Без моста или при лежащем сокете — обычный setInterval, как раньше.
+const SB_RT_SAFETY_TICKS = 15;
+const _sbRtWake   = {};  // chatKey → streamKey
+const _sbRtChecks = {};  // streamKey → doCheck
+
+function sbStreamStart(streamKey, chatKey, doCheck, intervalMs) {
+  const rt = !!(window.Android && typeof Android.realtimeSubscribe === 'function');
+  if (rt) {
+    _sbRtWake[chatKey] = streamKey;
+    Android.realtimeSubscribe(chatKey);
+  }
+  let ticks = 0;
+  const tick = () => {
+    ticks++;
+    if (rt && ticks % SB_RT_SAFETY_TICKS !== 0 && Android.realtimeLive(chatKey)) return;
+    doCheck();
+  };
+  doCheck();
+  _fbMsgStreams[streamKey] = setInterval(tick, intervalMs);
+  _sbRtChecks[streamKey] = doCheck;
+}
+
+window.sbRealtimeWake = function(chatKey) {
+  const streamKey = _sbRtWake[chatKey];
+  if (!streamKey || !_fbMsgStreams[streamKey]) return;  // поток уже остановлен
+  const check = _sbRtChecks[streamKey];
+  if (check) check();
+};
+
+function sbRealtimeStopAll() {
+  for (const k in _sbRtWake) delete _sbRtWake[k];
+  for (const k in _sbRtChecks) delete _sbRtChecks[k];
+  if (window.Android && typeof Android.realtimeUnsubscribeAll === 'function') Android.realtimeUnsubscribeAll();
+}
+
 function sbStartMsgPolling(p) {
   const chats = chatsLoad();
   chats.forEach(username => sbPollChat(p.username, username));
@@ -3360,8 +3659,7 @@ function sbPollChat(myUsername, otherUsername) {
     if (!Array.isArray(data) || data.length === 0) return;
     sbHandleIncomingMessages(myUsername, otherUsername, data);
   };
-  doCheck();
-  _fbMsgStreams[key] = setInterval(doCheck, 2000);
+  sbStreamStart(key, key, doCheck, 2000);
 }
 
 // Принудительно сбросить и перезапустить polling конкретного чата.
@@ -3377,6 +3675,11 @@ function sbForceRecheckChat(myUsername, otherUsername) {
 
 function sbStartInboxPolling(p) {
   clearInterval(_fbInboxTimer);
+  if (_inboxViaEngine()) {
+    // Движок опрашивает сам   просим внеочередной синк, строки придут в onInboxMessages
+    Android.inboxSyncNow();
+    return;
+  }
   // Используем сохранённый ts из localStorage (не сбрасывается при перезапуске).
   // Fallback: 30 дней назад   чтобы не пропустить оффлайн-сообщения.
   // При первом запуске _fbInboxLastTs=0, берём 30 дней чтобы подтянуть историю.
@@ -3386,6 +3689,7 @@ function sbStartInboxPolling(p) {
   }
   const doInboxCheck = async () => {
     if (!sbReady() || !p) return;
+    _sbEventsPoll(p.username);
     // Ищем все сообщения адресованные МНЕ, которые я ещё не видел
     const data = await sbGet('messages',
       `select=*&to_user=eq.${encodeURIComponent(p.username)}&ts=gt.${_fbInboxLastTs}&order=ts.asc&limit=100`
@@ -3470,7 +3774,7 @@ function sbHandleIncomingMessages(myUsername, otherUsername, rows) {
           const stored = msgs[otherUsername].find(m => m.ts === msg.ts && m.from === msg.from_user);
           if (stored && stored.text === '🔒 [расшифровываю...]') {
             stored.text = decrypted;
-            msgSave(msgs);
+            msgSave(msgs, otherUsername);
             if (_msgCurrentChat === otherUsername) messengerRenderMessages();
           }
         }).catch(() => {});
@@ -3498,7 +3802,7 @@ function sbHandleIncomingMessages(myUsername, otherUsername, rows) {
         groupsSave(groups);
         const msgs2 = msgLoad();
         delete msgs2[gid];
-        msgSave(msgs2);
+        msgSave(msgs2, gid);
         chatsSave(chatsLoad().filter(u => u !== gid));
         _markChatDeleted(gid);
         if (_msgCurrentChat === gid) showScreen('s-messenger', 'back');
@@ -3536,7 +3840,7 @@ function sbHandleIncomingMessages(myUsername, otherUsername, rows) {
           }
         });
         if (rChanged) {
-          msgSave(msgs);
+          msgSave(msgs, otherUsername);
           if (_msgCurrentChat === otherUsername) messengerRenderMessages();
         }
         _fbLastMsgTs[key] = Math.max(_fbLastMsgTs[key]||0, msg.ts);
@@ -3548,9 +3852,12 @@ function sbHandleIncomingMessages(myUsername, otherUsername, rows) {
         const targetTs = extraParsed.msgTs;
         const allMsgs = msgs[otherUsername] || [];
         const target = allMsgs.find(m => m.ts === targetTs);
+        // Живое событие новее загруженного при открытии чата
+        const pend = _sbChatEvents[key];
+        if (pend) { if (target) delete pend.reactions[targetTs]; else pend.reactions[targetTs] = extraParsed.reactions; }
         if (target) {
           target.reactions = extraParsed.reactions;
-          msgSave(msgs);
+          msgSave(msgs, otherUsername);
           if (_msgCurrentChat === otherUsername) messengerRenderMessages();
         }
         return; // не добавляем как обычное сообщение
@@ -3563,7 +3870,7 @@ function sbHandleIncomingMessages(myUsername, otherUsername, rows) {
           const before = msgs[otherUsername].length;
           msgs[otherUsername] = msgs[otherUsername].filter(m => m.ts !== targetTs);
           if (msgs[otherUsername].length !== before) {
-            msgSave(msgs);
+            msgSave(msgs, otherUsername);
             if (_msgCurrentChat === otherUsername) messengerRenderMessages();
           }
         }
@@ -3594,7 +3901,8 @@ function sbHandleIncomingMessages(myUsername, otherUsername, rows) {
     if (msgs[otherUsername]) {
       msgs[otherUsername].sort((a, b) => (a.ts || 0) - (b.ts || 0));
     }
-    msgSave(msgs);
+    msgSave(msgs, otherUsername);
+    _sbEventsApply(myUsername, otherUsername);
     const chats = chatsLoad();
     if (!chats.includes(otherUsername)) { chats.unshift(otherUsername); chatsSave(chats); }
     if (_msgCurrentChat === otherUsername) messengerRenderMessages();
@@ -4828,7 +5136,7 @@ async function groupLeave(groupId) {
   groupsSave(groups);
   const msgs = msgLoad();
   delete msgs[groupId];
-  msgSave(msgs);
+  msgSave(msgs, groupId);
   const chats = chatsLoad().filter(u => u !== groupId);
   chatsSave(chats);
   _markChatDeleted(groupId);
@@ -4912,7 +5220,7 @@ async function groupDeleteForAllConfirmed(groupId) {
   groupsSave(groups);
   const msgs = msgLoad();
   delete msgs[groupId];
-  msgSave(msgs);
+  msgSave(msgs, groupId);
   chatsSave(chatsLoad().filter(u => u !== groupId));
   _markChatDeleted(groupId);
 
@@ -4976,7 +5284,7 @@ function sbPollGroupChat(myUsername, group) {
     });
     if (hasNew) {
       msgs[group.id].sort((a,b) => a.ts - b.ts);
-      msgSave(msgs);
+      msgSave(msgs, group.id);
       const chats = chatsLoad();
       if (!chats.includes(group.id)) { chats.unshift(group.id); chatsSave(chats); }
       if (_msgCurrentChat === group.id) messengerRenderMessages();
@@ -4984,8 +5292,7 @@ function sbPollGroupChat(myUsername, group) {
     }
   };
 
-  doCheck();
-  _fbMsgStreams[streamKey] = setInterval(doCheck, 2000);
+  sbStreamStart(streamKey, chatKey, doCheck, 2000);
 }
 
 // Запускаем polling для всех групп пользователя при подключении
@@ -5030,7 +5337,7 @@ function sbPollPublicGroup(myUsername, group) {
     });
     if (hasNew) {
       msgs[group.id].sort((a,b) => a.ts - b.ts);
-      msgSave(msgs);
+      msgSave(msgs, group.id);
       const chats = chatsLoad();
       if (!chats.includes(group.id)) { chats.unshift(group.id); chatsSave(chats); }
       if (_msgCurrentChat === group.id) messengerRenderMessages();
@@ -5038,8 +5345,7 @@ function sbPollPublicGroup(myUsername, group) {
     }
   };
 
-  doCheck();
-  _fbMsgStreams[streamKey] = setInterval(doCheck, 3000);
+  sbStreamStart(streamKey, chatKey, doCheck, 3000);
 }
 
 // Подтягивает список чатов (собеседников) из Supabase при входе
@@ -5445,7 +5751,7 @@ function peerSendGift(username) {
   const msgs = msgLoad();
   if (!msgs[username]) msgs[username] = [];
   msgs[username].push(msg);
-  msgSave(msgs);
+  msgSave(msgs, username);
   const chats = chatsLoad();
   if (!chats.includes(username)) { chats.unshift(username); chatsSave(chats); }
   sbInsert('messages', { chat_key: sbChatKey(p.username, username), from_user: p.username, to_user: username, text: gift, ts });
@@ -5547,7 +5853,7 @@ function messengerMarkRead() {
     }
   });
   if (changed) {
-    msgSave(msgs);
+    msgSave(msgs, _msgCurrentChat);
     messengerUpdateBadge();
     // Уведомляем отправителя о прочтении через Supabase
     if (maxReadTs > 0 && !_msgCurrentChat.startsWith('grp_') && _msgCurrentChat !== PUBLIC_GROUP_ID) {
@@ -6625,7 +6931,7 @@ function _vipBotNotify(p, amount, tier, txn) {
       delivered: true, read: false,
       _bot: true
     });
-    msgSave(msgs);
+    msgSave(msgs, VIP_BOT_ID);
     messengerUpdateBadge?.();
 
     // Уведомляем администратора (@lomkich) через Supabase messages
@@ -6719,7 +7025,7 @@ async function _vipBotOpenChat() {
     setTimeout(() => { msgBody.scrollTop = msgBody.scrollHeight; }, 50);
     // Помечаем как прочитанные
     botMsgs.forEach(m => { m.read = true; });
-    msgSave(msgs);
+    msgSave(msgs, VIP_BOT_ID);
     messengerUpdateBadge?.();
   }
 }
@@ -6991,8 +7297,115 @@ function _msgChatsKey() {
   try { const p = JSON.parse(localStorage.getItem(PROFILE_KEY)); return p?.username ? MSG_CHATS_KEY_BASE + '_' + p.username : MSG_CHATS_KEY_BASE; } catch(e) { return MSG_CHATS_KEY_BASE; }
 }
 
-function msgLoad()    { try { return JSON.parse(localStorage.getItem(_msgStoreKey())||'{}'); } catch(e){ return {}; } }
-function msgSave(d)   { localStorage.setItem(_msgStoreKey(), JSON.stringify(d)); }
+// ┄┄ Хранилище сообщений ┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄┄
+// С Android-мостом сообщения лежат в SQLite (MessageStore): при старте в память
+// поднимается окно последних MSG_WINDOW сообщений каждого чата, старые —
+// msgLoadOlder() при скролле вверх. msgLoad() отдаёт объект из памяти без
+// JSON.parse, msgSave(msgs, chat) только помечает чат грязным и раз в MSG_FLUSH_MS
+// пишет в SQLite грязные чаты — остальные не сериализуются вовсе. msgSave без
+// chat (массовые правки) помечает все. Без моста (браузер) — прежний JSON в localStorage.
+const MSG_WINDOW   = 300;
+const MSG_FLUSH_MS = 400;
+let _msgMem = null;            // { key, data }
+let _msgFlushTimer = null;
+let _msgSaved = new Set();     // чаты, которые лежат в SQLite
+let _msgDirty = new Set();     // чаты, изменённые после последнего flush
+let _msgDirtyAll = false;      // msgSave без chat — писать все
+
+function _msgNative() {
+  return !!(window.Android && typeof Android.msgStoreLoad === 'function');
+}
+function _msgOwner(key) {
+  return key === MSG_STORE_KEY_BASE ? '' : key.slice(MSG_STORE_KEY_BASE.length + 1);
+}
+
+function msgLoad() {
+  const key = _msgStoreKey();
+  if (_msgMem && _msgMem.key === key) return _msgMem.data;
+  msgFlush();
+  let data = {};
+  if (_msgNative()) {
+    const owner = _msgOwner(key);
+    // Однократный перенос старого JSON-блоба из localStorage
+    const legacy = localStorage.getItem(key);
+    if (legacy !== null && Android.msgStoreImport(owner, legacy)) localStorage.removeItem(key);
+    try { data = JSON.parse(Android.msgStoreLoad(owner, MSG_WINDOW)) || {}; } catch(e) { data = {}; }
+    _msgSaved = new Set(Object.keys(data));
+  } else {
+    try { data = JSON.parse(localStorage.getItem(key)||'{}'); } catch(e) { data = {}; }
+  }
+  _msgMem = { key, data };
+  return data;
+}
+
+/** @param chat изменённый чат или массив чатов; без него — изменены все */
+function msgSave(d, chat) {
+  const key = _msgStoreKey();
+  if (_msgMem && _msgMem.key !== key) msgFlush();
+  if (!_msgMem || _msgMem.data !== d) _msgDirtyAll = true; // другой объект — сверять нечего
+  _msgMem = { key, data: d };
+  if (chat === undefined || chat === null) _msgDirtyAll = true;
+  else (Array.isArray(chat) ? chat : [chat]).forEach(c => _msgDirty.add(c));
+  if (!_msgFlushTimer) _msgFlushTimer = setTimeout(msgFlush, MSG_FLUSH_MS);
+}
+
+/** Записать отложенные изменения сейчас (уход в фон, смена аккаунта). */
+function msgFlush() {
+  clearTimeout(_msgFlushTimer);
+  _msgFlushTimer = null;
+  if (!_msgMem) return;
+  const { key, data } = _msgMem;
+  const all = _msgDirtyAll, dirty = _msgDirty;
+  _msgDirtyAll = false;
+  _msgDirty = new Set();
+  if (!_msgNative()) {
+    if (all || dirty.size) try { localStorage.setItem(key, JSON.stringify(data)); } catch(e) {}
+    return;
+  }
+  const owner = _msgOwner(key);
+  const chats = all ? new Set([...Object.keys(data), ..._msgSaved]) : dirty;
+  chats.forEach(chat => {
+    if (chat in data) {
+      Android.msgStorePutChat(owner, chat, JSON.stringify(data[chat] || []));
+      _msgSaved.add(chat);
+    } else if (_msgSaved.has(chat)) {
+      Android.msgStoreDeleteChat(owner, chat);
+      _msgSaved.delete(chat);
+    }
+  });
+}
+
+/** Подгрузить из SQLite сообщения старше первого в памяти. @returns сколько добавлено */
+function msgLoadOlder(chat, limit) {
+  if (!_msgNative()) return 0;
+  const msgs = msgLoad();
+  const arr = msgs[chat] || [];
+  if (!arr.length) return 0;
+  let older = [];
+  try { older = JSON.parse(Android.msgStoreWindow(_msgOwner(_msgMem.key), chat, arr[0].ts, limit || MSG_WINDOW)) || []; } catch(e) {}
+  if (!older.length) return 0;
+  // Уже лежат в SQLite — грязным чат не становится
+  msgs[chat] = older.concat(arr);
+  return older.length;
+}
+
+/** Удалить все сообщения аккаунта (выход с удалением данных). */
+function msgClearAll() {
+  const key = _msgStoreKey();
+  clearTimeout(_msgFlushTimer);
+  _msgFlushTimer = null;
+  _msgMem = null;
+  _msgSaved = new Set();
+  _msgDirty = new Set();
+  _msgDirtyAll = false;
+  if (_msgNative()) Android.msgStoreClear(_msgOwner(key));
+}
+
+document.addEventListener('visibilitychange', () => {
+  if (document.visibilityState !== 'visible') msgFlush();
+});
+window.addEventListener('pagehide', msgFlush);
+
 function chatsLoad()  {
   const perUser = localStorage.getItem(_msgChatsKey());
   if (perUser !== null) { try { return JSON.parse(perUser)||[]; } catch(e){ return []; } }
@@ -7161,7 +7574,7 @@ async function syncDeletedChatsFromServer(username) {
       if (chats.includes(u)) { chats = chats.filter(x => x !== u); changed = true; }
       if (msgs[u]) { delete msgs[u]; changed = true; }
     });
-    if (changed) { chatsSave(chats); msgSave(msgs); }
+    if (changed) { chatsSave(chats); msgSave(msgs, merged); }
   } catch(e) {}
 }
 
@@ -7263,7 +7676,7 @@ async function _doDeleteChatForBoth(username) {
   // 2. Удаляем локально
   const msgs = msgLoad();
   delete msgs[username];
-  msgSave(msgs);
+  msgSave(msgs, username);
 
   // 3. Убираем из списка чатов
   const chats = chatsLoad().filter(u => u !== username);
@@ -7374,7 +7787,7 @@ function _doDeleteSelectedChats() {
       if (p) { const k = sbChatKey(p.username, u); clearInterval(_fbMsgStreams[k]); delete _fbMsgStreams[k]; }
       _markChatDeleted(u);
     });
-    msgSave(msgs); chatsSave(chats); msgSelectCancel(); messengerUpdateBadge();
+    msgSave(msgs, toDelete); chatsSave(chats); msgSelectCancel(); messengerUpdateBadge();
     messengerRenderList();
   };
 
@@ -7431,7 +7844,7 @@ function msgReadSelected() {
   _msgSelected.forEach(u => {
     if (msgs[u]) msgs[u].forEach(m => { if (m.from !== p?.username) m.read = true; });
   });
-  msgSave(msgs);
+  msgSave(msgs, [..._msgSelected]);
   messengerUpdateBadge();
   toast('✅ Прочитано');
   msgSelectCancel();
@@ -7447,7 +7860,7 @@ function messengerDeleteCurrentChat() {
   delete msgs[username];
   const idx = chats.indexOf(username);
   if (idx !== -1) chats.splice(idx, 1);
-  msgSave(msgs);
+  msgSave(msgs, username);
   chatsSave(chats);
   const p = profileLoad();
   if (p) {
@@ -7810,6 +8223,7 @@ function _doOpenChat(username) {
   // Решает проблему "нужно перезаходить чтобы увидеть новые сообщения".
   if (p) {
     sbForceRecheckChat(p.username, username);
+    _sbEventsLoadChat(p.username, username);
     // Сообщаем нативному Worker'у   сдвигаем окно чтобы не дублировать уведомления
     if (window.Android && typeof window.Android.updateLastMsgTs === 'function') {
       try { window.Android.updateLastMsgTs(Date.now()); } catch(_){}
@@ -8194,6 +8608,7 @@ function messengerRenderMessages(animateLast) {
   }).join('');
 
   body.innerHTML = html;
+  _mcHookOlder(body);
   requestAnimationFrame(() => {
     body.scrollTop = body.scrollHeight;
     const atBottom = body.scrollHeight - body.scrollTop - body.clientHeight < 60;
@@ -8212,6 +8627,28 @@ function messengerRenderMessages(animateLast) {
   requestAnimationFrame(_mcAttachAutoplayObserver);
 }
 
+// ── Старые сообщения из SQLite при скролле к началу чата ─────────────────
+function _mcHookOlder(body) {
+  if (body.dataset.olderHooked || !_msgNative()) return;
+  body.dataset.olderHooked = '1';
+  let busy = false;
+  body.addEventListener('scroll', () => {
+    if (busy || body.scrollTop > 60 || !_msgCurrentChat) return;
+    busy = true;
+    const fromBottom = body.scrollHeight - body.scrollTop;
+    if (msgLoadOlder(_msgCurrentChat) > 0) {
+      messengerRenderMessages();
+      // Рендер прокручивает вниз — возвращаем пользователя к тому же сообщению
+      requestAnimationFrame(() => requestAnimationFrame(() => {
+        body.scrollTop = body.scrollHeight - fromBottom;
+        busy = false;
+      }));
+    } else {
+      setTimeout(() => { busy = false; }, 1000);
+    }
+  }, { passive: true });
+}
+
 // ── Автоплей кружков и видео при появлении в viewport ──────────────────────
 let _mcAutoplayObserver = null;
 
@@ -8315,7 +8752,7 @@ function messengerSend() {
   const msgs = msgLoad();
   if (!msgs[_msgCurrentChat]) msgs[_msgCurrentChat] = [];
   msgs[_msgCurrentChat].push(msg);
-  msgSave(msgs);
+  msgSave(msgs, _msgCurrentChat);
   const chats = chatsLoad();
   if (!chats.includes(_msgCurrentChat)) { chats.unshift(_msgCurrentChat); chatsSave(chats); }
   messengerRenderMessages(true); // true = animate last msg
@@ -8339,9 +8776,9 @@ function messengerSend() {
   if (_isGroupSend) {
     groupSendMessage(_msgCurrentChat, text, null, ts).then(() => {
       msg.delivered = true; msg.pending = false;
-      msgSave(msgs); messengerRenderMessages(); _outboxUpdateStatusBar();
+      msgSave(msgs, msg.to); messengerRenderMessages(); _outboxUpdateStatusBar();
     }).catch(() => {
-      msg.pending = true; msgSave(msgs);
+      msg.pending = true; msgSave(msgs, msg.to);
       messengerRenderMessages(); _outboxUpdateStatusBar();
     });
     if (_msgCurrentChat === PUBLIC_GROUP_ID) _publicGroupCooldownSet(p.username);
@@ -8373,13 +8810,13 @@ function messengerSend() {
     sbInsert('messages', outboxItem.data).then(res => {
       if (res) {
         msg.delivered = true; msg.pending = false;
-        msgSave(msgs); messengerRenderMessages(); _outboxUpdateStatusBar();
+        msgSave(msgs, msg.to); messengerRenderMessages(); _outboxUpdateStatusBar();
       } else {
-        msg.pending = true; msgSave(msgs);
+        msg.pending = true; msgSave(msgs, msg.to);
         outboxPush(outboxItem); messengerRenderMessages(); _outboxUpdateStatusBar();
       }
     }).catch(() => {
-      msg.pending = true; msgSave(msgs);
+      msg.pending = true; msgSave(msgs, msg.to);
       outboxPush(outboxItem); messengerRenderMessages(); _outboxUpdateStatusBar();
     });
   };
@@ -8457,7 +8894,7 @@ function mcToggleReaction(idx, emoji) {
   if (me === -1) users.push(p.username);
   else           users.splice(me, 1);
   if (users.length === 0) delete msg.reactions[emoji];
-  msgSave(msgs);
+  msgSave(msgs, _msgCurrentChat);
   messengerRenderMessages();
 
   // Синхронизируем реакцию через служебное сообщение в Supabase
@@ -8922,7 +9359,7 @@ function mcDoForwardMulti(toUsername) {
       ...(orig.image ? { extra: JSON.stringify({ image: orig.image }) } : {}),
     });
   });
-  msgSave(allMsgs);
+  msgSave(allMsgs, toUsername);
   if (!chats.includes(toUsername)) { chats.unshift(toUsername); chatsSave(chats); }
   window._mcPendingFwdMsgs = null;
   toast('↪️ Переслано ' + msgs.length + ' сообщ.');
@@ -8984,7 +9421,7 @@ async function _mcDoDeleteSelected(forAll) {
   // Удаляем с конца чтобы индексы не съезжали
   idxs.forEach(idx => { if (chat[idx]) chat.splice(idx, 1); });
   msgs[_msgCurrentChat] = chat;
-  msgSave(msgs);
+  msgSave(msgs, _msgCurrentChat);
   messengerRenderMessages();
   _mcExitSelectMode();
 
@@ -9234,7 +9671,7 @@ async function mcDeleteMsg(idx, forAll = true) {
 
   // 2. Удаляем локально
   msgs[_msgCurrentChat].splice(idx, 1);
-  msgSave(msgs);
+  msgSave(msgs, _msgCurrentChat);
   messengerRenderMessages();
 
   // 3. Удаляем с сервера (chat_key одинаковый для обоих)
@@ -9320,7 +9757,7 @@ async function mcEnforceMessageLimit(username) {
 
   // Определяем сообщения для удаления (самые старые)
   const toDelete = chat.splice(0, chat.length - MC_MSG_LIMIT);
-  msgSave(msgs);
+  msgSave(msgs, username);
 
   // Удаляем с сервера пакетно по ts
   const p = profileLoad();
@@ -9393,7 +9830,7 @@ function mcDoForward(toUsername) {
   const msgs = msgLoad();
   if (!msgs[toUsername]) msgs[toUsername] = [];
   msgs[toUsername].push(fwd);
-  msgSave(msgs);
+  msgSave(msgs, toUsername);
   const chats = chatsLoad();
   if (!chats.includes(toUsername)) { chats.unshift(toUsername); chatsSave(chats); }
   sbInsert('messages', {
@@ -9809,7 +10246,7 @@ function mcSendSticker(emoji) {
   const msgs = msgLoad();
   if (!msgs[_msgCurrentChat]) msgs[_msgCurrentChat] = [];
   msgs[_msgCurrentChat].push(msg);
-  msgSave(msgs);
+  msgSave(msgs, _msgCurrentChat);
   messengerRenderMessages(true);
   SFX.play && SFX.play('msgSend');
   sbInsert('messages', { chat_key: sbChatKey(p.username, _msgCurrentChat), from_user: p.username, to_user: _msgCurrentChat, text: emoji, ts });
@@ -10444,7 +10881,7 @@ function _mcSendMediaMsg({ url, fileName, fileType, fileSize, duration, thumbDat
   const msgs = msgLoad();
   if (!msgs[_msgCurrentChat]) msgs[_msgCurrentChat] = [];
   msgs[_msgCurrentChat].push(msg);
-  msgSave(msgs);
+  msgSave(msgs, _msgCurrentChat);
   const chats = chatsLoad();
   if (!chats.includes(_msgCurrentChat)) { chats.unshift(_msgCurrentChat); chatsSave(chats); }
   messengerRenderMessages(true);
@@ -10478,14 +10915,14 @@ function _mcSendMediaMsg({ url, fileName, fileType, fileSize, duration, thumbDat
   sbInsert('messages', _mediaOutboxData2).then(res => {
     if (res) {
       msg.delivered = true; msg.pending = false;
-      msgSave(msgs); messengerRenderMessages(); _outboxUpdateStatusBar();
+      msgSave(msgs, msg.to); messengerRenderMessages(); _outboxUpdateStatusBar();
     } else {
-      msg.pending = true; msgSave(msgs);
+      msg.pending = true; msgSave(msgs, msg.to);
       outboxPush(_mediaOutboxItem2);
       messengerRenderMessages(); _outboxUpdateStatusBar();
     }
   }).catch(() => {
-    msg.pending = true; msgSave(msgs);
+    msg.pending = true; msgSave(msgs, msg.to);
     outboxPush(_mediaOutboxItem2);
     messengerRenderMessages(); _outboxUpdateStatusBar();
   });
@@ -11295,7 +11732,7 @@ async function mcSendImage(dataUrl) {
     const msgs = msgLoad();
     if (!msgs[_msgCurrentChat]) msgs[_msgCurrentChat] = [];
     msgs[_msgCurrentChat].push(msg);
-    msgSave(msgs);
+    msgSave(msgs, _msgCurrentChat);
     const chats = chatsLoad();
     if (!chats.includes(_msgCurrentChat)) { chats.unshift(_msgCurrentChat); chatsSave(chats); }
     messengerRenderMessages(true);
@@ -11315,15 +11752,15 @@ async function mcSendImage(dataUrl) {
     sbInsert('messages', _imgData).then(res => {
       if (res) {
         msg.delivered = true; msg.pending = false;
-        msgSave(msgs); messengerRenderMessages();
+        msgSave(msgs, msg.to); messengerRenderMessages();
         _mcHideUploadToast(true); _outboxUpdateStatusBar();
       } else {
-        msg.pending = true; msgSave(msgs);
+        msg.pending = true; msgSave(msgs, msg.to);
         outboxPush(_imgItem);
         messengerRenderMessages(); _mcHideUploadToast(false); _outboxUpdateStatusBar();
       }
     }).catch(() => {
-      msg.pending = true; msgSave(msgs);
+      msg.pending = true; msgSave(msgs, msg.to);
       outboxPush(_imgItem);
       messengerRenderMessages(); _mcHideUploadToast(false); _outboxUpdateStatusBar();
     });
@@ -11408,7 +11845,7 @@ function messengerClearChat(username) {
   if (!confirm('Удалить чат с @' + username + '?')) return;
   const msgs = msgLoad();
   delete msgs[username];
-  msgSave(msgs);
+  msgSave(msgs, username);
   const chats = chatsLoad().filter(u => u !== username);
   chatsSave(chats);
   showScreen('s-messenger', 'back');
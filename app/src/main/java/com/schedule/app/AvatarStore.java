@@ -0,0 +1,348 @@
+package com.schedule.app;
+
+import android.content.Context;
+import android.util.Base64;
+import android.util.LruCache;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Аватары как content-addressed объекты в Supabase Storage.
+ *
+ * Картинка загружается один раз в бакет AVATAR_BUCKET под именем
+ * "{sha256}.{ext}", а в строках users/presence в avatar_data лежит только её
+ * публичный URL (~130 байт вместо десятков КБ base64). Одинаковые картинки
+ * дают один и тот же объект, поэтому повторная загрузка ничего не стоит.
+ *
+ * Клиентский кэш — по хэшу: память (LruCache по байтам) + диск (cacheDir/avatars).
+ * Содержимое объекта по хэшу не меняется никогда, поэтому кэш не устаревает
+ * и сеть нужна только для хэшей, которых клиент ещё не видел.
+ *
+ *   String url   = AvatarStore.get(ctx, log).put(bytes, "image/jpeg");   // не с UI/JavaBridge
+ *   AvatarStore.get(ctx, log).offloadAsync(dataUrl, url -> …);
+ *   byte[] image = AvatarStore.get(ctx, log).load(url);
+ */
+public class AvatarStore {
+
+    private static final String TAG = "AvatarStore";
+
+    public static final String AVATAR_BUCKET = "avatars";
+
+    private static final int  MEMORY_BYTES   = 4 * 1024 * 1024;
+    private static final long DISK_MAX_BYTES = 32L * 1024 * 1024;
+    /** Сколько последних base64 → URL помнить, чтобы heartbeat не хэшировал картинку заново. */
+    private static final int  INLINE_MEMO    = 8;
+
+    private static volatile AvatarStore instance;
+
+    private final SupabaseClient db;
+    private final NetworkStack   net;
+    private final AppLogger      log;
+    private final File           diskDir;
+    private final String         publicPrefix;
+    /**
+     * Хэш, base64 и блокирующая загрузка offloadAsync — на своём потоке, а не в пуле
+     * диспетчера SupabaseClient: загрузка в Storage не занимает слоты запросов.
+     */
+    private final ExecutorService uploader = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "avatar-upload");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final LruCache<String, byte[]> memory = new LruCache<String, byte[]>(MEMORY_BYTES) {
+        @Override
+        protected int sizeOf(String key, byte[] value) {
+            return value.length;
+        }
+    };
+
+    private final Map<String, String> inlineMemo = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > INLINE_MEMO;
+        }
+    };
+
+    // ── Singleton ─────────────────────────────────────────────────────────────
+    public static AvatarStore get(Context ctx, AppLogger log) {
+        if (instance == null) {
+            synchronized (AvatarStore.class) {
+                if (instance == null) instance = new AvatarStore(ctx, log);
+            }
+        }
+        return instance;
+    }
+
+    private AvatarStore(Context ctx, AppLogger log) {
+        this.log          = log;
+        this.db           = SupabaseClient.get(ctx, log);
+        this.net          = NetworkStack.get(ctx, log);
+        this.diskDir      = new File(ctx.getApplicationContext().getCacheDir(), "avatars");
+        this.publicPrefix = SupabaseClient.URL + "/storage/v1/object/public/" + AVATAR_BUCKET + "/";
+        if (!diskDir.exists()) diskDir.mkdirs();
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Загрузка
+    // ════════════════════════════════════════════════════════════════════════
+
+    /**
+     * Положить картинку в Storage под её хэшем.
+     * @return публичный URL объекта или null, если загрузка не удалась
+     */
+    public String put(byte[] bytes, String mimeType) {
+        String hash = sha256(bytes);
+        String name = hash + "." + extOf(mimeType);
+        String url  = publicPrefix + name;
+        // Уже видели этот хэш — значит, объект в Storage есть (мы его загрузили или скачали)
+        if (cachedBytes(hash) != null) return url;
+
+        String res = db.storageUpload(AVATAR_BUCKET, name, bytes, mimeType);
+        // Объект с таким хэшем уже загрузил кто-то другой — это тот же файл
+        if (!SupabaseClient.isOkResult(res) && !res.contains("\"status\":409")
+                && !res.contains("Duplicate") && !res.contains("already exists")) {
+            log.w(TAG, "put ✗ " + name + ": " + res.substring(0, Math.min(res.length(), 160)));
+            return null;
+        }
+        remember(hash, bytes);
+        log.i(TAG, "put ✓ " + name + " (" + bytes.length + " B)");
+        return url;
+    }
+
+    /** Строка avatar_data хранит саму картинку (data:…;base64 или голый base64), а не ссылку. */
+    public static boolean isInline(String avatarData) {
+        return avatarData != null && !avatarData.isEmpty() && !avatarData.startsWith("http");
+    }
+
+    /**
+     * Заменить встроенный base64 на URL content-addressed объекта.
+     * Ссылки и null возвращаются как есть; при ошибке загрузки — null
+     * (вызывающий не пишет avatar_data, на сервере остаётся прежнее значение).
+     */
+    public String offload(String avatarData) {
+        if (!isInline(avatarData)) return avatarData;
+        synchronized (inlineMemo) {
+            String known = inlineMemo.get(avatarData);
+            if (known != null) return known;
+        }
+        String mime = "image/jpeg";
+        String b64  = avatarData;
+        if (avatarData.startsWith("data:")) {
+            int comma = avatarData.indexOf(',');
+            int semi  = avatarData.indexOf(';');
+            if (semi > 5 && semi < comma) mime = avatarData.substring(5, semi);
+            b64 = avatarData.substring(comma + 1);
+        }
+        byte[] bytes;
+        try {
+            bytes = Base64.decode(b64, Base64.DEFAULT);
+        } catch (IllegalArgumentException e) {
+            log.w(TAG, "offload: не base64 (" + e.getMessage() + ")");
+            return null;
+        }
+        String url = put(bytes, mime);
+        if (url != null) {
+            synchronized (inlineMemo) { inlineMemo.put(avatarData, url); }
+        }
+        return url;
+    }
+
+    /** Итог выгрузки: ссылка на объект или null (загрузка не удалась). */
+    public interface UrlCallback {
+        void onUrl(String url);
+    }
+
+    /**
+     * {@link #offload} без блокировки вызывающего: ссылки и уже выгруженные
+     * картинки отвечают сразу на этом же потоке, хэш и загрузка новых идут на
+     * потоке avatar-upload. Для главного и JavaBridge-потока.
+     */
+    public void offloadAsync(String avatarData, UrlCallback cb) {
+        if (!isInline(avatarData)) {
+            cb.onUrl(avatarData);
+            return;
+        }
+        String known;
+        synchronized (inlineMemo) { known = inlineMemo.get(avatarData); }
+        if (known != null) {
+            cb.onUrl(known);
+            return;
+        }
+        uploader.execute(() -> cb.onUrl(offload(avatarData)));
+    }
+
+    /**
+     * {@link #offloadField} без блокировки: если картинку ещё надо загружать,
+     * поле убирается из записи сразу (строка уходит без него), а ссылка
+     * приходит в cb после загрузки — только при успехе, с потока загрузки.
+     * @return true — ссылку допишет cb
+     */
+    public boolean offloadFieldAsync(JSONObject row, UrlCallback cb) {
+        String data = row.optString("avatar_data", null);
+        if (!isInline(data)) return false;
+        String known;
+        synchronized (inlineMemo) { known = inlineMemo.get(data); }
+        try {
+            if (known != null) {
+                row.put("avatar_data", known);
+                return false;
+            }
+        } catch (JSONException e) {
+            row.remove("avatar_data");
+            return false;
+        }
+        row.remove("avatar_data");
+        offloadAsync(data, url -> { if (url != null) cb.onUrl(url); });
+        return true;
+    }
+
+    /**
+     * Поле avatar_data записи users/presence → ссылка на объект.
+     * Если загрузить не вышло, поле убирается из записи: upsert/PATCH его не тронет.
+     */
+    public void offloadField(JSONObject row) {
+        String data = row.optString("avatar_data", null);
+        if (!isInline(data)) return;
+        String url = offload(data);
+        try {
+            if (url != null) row.put("avatar_data", url);
+            else row.remove("avatar_data");
+        } catch (JSONException e) {
+            row.remove("avatar_data");
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Чтение
+    // ════════════════════════════════════════════════════════════════════════
+
+    /** Хэш из URL content-addressed объекта или null, если это посторонняя ссылка. */
+    public String hashOf(String url) {
+        if (url == null || !url.startsWith(publicPrefix)) return null;
+        String name = url.substring(publicPrefix.length());
+        int dot = name.indexOf('.');
+        String hash = dot > 0 ? name.substring(0, dot) : name;
+        return hash.length() == 64 ? hash : null;
+    }
+
+    /** Только кэш в памяти — можно звать с главного потока (первый кадр без мигания). */
+    public byte[] peek(String url) {
+        String hash = hashOf(url);
+        return hash != null ? memory.get(hash) : null;
+    }
+
+    /**
+     * Байты аватара по URL: память → диск → сеть (только для новых хэшей).
+     * Блокирующий вызов — не с главного потока. null — не удалось скачать.
+     */
+    public byte[] load(String url) {
+        String hash = hashOf(url);
+        if (hash == null) return null;
+        byte[] bytes = cachedBytes(hash);
+        if (bytes != null) return bytes;
+
+        Request req = new Request.Builder().url(url).build();
+        try (Response resp = net.client(NetworkStack.Purpose.TRANSFER)
+                .newCall(req).execute()) {
+            if (!resp.isSuccessful() || resp.body() == null) {
+                log.w(TAG, "load ✗ " + hash.substring(0, 12) + " HTTP " + resp.code());
+                return null;
+            }
+            bytes = resp.body().bytes();
+        } catch (Exception e) {
+            log.w(TAG, "load ✗ " + hash.substring(0, 12) + ": " + e.getMessage());
+            return null;
+        }
+        remember(hash, bytes);
+        return bytes;
+    }
+
+    // ── Кэш ───────────────────────────────────────────────────────────────────
+
+    private byte[] cachedBytes(String hash) {
+        byte[] bytes = memory.get(hash);
+        if (bytes != null) return bytes;
+        File f = new File(diskDir, hash);
+        if (!f.exists()) return null;
+        try (FileInputStream in = new FileInputStream(f)) {
+            bytes = new byte[(int) f.length()];
+            int off = 0, n;
+            while (off < bytes.length && (n = in.read(bytes, off, bytes.length - off)) > 0) off += n;
+            if (off != bytes.length) return null;
+            f.setLastModified(System.currentTimeMillis());
+            memory.put(hash, bytes);
+            return bytes;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private void remember(String hash, byte[] bytes) {
+        memory.put(hash, bytes);
+        File f   = new File(diskDir, hash);
+        File tmp = new File(diskDir, hash + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(bytes);
+        } catch (Exception e) {
+            log.w(TAG, "disk write ✗ " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(f)) tmp.delete();
+        trimDisk();
+    }
+
+    /** Самые давно использованные файлы уходят первыми. */
+    private void trimDisk() {
+        File[] files = diskDir.listFiles();
+        if (files == null) return;
+        long total = 0;
+        for (File f : files) total += f.length();
+        if (total <= DISK_MAX_BYTES) return;
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File f : files) {
+            if (total <= DISK_MAX_BYTES) break;
+            total -= f.length();
+            f.delete();
+        }
+    }
+
+    // ── Внутреннее ────────────────────────────────────────────────────────────
+
+    private static String extOf(String mimeType) {
+        if (mimeType == null) return "jpg";
+        switch (mimeType.toLowerCase(Locale.ROOT)) {
+            case "image/png":  return "png";
+            case "image/gif":  return "gif";
+            case "image/webp": return "webp";
+            default:           return "jpg";
+        }
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder sb = new StringBuilder(d.length * 2);
+            for (byte b : d) sb.append(String.format(Locale.ROOT, "%02x", b));
+            return sb.toString();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
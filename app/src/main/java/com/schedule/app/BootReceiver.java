@@ -8,7 +8,7 @@ import android.os.Build;
 import android.util.Log;
 
 /**
- * Получает BOOT_COMPLETED и запускает фоновый сервис если он был включён.
+ * Получает BOOT_COMPLETED: ставит фоновый синк входящих если он был включён.
  */
 public class BootReceiver extends BroadcastReceiver {
     @Override
@@ -16,20 +16,18 @@ public class BootReceiver extends BroadcastReceiver {
         if (!Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction()) &&
             !"android.intent.action.QUICKBOOT_POWERON".equals(intent.getAction())) return;
 
-        SharedPreferences prefs = context.getSharedPreferences("sapp_prefs", Context.MODE_PRIVATE);
-        boolean bgEnabled = prefs.getBoolean(MessagingForegroundService.PREF_BG_ENABLED, false);
-        String  username  = prefs.getString(MessagingForegroundService.PREF_SB_USER, "");
+        // Периодический job и так переживает перезагрузку (setPersisted) —
+        // здесь только подстраховка и внеочередной синк после включения
+        SharedPreferences prefs = context.getSharedPreferences(InboxSyncEngine.PREFS, Context.MODE_PRIVATE);
+        boolean bgEnabled = prefs.getBoolean(InboxSyncJobService.PREF_BG_ENABLED, false);
+        String  username  = prefs.getString(InboxSyncEngine.KEY_USER, "");
 
         if (bgEnabled && username != null && !username.isEmpty()) {
-            Log.i("BootReceiver", "Boot complete — запускаю BgService для @" + username);
-            Intent svcIntent = new Intent(context, MessagingForegroundService.class);
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                context.startForegroundService(svcIntent);
-            } else {
-                context.startService(svcIntent);
-            }
+            Log.i("BootReceiver", "Boot complete — ставлю фоновый синк для @" + username);
+            InboxSyncJobService.schedule(context);
+            InboxSyncJobService.runSoon(context, 0);
         } else {
-            Log.i("BootReceiver", "Boot complete — BgService отключён, пропускаю");
+            Log.i("BootReceiver", "Boot complete — фоновый синк отключён, пропускаю");
         }
 
         // ── Джарвис: голосовой режим (Протокол Астра) ─────────────────────────
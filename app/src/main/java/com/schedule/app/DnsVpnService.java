@@ -92,10 +92,8 @@ public class DnsVpnService extends VpnService {
         createNotificationChannel();
         startForeground(NOTIF_ID, buildNotification("Активен • " + getDnsLabel()));
 
-        httpClient = new OkHttpClient.Builder()
-            .connectTimeout(5, java.util.concurrent.TimeUnit.SECONDS)
-            .readTimeout(5, java.util.concurrent.TimeUnit.SECONDS)
-            .build();
+        // DoH-сервер держит keep-alive: общий пул не открывает TLS на каждый DNS-запрос
+        httpClient = NetworkStack.get(this, AppLogger.get(this)).client(NetworkStack.Purpose.DNS);
 
         try {
             // Создать TUN интерфейс
@@ -0,0 +1,120 @@
+package com.schedule.app;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.os.Build;
+
+import androidx.core.app.NotificationCompat;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Системные уведомления о входящих — подписчик InboxSyncEngine.
+ * Одно уведомление на чат (новое заменяет старое); пока приложение
+ * на экране, уведомления не показываются — сообщения видны в UI.
+ */
+final class InboxNotifier implements InboxSyncEngine.Listener {
+
+    private static final String TAG        = "InboxNotifier";
+    static final String         CHANNEL_ID = "sapp_messages";
+    /** Чаты без уведомлений, через запятую (username или id группы). */
+    static final String         KEY_MUTED  = "push_muted";
+    /** Диапазон id уведомлений чатов: NOTIF_BASE…NOTIF_BASE+999, ни с кем в приложении не пересекается. */
+    private static final int    NOTIF_BASE = 20_000;
+
+    private final Context           ctx;
+    private final AppLogger         log;
+    private final InboxSyncEngine   engine;
+    private final SharedPreferences prefs;
+
+    InboxNotifier(Context ctx, AppLogger log, InboxSyncEngine engine) {
+        this.ctx    = ctx;
+        this.log    = log;
+        this.engine = engine;
+        this.prefs  = ctx.getSharedPreferences(InboxSyncEngine.PREFS, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public void onMessages(List<InboxSyncEngine.Message> messages) {
+        if (engine.isAppVisible()) return;
+        NotificationManager nm = (NotificationManager) ctx.getSystemService(Context.NOTIFICATION_SERVICE);
+        if (nm == null) return;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                && ctx.checkSelfPermission(android.Manifest.permission.POST_NOTIFICATIONS)
+                    != PackageManager.PERMISSION_GRANTED) return;
+        ensureChannel(nm);
+
+        Set<String> muted = new HashSet<>();
+        String mutedRaw = prefs.getString(KEY_MUTED, "");
+        if (mutedRaw != null && !mutedRaw.isEmpty()) {
+            for (String m : mutedRaw.split(",")) muted.add(m.trim());
+        }
+
+        // Личные — по отправителю, групповые — по группе + отправителю
+        Map<String, List<InboxSyncEngine.Message>> byChat = new LinkedHashMap<>();
+        for (InboxSyncEngine.Message m : messages) {
+            if (m.service) continue;
+            if (muted.contains(m.isGroup() ? m.groupId : m.from)) continue;
+            String key = m.isGroup() ? "grp:" + m.groupId + ":" + m.from : m.from;
+            List<InboxSyncEngine.Message> list = byChat.get(key);
+            if (list == null) byChat.put(key, list = new ArrayList<>());
+            list.add(m);
+        }
+
+        for (Map.Entry<String, List<InboxSyncEngine.Message>> e : byChat.entrySet()) {
+            List<InboxSyncEngine.Message> list = e.getValue();
+            InboxSyncEngine.Message last = list.get(list.size() - 1);
+            String preview = list.size() == 1 ? last.preview : list.size() + " новых сообщений";
+            if (preview.length() > 100) preview = preview.substring(0, 97) + "…";
+            String title  = last.isGroup() ? "@" + last.from + " в группе " + last.groupId : "@" + last.from;
+            String chatId = last.isGroup() ? last.groupId : last.from;
+
+            // Тап открывает конкретный чат — MainActivity.onNewIntent
+            Intent tap = new Intent(ctx, MainActivity.class);
+            tap.setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP | Intent.FLAG_ACTIVITY_CLEAR_TOP
+                    | Intent.FLAG_ACTIVITY_NEW_TASK);
+            tap.putExtra("open_chat", chatId);
+            int piFlags = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                ? PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+                : PendingIntent.FLAG_UPDATE_CURRENT;
+            PendingIntent pi = PendingIntent.getActivity(ctx, Math.abs(e.getKey().hashCode()), tap, piFlags);
+
+            NotificationCompat.Builder nb = new NotificationCompat.Builder(ctx, CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.ic_dialog_email)
+                .setContentTitle(title)
+                .setContentText(preview)
+                .setStyle(new NotificationCompat.BigTextStyle().bigText(preview))
+                .setPriority(NotificationCompat.PRIORITY_HIGH)
+                .setCategory(NotificationCompat.CATEGORY_MESSAGE)
+                .setAutoCancel(true)
+                .setContentIntent(pi)
+                .setVibrate(new long[]{0, 200, 80, 200})
+                .setDefaults(NotificationCompat.DEFAULT_SOUND)
+                .setGroup("sapp_msg_group");
+            // Стабильный ID по чату: одно уведомление на собеседника/группу
+            nm.notify(NOTIF_BASE + Math.abs(e.getKey().hashCode() % 1000), nb.build());
+            log.i(TAG, "push ▸ " + title + " (" + list.size() + " сообщ.)");
+        }
+    }
+
+    private static void ensureChannel(NotificationManager nm) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) return;
+        if (nm.getNotificationChannel(CHANNEL_ID) != null) return;
+        NotificationChannel ch = new NotificationChannel(
+            CHANNEL_ID, "Сообщения", NotificationManager.IMPORTANCE_HIGH);
+        ch.setDescription("Входящие сообщения в чате");
+        ch.enableVibration(true);
+        ch.setVibrationPattern(new long[]{0, 200, 80, 200});
+        nm.createNotificationChannel(ch);
+    }
+}
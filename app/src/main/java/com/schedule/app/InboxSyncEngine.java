@@ -0,0 +1,791 @@
+package com.schedule.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Единый фоновый синк входящих сообщений.
+ *
+ * Раньше старый поллер, фоновый сервис и MainActivity
+ * опрашивали messages каждый по своему таймеру и со своим курсором
+ * (push_last_ts / sb_last_notif_ts), у каждого была своя копия превью и
+ * уведомлений — при одновременной работе одни и те же строки тянулись
+ * два-три раза, а уведомление могло прийти дважды.
+ *
+ * Теперь курсор один (KEY_CURSOR/KEY_CURSOR_ID), запросы идут с одного потока
+ * одним RPC inbox_since на личные и все группы сразу, и каждая строка
+ * публикуется подписчикам ровно один раз:
+ *
+ *   engine.acquire("activity", 2_000);     // компонент жив — нужен опрос не реже 2 с
+ *   engine.addListener(msgs -> …);         // уведомления, UI, JS
+ *   engine.release("activity");            // никого не осталось — таймер и Realtime стоят
+ *
+ * Курсор синка — для уведомлений: фоновый заход двигает его, даже когда
+ * WebView нет. Поэтому у JS свой курсор данных (KEY_DATA_CURSOR): JS
+ * подтверждает обработанное (ackData), а на старте replay() дочитывает всё,
+ * что пришло, пока приложение было закрыто. Оба курсора сдвигаются на
+ * «сейчас» только при смене аккаунта (setUser).
+ *
+ * Базовый интервал — минимальный из запрошенных владельцами; фактическую
+ * задержку считает PollScheduler: короче сразу после переписки, длиннее с
+ * каждым пустым опросом и в Doze/энергосбережении, пауза без сети. Пока
+ * Realtime-канал жив, опрос только страховочный (не чаще LIVE_SAFETY_MS),
+ * а INSERT и переподписка после обрыва запускают синк сразу.
+ */
+public class InboxSyncEngine {
+
+    private static final String TAG = "InboxSync";
+
+    static final String PREFS          = "schedule_prefs";
+    /** Единый курсор: (ts, id) последней обработанной входящей строки. */
+    static final String KEY_CURSOR     = "sb_last_notif_ts";
+    static final String KEY_CURSOR_ID  = "sb_last_notif_id";
+    static final String KEY_USER       = "sb_username";
+    /** Курсор данных JS: (ts, id) последней строки, которую JS обработал и подтвердил. */
+    static final String KEY_DATA_CURSOR    = "sb_inbox_data_ts";
+    static final String KEY_DATA_CURSOR_ID = "sb_inbox_data_id";
+    /** Чьи курсоры: при другом имени в setUser оба сдвигаются на «сейчас». */
+    static final String KEY_CURSOR_USER    = "sb_cursor_user";
+    /** Курсор реакций/"прочитано" — серверный updated_at из message_events. */
+    static final String KEY_EVENTS     = "sb_events_updated_at";
+    /** Курсор и имя старого поллера (push_*) — читаются один раз при миграции. */
+    private static final String LEGACY_CURSOR = "push_last_ts";
+    private static final String LEGACY_USER   = "push_username";
+
+    private static final int  PAGE_LIMIT     = 50;
+    /** Сколько страниц дочитывать за один синк после долгого офлайна. */
+    private static final int  MAX_PAGES      = 4;
+    /** Сколько страниц replay() отдаёт JS за раз; остальное — следующим replay. */
+    private static final int  REPLAY_PAGES   = 20;
+    private static final int  EVENTS_LIMIT   = 200;
+    /** Без курсора (первый запуск) — не уведомляем о том, что старше минуты. */
+    private static final long FIRST_RUN_BACK_MS = 60_000L;
+    private static final long LIVE_SAFETY_MS = 60_000L;
+    /** id уже опубликованных строк — защита от повторной публикации при откате курсора. */
+    private static final int  SEEN_IDS       = 512;
+
+    // ── Модель ────────────────────────────────────────────────────────────────
+
+    /**
+     * Входящее сообщение, уже разобранное для подписчиков. Собирается прямо из
+     * потока ответа (RowReader) — только нужные колонки, без JSONObject на строку.
+     */
+    public static final class Message {
+        public final long       id;
+        public final String     from;
+        public final String     to;
+        public final String     chatKey;
+        /** id группы для групповых сообщений, иначе null. */
+        public final String     groupId;
+        public final long       ts;
+        public final String     text;
+        public final String     extra;
+        public final String     sticker;
+        /** Реакция или квитанция о прочтении — нужна UI/JS, но не уведомлению. */
+        public final boolean    service;
+        /** Короткий текст для уведомления/списка: медиа, стикеры и шифр — значком. */
+        public final String     preview;
+        /** Строка уже публиковалась — прочитаны только id и ts (для курсора). */
+        final boolean           seen;
+
+        Message(long id, String from, String to, String chatKey, long ts,
+                String text, String extra, String sticker, boolean seen) {
+            this.id      = id;
+            this.from    = from != null ? from : "?";
+            this.to      = to != null ? to : "";
+            this.chatKey = chatKey != null ? chatKey : "";
+            this.ts      = ts;
+            this.text    = text != null ? text : "";
+            this.extra   = extra != null ? extra : "";
+            this.sticker = sticker != null ? sticker : "";
+            this.seen    = seen;
+            this.groupId = this.chatKey.startsWith("group_") ? this.chatKey.substring(6) : null;
+            this.service = !seen && isServiceExtra(this.extra);
+            this.preview = seen || service ? "" : previewOf(this.text, this.extra, this.sticker);
+        }
+
+        public boolean isGroup() { return groupId != null; }
+
+        /** Строка в формате messages (те же имена колонок) — для JS; собирается по запросу. */
+        public JSONObject row() {
+            JSONObject o = new JSONObject();
+            try {
+                o.put("id",        id);
+                o.put("from_user", from);
+                o.put("to_user",   to);
+                o.put("chat_key",  chatKey);
+                o.put("ts",        ts);
+                o.put("text",      text);
+                if (!extra.isEmpty())   o.put("extra",   extra);
+                if (!sticker.isEmpty()) o.put("sticker", sticker);
+            } catch (JSONException ignored) {}
+            return o;
+        }
+    }
+
+    public interface Listener {
+        /** Вызывается на потоке синка; новые строки в порядке (ts, id). */
+        void onMessages(List<Message> messages);
+    }
+
+    // ── Состояние ─────────────────────────────────────────────────────────────
+
+    private static volatile InboxSyncEngine instance;
+
+    private final Context           ctx;
+    private final AppLogger         log;
+    private final SharedPreferences prefs;
+    private final SupabaseHelper    helper;
+    private final PollScheduler     scheduler;
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "inbox-sync");
+        t.setDaemon(true);
+        return t;
+    });
+    private final List<Listener>    listeners = new CopyOnWriteArrayList<>();
+    /** владелец → желаемый интервал опроса, мс */
+    private final Map<String, Long> owners    = new HashMap<>();
+    private final AtomicBoolean     syncQueued = new AtomicBoolean();
+    private final RowReader         rowReader = new RowReader(true);
+    /** Для replay: строки уже публиковались синком, но JS их не видел — читаем целиком. */
+    private final RowReader         replayReader = new RowReader(false);
+    private final EventReader       eventReader = new EventReader();
+    private final Map<Long, Boolean> seenIds  = Collections.synchronizedMap(
+        new LinkedHashMap<Long, Boolean>(64, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                return size() > SEEN_IDS;
+            }
+        });
+
+    private ScheduledFuture<?> tickFuture;
+    private long               baseIntervalMs;
+    /** Последняя назначенная задержка; -1 — пауза (нет сети). */
+    private long               nextDelayMs;
+    private volatile boolean   appVisible;
+    /** RPC inbox_since ещё не создан на сервере — работаем через or=-фильтр. */
+    private volatile boolean   rpcMissing;
+    /** Таблицы message_events нет — реакции и "прочитано" приходят строками messages. */
+    private volatile boolean   eventsMissing;
+
+    // Realtime — только пока есть владельцы
+    private final List<SupabaseRealtime.Subscription> subs = new ArrayList<>();
+    private String subsKey = "";
+
+    // Счётчики
+    private volatile long syncs, requests, rows, published;
+
+    // ── Singleton ─────────────────────────────────────────────────────────────
+    public static InboxSyncEngine get(Context ctx, AppLogger log) {
+        if (instance == null) {
+            synchronized (InboxSyncEngine.class) {
+                if (instance == null) instance = new InboxSyncEngine(ctx, log);
+            }
+        }
+        return instance;
+    }
+
+    private InboxSyncEngine(Context ctx, AppLogger log) {
+        this.ctx   = ctx.getApplicationContext();
+        this.log   = log;
+        this.prefs  = this.ctx.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        this.helper    = SupabaseHelper.get(this.ctx, log);
+        this.scheduler = PollScheduler.get(this.ctx, log);
+        migrateLegacyCursor();
+        // Сеть вернулась / вышли из Doze — не ждём назначенного тика
+        scheduler.addResumeListener(() -> { if (hasOwners()) requestSync(); });
+        // Уведомления — обычный подписчик, один на процесс
+        listeners.add(new InboxNotifier(this.ctx, log, this));
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Подписчики и расписание
+    // ════════════════════════════════════════════════════════════════════════
+
+    public void addListener(Listener l)    { if (!listeners.contains(l)) listeners.add(l); }
+    public void removeListener(Listener l) { listeners.remove(l); }
+
+    /**
+     * Компонент хочет получать сообщения с опросом не реже intervalMs.
+     * Повторный acquire того же владельца меняет его интервал.
+     */
+    public synchronized void acquire(String owner, long intervalMs) {
+        owners.put(owner, intervalMs);
+        log.i(TAG, "acquire ▸ " + owner + " " + intervalMs + "мс, владельцев: " + owners.size());
+        reschedule(true);
+    }
+
+    public synchronized void release(String owner) {
+        if (owners.remove(owner) == null) return;
+        log.i(TAG, "release ▸ " + owner + ", владельцев: " + owners.size());
+        reschedule(false);
+    }
+
+    /** Синк как можно скорее; параллельные запросы склеиваются в один. */
+    public void requestSync() {
+        if (syncQueued.compareAndSet(false, true)) {
+            worker.execute(() -> {
+                syncQueued.set(false);
+                syncOnce();
+            });
+        }
+    }
+
+    /**
+     * Один синк для фонового захода (InboxSyncJobService): без владельцев
+     * таймер не взводится, onDone вызывается на потоке worker после синка.
+     */
+    public void syncNow(Runnable onDone) {
+        worker.execute(() -> {
+            try {
+                syncOnce();
+            } finally {
+                onDone.run();
+            }
+        });
+    }
+
+    /**
+     * Пользователь отправил сообщение / открыл чат: ответ скорее всего скоро —
+     * сбросить откат интервала и перепланировать ближайший тик.
+     */
+    public void noteChatActivity() {
+        scheduler.noteActivity();
+        scheduleNext();
+    }
+
+    /** Активити на экране: сообщения показывает UI, системные уведомления не нужны. */
+    public void setAppVisible(boolean visible) { appVisible = visible; }
+    public boolean isAppVisible()               { return appVisible; }
+
+    /**
+     * Вход под username (каждый старт и каждый логин). Курсоры сдвигаются на
+     * «сейчас» только при смене аккаунта — иначе то, что пришло, пока
+     * приложение было закрыто, для JS терялось бы.
+     */
+    public void setUser(String username) {
+        String user  = username != null ? username : "";
+        // Без KEY_CURSOR_USER (обновление приложения) курсоры принадлежат текущему имени
+        String owner = prefs.getString(KEY_CURSOR_USER, currentUser());
+        SharedPreferences.Editor ed = prefs.edit().putString(KEY_USER, user);
+        if (!user.equals(owner)) {
+            long now = System.currentTimeMillis();
+            ed.putLong(KEY_CURSOR, now).putLong(KEY_CURSOR_ID, 0)
+              .putLong(KEY_DATA_CURSOR, now).putLong(KEY_DATA_CURSOR_ID, 0);
+            seenIds.clear();
+            log.i(TAG, "setUser ▸ смена аккаунта " + owner + " → " + user + ", курсоры → сейчас");
+        }
+        ed.putString(KEY_CURSOR_USER, user).apply();
+    }
+
+    /**
+     * Отдать l всё новее курсора данных JS (личные и группы, постранично) —
+     * то, что синк уже видел без WebView. Курсор не двигается: его сдвигает
+     * ackData(), когда JS обработал строки. l вызывается на потоке worker.
+     */
+    public void replay(Listener l) {
+        worker.execute(() -> {
+            String username = currentUser();
+            if (username.isEmpty() || !scheduler.isOnline()) return;
+            long ts = prefs.getLong(KEY_DATA_CURSOR, 0);
+            long id = prefs.getLong(KEY_DATA_CURSOR_ID, 0);
+            if (ts == 0) {
+                // Курсора данных ещё не было — JS видел столько же, сколько уведомления
+                ts = prefs.getLong(KEY_CURSOR, 0);
+                id = prefs.getLong(KEY_CURSOR_ID, 0);
+            }
+            if (ts == 0) return;
+            List<String> groupIds = groupIds(username);
+            List<Message> all = new ArrayList<>();
+            try {
+                for (int page = 0; page < REPLAY_PAGES; page++) {
+                    List<Message> batch = fetch(username, groupIds, ts, id, replayReader);
+                    if (batch == null || batch.isEmpty()) break;
+                    all.addAll(batch);
+                    Message last = batch.get(batch.size() - 1);
+                    ts = last.ts;
+                    id = last.id;
+                    if (batch.size() < PAGE_LIMIT) break;
+                }
+            } catch (Exception e) {
+                log.w(TAG, "replay ✗ " + e.getMessage());
+            }
+            if (all.isEmpty()) return;
+            log.i(TAG, "replay ✓ " + all.size() + " строк до " + ts);
+            try {
+                l.onMessages(Collections.unmodifiableList(all));
+            } catch (Exception e) {
+                log.w(TAG, "replay listener ✗ " + e.getMessage());
+            }
+        });
+    }
+
+    /** JS обработал строки до (ts, id) включительно; курсор данных только растёт. */
+    public void ackData(long ts, long id) {
+        worker.execute(() -> {
+            long curTs = prefs.getLong(KEY_DATA_CURSOR, 0);
+            long curId = prefs.getLong(KEY_DATA_CURSOR_ID, 0);
+            if (SupabaseHelper.keysetAfter(ts, id, curTs, curId)) {
+                prefs.edit().putLong(KEY_DATA_CURSOR, ts).putLong(KEY_DATA_CURSOR_ID, id).apply();
+            }
+        });
+    }
+
+    public long getCursor() { return prefs.getLong(KEY_CURSOR, 0); }
+
+    public synchronized JSONObject stats() {
+        JSONObject o = new JSONObject();
+        try {
+            o.put("owners",      new JSONArray(owners.keySet()));
+            o.put("baseMs",      baseIntervalMs);
+            o.put("nextMs",      nextDelayMs);
+            o.put("realtime",    realtimeLive());
+            o.put("cursor",      getCursor());
+            o.put("dataCursor",  prefs.getLong(KEY_DATA_CURSOR, 0));
+            o.put("syncs",       syncs);
+            o.put("requests",    requests);
+            o.put("rows",        rows);
+            o.put("published",   published);
+            o.put("rpc",         !rpcMissing);
+            o.put("events",      !eventsMissing);
+            o.put("scheduler",   scheduler.stats());
+        } catch (JSONException ignored) {}
+        return o;
+    }
+
+    private synchronized boolean hasOwners() { return !owners.isEmpty(); }
+
+    private void reschedule(boolean syncNow) {
+        long base = Long.MAX_VALUE;
+        for (long v : owners.values()) base = Math.min(base, v);
+        baseIntervalMs = owners.isEmpty() ? 0 : base;
+        if (owners.isEmpty()) closeRealtime();
+        // Синк сам назначит следующий тик; без синка — пересчитать задержку сейчас
+        if (syncNow) requestSync();
+        else scheduleNext();
+    }
+
+    /** Следующий синк через задержку от PollScheduler; без сети — ждём onResume. */
+    private synchronized void scheduleNext() {
+        if (tickFuture != null) tickFuture.cancel(false);
+        tickFuture = null;
+        if (owners.isEmpty()) return;
+        ensureRealtime();
+        long delay = scheduler.delayFor(baseIntervalMs);
+        if (delay >= 0 && realtimeLive()) delay = Math.max(delay, LIVE_SAFETY_MS);
+        nextDelayMs = delay;
+        if (delay < 0) return;
+        tickFuture = worker.schedule(this::syncOnce, delay, TimeUnit.MILLISECONDS);
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Синк
+    // ════════════════════════════════════════════════════════════════════════
+
+    /** Только на потоке worker — поэтому курсор читается и пишется без гонок. */
+    private void syncOnce() {
+        try {
+            boolean gotNew = syncInbox();
+            scheduler.onPollResult(gotNew);
+        } finally {
+            scheduleNext();
+        }
+    }
+
+    /** @return были ли новые сообщения (не служебные) */
+    private boolean syncInbox() {
+        String username = currentUser();
+        if (username.isEmpty() || !scheduler.isOnline()) return false;
+        syncs++;
+
+        List<String> groupIds = groupIds(username);
+        long cursorTs = prefs.getLong(KEY_CURSOR, 0);
+        long cursorId = prefs.getLong(KEY_CURSOR_ID, 0);
+        if (cursorTs == 0) cursorTs = System.currentTimeMillis() - FIRST_RUN_BACK_MS;
+
+        List<Message> fresh = new ArrayList<>();
+        long maxTs = cursorTs, maxId = cursorId;
+        try {
+            for (int page = 0; page < MAX_PAGES; page++) {
+                List<Message> batch = fetch(username, groupIds, maxTs, maxId, rowReader);
+                if (batch == null) break;
+                for (Message m : batch) {
+                    // Строки по возрастанию (ts, id) — последняя и есть новый курсор
+                    if (SupabaseHelper.keysetAfter(m.ts, m.id, maxTs, maxId)) { maxTs = m.ts; maxId = m.id; }
+                    if (m.seen || (m.id != 0 && seenIds.put(m.id, Boolean.TRUE) != null)) continue;
+                    fresh.add(m);
+                }
+                rows += batch.size();
+                if (batch.size() < PAGE_LIMIT) break;
+            }
+        } catch (Exception e) {
+            log.w(TAG, "sync ✗ " + e.getMessage());
+        }
+
+        if (maxTs != cursorTs || maxId != cursorId) {
+            prefs.edit().putLong(KEY_CURSOR, maxTs).putLong(KEY_CURSOR_ID, maxId).apply();
+        }
+        fresh.addAll(fetchEvents(username));
+        if (fresh.isEmpty()) return false;
+
+        published += fresh.size();
+        log.i(TAG, "sync ✓ " + fresh.size() + " новых, курсор → " + maxTs);
+        List<Message> view = Collections.unmodifiableList(fresh);
+        for (Listener l : listeners) {
+            try {
+                l.onMessages(view);
+            } catch (Exception e) {
+                log.w(TAG, "listener ✗ " + e.getMessage());
+            }
+        }
+        for (Message m : fresh) if (!m.service) return true;
+        return false;
+    }
+
+    /**
+     * Личные и групповые новее курсора (ts, id) одним запросом — RPC inbox_since.
+     * null — сеть/HTTP-ошибка (курсор не двигаем).
+     */
+    private List<Message> fetch(String username, List<String> groupIds,
+                                long sinceTs, long sinceId, RowReader reader) throws Exception {
+        if (!rpcMissing) {
+            requests++;
+            SupabaseResponse<Message> res =
+                helper.inboxSinceRows(username, groupIds, sinceTs, sinceId, PAGE_LIMIT, reader);
+            if (res.ok) return res.rows;
+            // PGRST202 — функции нет (миграция supabase_migration_inbox.sql не применена)
+            if (res.status != 404 && !String.valueOf(res.error).contains("PGRST202")) {
+                log.w(TAG, "inbox_since ✗ HTTP " + res.status);
+                return null;
+            }
+            rpcMissing = true;
+            log.w(TAG, "inbox_since нет на сервере — опрос через or=-фильтр");
+        }
+        return fetchFiltered(username, groupIds, sinceTs, reader);
+    }
+
+    /**
+     * Запасной путь без RPC: to_user = я, или broadcast в моих группах не от меня.
+     * Курсор только по ts — строки с тем же ts на границе страницы возможно пропустить.
+     */
+    private List<Message> fetchFiltered(String username, List<String> groupIds, long sinceTs,
+                                        RowReader reader) throws Exception {
+        String me = pgQuote(username);
+        String filter = "to_user.eq." + me;
+        if (!groupIds.isEmpty()) {
+            StringBuilder keys = new StringBuilder();
+            for (String g : groupIds) {
+                if (keys.length() > 0) keys.append(',');
+                keys.append(pgQuote("group_" + g));
+            }
+            filter += ",and(to_user.eq.__broadcast__,chat_key.in.(" + keys + "),from_user.neq." + me + ")";
+        }
+        HttpUrl url = HttpUrl.get(SupabaseClient.URL + "/rest/v1/messages").newBuilder()
+            .addQueryParameter("select", "*")
+            .addQueryParameter("or", "(" + filter + ")")
+            .addQueryParameter("ts", "gt." + sinceTs)
+            .addQueryParameter("order", "ts.asc,id.asc")
+            .addQueryParameter("limit", String.valueOf(PAGE_LIMIT))
+            .build();
+        Request req = new Request.Builder()
+            .url(url)
+            .header("apikey",        SupabaseClient.ANON_KEY)
+            .header("Authorization", "Bearer " + SupabaseClient.ANON_KEY)
+            .header("Accept",        "application/json")
+            .build();
+
+        requests++;
+        // Фоновый путь — мимо пользовательского прокси, как и прежние поллеры
+        try (Response resp = NetworkStack.get(ctx, log)
+                .client(NetworkStack.Purpose.POLL, Proxy.NO_PROXY)
+                .newCall(req).execute()) {
+            if (resp.code() != 200 || resp.body() == null) {
+                log.w(TAG, "fetch ✗ HTTP " + resp.code());
+                return null;
+            }
+            // Из сокета сразу в Message — тело целиком в строку не читаем
+            try (JsonReader jr = new JsonReader(
+                    new InputStreamReader(resp.body().byteStream(), StandardCharsets.UTF_8))) {
+                return SupabaseResponse.readRows(jr, reader);
+            }
+        }
+    }
+
+    /**
+     * Реакции и "прочитано" новее курсора — по строке на сообщение/читателя.
+     * Отдаются подписчикам в прежнем виде (служебная строка с extra.type),
+     * поэтому JS и уведомления обрабатывают их как раньше.
+     */
+    private List<Message> fetchEvents(String username) {
+        if (eventsMissing) return Collections.emptyList();
+        long since = prefs.getLong(KEY_EVENTS, 0);
+        // Дельта только живая: события старых сообщений JS забирает по чату при его открытии
+        if (since == 0) since = System.currentTimeMillis() - FIRST_RUN_BACK_MS;
+        requests++;
+        eventReader.maxUpdatedAt = since;
+        SupabaseResponse<Message> res = helper.messageEventsSince(username, since, EVENTS_LIMIT, eventReader);
+        if (!res.ok) {
+            // PGRST205 / 42P01 — таблицы нет (supabase_migration_message_events.sql не применена)
+            String err = String.valueOf(res.error);
+            if (res.status == 404 || err.contains("PGRST205") || err.contains("42P01")) {
+                eventsMissing = true;
+                log.w(TAG, "message_events нет на сервере — события идут строками messages");
+            } else {
+                log.w(TAG, "message_events ✗ HTTP " + res.status);
+            }
+            return Collections.emptyList();
+        }
+        if (eventReader.maxUpdatedAt != since) {
+            prefs.edit().putLong(KEY_EVENTS, eventReader.maxUpdatedAt).apply();
+        }
+        rows += res.rows.size();
+        return res.rows;
+    }
+
+    // ── Realtime ──────────────────────────────────────────────────────────────
+
+    /** Подписки на мои личные и групповые INSERT; пересоздаются при смене пользователя/групп. */
+    private synchronized void ensureRealtime() {
+        if (owners.isEmpty()) return;
+        String username = currentUser();
+        if (username.isEmpty()) {
+            closeRealtime();
+            return;
+        }
+        List<String> groupIds = groupIds(username);
+        String key = username + "|" + groupIds;
+        if (key.equals(subsKey)) return;
+        closeRealtime();
+
+        SupabaseRealtime rt = SupabaseRealtime.get(ctx, log);
+        SupabaseRealtime.Listener wake = new SupabaseRealtime.Listener() {
+            @Override public void onInsert(JSONObject record) { requestSync(); }
+            @Override public void onJoined() { requestSync(); }
+        };
+        subs.add(rt.subscribe("messages", "to_user=eq." + username, wake));
+        if (!eventsMissing) subs.add(rt.subscribeChanges("message_events", "to_user=eq." + username, wake));
+        if (!groupIds.isEmpty()) {
+            StringBuilder in = new StringBuilder();
+            for (String g : groupIds) in.append(in.length() > 0 ? "," : "").append("group_").append(g);
+            subs.add(rt.subscribe("messages", "chat_key=in.(" + in + ")", wake));
+        }
+        subsKey = key;
+        log.i(TAG, "realtime ▸ подписка " + key);
+    }
+
+    private synchronized boolean realtimeLive() {
+        if (subs.isEmpty()) return false;
+        for (SupabaseRealtime.Subscription s : subs) if (!s.isLive()) return false;
+        return true;
+    }
+
+    private synchronized void closeRealtime() {
+        for (SupabaseRealtime.Subscription s : subs) s.close();
+        subs.clear();
+        subsKey = "";
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Разбор строк
+    // ════════════════════════════════════════════════════════════════════════
+
+    /**
+     * Декодер строки messages прямо из потока. Читает только колонки, нужные
+     * подписчикам, остальное пропускает skipValue() без аллокаций. Если id
+     * пришёл первым (порядок колонок таблицы) и строка уже публиковалась —
+     * тяжёлые поля (text, extra) тоже пропускаются (dedupe = false — для replay,
+     * строки нужны целиком). Экземпляры движка используются только потоком worker.
+     */
+    private final class RowReader implements SupabaseResponse.RowDecoder<Message> {
+        private final boolean dedupe;
+
+        RowReader(boolean dedupe) { this.dedupe = dedupe; }
+
+        @Override
+        public Message decode(JsonReader r) throws IOException {
+            long id = 0, ts = 0;
+            String from = null, to = null, chatKey = null, text = null, extra = null, sticker = null;
+            boolean seen = false;
+            r.beginObject();
+            while (r.hasNext()) {
+                String name = r.nextName();
+                if (r.peek() == JsonToken.NULL) { r.nextNull(); continue; }
+                switch (name) {
+                    case "id":
+                        id = r.nextLong();
+                        seen = dedupe && id != 0 && seenIds.containsKey(id);
+                        break;
+                    case "ts":        ts      = r.nextLong(); break;
+                    case "from_user": from    = seen ? skip(r) : r.nextString(); break;
+                    case "to_user":   to      = seen ? skip(r) : r.nextString(); break;
+                    case "chat_key":  chatKey = seen ? skip(r) : r.nextString(); break;
+                    case "text":      text    = seen ? skip(r) : r.nextString(); break;
+                    case "sticker":   sticker = seen ? skip(r) : r.nextString(); break;
+                    case "extra":
+                        // text-колонка со строкой JSON; jsonb придёт объектом
+                        if (seen) skip(r);
+                        else extra = r.peek() == JsonToken.STRING
+                            ? r.nextString() : String.valueOf(SupabaseResponse.readValue(r));
+                        break;
+                    default:
+                        r.skipValue();
+                }
+            }
+            r.endObject();
+            return new Message(id, from, to, chatKey, ts, text, extra, sticker, seen);
+        }
+
+        private String skip(JsonReader r) throws IOException {
+            r.skipValue();
+            return null;
+        }
+    }
+
+    /**
+     * Строка message_events → служебный Message в формате старых строк messages:
+     * extra {type:"reaction", msgTs, reactions} или {type:"read_receipt", upToTs}.
+     * Курсор (максимальный updated_at) копится в maxUpdatedAt. Только поток worker.
+     */
+    private static final class EventReader implements SupabaseResponse.RowDecoder<Message> {
+        long maxUpdatedAt;
+
+        @Override
+        public Message decode(JsonReader r) throws IOException {
+            String chatKey = null, kind = null, from = null, to = null;
+            long targetTs = 0, upTo = 0, ts = 0;
+            Object reactions = null;
+            r.beginObject();
+            while (r.hasNext()) {
+                String name = r.nextName();
+                if (r.peek() == JsonToken.NULL) { r.nextNull(); continue; }
+                switch (name) {
+                    case "chat_key":   chatKey   = r.nextString(); break;
+                    case "kind":       kind      = r.nextString(); break;
+                    case "from_user":  from      = r.nextString(); break;
+                    case "to_user":    to        = r.nextString(); break;
+                    case "target_ts":  targetTs  = r.nextLong(); break;
+                    case "up_to_ts":   upTo      = r.nextLong(); break;
+                    case "ts":         ts        = r.nextLong(); break;
+                    case "updated_at": maxUpdatedAt = Math.max(maxUpdatedAt, r.nextLong()); break;
+                    case "reactions":  reactions = SupabaseResponse.readValue(r); break;
+                    default:           r.skipValue();
+                }
+            }
+            r.endObject();
+            JSONObject ex = new JSONObject();
+            try {
+                if ("read".equals(kind)) {
+                    ex.put("type", "read_receipt");
+                    ex.put("upToTs", upTo);
+                } else {
+                    ex.put("type", "reaction");
+                    ex.put("msgTs", targetTs);
+                    ex.put("reactions", reactions instanceof JSONObject ? reactions : new JSONObject());
+                }
+            } catch (JSONException e) {
+                throw new IOException(e.getMessage());
+            }
+            return new Message(0, from, to, chatKey, ts, "", ex.toString(), "", false);
+        }
+    }
+
+    /** Реакции и квитанции о прочтении: служебные строки с extra.type. */
+    static boolean isServiceExtra(String extra) {
+        // Обычные вложения не разбираем вовсе — JSON парсится только у кандидатов
+        if (extra.isEmpty() || (!extra.contains("reaction") && !extra.contains("read_receipt"))) return false;
+        try {
+            String tp = new JSONObject(extra).optString("type", "");
+            return "reaction".equals(tp) || "read_receipt".equals(tp);
+        } catch (JSONException e) {
+            return false;
+        }
+    }
+
+    /** Превью для уведомления: текст или значок типа вложения. */
+    static String previewOf(String text, String extra, String sticker) {
+        if (text.startsWith("ENC:")) return "🔐 Зашифрованное сообщение";
+        if (!text.isEmpty() && !text.startsWith("{")) return text;
+        if (!extra.isEmpty()) {
+            try {
+                JSONObject ex = new JSONObject(extra);
+                String ft = ex.optString("fileType", "");
+                String tp = ex.optString("type", "");
+                if      ("group_invite".equals(tp)) return "👥 Добавил(а) в группу";
+                else if ("voice".equals(ft))        return "🎤 Голосовое";
+                else if ("circle".equals(ft))       return "⭕ Видеосообщение";
+                else if ("video".equals(ft))        return "🎬 Видео";
+                else if ("image".equals(ft) || ex.has("image")) return "📷 Фото";
+                else if ("file".equals(ft))         return "📎 " + ex.optString("fileName", "Файл");
+                else if (!ft.isEmpty())             return "📎 Файл";
+            } catch (JSONException ignored) {}
+        }
+        return sticker.isEmpty() ? "📎 Файл" : sticker + " Стикер";
+    }
+
+    // ── Внутреннее ────────────────────────────────────────────────────────────
+
+    private String currentUser() {
+        String u = prefs.getString(KEY_USER, "");
+        if (u == null || u.isEmpty()) u = prefs.getString(LEGACY_USER, "");
+        return u != null ? u : "";
+    }
+
+    /** id обычных групп пользователя из user_groups_{username} ([{id:"grp_…"},…]). */
+    private List<String> groupIds(String username) {
+        List<String> ids = new ArrayList<>();
+        try {
+            JSONArray arr = new JSONArray(prefs.getString("user_groups_" + username, "[]"));
+            for (int i = 0; i < arr.length(); i++) {
+                JSONObject g = arr.optJSONObject(i);
+                if (g == null) continue;
+                String id = g.optString("id", "");
+                // Публичная группа не входит — по ней уведомления не шлём
+                if (id.startsWith("grp_")) ids.add(id);
+            }
+        } catch (JSONException ignored) {}
+        return ids;
+    }
+
+    /** Значение для логических фильтров PostgREST: в кавычках, чтобы запятые/скобки не ломали or=(…). */
+    private static String pgQuote(String v) {
+        return "\"" + v.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private void migrateLegacyCursor() {
+        if (!prefs.contains(LEGACY_CURSOR)) return;
+        long legacy = prefs.getLong(LEGACY_CURSOR, 0);
+        long cursor = prefs.getLong(KEY_CURSOR, 0);
+        prefs.edit()
+            .putLong(KEY_CURSOR, Math.max(cursor, legacy))
+            .remove(LEGACY_CURSOR)
+            .apply();
+        log.i(TAG, "курсор push_last_ts перенесён в " + KEY_CURSOR);
+    }
+}
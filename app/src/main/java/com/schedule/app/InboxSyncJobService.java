@@ -0,0 +1,135 @@
+package com.schedule.app;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+
+/**
+ * Фоновый синк входящих короткими заходами через JobScheduler —
+ * вместо постоянного сервиса с WakeLock и самоперезапуском по будильнику.
+ *
+ * Система будит процесс только когда есть сеть, job делает один синк
+ * InboxSyncEngine (тот же курсор и уведомления, что на экране) и сразу
+ * отпускает CPU. Между заходами процесс ничего не держит.
+ *
+ *  • периодический job (PERIODIC_MS, не чаще разрешённых системой 15 мин)
+ *    переживает перезагрузку (setPersisted);
+ *  • после свежей переписки — разовый follow-up через задержку от
+ *    PollScheduler;
+ *  • немедленный заход (включение, загрузка) — отдельным id, на Android 12+
+ *    expedited: не подменяет ждущий или идущий follow-up.
+ *
+ *   InboxSyncJobService.schedule(ctx);   // включить фоновый режим
+ *   InboxSyncJobService.cancel(ctx);     // выключить
+ */
+public class InboxSyncJobService extends JobService {
+
+    private static final String TAG = "InboxSyncJob";
+
+    public static final String PREF_BG_ENABLED = "bg_service_enabled";
+
+    private static final int  JOB_PERIODIC  = 9101;
+    private static final int  JOB_FOLLOW_UP = 9102;
+    private static final int  JOB_KICK      = 9103;
+    private static final long PERIODIC_MS   = 15 * 60_000L;
+    /** База для follow-up: в активной переписке — через ~30 с, дальше реже (PollScheduler). */
+    private static final long FOLLOW_UP_BASE_MS = 30_000L;
+    /** Дальше этого follow-up не нужен — периодический job и так придёт. */
+    private static final long FOLLOW_UP_MAX_MS  = 5 * 60_000L;
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Планирование
+    // ════════════════════════════════════════════════════════════════════════
+
+    /** Включить периодический синк (повторный вызов ничего не ломает). */
+    public static void schedule(Context ctx) {
+        JobScheduler js = scheduler(ctx);
+        if (js == null) return;
+        // Уже стоит — не пересоздаём, иначе сбросится отсчёт периода
+        if (isPending(js, JOB_PERIODIC)) return;
+        JobInfo job = new JobInfo.Builder(JOB_PERIODIC, component(ctx))
+            .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+            .setPeriodic(PERIODIC_MS)
+            .setPersisted(true)
+            .build();
+        int res = js.schedule(job);
+        AppLogger.get(ctx).i(TAG, "schedule ▸ periodic " + PERIODIC_MS / 60_000 + " мин → "
+                + (res == JobScheduler.RESULT_SUCCESS ? "✓" : "✗"));
+        runSoon(ctx, 0);
+    }
+
+    /**
+     * Разовый синк через delayMs (при наличии сети). delayMs <= 0 — немедленный
+     * заход под своим id: schedule() с тем же id заменил бы ждущий follow-up или
+     * остановил идущий, поэтому если такой заход уже стоит — второй не нужен.
+     */
+    public static void runSoon(Context ctx, long delayMs) {
+        JobScheduler js = scheduler(ctx);
+        if (js == null) return;
+        boolean now = delayMs <= 0;
+        if (now && isPending(js, JOB_KICK)) return;
+        JobInfo.Builder b = new JobInfo.Builder(now ? JOB_KICK : JOB_FOLLOW_UP, component(ctx))
+            .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY);
+        if (now && Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            // Expedited: система запускает сразу и не откладывает в Doze-окно
+            b.setExpedited(true);
+        } else {
+            b.setMinimumLatency(Math.max(0, delayMs));
+        }
+        js.schedule(b.build());
+    }
+
+    public static void cancel(Context ctx) {
+        JobScheduler js = scheduler(ctx);
+        if (js == null) return;
+        js.cancel(JOB_PERIODIC);
+        js.cancel(JOB_FOLLOW_UP);
+        js.cancel(JOB_KICK);
+        AppLogger.get(ctx).i(TAG, "cancel ▸ фоновый синк выключен");
+    }
+
+    /** getPendingJob(id) — только с API 24, а minSdk 23. Идущий job тоже в списке. */
+    private static boolean isPending(JobScheduler js, int id) {
+        for (JobInfo pending : js.getAllPendingJobs()) {
+            if (pending.getId() == id) return true;
+        }
+        return false;
+    }
+
+    private static JobScheduler scheduler(Context ctx) {
+        return (JobScheduler) ctx.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+    }
+
+    private static ComponentName component(Context ctx) {
+        return new ComponentName(ctx, InboxSyncJobService.class);
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Заход
+    // ════════════════════════════════════════════════════════════════════════
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        AppLogger log = AppLogger.get(this);
+        log.i(TAG, "job ▸ #" + params.getJobId());
+        InboxSyncEngine.get(this, log).syncNow(() -> {
+            jobFinished(params, false);
+            // Свежая переписка — следующий заход раньше периодического.
+            // После jobFinished: schedule() с id работающего job остановил бы его
+            long next = PollScheduler.get(this, log).delayFor(FOLLOW_UP_BASE_MS);
+            if (next >= 0 && next < FOLLOW_UP_MAX_MS) runSoon(this, next);
+        });
+        // true — работа идёт на потоке InboxSyncEngine, jobFinished позовём сами
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // Система прервала заход (пропала сеть) — пусть перезапустит
+        return true;
+    }
+}
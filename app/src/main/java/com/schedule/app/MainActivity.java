@@ -43,14 +43,12 @@ import androidx.core.view.WindowCompat;
 import androidx.core.view.WindowInsetsControllerCompat;
 import android.graphics.Color;
 
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
 
 public class MainActivity extends Activity {
 
@@ -76,6 +74,23 @@ public class MainActivity extends Activity {
     private AppLogger              log;
     private SupabaseClient         supabase;
     private SupabaseHelper         helper;
+    private SupabaseWriteBatcher   writeBatcher;
+    private AvatarStore            avatarStore;
+    private MessageStore           messageStore;
+    private PresenceService        presence;
+    /** Presence изменился — JS перерисовывает онлайн из снимка (sbOnPresenceChanged). */
+    private final PresenceService.Listener presenceToJs = () -> runOnUiThread(() -> {
+        if (webView != null) {
+            webView.evaluateJavascript("window.sbOnPresenceChanged && window.sbOnPresenceChanged()", null);
+        }
+    });
+    /** Один поток на SQLite-хранилище JS: записи не блокируют WebView, чтения идут после них. */
+    private final java.util.concurrent.ExecutorService messageStoreIo =
+            java.util.concurrent.Executors.newSingleThreadExecutor();
+    private SupabaseRealtime       realtime;
+    /** Realtime-подписки JS-чатов: chat_key → подписка (см. realtimeSubscribe). */
+    private final java.util.Map<String, SupabaseRealtime.Subscription> jsRealtimeSubs =
+            new java.util.HashMap<>();
     private ValueCallback<Uri[]>   fileChooserCallback = null;
     private boolean                isNativeBgPick = false;
     private android.webkit.PermissionRequest _pendingPermissionRequest = null;
@@ -94,14 +109,32 @@ public class MainActivity extends Activity {
     private android.os.Handler     pollHandler;
     private Runnable               pollRunnable;
     private static final int       POLL_INTERVAL_FG = 2000;  // мс foreground
+    /** Потолок отката JS-тика на экране: открытый чат без Realtime не «засыпает». */
+    private static final long      POLL_INTERVAL_FG_MAX = 16_000L;
     private static final int       POLL_INTERVAL_BG = 5000;  // мс background
     private boolean                appInForeground  = false;
 
-    // ── Фоновые уведомления: Java-side Supabase poller ───────────────
-    // Когда WebView заморожен, JS не работает. Java сама опрашивает Supabase.
-    private static final String PREF_SB_USER    = "sb_username";
-    private static final String PREF_SB_LAST_TS = "sb_last_notif_ts";
-    private int                 _notifIdCounter = 1000;
+    // ── Входящие: единый InboxSyncEngine (курсор, опрос, уведомления) ─
+    // Когда WebView заморожен, JS не работает — движок опрашивает Supabase сам.
+    private static final String PREF_SB_USER    = InboxSyncEngine.KEY_USER;
+    private static final String INBOX_OWNER     = "activity";
+    private InboxSyncEngine     inbox;
+    private PollScheduler       pollScheduler;
+    /** Сеть вернулась — немедленный JS-тик (с главного потока). */
+    private final Runnable      pollResume = () -> {
+        android.os.Handler h = pollHandler;
+        if (h != null && pollRunnable != null) {
+            h.removeCallbacks(pollRunnable);
+            h.post(pollRunnable);
+        }
+    };
+    /** Новые входящие → window.onInboxMessages(rows) — JS не опрашивает inbox сам. */
+    private final InboxSyncEngine.Listener inboxToJs = messages -> {
+        org.json.JSONArray rows = new org.json.JSONArray();
+        for (InboxSyncEngine.Message m : messages) rows.put(m.row());
+        final String js = "window.onInboxMessages&&window.onInboxMessages(" + rows + ")";
+        if (webView != null) webView.post(() -> { if (webView != null) webView.evaluateJavascript(js, null); });
+    };
 
     private final ServiceConnection vpnConnection = new ServiceConnection() {
         @Override
@@ -133,6 +166,15 @@ public class MainActivity extends Activity {
         log.i(TAG, "SupabaseClient готов [URL=" + SupabaseClient.URL + "]");
         helper = SupabaseHelper.get(this, log);
         log.i(TAG, "SupabaseHelper готов (presence / messages / leaderboard / users / accounts)");
+        writeBatcher = SupabaseWriteBatcher.get(this, log);
+        avatarStore  = AvatarStore.get(this, log);
+        messageStore = MessageStore.get(this, log);
+        presence     = PresenceService.get(this, log);
+        presence.addListener(presenceToJs);
+        realtime     = SupabaseRealtime.get(this, log);
+        inbox        = InboxSyncEngine.get(this, log);
+        pollScheduler = PollScheduler.get(this, log);
+        inbox.addListener(inboxToJs);
 
         // Современный подход: контент рисуется за системными барами (status + nav)
         WindowCompat.setDecorFitsSystemWindows(getWindow(), false);
@@ -163,6 +205,10 @@ public class MainActivity extends Activity {
         }
 
         prefs   = getSharedPreferences("schedule_prefs", Context.MODE_PRIVATE);
+        // Фоновый синк включён (в т.ч. ещё старым сервисом) — убедиться, что job стоит
+        if (prefs.getBoolean(InboxSyncJobService.PREF_BG_ENABLED, false)) {
+            InboxSyncJobService.schedule(this);
+        }
         webView = new WebView(this);
         setContentView(webView);
 
@@ -479,9 +525,9 @@ public class MainActivity extends Activity {
         });
     }
 
-    /** Запускает Java-таймер который пингует JS каждые 2-5 сек.
-     *  В фоне — напрямую опрашивает Supabase и показывает уведомления,
-     *  не полагаясь на JS (WebView заморожен Android'ом). */
+    /** Запускает Java-таймер который пингует JS, пока активити на экране: от 2 сек сразу
+     *  после переписки до POLL_INTERVAL_FG_MAX в тишине (PollScheduler), без сети — пауза.
+     *  Входящие (и в фоне, и на экране) опрашивает InboxSyncEngine — см. onPause/onResume. */
     private void startJavaPollTimer() {
         if (pollHandler != null) {
             pollHandler.removeCallbacks(pollRunnable);
@@ -490,172 +536,23 @@ public class MainActivity extends Activity {
         pollRunnable = new Runnable() {
             @Override
             public void run() {
-                if (webView == null) return;
-                if (appInForeground) {
-                    // На переднем плане — пускаем обычный JS-тик
-                    webView.evaluateJavascript(
-                        "if(typeof window._javaTick==='function'){window._javaTick();}",
-                        null
-                    );
-                } else {
-                    // В фоне — WebView заморожен, JS не работает.
-                    // Опрашиваем Supabase напрямую из Java.
-                    new Thread(MainActivity.this::_bgPollSupabase).start();
-                }
-                int interval = appInForeground ? POLL_INTERVAL_FG : POLL_INTERVAL_BG;
-                pollHandler.postDelayed(this, interval);
+                // В фоне WebView заморожен — тик не нужен, входящие ловит InboxSyncEngine
+                if (webView == null || !appInForeground || pollHandler == null) return;
+                long delay = pollScheduler.delayFor(POLL_INTERVAL_FG);
+                // Нет сети — тик не нужен; PollScheduler разбудит, когда она вернётся
+                if (delay < 0) return;
+                webView.evaluateJavascript(
+                    "if(typeof window._javaTick==='function'){window._javaTick();}",
+                    null
+                );
+                pollHandler.postDelayed(this, Math.min(delay, POLL_INTERVAL_FG_MAX));
             }
         };
+        pollScheduler.removeResumeListener(pollResume);
+        pollScheduler.addResumeListener(pollResume);
         appInForeground = true;
         pollHandler.postDelayed(pollRunnable, POLL_INTERVAL_FG);
-        log.i(TAG, "Java poll timer запущен (fg=" + POLL_INTERVAL_FG + "мс bg=" + POLL_INTERVAL_BG + "мс)");
-    }
-
-    /**
-     * Фоновый поллинг Supabase напрямую из Java (без JS).
-     * Вызывается только когда приложение в фоне (WebView заморожен).
-     * Читает новые сообщения и показывает системные уведомления.
-     */
-    private void _bgPollSupabase() {
-        try {
-            String username = prefs.getString(PREF_SB_USER, "");
-            if (username == null || username.isEmpty()) return;
-
-            long lastTs = prefs.getLong(PREF_SB_LAST_TS, System.currentTimeMillis() - 30000);
-
-            // Запрашиваем новые сообщения TO меня после lastTs
-            String urlStr = SupabaseClient.URL
-                + "/rest/v1/messages?select=from_user,text,ts,extra"
-                + "&to_user=eq." + java.net.URLEncoder.encode(username, "UTF-8")
-                + "&ts=gt." + lastTs
-                + "&order=ts.asc&limit=20";
-
-            java.net.URL url = new java.net.URL(urlStr);
-            java.net.HttpURLConnection conn =
-                (java.net.HttpURLConnection) url.openConnection(java.net.Proxy.NO_PROXY);
-            conn.setRequestMethod("GET");
-            conn.setConnectTimeout(10000);
-            conn.setReadTimeout(10000);
-            conn.setRequestProperty("apikey", SupabaseClient.ANON_KEY);
-            conn.setRequestProperty("Authorization", "Bearer " + SupabaseClient.ANON_KEY);
-            conn.setRequestProperty("Accept", "application/json");
-
-            int status = conn.getResponseCode();
-            if (status != 200) { conn.disconnect(); return; }
-
-            java.io.InputStream is = conn.getInputStream();
-            java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
-            byte[] buf = new byte[4096]; int n;
-            while ((n = is.read(buf)) != -1) baos.write(buf, 0, n);
-            is.close(); conn.disconnect();
-
-            String body = baos.toString("UTF-8").trim();
-            if (body.isEmpty() || body.equals("[]")) return;
-
-            org.json.JSONArray arr = new org.json.JSONArray(body);
-            if (arr.length() == 0) return;
-
-            long maxTs = lastTs;
-            // Группируем по отправителю — одно уведомление на человека
-            java.util.LinkedHashMap<String, java.util.List<String>> byUser =
-                new java.util.LinkedHashMap<>();
-            for (int i = 0; i < arr.length(); i++) {
-                org.json.JSONObject msg = arr.getJSONObject(i);
-                String from  = msg.optString("from_user", "?");
-                long   ts    = msg.optLong("ts", 0);
-                String text  = msg.optString("text", "");
-                String extra = msg.optString("extra", "");
-
-                // Пропускаем служебные (реакции, read_receipt)
-                if (!extra.isEmpty()) {
-                    try {
-                        org.json.JSONObject ex = new org.json.JSONObject(extra);
-                        String tp = ex.optString("type", "");
-                        if ("reaction".equals(tp) || "read_receipt".equals(tp)) {
-                            if (ts > maxTs) maxTs = ts;
-                            continue;
-                        }
-                    } catch (Exception ignored) {}
-                }
-
-                // Зашифрованное сообщение
-                if (text.startsWith("ENC:")) {
-                    text = "🔐 Зашифрованное сообщение";
-                } else if (text.isEmpty() || text.startsWith("{")) {
-                    // Медиа-сообщение — читаем тип из extra
-                    if (!extra.isEmpty()) {
-                        try {
-                            org.json.JSONObject ex = new org.json.JSONObject(extra);
-                            String ft = ex.optString("fileType", "");
-                            String tp = ex.optString("type", "");
-                            if ("group_invite".equals(tp))  text = "👥 Добавил(а) в группу";
-                            else if ("voice".equals(ft))    text = "🎤 Голосовое";
-                            else if ("circle".equals(ft))   text = "⭕ Видеосообщение";
-                            else if ("video".equals(ft))    text = "🎬 Видео";
-                            else if (ex.has("image"))       text = "📷 Фото";
-                            else if ("file".equals(ft))     text = "📎 " + ex.optString("fileName", "Файл");
-                            else if (!ft.isEmpty())         text = "📎 Файл";
-                        } catch (Exception ignored) {}
-                    }
-                    if (text.isEmpty()) {
-                        String sticker = msg.optString("sticker", "");
-                        text = sticker.isEmpty() ? "📎 Файл" : sticker + " Стикер";
-                    }
-                }
-
-                if (ts > maxTs) maxTs = ts;
-                byUser.computeIfAbsent(from, k -> new java.util.ArrayList<>()).add(text);
-            }
-
-            // Сохраняем новый lastTs
-            prefs.edit().putLong(PREF_SB_LAST_TS, maxTs + 1).apply();
-
-            // Показываем уведомление (одно суммарное либо раздельные)
-            NotificationManager nm = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
-            if (nm == null) return;
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-                if (checkSelfPermission(android.Manifest.permission.POST_NOTIFICATIONS)
-                        != android.content.pm.PackageManager.PERMISSION_GRANTED) return;
-            }
-
-            for (java.util.Map.Entry<String, java.util.List<String>> entry : byUser.entrySet()) {
-                String from = entry.getKey();
-                java.util.List<String> texts = entry.getValue();
-                String preview = texts.size() == 1
-                    ? texts.get(0)
-                    : texts.size() + " новых сообщений";
-                if (preview.length() > 100) preview = preview.substring(0, 97) + "…";
-
-                // Уникальный intent на каждого отправителя — открывает его чат
-                Intent tapIntent = new Intent(this, MainActivity.class);
-                tapIntent.setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP | Intent.FLAG_ACTIVITY_CLEAR_TOP);
-                tapIntent.putExtra("open_chat", from);
-                int piFlags = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
-                    ? PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
-                    : PendingIntent.FLAG_UPDATE_CURRENT;
-                PendingIntent pi = PendingIntent.getActivity(
-                    this, Math.abs(from.hashCode()), tapIntent, piFlags);
-
-                NotificationCompat.Builder nb = new NotificationCompat.Builder(this, NOTIF_CHANNEL_ID)
-                    .setSmallIcon(android.R.drawable.ic_dialog_email)
-                    .setContentTitle("@" + from)
-                    .setContentText(preview)
-                    .setStyle(new NotificationCompat.BigTextStyle().bigText(preview))
-                    .setPriority(NotificationCompat.PRIORITY_HIGH)
-                    .setAutoCancel(true)
-                    .setContentIntent(pi)
-                    .setVibrate(new long[]{0, 200, 80, 200})
-                    .setDefaults(NotificationCompat.DEFAULT_SOUND)
-                    .setGroup("sapp_msg_group");
-                // Стабильный ID: одно уведомление на отправителя (новое заменяет старое)
-                int notifId = 1000 + Math.abs(from.hashCode() % 1000);
-                nm.notify(notifId, nb.build());
-                log.i(TAG, "_bgPollSupabase: показано уведомление от @" + from + " (" + texts.size() + " сообщ.)");
-            }
-        } catch (Exception e) {
-            // Тихо — не спамим логи при каждом фоновом тике
-            log.w(TAG, "_bgPollSupabase error: " + e.getMessage());
-        }
+        log.i(TAG, "Java poll timer запущен (fg=" + POLL_INTERVAL_FG + "мс)");
     }
 
     /**
@@ -665,11 +562,21 @@ public class MainActivity extends Activity {
         @JavascriptInterface
         public void setCurrentUser(String username) {
             log.i(TAG, "setCurrentUser: " + username);
-            prefs.edit()
-                .putString(PREF_SB_USER, username != null ? username : "")
-                // Начинаем отслеживать с текущего момента (не уведомляем о старых)
-                .putLong(PREF_SB_LAST_TS, System.currentTimeMillis())
-                .apply();
+            // Курсоры на «сейчас» — только при смене аккаунта; иначе JS дочитывает
+            // пропущенное, пока приложение было закрыто, из своего курсора данных
+            inbox.setUser(username);
+            inbox.replay(inboxToJs);
+            inbox.requestSync();
+        }
+
+        /** JS обработал входящие до (ts, id) включительно — сдвинуть его курсор данных. */
+        @JavascriptInterface
+        public void inboxAck(String ts, String id) {
+            try {
+                inbox.ackData(Long.parseLong(ts), Long.parseLong(id));
+            } catch (NumberFormatException e) {
+                log.w(TAG, "inboxAck ✗ " + ts + "/" + id);
+            }
         }
 
         /**
@@ -692,8 +599,12 @@ public class MainActivity extends Activity {
         public void dismissNotifications() {
             NotificationManager nm = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
             if (nm != null) nm.cancelAll();
-            // Обновляем lastTs чтобы не показывать прочитанное снова
-            prefs.edit().putLong(PREF_SB_LAST_TS, System.currentTimeMillis()).apply();
+        }
+
+        /** Синк входящих прямо сейчас; результат придёт в window.onInboxMessages. */
+        @JavascriptInterface
+        public void inboxSyncNow() {
+            inbox.requestSync();
         }
 
         /** Возвращает сохранённый username для фонового поллинга */
@@ -1035,21 +946,17 @@ public class MainActivity extends Activity {
     protected void onPause() {
         super.onPause();
         appInForeground = false;
-        log.i(TAG, "onPause — переключаю поллер в фоновый режим (" + POLL_INTERVAL_BG + "мс)");
-        // Если фоновый сервис включён — он сам поллит, Java-поллер в MainActivity не нужен
-        boolean svcEnabled = prefs.getBoolean(MessagingForegroundService.PREF_BG_ENABLED, false);
-        if (svcEnabled) {
-            // Останавливаем дублирующий поллер в MainActivity
-            if (pollHandler != null && pollRunnable != null) {
-                pollHandler.removeCallbacks(pollRunnable);
-            }
-        } else {
-            // Сервис выключен — MainActivity сам поллит в фоне
-            if (pollHandler != null && pollRunnable != null) {
-                pollHandler.removeCallbacks(pollRunnable);
-                pollHandler.postDelayed(pollRunnable, POLL_INTERVAL_BG);
-            }
+        // Уходим в фон — heartbeat больше не нужен, накопленные presence/leaderboard
+        // отправляем сразу, не ждём таймер
+        if (presence != null) presence.release(INBOX_OWNER);
+        if (writeBatcher != null) writeBatcher.flush();
+        log.i(TAG, "onPause — входящие в фоне опрашивает InboxSyncEngine (" + POLL_INTERVAL_BG + "мс)");
+        if (pollHandler != null && pollRunnable != null) {
+            pollHandler.removeCallbacks(pollRunnable);
         }
+        // Фоновый сервис, если включён, держит движок сам; активити лишь замедляет свой интервал
+        inbox.setAppVisible(false);
+        inbox.acquire(INBOX_OWNER, POLL_INTERVAL_BG);
     }
 
     @Override
@@ -1060,7 +967,10 @@ public class MainActivity extends Activity {
         // Снимаем все уведомления когда пользователь вернулся в приложение
         NotificationManager nm2 = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
         if (nm2 != null) nm2.cancelAll();
-        prefs.edit().putLong(PREF_SB_LAST_TS, System.currentTimeMillis()).apply();
+        // На экране уведомления не нужны; пропущенное за фон движок отдаст в JS
+        inbox.setAppVisible(true);
+        inbox.acquire(INBOX_OWNER, POLL_INTERVAL_FG);
+        presence.acquire(INBOX_OWNER);
         // Ускоряем интервал — приложение на экране
         if (pollHandler != null && pollRunnable != null) {
             pollHandler.removeCallbacks(pollRunnable);
@@ -1155,6 +1065,23 @@ public class MainActivity extends Activity {
         super.onDestroy();
         log.section("onDestroy");
         log.i(TAG, "Приложение завершается");
+        if (supabase != null) supabase.logMetricsSummary();
+        if (pollScheduler != null) pollScheduler.removeResumeListener(pollResume);
+        if (presence != null) {
+            presence.removeListener(presenceToJs);
+            presence.release(INBOX_OWNER);
+        }
+        // Отложенные записи JS-хранилища дописываются, новых не принимаем
+        messageStoreIo.shutdown();
+        if (inbox != null) {
+            inbox.removeListener(inboxToJs);
+            inbox.release(INBOX_OWNER);
+            inbox.setAppVisible(false);
+        }
+        synchronized (jsRealtimeSubs) {
+            for (SupabaseRealtime.Subscription sub : jsRealtimeSubs.values()) sub.close();
+            jsRealtimeSubs.clear();
+        }
         if (pollHandler != null && pollRunnable != null) {
             pollHandler.removeCallbacks(pollRunnable);
             pollHandler = null;
@@ -2392,65 +2319,27 @@ public class MainActivity extends Activity {
 
         private String _catboxUploadBytes(byte[] fileBytes, String fileName,
                                            String mimeType, UploadProgressCallback progressCb) {
-            String boundary = "----CatboxBoundary" + Long.toHexString(System.currentTimeMillis());
             try {
-                // Собираем multipart-части заранее чтобы знать Content-Length
-                byte[] partReqBytes = ("--" + boundary + "\r\n"
-                    + "Content-Disposition: form-data; name=\"reqtype\"\r\n\r\n"
-                    + "fileupload\r\n").getBytes(java.nio.charset.StandardCharsets.UTF_8);
-                byte[] partFileHeaderBytes = ("--" + boundary + "\r\n"
-                    + "Content-Disposition: form-data; name=\"fileToUpload\"; filename=\""
-                    + fileName + "\"\r\n"
-                    + "Content-Type: " + mimeType + "\r\n\r\n")
-                    .getBytes(java.nio.charset.StandardCharsets.UTF_8);
-                byte[] partEndBytes = ("\r\n--" + boundary + "--\r\n")
-                    .getBytes(java.nio.charset.StandardCharsets.UTF_8);
-
-                long totalLen = partReqBytes.length + partFileHeaderBytes.length
-                    + fileBytes.length + partEndBytes.length;
-
-                java.net.URL url = new java.net.URL("https://catbox.moe/user/api.php");
-                java.net.HttpURLConnection conn =
-                    (java.net.HttpURLConnection) url.openConnection(buildProxy());
-                conn.setRequestMethod("POST");
-                conn.setDoOutput(true);
-                conn.setFixedLengthStreamingMode(totalLen);
-                conn.setConnectTimeout(30000);
-                conn.setReadTimeout(180000);
-                conn.setRequestProperty("Content-Type",
-                    "multipart/form-data; boundary=" + boundary);
-                conn.setRequestProperty("User-Agent",
-                    "Mozilla/5.0 ScheduleApp/" + getVersionName());
-
-                java.io.OutputStream os = conn.getOutputStream();
-                os.write(partReqBytes);
-                os.write(partFileHeaderBytes);
-
-                // Пишем файл чанками с отслеживанием прогресса
-                int chunkSize = 65536; // 64KB
-                long written = partReqBytes.length + partFileHeaderBytes.length;
-                for (int off = 0; off < fileBytes.length; off += chunkSize) {
-                    int len = Math.min(chunkSize, fileBytes.length - off);
-                    os.write(fileBytes, off, len);
-                    written += len;
-                    if (progressCb != null && totalLen > 0) {
-                        int pct = (int)(written * 95 / totalLen); // 0-95%, 100% — после ответа
-                        progressCb.onProgress(pct);
-                    }
+                okhttp3.RequestBody form = new okhttp3.MultipartBody.Builder()
+                    .setType(okhttp3.MultipartBody.FORM)
+                    .addFormDataPart("reqtype", "fileupload")
+                    .addFormDataPart("fileToUpload", fileName,
+                        progressBody(fileBytes, mimeType, progressCb))
+                    .build();
+                okhttp3.Request req = new okhttp3.Request.Builder()
+                    .url("https://catbox.moe/user/api.php")
+                    .header("User-Agent", "Mozilla/5.0 ScheduleApp/" + getVersionName())
+                    .post(form)
+                    .build();
+
+                int status;
+                String body;
+                try (okhttp3.Response resp = NetworkStack.get(MainActivity.this, log)
+                        .client(NetworkStack.Purpose.TRANSFER, buildProxy())
+                        .newCall(req).execute()) {
+                    status = resp.code();
+                    body = resp.body() != null ? resp.body().string().trim() : "";
                 }
-                os.write(partEndBytes);
-                os.flush();
-                os.close();
-
-                int status = conn.getResponseCode();
-                java.io.InputStream is = status < 400
-                    ? conn.getInputStream() : conn.getErrorStream();
-                java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
-                byte[] buf = new byte[8192]; int n;
-                while ((n = is.read(buf)) != -1) baos.write(buf, 0, n);
-                is.close();
-                conn.disconnect();
-                String body = baos.toString("UTF-8").trim();
                 log.i(TAG, "_catboxUploadBytes: status=" + status + " body=" + body.substring(0, Math.min(body.length(), 120)));
 
                 org.json.JSONObject res = new org.json.JSONObject();
@@ -2491,35 +2380,19 @@ public class MainActivity extends Activity {
                                               String mimeType, UploadProgressCallback progressCb) {
             try {
                 String safeName = fileName.replaceAll("[^a-zA-Z0-9._-]", "_");
-                java.net.URL url = new java.net.URL("https://pixeldrain.com/api/file/" + safeName);
-                java.net.HttpURLConnection conn =
-                    (java.net.HttpURLConnection) url.openConnection(buildProxy());
-                conn.setRequestMethod("PUT");
-                conn.setDoOutput(true);
-                conn.setFixedLengthStreamingMode(fileBytes.length);
-                conn.setConnectTimeout(30000);
-                conn.setReadTimeout(180000);
-                conn.setRequestProperty("Content-Type", mimeType);
-
-                java.io.OutputStream os = conn.getOutputStream();
-                int chunkSize = 65536;
-                for (int off = 0; off < fileBytes.length; off += chunkSize) {
-                    int len = Math.min(chunkSize, fileBytes.length - off);
-                    os.write(fileBytes, off, len);
-                    if (progressCb != null && fileBytes.length > 0) {
-                        int pct = (int)((long)(off + len) * 95 / fileBytes.length);
-                        progressCb.onProgress(pct);
-                    }
+                okhttp3.Request req = new okhttp3.Request.Builder()
+                    .url("https://pixeldrain.com/api/file/" + safeName)
+                    .put(progressBody(fileBytes, mimeType, progressCb))
+                    .build();
+
+                int status;
+                String body;
+                try (okhttp3.Response resp = NetworkStack.get(MainActivity.this, log)
+                        .client(NetworkStack.Purpose.TRANSFER, buildProxy())
+                        .newCall(req).execute()) {
+                    status = resp.code();
+                    body = resp.body() != null ? resp.body().string().trim() : "";
                 }
-                os.flush(); os.close();
-
-                int status = conn.getResponseCode();
-                java.io.InputStream is = status < 400 ? conn.getInputStream() : conn.getErrorStream();
-                java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
-                byte[] buf = new byte[4096]; int n;
-                while ((n = is.read(buf)) != -1) baos.write(buf, 0, n);
-                is.close(); conn.disconnect();
-                String body = baos.toString("UTF-8").trim();
                 log.i(TAG, "_pixeldrainUpload: status=" + status + " body=" + body.substring(0, Math.min(body.length(), 120)));
 
                 org.json.JSONObject res = new org.json.JSONObject();
@@ -2793,23 +2666,19 @@ public class MainActivity extends Activity {
         /** nativeFetch с поддержкой прокси. */
         private String nativeFetchInternal(String urlStr, java.net.Proxy proxy) {
             try {
-                URL url = new URL(urlStr);
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection(proxy);
-                conn.setRequestMethod("GET");
-                conn.setConnectTimeout(15000);
-                conn.setReadTimeout(15000);
-                conn.setRequestProperty("User-Agent", "Mozilla/5.0 ScheduleApp/1.0");
-                conn.setRequestProperty("Accept", "application/json");
-                conn.setInstanceFollowRedirects(true);
-                int status = conn.getResponseCode();
-                InputStream is = status < 400 ? conn.getInputStream() : conn.getErrorStream();
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                byte[] tmp = new byte[8192];
-                int n;
-                while ((n = is.read(tmp)) != -1) baos.write(tmp, 0, n);
-                is.close();
-                conn.disconnect();
-                String body = baos.toString(StandardCharsets.UTF_8.name());
+                okhttp3.Request req = new okhttp3.Request.Builder()
+                    .url(urlStr)
+                    .header("User-Agent", "Mozilla/5.0 ScheduleApp/1.0")
+                    .header("Accept", "application/json")
+                    .build();
+                int status;
+                String body;
+                try (okhttp3.Response resp = NetworkStack.get(MainActivity.this, log)
+                        .client(NetworkStack.Purpose.API, proxy)
+                        .newCall(req).execute()) {
+                    status = resp.code();
+                    body = resp.body() != null ? resp.body().string() : "";
+                }
                 JSONObject res = new JSONObject();
                 res.put("ok", status >= 200 && status < 300);
                 res.put("status", status);
@@ -2831,29 +2700,24 @@ public class MainActivity extends Activity {
         /** nativeDownloadBase64 с поддержкой прокси. */
         private String nativeDownloadBase64Internal(String urlStr, java.net.Proxy proxy) {
             try {
-                URL url = new URL(urlStr);
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection(proxy);
-                conn.setRequestMethod("GET");
-                conn.setConnectTimeout(30000);
-                conn.setReadTimeout(30000);
-                conn.setRequestProperty("User-Agent", "Mozilla/5.0 ScheduleApp/1.0");
-                conn.setInstanceFollowRedirects(true);
-                int status = conn.getResponseCode();
-                if (status < 200 || status >= 300) {
-                    conn.disconnect();
-                    JSONObject err = new JSONObject();
-                    err.put("ok", false);
-                    err.put("error", "HTTP " + status);
-                    return err.toString();
+                okhttp3.Request req = new okhttp3.Request.Builder()
+                    .url(urlStr)
+                    .header("User-Agent", "Mozilla/5.0 ScheduleApp/1.0")
+                    .build();
+                byte[] bytes;
+                try (okhttp3.Response resp = NetworkStack.get(MainActivity.this, log)
+                        .client(NetworkStack.Purpose.TRANSFER, proxy)
+                        .newCall(req).execute()) {
+                    int status = resp.code();
+                    if (status < 200 || status >= 300 || resp.body() == null) {
+                        JSONObject err = new JSONObject();
+                        err.put("ok", false);
+                        err.put("error", "HTTP " + status);
+                        return err.toString();
+                    }
+                    bytes = resp.body().bytes();
                 }
-                InputStream is = conn.getInputStream();
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                byte[] tmp = new byte[16384];
-                int n;
-                while ((n = is.read(tmp)) != -1) baos.write(tmp, 0, n);
-                is.close();
-                conn.disconnect();
-                String b64 = Base64.encodeToString(baos.toByteArray(), Base64.NO_WRAP);
+                String b64 = Base64.encodeToString(bytes, Base64.NO_WRAP);
                 JSONObject res = new JSONObject();
                 res.put("ok", true);
                 res.put("base64", b64);
@@ -2869,9 +2733,36 @@ public class MainActivity extends Activity {
             }
         }
 
+        /**
+         * Тело загрузки из byte[]: пишется чанками по 64 KB и сообщает прогресс 0–95%
+         * (100% — после ответа сервера).
+         */
+        private okhttp3.RequestBody progressBody(final byte[] bytes, String mimeType,
+                                                 final UploadProgressCallback progressCb) {
+            final okhttp3.MediaType type = okhttp3.MediaType.parse(mimeType);
+            return new okhttp3.RequestBody() {
+                @Override public okhttp3.MediaType contentType() { return type; }
+
+                @Override public long contentLength() { return bytes.length; }
+
+                @Override
+                public void writeTo(okio.BufferedSink sink) throws java.io.IOException {
+                    int chunkSize = 65536; // 64KB
+                    for (int off = 0; off < bytes.length; off += chunkSize) {
+                        int len = Math.min(chunkSize, bytes.length - off);
+                        sink.write(bytes, off, len);
+                        if (progressCb != null && bytes.length > 0) {
+                            progressCb.onProgress((int)((long)(off + len) * 95 / bytes.length));
+                        }
+                    }
+                }
+            };
+        }
+
         // ══════════════════════════════════════════════════════════════════
         // SUPABASE BRIDGE
         // Все методы блокирующие — JS должен вызывать их в async/Worker.
+        // Неблокирующие варианты с callbackId — см. ASYNC BRIDGE ниже.
         // Каждый метод возвращает JSON-строку: {ok, status, body, error?}
         // ══════════════════════════════════════════════════════════════════
 
@@ -2905,6 +2796,7 @@ public class MainActivity extends Activity {
         @JavascriptInterface
         public String supabaseInsert(String table, String json) {
             log.i(TAG, "JS→supabaseInsert table=" + table);
+            if ("messages".equals(table)) inbox.noteChatActivity();
             return supabase.insert(table, json);
         }
 
@@ -2937,6 +2829,36 @@ public class MainActivity extends Activity {
             return supabase.upsert(table, json);
         }
 
+        /**
+         * UPSERT через пакетную очередь (SupabaseWriteBatcher): повторные записи
+         * одной строки склеиваются, на сервер уходит один POST раз в несколько секунд.
+         * Только для таблиц, зарегистрированных в батчере (presence, leaderboard).
+         * @param json объект строки (должен содержать ключевые колонки)
+         * @return {ok:true, status:202, queued:true} — принята в очередь (не записана), или {ok:false, error}
+         *
+         * Пример:
+         *   Android.supabaseUpsertBatched("presence", JSON.stringify({username: "alex", status: "online", ts: Date.now()}))
+         */
+        @JavascriptInterface
+        public String supabaseUpsertBatched(String table, String json) {
+            log.i(TAG, "JS→supabaseUpsertBatched table=" + table);
+            try {
+                JSONObject row = new JSONObject(json);
+                // Heartbeat из JS может нести аватар base64 — загрузка в Storage идёт
+                // на потоке AvatarStore, JavaBridge-поток её не ждёт; в строку попадёт ссылка
+                if ("presence".equals(table)) return helper.presenceEnqueue(row);
+                return writeBatcher.enqueue(table, row);
+            } catch (Exception e) {
+                log.e(TAG, "supabaseUpsertBatched ошибка: " + e.getMessage());
+                try {
+                    JSONObject err = new JSONObject();
+                    err.put("ok", false);
+                    err.put("error", e.getMessage());
+                    return err.toString();
+                } catch (Exception ex) { return "{\"ok\":false,\"error\":\"unknown\"}"; }
+            }
+        }
+
         /**
          * DELETE строк по фильтру.
          * ВНИМАНИЕ: filter обязателен, пустая строка вернёт ошибку.
@@ -2967,6 +2889,172 @@ public class MainActivity extends Activity {
             return supabase.rpc(function, paramsJson);
         }
 
+        // ── Realtime ──────────────────────────────────────────────────────
+
+        /**
+         * Подписаться на новые сообщения чата по WebSocket. На каждый INSERT
+         * и на (пере)подписку после обрыва вызывается window.sbRealtimeWake(chatKey) —
+         * JS дочитывает новое обычным запросом ts=gt.lastTs, так что ничего не теряется.
+         * Повторный вызов для того же chatKey ничего не делает.
+         *
+         * Пример:
+         *   Android.realtimeSubscribe('alice__bob')
+         */
+        @JavascriptInterface
+        public void realtimeSubscribe(String chatKey) {
+            synchronized (jsRealtimeSubs) {
+                if (jsRealtimeSubs.containsKey(chatKey)) return;
+                final String js = "window.sbRealtimeWake&&window.sbRealtimeWake(" + JSONObject.quote(chatKey) + ")";
+                jsRealtimeSubs.put(chatKey, realtime.subscribe("messages", "chat_key=eq." + chatKey,
+                        new SupabaseRealtime.Listener() {
+                            @Override public void onInsert(JSONObject record) { wake(); }
+                            @Override public void onJoined() { wake(); }
+                            private void wake() { webView.post(() -> webView.evaluateJavascript(js, null)); }
+                        }));
+            }
+        }
+
+        /** Снять все подписки JS (выход из аккаунта, перезапуск поллинга). */
+        @JavascriptInterface
+        public void realtimeUnsubscribeAll() {
+            synchronized (jsRealtimeSubs) {
+                for (SupabaseRealtime.Subscription sub : jsRealtimeSubs.values()) sub.close();
+                jsRealtimeSubs.clear();
+            }
+        }
+
+        /** Канал чата подписан и сокет жив — интервальный опрос можно пропустить. */
+        @JavascriptInterface
+        public boolean realtimeLive(String chatKey) {
+            synchronized (jsRealtimeSubs) {
+                SupabaseRealtime.Subscription sub = jsRealtimeSubs.get(chatKey);
+                return sub != null && sub.isLive();
+            }
+        }
+
+        // ─── Локальное хранилище сообщений (SQLite) ──────────────────────────
+
+        /**
+         * Последние perChat сообщений каждого чата владельца — замена
+         * JSON.parse(localStorage[sapp_messages_v2_…]) в msgLoad().
+         * @return {"chat": [{…}, …], …}
+         */
+        @JavascriptInterface
+        public String msgStoreLoad(String owner, int perChat) {
+            try {
+                return messageStoreIo.submit(() -> messageStore.loadLocal(owner, perChat)).get();
+            } catch (Exception e) {
+                log.e(TAG, "msgStoreLoad ✗ " + e.getMessage());
+                return "{}";
+            }
+        }
+
+        /** До limit сообщений чата старше beforeTs (подгрузка истории при скролле вверх). */
+        @JavascriptInterface
+        public String msgStoreWindow(String owner, String chat, long beforeTs, int limit) {
+            try {
+                return messageStoreIo.submit(() -> messageStore.windowLocal(owner, chat, beforeTs, limit)).get();
+            } catch (Exception e) {
+                log.e(TAG, "msgStoreWindow ✗ " + e.getMessage());
+                return "[]";
+            }
+        }
+
+        /** Сохранить окно одного чата (асинхронно, в порядке вызовов). */
+        @JavascriptInterface
+        public void msgStorePutChat(String owner, String chat, String json) {
+            messageStoreIo.execute(() -> {
+                try {
+                    messageStore.putLocalChat(owner, chat, json);
+                } catch (Exception e) {
+                    log.e(TAG, "msgStorePutChat ✗ " + chat + ": " + e.getMessage());
+                }
+            });
+        }
+
+        @JavascriptInterface
+        public void msgStoreDeleteChat(String owner, String chat) {
+            messageStoreIo.execute(() -> messageStore.deleteLocalChat(owner, chat));
+        }
+
+        /** Перенос старого JSON из localStorage. @return true — можно удалять ключ localStorage */
+        @JavascriptInterface
+        public boolean msgStoreImport(String owner, String json) {
+            try {
+                return messageStoreIo.submit(() -> {
+                    messageStore.importLocal(owner, json);
+                    return true;
+                }).get();
+            } catch (Exception e) {
+                log.e(TAG, "msgStoreImport ✗ " + e.getMessage());
+                return false;
+            }
+        }
+
+        @JavascriptInterface
+        public void msgStoreClear(String owner) {
+            messageStoreIo.execute(() -> messageStore.clearLocal(owner));
+        }
+
+        /**
+         * Статистика клиента Supabase: запросы в полёте, очередь, склеенные SELECT, кэш,
+         * пакетные записи, повторы/хедж/предохранитель.
+         * @return JSON {inFlight, queued, selects, deduped, cache:{...}, writes:{pending,coalesced,requests,...}, policy:{retries,hedges,trips,open,...}, net:{connections,idle,dnsHits,...}, realtime:{connected,channels,joined,inserts,reconnects}, inbox:{owners,cursor,syncs,requests,published,...}, store:{rows,chats,localRows}, presence:{known,online,heartbeats,syncs,rows}}
+         */
+        @JavascriptInterface
+        public String supabaseStats() {
+            try {
+                JSONObject o = new JSONObject();
+                o.put("inFlight", supabase.getInFlightCount());
+                o.put("queued",   supabase.getQueuedCount());
+                o.put("selects",  supabase.getSelectCount());
+                o.put("deduped",  supabase.getDedupedCount());
+                o.put("cache",    supabase.getCacheStats());
+                o.put("writes",   writeBatcher.getStats());
+                o.put("policy",   supabase.getPolicyStats());
+                o.put("net",      NetworkStack.get(MainActivity.this, log).stats());
+                o.put("realtime", realtime.stats());
+                o.put("inbox",    inbox.stats());
+                o.put("poll",     pollScheduler.stats());
+                o.put("store",    messageStore.stats());
+                o.put("presence", presence.stats());
+                return o.toString();
+            } catch (Exception e) {
+                return "{}";
+            }
+        }
+
+        /**
+         * Метрики запросов по эндпоинтам (метод + таблица/RPC): задержки p50/p95/p99,
+         * байты, коды ответов, ошибки. Эндпоинты отсортированы по трафику.
+         *
+         * Пример:
+         *   JSON.parse(Android.supabaseMetrics()).endpoints[0]
+         *   // {endpoint:"GET messages", calls:412, bytes:1830211, p95:800, status:{"200":410,"503":2}, …}
+         */
+        @JavascriptInterface
+        public String supabaseMetrics() {
+            return supabase.getMetrics().toString();
+        }
+
+        /** Обнулить метрики (например, перед замером конкретного сценария). */
+        @JavascriptInterface
+        public void supabaseMetricsReset() {
+            log.i(TAG, "JS→supabaseMetricsReset");
+            supabase.resetMetrics();
+        }
+
+        /**
+         * Сбросить кэш SELECT. table — одна таблица, пустая строка — весь кэш.
+         * Нужно, если JS записал в таблицу напрямую через fetch (мимо SupabaseClient).
+         */
+        @JavascriptInterface
+        public void supabaseCacheInvalidate(String table) {
+            log.i(TAG, "JS→supabaseCacheInvalidate table=" + table);
+            if (table == null || table.isEmpty()) supabase.clearCache();
+            else supabase.invalidateCache(table);
+        }
+
         // ── Auth ──────────────────────────────────────────────────────────
 
         /**
@@ -3097,6 +3185,126 @@ public class MainActivity extends Activity {
             return supabase.storageList(bucket, prefix);
         }
 
+        // ══════════════════════════════════════════════════════════════════
+        // ASYNC BRIDGE — неблокирующие варианты с callbackId.
+        // Метод сразу возвращает управление (JavaBridge-поток свободен),
+        // результат приходит в window._sbAsyncResolve(callbackId, {ok,status,body,error?}).
+        //
+        // Пример из JS (обёртка sbNativeAsync в social.js):
+        //   const r = await sbNativeAsync("supabaseSelectAsync", "messages", "select=*&limit=20");
+        //   if (r.ok) { const rows = JSON.parse(r.body); }
+        // ══════════════════════════════════════════════════════════════════
+
+        @JavascriptInterface
+        public void supabaseSelectAsync(String callbackId, String table, String query) {
+            log.i(TAG, "JS→supabaseSelectAsync cb=" + callbackId + " table=" + table);
+            supabase.selectAsync(table, query, r -> _sbAsyncResolve(callbackId, r));
+        }
+
+        @JavascriptInterface
+        public void supabaseInsertAsync(String callbackId, String table, String json) {
+            log.i(TAG, "JS→supabaseInsertAsync cb=" + callbackId + " table=" + table);
+            if ("messages".equals(table)) inbox.noteChatActivity();
+            supabase.insertAsync(table, json, r -> _sbAsyncResolve(callbackId, r));
+        }
+
+        @JavascriptInterface
+        public void supabaseUpdateAsync(String callbackId, String table, String filter, String json) {
+            log.i(TAG, "JS→supabaseUpdateAsync cb=" + callbackId + " table=" + table + " filter=" + filter);
+            supabase.updateAsync(table, filter, json, r -> _sbAsyncResolve(callbackId, r));
+        }
+
+        @JavascriptInterface
+        public void supabaseUpsertAsync(String callbackId, String table, String json) {
+            log.i(TAG, "JS→supabaseUpsertAsync cb=" + callbackId + " table=" + table);
+            supabase.upsertAsync(table, json, r -> _sbAsyncResolve(callbackId, r));
+        }
+
+        @JavascriptInterface
+        public void supabaseDeleteAsync(String callbackId, String table, String filter) {
+            log.i(TAG, "JS→supabaseDeleteAsync cb=" + callbackId + " table=" + table + " filter=" + filter);
+            supabase.deleteAsync(table, filter, r -> _sbAsyncResolve(callbackId, r));
+        }
+
+        @JavascriptInterface
+        public void supabaseRpcAsync(String callbackId, String function, String paramsJson) {
+            log.i(TAG, "JS→supabaseRpcAsync cb=" + callbackId + " function=" + function);
+            supabase.rpcAsync(function, paramsJson, r -> _sbAsyncResolve(callbackId, r));
+        }
+
+        /**
+         * base64/data:-URL аватара → ссылка на content-addressed объект в Storage.
+         * Ответ: {ok, status:200, body:url}; ссылки возвращаются как есть.
+         */
+        @JavascriptInterface
+        public void avatarOffloadAsync(String callbackId, String avatarData) {
+            log.i(TAG, "JS→avatarOffloadAsync cb=" + callbackId + " len=" + (avatarData != null ? avatarData.length() : 0));
+            avatarStore.offloadAsync(avatarData, url -> {
+                try {
+                    JSONObject r = new JSONObject();
+                    r.put("ok",     url != null);
+                    r.put("status", url != null ? 200 : 0);
+                    r.put("body",   url != null ? url : "");
+                    if (url == null) r.put("error", "avatar upload failed");
+                    _sbAsyncResolve(callbackId, r.toString());
+                } catch (Exception e) {
+                    _sbAsyncResolve(callbackId, "{\"ok\":false,\"status\":0,\"body\":\"\",\"error\":\"unknown\"}");
+                }
+            });
+        }
+
+        @JavascriptInterface
+        public void presenceGetOnlineAsync(String callbackId) {
+            log.i(TAG, "JS→presenceGetOnlineAsync cb=" + callbackId);
+            helper.presenceGetOnlineAsync(r -> _sbAsyncResolve(callbackId, r));
+        }
+
+        @JavascriptInterface
+        public void messageSendAsync(String callbackId, String chatKey, String fromUser,
+                                     String toUser, String text) {
+            log.i(TAG, "JS→messageSendAsync cb=" + callbackId + " chat=" + chatKey);
+            helper.messageSendAsync(chatKey, fromUser, toUser, text,
+                    r -> _sbAsyncResolve(callbackId, r));
+        }
+
+        @JavascriptInterface
+        public void messageGetByChatKeyAsync(String callbackId, String chatKey,
+                                             double afterTs, int limit) {
+            log.i(TAG, "JS→messageGetByChatKeyAsync cb=" + callbackId + " chat=" + chatKey);
+            helper.messageGetByChatKeyAsync(chatKey, (long) afterTs, limit,
+                    r -> _sbAsyncResolve(callbackId, r));
+        }
+
+        @JavascriptInterface
+        public void messageGetInboxAsync(String callbackId, String toUser,
+                                         double afterTs, int limit) {
+            log.i(TAG, "JS→messageGetInboxAsync cb=" + callbackId + " to=" + toUser);
+            helper.messageGetInboxAsync(toUser, (long) afterTs, limit,
+                    r -> _sbAsyncResolve(callbackId, r));
+        }
+
+        @JavascriptInterface
+        public void userGetAsync(String callbackId, String username) {
+            log.i(TAG, "JS→userGetAsync cb=" + callbackId + " username=" + username);
+            helper.userGetAsync(username, r -> _sbAsyncResolve(callbackId, r));
+        }
+
+        /**
+         * Отдаёт результат асинхронного запроса в JS.
+         * resultJson — уже валидный JSON-объект, вставляем как литерал без двойной сериализации.
+         */
+        private void _sbAsyncResolve(String callbackId, String resultJson) {
+            // Ответ приходит на потоке OkHttp и может опоздать к уже закрытой Activity
+            final WebView wv = webView;
+            if (wv == null || isFinishing() || isDestroyed()) return;
+            final String js = "if(typeof window._sbAsyncResolve==='function')"
+                    + "window._sbAsyncResolve(" + JSONObject.quote(callbackId) + "," + resultJson + ")";
+            wv.post(() -> {
+                if (webView != wv || isFinishing() || isDestroyed()) return;
+                wv.evaluateJavascript(js, null);
+            });
+        }
+
         // ══════════════════════════════════════════════════════════════════
         // TYPED HELPERS — типизированные методы под таблицы ScheduleApp
         // ══════════════════════════════════════════════════════════════════
@@ -3160,6 +3368,31 @@ public class MainActivity extends Activity {
             return helper.presenceGetOnline();
         }
 
+        /**
+         * Своя строка presence для общего heartbeat (PresenceService): один
+         * heartbeat на процесс для Kotlin и JS, отправка — через пакетную очередь.
+         *
+         * Пример:
+         *   Android.presenceSetSelf(JSON.stringify({username:"alex", name:"Алекс", status:"online"}))
+         */
+        @JavascriptInterface
+        public void presenceSetSelf(String json) {
+            try {
+                presence.setSelf(new JSONObject(json));
+            } catch (JSONException e) {
+                log.e(TAG, "JS→presenceSetSelf ✗ " + e.getMessage());
+            }
+        }
+
+        /**
+         * Известные строки presence без запроса к серверу (дельта-синк идёт
+         * в PresenceService). Каждая строка — с полем _online.
+         */
+        @JavascriptInterface
+        public String presenceSnapshot() {
+            return presence.snapshotJson();
+        }
+
         /**
          * Получить presence одного пользователя.
          */
@@ -3227,6 +3460,38 @@ public class MainActivity extends Activity {
             return helper.messageGetInbox(toUser, (long) afterTs, limit);
         }
 
+        /**
+         * Страница истории чата по курсору (ts, id) — для бесконечного скролла.
+         * @param cursorTs ts крайнего известного сообщения (0 — без курсора)
+         * @param cursorId id крайнего известного сообщения
+         * @param older    true — старше курсора (без курсора — последние), false — новее
+         * Строки в body всегда по возрастанию (ts, id).
+         *
+         * JS пример (подгрузка вверх):
+         *   const first = msgs[0];
+         *   const r = JSON.parse(Android.messagePageByChatKey("alex_bob", first.ts, first.id, true, 30));
+         */
+        @JavascriptInterface
+        public String messagePageByChatKey(String chatKey, double cursorTs, double cursorId,
+                                           boolean older, int limit) {
+            log.i(TAG, "JS→messagePageByChatKey chat=" + chatKey + " cursor=(" + (long) cursorTs
+                    + "," + (long) cursorId + ") older=" + older);
+            return helper.messagePageByChatKey(chatKey, (long) cursorTs, (long) cursorId, older, limit);
+        }
+
+        /**
+         * Входящие новее курсора (ts, id) — поллинг без пропуска сообщений с одинаковым ts.
+         *
+         * JS пример:
+         *   const r = JSON.parse(Android.messageInboxPage("alex", last.ts, last.id, 100));
+         */
+        @JavascriptInterface
+        public String messageInboxPage(String toUser, double cursorTs, double cursorId, int limit) {
+            log.i(TAG, "JS→messageInboxPage to=" + toUser + " cursor=(" + (long) cursorTs
+                    + "," + (long) cursorId + ")");
+            return helper.messageInboxPage(toUser, (long) cursorTs, (long) cursorId, limit);
+        }
+
         /**
          * Удалить сообщение по id.
          */
@@ -3513,42 +3778,37 @@ public class MainActivity extends Activity {
             CircleRecordActivity.shouldCancel = true;
         }
 
-        // ─── Фоновый сервис (Telegram-style keep-alive) ───────────────────────
+        // ─── Фоновый синк (JobScheduler) ──────────────────────────────────────
 
-        /** Включает фоновый сервис и сохраняет настройку. */
+        /** Включает фоновый синк входящих и сохраняет настройку. */
         @JavascriptInterface
         public void startBackgroundService() {
             log.i(TAG, "startBackgroundService called");
-            prefs.edit().putBoolean(MessagingForegroundService.PREF_BG_ENABLED, true).apply();
-            Intent intent = new Intent(MainActivity.this, MessagingForegroundService.class);
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                startForegroundService(intent);
-            } else {
-                startService(intent);
-            }
+            prefs.edit().putBoolean(InboxSyncJobService.PREF_BG_ENABLED, true).apply();
+            InboxSyncJobService.schedule(MainActivity.this);
         }
 
-        /** Останавливает фоновый сервис и сохраняет настройку. */
+        /** Выключает фоновый синк и сохраняет настройку. */
         @JavascriptInterface
         public void stopBackgroundService() {
             log.i(TAG, "stopBackgroundService called");
-            prefs.edit().putBoolean(MessagingForegroundService.PREF_BG_ENABLED, false).apply();
-            stopService(new Intent(MainActivity.this, MessagingForegroundService.class));
+            prefs.edit().putBoolean(InboxSyncJobService.PREF_BG_ENABLED, false).apply();
+            InboxSyncJobService.cancel(MainActivity.this);
         }
 
-        /** Возвращает true если фоновый сервис включён. */
+        /** Возвращает true если фоновый синк включён. */
         @JavascriptInterface
         public boolean isBackgroundServiceEnabled() {
-            return prefs.getBoolean(MessagingForegroundService.PREF_BG_ENABLED, false);
+            return prefs.getBoolean(InboxSyncJobService.PREF_BG_ENABLED, false);
         }
 
         /**
-         * Возвращает Java-side PREF_SB_LAST_TS чтобы JS мог синхронизировать
+         * Возвращает курсор InboxSyncEngine чтобы JS мог синхронизировать
          * _fbInboxLastTs после долгого фонового периода.
          */
         @JavascriptInterface
         public long getJavaSbLastTs() {
-            return prefs.getLong(PREF_SB_LAST_TS, 0);
+            return inbox.getCursor();
         }
 
         /** Сохраняет base64-изображение в галерею телефона */
@@ -0,0 +1,392 @@
+package com.schedule.app;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Локальное хранилище сообщений в SQLite — открытие чата без сети.
+ *
+ * Две независимые части:
+ *
+ *  • messages + chat_sync — строки сервера для Compose UI (MessageHistory).
+ *    Индексы (chat_key, ts, id) и (to_user, ts, id) — те же ключи, что и на
+ *    сервере, окно чата читается диапазоном без сортировки. Для каждого чата
+ *    хранится непрерывный синхронизированный диапазон [oldest … newest]:
+ *    внутри него локальная история полная, сеть нужна только для дельты
+ *    новее newest и для страниц старше oldest.
+ *
+ *  • local_messages — сообщения WebView-мессенджера (social.js) как есть,
+ *    по владельцу и чату. Раньше это был один JSON в localStorage, который
+ *    целиком парсился и сериализовался на каждое сохранение; теперь JS пишет
+ *    только изменившиеся чаты, а открывает окно последних N сообщений.
+ *
+ *   Range r = store.range("alex_bob");                    // null — чат ещё не синхронизирован
+ *   List<Row> page = store.window("alex_bob", Long.MAX_VALUE, Long.MAX_VALUE, 30);
+ *   store.putSynced("alex_bob", fresh, false, false);      // дельта с сервера → диапазон растёт
+ */
+public class MessageStore {
+
+    private static final String TAG = "MessageStore";
+
+    private static final String DB_NAME    = "messages.db";
+    private static final int    DB_VERSION = 1;
+
+    private static volatile MessageStore instance;
+
+    private final AppLogger log;
+    private final Helper    db;
+
+    // ── Модель ────────────────────────────────────────────────────────────────
+
+    /** Строка messages в том виде, в каком она нужна UI. */
+    public static final class Row {
+        public final long   id;
+        public final String chatKey;
+        public final String from;
+        public final String to;
+        public final long   ts;
+        public final String type;
+        public final String text;
+        public final String fileUrl;
+
+        public Row(long id, String chatKey, String from, String to, long ts,
+                   String type, String text, String fileUrl) {
+            this.id      = id;
+            this.chatKey = chatKey;
+            this.from    = from;
+            this.to      = to;
+            this.ts      = ts;
+            this.type    = type;
+            this.text    = text;
+            this.fileUrl = fileUrl;
+        }
+    }
+
+    /** Синхронизированный диапазон чата: всё между oldest и newest уже лежит локально. */
+    public static final class Range {
+        public final long    oldestTs, oldestId;
+        public final long    newestTs, newestId;
+        /** oldest — первое сообщение чата, старше на сервере ничего нет. */
+        public final boolean complete;
+
+        Range(long oldestTs, long oldestId, long newestTs, long newestId, boolean complete) {
+            this.oldestTs = oldestTs;
+            this.oldestId = oldestId;
+            this.newestTs = newestTs;
+            this.newestId = newestId;
+            this.complete = complete;
+        }
+    }
+
+    // ── Singleton ─────────────────────────────────────────────────────────────
+    public static MessageStore get(Context ctx, AppLogger log) {
+        if (instance == null) {
+            synchronized (MessageStore.class) {
+                if (instance == null) instance = new MessageStore(ctx, log);
+            }
+        }
+        return instance;
+    }
+
+    private MessageStore(Context ctx, AppLogger log) {
+        this.log = log;
+        this.db  = new Helper(ctx.getApplicationContext());
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Строки сервера (Compose UI)
+    // ════════════════════════════════════════════════════════════════════════
+
+    /** Диапазон чата или null, если чат ещё ни разу не синхронизировался. */
+    public Range range(String chatKey) {
+        try (Cursor c = db.getReadableDatabase().rawQuery(
+                "SELECT oldest_ts, oldest_id, newest_ts, newest_id, complete FROM chat_sync WHERE chat_key = ?",
+                new String[]{chatKey})) {
+            if (!c.moveToFirst()) return null;
+            return new Range(c.getLong(0), c.getLong(1), c.getLong(2), c.getLong(3), c.getInt(4) != 0);
+        }
+    }
+
+    /**
+     * Окно чата: до limit сообщений строго старше (beforeTs, beforeId),
+     * только внутри синхронизированного диапазона. По возрастанию (ts, id).
+     * Long.MAX_VALUE/Long.MAX_VALUE — последние сообщения.
+     */
+    public List<Row> window(String chatKey, long beforeTs, long beforeId, int limit) {
+        Range r = range(chatKey);
+        if (r == null) return Collections.emptyList();
+        String ts = String.valueOf(beforeTs), id = String.valueOf(beforeId);
+        List<Row> out = new ArrayList<>();
+        try (Cursor c = db.getReadableDatabase().rawQuery(
+                "SELECT id, chat_key, from_user, to_user, ts, type, text, file_url FROM messages"
+                + " WHERE chat_key = ?"
+                + "   AND (ts < ? OR (ts = ? AND id < ?))"
+                + "   AND (ts > ? OR (ts = ? AND id >= ?))"
+                + "   AND (ts < ? OR (ts = ? AND id <= ?))"
+                + " ORDER BY ts DESC, id DESC LIMIT ?",
+                new String[]{chatKey, ts, ts, id,
+                    String.valueOf(r.oldestTs), String.valueOf(r.oldestTs), String.valueOf(r.oldestId),
+                    String.valueOf(r.newestTs), String.valueOf(r.newestTs), String.valueOf(r.newestId),
+                    String.valueOf(limit)})) {
+            while (c.moveToNext()) {
+                out.add(new Row(c.getLong(0), c.getString(1), c.getString(2), c.getString(3),
+                    c.getLong(4), c.getString(5), c.getString(6), c.getString(7)));
+            }
+        }
+        Collections.reverse(out);
+        return out;
+    }
+
+    /**
+     * Строки, полученные с сервера непрерывным куском, + расширение диапазона.
+     * Кусок обязан примыкать к диапазону — дельта строго новее newest или
+     * страница строго старше oldest (так их и запрашивает MessageHistory).
+     *
+     * @param reachedStart страница старше oldest оказалась неполной — это начало чата
+     * @param reset        начать диапазон заново с этого куска (первое открытие,
+     *                     «последняя страница» без локальной истории)
+     */
+    public void putSynced(String chatKey, List<Row> rows, boolean reachedStart, boolean reset) {
+        SQLiteDatabase w = db.getWritableDatabase();
+        w.beginTransaction();
+        try {
+            long minTs = Long.MAX_VALUE, minId = Long.MAX_VALUE, maxTs = Long.MIN_VALUE, maxId = Long.MIN_VALUE;
+            ContentValues v = new ContentValues();
+            for (Row row : rows) {
+                if (row.id <= 0) continue;   // оптимистичные local_* — только в UI
+                v.clear();
+                v.put("id",        row.id);
+                v.put("chat_key",  chatKey);
+                v.put("from_user", row.from);
+                v.put("to_user",   row.to);
+                v.put("ts",        row.ts);
+                v.put("type",      row.type);
+                v.put("text",      row.text);
+                v.put("file_url",  row.fileUrl);
+                w.insertWithOnConflict("messages", null, v, SQLiteDatabase.CONFLICT_REPLACE);
+                if (before(row.ts, row.id, minTs, minId)) { minTs = row.ts; minId = row.id; }
+                if (before(maxTs, maxId, row.ts, row.id)) { maxTs = row.ts; maxId = row.id; }
+            }
+            boolean any = maxTs != Long.MIN_VALUE;
+            Range r = reset ? null : range(chatKey);
+            if (r == null) {
+                if (any) writeRange(w, chatKey, minTs, minId, maxTs, maxId, reachedStart);
+                else if (reset) w.delete("chat_sync", "chat_key = ?", new String[]{chatKey});
+            } else {
+                long oTs = r.oldestTs, oId = r.oldestId, nTs = r.newestTs, nId = r.newestId;
+                if (any && before(minTs, minId, oTs, oId)) { oTs = minTs; oId = minId; }
+                if (any && before(nTs, nId, maxTs, maxId)) { nTs = maxTs; nId = maxId; }
+                if (any || reachedStart) writeRange(w, chatKey, oTs, oId, nTs, nId, r.complete || reachedStart);
+            }
+            w.setTransactionSuccessful();
+        } finally {
+            w.endTransaction();
+        }
+    }
+
+    private static void writeRange(SQLiteDatabase w, String chatKey, long oTs, long oId,
+                                   long nTs, long nId, boolean complete) {
+        ContentValues v = new ContentValues();
+        v.put("chat_key",  chatKey);
+        v.put("oldest_ts", oTs);
+        v.put("oldest_id", oId);
+        v.put("newest_ts", nTs);
+        v.put("newest_id", nId);
+        v.put("complete",  complete ? 1 : 0);
+        v.put("synced_at", System.currentTimeMillis());
+        w.insertWithOnConflict("chat_sync", null, v, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private static boolean before(long aTs, long aId, long bTs, long bId) {
+        return aTs < bTs || (aTs == bTs && aId < bId);
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Сообщения WebView (social.js)
+    // ════════════════════════════════════════════════════════════════════════
+
+    /**
+     * Последние perChat сообщений каждого чата владельца:
+     * {"chat": [{…}, …], …} — тот же формат, что msgLoad() в JS.
+     */
+    public String loadLocal(String owner, int perChat) {
+        JSONObject out = new JSONObject();
+        SQLiteDatabase r = db.getReadableDatabase();
+        List<String> chats = new ArrayList<>();
+        try (Cursor c = r.rawQuery("SELECT DISTINCT chat FROM local_messages WHERE owner = ?",
+                new String[]{owner})) {
+            while (c.moveToNext()) chats.add(c.getString(0));
+        }
+        for (String chat : chats) {
+            try {
+                out.put(chat, localWindow(r, owner, chat, Long.MAX_VALUE, perChat));
+            } catch (JSONException ignored) {}
+        }
+        return out.toString();
+    }
+
+    /** До limit сообщений чата строго старше beforeTs, по возрастанию ts. */
+    public String windowLocal(String owner, String chat, long beforeTs, int limit) {
+        return localWindow(db.getReadableDatabase(), owner, chat, beforeTs, limit).toString();
+    }
+
+    private JSONArray localWindow(SQLiteDatabase r, String owner, String chat, long beforeTs, int limit) {
+        List<String> bodies = new ArrayList<>();
+        try (Cursor c = r.rawQuery(
+                "SELECT body FROM local_messages WHERE owner = ? AND chat = ? AND ts < ?"
+                + " ORDER BY ts DESC, seq DESC LIMIT ?",
+                new String[]{owner, chat, String.valueOf(beforeTs), String.valueOf(limit)})) {
+            while (c.moveToNext()) bodies.add(c.getString(0));
+        }
+        JSONArray arr = new JSONArray();
+        for (int i = bodies.size() - 1; i >= 0; i--) {
+            try {
+                arr.put(new JSONObject(bodies.get(i)));
+            } catch (JSONException e) {
+                log.w(TAG, "local ✗ битая строка в " + chat + ": " + e.getMessage());
+            }
+        }
+        return arr;
+    }
+
+    /**
+     * Сохранить окно чата из JS: всё, что в базе не старше первого сообщения
+     * окна, заменяется содержимым окна (так доходят и правки, и удаления);
+     * более старые сообщения, не загруженные в JS, не трогаются.
+     */
+    public void putLocalChat(String owner, String chat, String json) throws JSONException {
+        JSONArray arr = new JSONArray(json);
+        SQLiteDatabase w = db.getWritableDatabase();
+        w.beginTransaction();
+        try {
+            if (arr.length() == 0) {
+                w.delete("local_messages", "owner = ? AND chat = ?", new String[]{owner, chat});
+            } else {
+                long fromTs = Long.MAX_VALUE;
+                for (int i = 0; i < arr.length(); i++) {
+                    fromTs = Math.min(fromTs, arr.getJSONObject(i).optLong("ts", 0));
+                }
+                w.delete("local_messages", "owner = ? AND chat = ? AND ts >= ?",
+                    new String[]{owner, chat, String.valueOf(fromTs)});
+                ContentValues v = new ContentValues();
+                for (int i = 0; i < arr.length(); i++) {
+                    JSONObject m = arr.getJSONObject(i);
+                    v.clear();
+                    v.put("owner", owner);
+                    v.put("chat",  chat);
+                    v.put("ts",    m.optLong("ts", 0));
+                    v.put("seq",   i);
+                    v.put("body",  m.toString());
+                    w.insert("local_messages", null, v);
+                }
+            }
+            w.setTransactionSuccessful();
+        } finally {
+            w.endTransaction();
+        }
+    }
+
+    public void deleteLocalChat(String owner, String chat) {
+        db.getWritableDatabase().delete("local_messages", "owner = ? AND chat = ?", new String[]{owner, chat});
+    }
+
+    /** Перенос старого JSON из localStorage: {"chat": [...], ...}. */
+    public void importLocal(String owner, String json) throws JSONException {
+        JSONObject all = new JSONObject(json);
+        int chats = 0;
+        for (Iterator<String> it = all.keys(); it.hasNext(); ) {
+            String chat = it.next();
+            JSONArray arr = all.optJSONArray(chat);
+            if (arr == null) continue;
+            putLocalChat(owner, chat, arr.toString());
+            chats++;
+        }
+        log.i(TAG, "importLocal ▸ @" + owner + ": " + chats + " чатов из localStorage");
+    }
+
+    public void clearLocal(String owner) {
+        db.getWritableDatabase().delete("local_messages", "owner = ?", new String[]{owner});
+    }
+
+    public JSONObject stats() {
+        JSONObject o = new JSONObject();
+        SQLiteDatabase r = db.getReadableDatabase();
+        try {
+            o.put("rows",       count(r, "messages"));
+            o.put("chats",      count(r, "chat_sync"));
+            o.put("localRows",  count(r, "local_messages"));
+        } catch (JSONException ignored) {}
+        return o;
+    }
+
+    private static long count(SQLiteDatabase r, String table) {
+        try (Cursor c = r.rawQuery("SELECT COUNT(*) FROM " + table, null)) {
+            return c.moveToFirst() ? c.getLong(0) : 0;
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Схема
+    // ════════════════════════════════════════════════════════════════════════
+
+    private static final class Helper extends SQLiteOpenHelper {
+        Helper(Context ctx) {
+            super(ctx, DB_NAME, null, DB_VERSION);
+        }
+
+        @Override
+        public void onConfigure(SQLiteDatabase db) {
+            // WAL: чтение окна из UI не ждёт запись дельты с потока синка
+            db.enableWriteAheadLogging();
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE messages ("
+                + " id        INTEGER PRIMARY KEY,"
+                + " chat_key  TEXT    NOT NULL,"
+                + " from_user TEXT,"
+                + " to_user   TEXT,"
+                + " ts        INTEGER NOT NULL,"
+                + " type      TEXT,"
+                + " text      TEXT,"
+                + " file_url  TEXT)");
+            db.execSQL("CREATE INDEX messages_chat_key_ts_id_idx ON messages (chat_key, ts, id)");
+            db.execSQL("CREATE INDEX messages_to_user_ts_id_idx ON messages (to_user, ts, id)");
+
+            db.execSQL("CREATE TABLE chat_sync ("
+                + " chat_key  TEXT PRIMARY KEY,"
+                + " oldest_ts INTEGER NOT NULL,"
+                + " oldest_id INTEGER NOT NULL,"
+                + " newest_ts INTEGER NOT NULL,"
+                + " newest_id INTEGER NOT NULL,"
+                + " complete  INTEGER NOT NULL DEFAULT 0,"
+                + " synced_at INTEGER NOT NULL)");
+
+            db.execSQL("CREATE TABLE local_messages ("
+                + " owner TEXT    NOT NULL,"
+                + " chat  TEXT    NOT NULL,"
+                + " ts    INTEGER NOT NULL,"
+                + " seq   INTEGER NOT NULL,"
+                + " body  TEXT    NOT NULL)");
+            db.execSQL("CREATE INDEX local_messages_chat_ts_idx ON local_messages (owner, chat, ts)");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // Пока одна версия схемы
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.schedule.app;
+
+import android.content.Context;
+
+import org.json.JSONObject;
+
+import java.net.InetAddress;
+import java.net.Proxy;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dns;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * Общий сетевой стек приложения: один пул соединений, HTTP/2, кэш DNS.
+ *
+ * Все сетевые пути (SupabaseClient, фоновые поллеры, Джарвис, DocParser, загрузки
+ * в AndroidBridge, DoH в DnsVpnService) берут клиента отсюда. Клиенты для разных
+ * задач отличаются только таймаутами и прокси, а пул и DNS у них общие:
+ * очередной тик поллера переиспользует уже открытое TLS-соединение к Supabase
+ * вместо нового рукопожатия.
+ *
+ *   OkHttpClient c = NetworkStack.get(ctx, log).client(NetworkStack.Purpose.POLL);
+ *   OkHttpClient p = NetworkStack.get(ctx, log).client(NetworkStack.Purpose.TRANSFER, buildProxy());
+ */
+public final class NetworkStack {
+
+    private static final String TAG = "NetworkStack";
+
+    private static final int  POOL_MAX_IDLE   = 8;
+    private static final long POOL_KEEP_ALIVE = 5;      // минут
+    private static final long DNS_TTL_MS      = 5 * 60_000L;
+    private static final int  DNS_MAX_HOSTS   = 64;
+
+    /** Назначение клиента → таймауты (connect / read / write, секунды). */
+    public enum Purpose {
+        /** Запросы к Supabase из UI и моста. */
+        API(15, 30, 30),
+        /** Фоновые поллеры: короткие таймауты, тик не должен висеть. */
+        POLL(8, 10, 10),
+        /** Скачивание файлов и загрузки (catbox, pixeldrain, расписания). */
+        TRANSFER(20, 180, 180),
+        /** DNS-over-HTTPS из DnsVpnService. */
+        DNS(5, 5, 5);
+
+        final int connectSec, readSec, writeSec;
+
+        Purpose(int connectSec, int readSec, int writeSec) {
+            this.connectSec = connectSec;
+            this.readSec    = readSec;
+            this.writeSec   = writeSec;
+        }
+    }
+
+    private static volatile NetworkStack instance;
+
+    private final AppLogger      log;
+    private final ConnectionPool pool = new ConnectionPool(POOL_MAX_IDLE, POOL_KEEP_ALIVE, TimeUnit.MINUTES);
+    private final CachingDns     dns  = new CachingDns();
+    private final OkHttpClient   base;
+
+    /** Готовые клиенты по ключу "PURPOSE|proxy" — все поверх одного пула. */
+    private final Map<String, OkHttpClient> clients = new HashMap<>();
+
+    // ── Singleton ─────────────────────────────────────────────────────────────
+    public static NetworkStack get(Context ctx, AppLogger log) {
+        if (instance == null) {
+            synchronized (NetworkStack.class) {
+                if (instance == null) instance = new NetworkStack(log);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Уже созданный стек — для кода без Context (DocParser, JarvisRelayClient). Его
+     * создают AppViewModel/MainActivity (через SupabaseClient) и JarvisVoiceService.
+     * @throws IllegalStateException если get(ctx, log) ещё не вызывался
+     */
+    public static NetworkStack get() {
+        NetworkStack s = instance;
+        if (s == null) throw new IllegalStateException("NetworkStack: сначала get(ctx, log)");
+        return s;
+    }
+
+    private NetworkStack(AppLogger log) {
+        this.log = log;
+        base = new OkHttpClient.Builder()
+                .connectionPool(pool)
+                .dns(dns)
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .retryOnConnectionFailure(true)
+                .followRedirects(true)
+                .followSslRedirects(true)
+                .build();
+        log.i(TAG, "▶ NetworkStack готов (пул " + POOL_MAX_IDLE + " соед., keep-alive "
+                + POOL_KEEP_ALIVE + " мин, DNS TTL " + DNS_TTL_MS / 1000 + " с)");
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Клиенты
+    // ════════════════════════════════════════════════════════════════════════
+
+    /** Клиент под задачу; прокси — системный (как у HttpURLConnection без аргументов). */
+    public OkHttpClient client(Purpose purpose) {
+        return client(purpose, null);
+    }
+
+    /**
+     * Клиент под задачу через заданный прокси. Proxy.NO_PROXY — напрямую, мимо системного
+     * (так ходят фоновые поллеры); SOCKS-прокси — из настроек (AndroidBridge.buildProxy).
+     */
+    public synchronized OkHttpClient client(Purpose purpose, Proxy proxy) {
+        String key = purpose.name() + "|" + (proxy != null ? proxy.toString() : "system");
+        OkHttpClient c = clients.get(key);
+        if (c == null) {
+            OkHttpClient.Builder b = base.newBuilder()
+                    .connectTimeout(purpose.connectSec, TimeUnit.SECONDS)
+                    .readTimeout(purpose.readSec, TimeUnit.SECONDS)
+                    .writeTimeout(purpose.writeSec, TimeUnit.SECONDS);
+            if (proxy != null) b.proxy(proxy);
+            c = b.build();
+            clients.put(key, c);
+        }
+        return c;
+    }
+
+    /** {connections, idle, dnsHosts, dnsHits, dnsMisses, clients} */
+    public JSONObject stats() {
+        JSONObject o = new JSONObject();
+        try {
+            o.put("connections", pool.connectionCount());
+            o.put("idle",        pool.idleConnectionCount());
+            o.put("dnsHosts",    dns.size());
+            o.put("dnsHits",     dns.hits.get());
+            o.put("dnsMisses",   dns.misses.get());
+            synchronized (this) { o.put("clients", clients.size()); }
+        } catch (Exception ignored) {}
+        return o;
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // DNS-кэш
+    // ════════════════════════════════════════════════════════════════════════
+
+    /**
+     * Кэширует удачные ответы системного резолвера на DNS_TTL_MS.
+     * Ошибки не кэшируются — следующий запрос спросит резолвер заново.
+     */
+    private static final class CachingDns implements Dns {
+
+        private static final class Entry {
+            final List<InetAddress> addresses;
+            final long              expiresAt;
+
+            Entry(List<InetAddress> addresses, long expiresAt) {
+                this.addresses = addresses;
+                this.expiresAt = expiresAt;
+            }
+        }
+
+        final AtomicLong hits   = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+
+        private final LinkedHashMap<String, Entry> cache =
+                new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                        return size() > DNS_MAX_HOSTS;
+                    }
+                };
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            long now = System.currentTimeMillis();
+            synchronized (cache) {
+                Entry e = cache.get(hostname);
+                if (e != null && e.expiresAt > now) {
+                    hits.incrementAndGet();
+                    return e.addresses;
+                }
+            }
+            misses.incrementAndGet();
+            List<InetAddress> addresses = Dns.SYSTEM.lookup(hostname);
+            synchronized (cache) {
+                cache.put(hostname, new Entry(addresses, now + DNS_TTL_MS));
+            }
+            return addresses;
+        }
+
+        int size() {
+            synchronized (cache) { return cache.size(); }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.schedule.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.PowerManager;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Адаптивный интервал опроса: активность в чатах, сеть, питание.
+ *
+ *  • активность — сразу после входящего/исходящего сообщения опрос идёт
+ *    с базовым интервалом (ACTIVE_WINDOW_MS), дальше каждый пустой опрос
+ *    удваивает интервал до MAX_MS;
+ *  • сеть — без подключения опрос стоит (delayFor → -1); как только сеть
+ *    вернулась (ConnectivityManager.NetworkCallback), подписчики onResume
+ *    получают сигнал и опрашивают сразу;
+ *  • питание — в режиме энергосбережения и в Doze интервал ×POWER_SAVE_FACTOR,
+ *    потолок MAX_IDLE_MS.
+ *
+ *   long d = PollScheduler.get(ctx, log).delayFor(7_000);   // -1 — ждать сети
+ *   scheduler.onPollResult(gotNew);
+ */
+public class PollScheduler {
+
+    private static final String TAG = "PollScheduler";
+
+    /** Сколько после последнего сообщения держим базовый интервал. */
+    private static final long ACTIVE_WINDOW_MS  = 2 * 60_000L;
+    /** Максимум удвоений: база 7 с → 7·2⁶ ≈ 7.5 мин, но не больше MAX_MS. */
+    private static final int  MAX_BACKOFF_SHIFT = 6;
+    private static final long MAX_MS            = 5 * 60_000L;
+    private static final long MAX_IDLE_MS       = 15 * 60_000L;
+    private static final int  POWER_SAVE_FACTOR = 4;
+
+    private static volatile PollScheduler instance;
+
+    private final AppLogger      log;
+    private final PowerManager   power;
+    private final List<Runnable> resumeListeners = new CopyOnWriteArrayList<>();
+
+    private volatile boolean online = true;
+    private volatile long    lastActivityAt;
+    private volatile int     emptyStreak;
+    private volatile long    pausedSince;
+
+    // ── Singleton ─────────────────────────────────────────────────────────────
+    public static PollScheduler get(Context ctx, AppLogger log) {
+        if (instance == null) {
+            synchronized (PollScheduler.class) {
+                if (instance == null) instance = new PollScheduler(ctx, log);
+            }
+        }
+        return instance;
+    }
+
+    private PollScheduler(Context ctx, AppLogger log) {
+        Context app = ctx.getApplicationContext();
+        this.log   = log;
+        this.power = (PowerManager) app.getSystemService(Context.POWER_SERVICE);
+        watchNetwork(app);
+        watchPower(app);
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Интервал
+    // ════════════════════════════════════════════════════════════════════════
+
+    /**
+     * Задержка до следующего опроса для базового интервала baseMs.
+     * @return мс; -1 — сети нет, опрос на паузе до onResume
+     */
+    public long delayFor(long baseMs) {
+        if (!online) return -1;
+        long delay;
+        if (System.currentTimeMillis() - lastActivityAt < ACTIVE_WINDOW_MS) {
+            delay = baseMs;
+        } else {
+            delay = baseMs << Math.min(emptyStreak, MAX_BACKOFF_SHIFT);
+        }
+        long cap = MAX_MS;
+        if (isPowerConstrained()) {
+            delay *= POWER_SAVE_FACTOR;
+            cap = MAX_IDLE_MS;
+        }
+        return Math.max(baseMs, Math.min(delay, cap));
+    }
+
+    /** Итог опроса: пустой — следующий интервал вдвое длиннее, новые строки — сброс. */
+    public void onPollResult(boolean gotNew) {
+        if (gotNew) {
+            emptyStreak = 0;
+            lastActivityAt = System.currentTimeMillis();
+        } else if (emptyStreak < MAX_BACKOFF_SHIFT) {
+            emptyStreak++;
+        }
+    }
+
+    /** Пользователь что-то отправил или открыл чат — ответ, скорее всего, скоро. */
+    public void noteActivity() {
+        emptyStreak = 0;
+        lastActivityAt = System.currentTimeMillis();
+    }
+
+    public boolean isOnline() { return online; }
+
+    /** Вызывается (на системном потоке) когда сеть вернулась или закончился Doze. */
+    public void addResumeListener(Runnable r)    { resumeListeners.add(r); }
+    public void removeResumeListener(Runnable r) { resumeListeners.remove(r); }
+
+    public JSONObject stats() {
+        JSONObject o = new JSONObject();
+        try {
+            o.put("online",      online);
+            o.put("emptyStreak", emptyStreak);
+            o.put("active",      System.currentTimeMillis() - lastActivityAt < ACTIVE_WINDOW_MS);
+            o.put("powerSave",   isPowerConstrained());
+        } catch (JSONException ignored) {}
+        return o;
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Сеть и питание
+    // ════════════════════════════════════════════════════════════════════════
+
+    private boolean isPowerConstrained() {
+        if (power == null) return false;
+        return power.isPowerSaveMode() || power.isDeviceIdleMode();
+    }
+
+    private void watchNetwork(Context app) {
+        ConnectivityManager cm = (ConnectivityManager) app.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) return;
+        Network active = cm.getActiveNetwork();
+        online = active != null;
+        NetworkRequest req = new NetworkRequest.Builder()
+            .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+            .build();
+        try {
+            cm.registerNetworkCallback(req, new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    setOnline(true);
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    // Потеряна одна из сетей — проверяем, осталась ли другая
+                    setOnline(cm.getActiveNetwork() != null);
+                }
+            });
+        } catch (RuntimeException e) {
+            log.w(TAG, "registerNetworkCallback ✗ " + e.getMessage());
+        }
+    }
+
+    private void watchPower(Context app) {
+        IntentFilter f = new IntentFilter();
+        f.addAction(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED);
+        f.addAction(PowerManager.ACTION_DEVICE_IDLE_MODE_CHANGED);
+        app.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context c, Intent i) {
+                boolean constrained = isPowerConstrained();
+                log.i(TAG, "power ▸ " + i.getAction() + " constrained=" + constrained);
+                // Вышли из Doze/энергосбережения — пересчитать интервал и опросить сразу
+                if (!constrained) fireResume();
+            }
+        }, f);
+    }
+
+    private void setOnline(boolean now) {
+        boolean was = online;
+        online = now;
+        if (was == now) return;
+        if (now) {
+            log.i(TAG, "сеть ↻ после " + (System.currentTimeMillis() - pausedSince) / 1000 + " с — опрос возобновлён");
+            fireResume();
+        } else {
+            pausedSince = System.currentTimeMillis();
+            log.i(TAG, "сеть ✗ — опрос на паузе");
+        }
+    }
+
+    private void fireResume() {
+        for (Runnable r : resumeListeners) {
+            try {
+                r.run();
+            } catch (Exception e) {
+                log.w(TAG, "resume listener ✗ " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package com.schedule.app;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Присутствие (presence) — один heartbeat и одна дельта-синхронизация на процесс.
+ *
+ * Раньше AppViewModel раз в 30 с писал свою строку и читал до 200 строк,
+ * social.js каждые ~25 с делал свой PATCH/POST и читал до 500 строк —
+ * трафик рос с числом пользователей онлайн, а не с изменениями.
+ *
+ * Теперь Kotlin и JS только сообщают свою строку (setSelf) и читают общий
+ * снимок. Раз в HEARTBEAT_MS сервис отправляет heartbeat через
+ * SupabaseWriteBatcher и забирает только строки с ts новее последней
+ * синхронизации; онлайн — у кого ts моложе ONLINE_MS, просроченные выпадают
+ * из набора без запросов.
+ *
+ *   PresenceService ps = PresenceService.get(ctx, log);
+ *   ps.acquire("activity");             // пока приложение на экране
+ *   ps.setSelf(row);                    // {username, name, avatar, status, …}
+ *   Set<String> online = ps.onlineUsernames();
+ */
+public class PresenceService {
+
+    private static final String TAG = "Presence";
+
+    private static final long HEARTBEAT_MS = 30_000L;
+    /** Онлайн — heartbeat не старше этого (как _profileOnlinePeers в social.js). */
+    private static final long ONLINE_MS    = 5 * 60_000L;
+    /**
+     * Перекрытие дельты: ts пишет клиент, его часы могут отставать от наших —
+     * строку, записанную «в прошлом» не больше чем на столько, дельта не потеряет.
+     */
+    private static final long CLOCK_SKEW_MS = 60_000L;
+    private static final int  FULL_LIMIT   = 500;
+    private static final int  DELTA_LIMIT  = 200;
+
+    private static final String COLUMNS =
+            "select=username,name,avatar,avatar_type,avatar_data:avatar_ref,color,status,vip,badge,ts";
+
+    public interface Listener {
+        /** Набор онлайн или данные известных пользователей изменились. Поток сервиса. */
+        void onPresenceChanged();
+    }
+
+    private static volatile PresenceService instance;
+
+    private final AppLogger            log;
+    private final SupabaseClient       db;
+    private final SupabaseWriteBatcher batcher;
+    private final AvatarStore          avatars;
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "presence");
+        t.setDaemon(true);
+        return t;
+    });
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Set<String>    owners    = new HashSet<>();
+
+    /** username → последняя известная строка presence (только с потока worker). */
+    private final Map<String, JSONObject> rows = new HashMap<>();
+    private volatile Set<String> online = new HashSet<>();
+    private volatile JSONObject  self;
+    /** Готовый JSON для JS — пересобирается только при изменениях. */
+    private volatile String      snapshot = "[]";
+    /** Время последнего завершённого синка; читается и из stats() с других потоков. */
+    private volatile long        lastSyncTs;
+    /**
+     * Ключ (ts, username) последней строки полной страницы дельты: следующая страница
+     * продолжает строго после него. null — дельта дочитана (только с потока worker).
+     */
+    private long                 pageTs;
+    private String               pageUser;
+    private ScheduledFuture<?>   tickFuture;
+
+    // Счётчики
+    private volatile long heartbeats, syncs, fetchedRows, known;
+
+    // ── Singleton ─────────────────────────────────────────────────────────────
+    public static PresenceService get(Context ctx, AppLogger log) {
+        if (instance == null) {
+            synchronized (PresenceService.class) {
+                if (instance == null) instance = new PresenceService(ctx, log);
+            }
+        }
+        return instance;
+    }
+
+    private PresenceService(Context ctx, AppLogger log) {
+        Context app  = ctx.getApplicationContext();
+        this.log     = log;
+        this.db      = SupabaseClient.get(app, log);
+        this.batcher = SupabaseWriteBatcher.get(app, log);
+        this.avatars = AvatarStore.get(app, log);
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Владельцы и своя строка
+    // ════════════════════════════════════════════════════════════════════════
+
+    /** Компонент на экране — heartbeat и синк идут, пока есть хоть один владелец. */
+    public synchronized void acquire(String owner) {
+        if (!owners.add(owner)) return;
+        log.i(TAG, "acquire ▸ " + owner + ", владельцев: " + owners.size());
+        if (tickFuture == null) {
+            tickFuture = worker.scheduleWithFixedDelay(this::tick, 0, HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void release(String owner) {
+        if (!owners.remove(owner)) return;
+        log.i(TAG, "release ▸ " + owner + ", владельцев: " + owners.size());
+        if (owners.isEmpty() && tickFuture != null) {
+            tickFuture.cancel(false);
+            tickFuture = null;
+        }
+    }
+
+    /**
+     * Своя строка presence (username обязателен). Первый вызов или смена
+     * статуса/профиля отправляются сразу, дальше — с каждым heartbeat.
+     */
+    public void setSelf(JSONObject row) {
+        if (row == null || row.optString("username", "").isEmpty()) return;
+        JSONObject prev = self;
+        self = row;
+        if (prev == null || !sameProfile(prev, row)) worker.execute(this::heartbeat);
+    }
+
+    /** Выход из аккаунта — heartbeat больше не шлём. */
+    public void clearSelf() {
+        self = null;
+    }
+
+    public void addListener(Listener l)    { if (!listeners.contains(l)) listeners.add(l); }
+    public void removeListener(Listener l) { listeners.remove(l); }
+
+    /** Внеочередной синк (открыли список онлайн). */
+    public void syncNow() {
+        worker.execute(this::sync);
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Чтение
+    // ════════════════════════════════════════════════════════════════════════
+
+    public Set<String> onlineUsernames() {
+        return online;
+    }
+
+    public boolean isOnline(String username) {
+        return online.contains(username);
+    }
+
+    /**
+     * Все известные строки presence для JS — формат тот же, что select=* из
+     * presence, плюс поле _online. Без сети.
+     */
+    public String snapshotJson() {
+        return snapshot;
+    }
+
+    public JSONObject stats() {
+        JSONObject o = new JSONObject();
+        try {
+            synchronized (this) { o.put("owners", new JSONArray(owners)); }
+            o.put("known",      known);
+            o.put("online",     online.size());
+            o.put("lastSync",   lastSyncTs);
+            o.put("heartbeats", heartbeats);
+            o.put("syncs",      syncs);
+            o.put("rows",       fetchedRows);
+        } catch (JSONException ignored) {}
+        return o;
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Тик (только поток worker)
+    // ════════════════════════════════════════════════════════════════════════
+
+    private void tick() {
+        try {
+            heartbeat();
+            sync();
+        } catch (Exception e) {
+            log.e(TAG, "tick ✗ " + e.getMessage());
+        }
+    }
+
+    private void heartbeat() {
+        JSONObject me = self;
+        if (me == null) return;
+        try {
+            JSONObject row = new JSONObject(me.toString());
+            row.put("ts", System.currentTimeMillis());
+            avatars.offloadField(row);
+            batcher.enqueue("presence", row);
+            heartbeats++;
+        } catch (JSONException e) {
+            log.w(TAG, "heartbeat ✗ " + e.getMessage());
+        }
+    }
+
+    /**
+     * Первый раз — все строки (для поиска по известным), дальше — только изменившиеся.
+     * Курсор — наше время запроса, а не максимальный ts из ответа: клиент со
+     * спешащими часами иначе утащил бы курсор в будущее, и строки остальных
+     * до того момента в дельту бы не попадали.
+     *
+     * Полная страница дельты листается по ключу (ts, username), а не по ts:
+     * строки с тем же ts, что у последней строки страницы, не теряются.
+     */
+    private void sync() {
+        boolean full = lastSyncTs == 0;
+        long requestedAt = System.currentTimeMillis();
+        String query;
+        if (full) {
+            query = COLUMNS + "&order=ts.desc&limit=" + FULL_LIMIT;
+        } else if (pageUser != null) {
+            query = COLUMNS + "&or=(ts.gt." + pageTs + ",and(ts.eq." + pageTs
+                    + ",username.gt." + quote(pageUser) + "))"
+                    + "&order=ts.asc,username.asc&limit=" + DELTA_LIMIT;
+        } else {
+            query = COLUMNS + "&ts=gt." + (lastSyncTs - CLOCK_SKEW_MS)
+                    + "&order=ts.asc,username.asc&limit=" + DELTA_LIMIT;
+        }
+        syncs++;
+        boolean changed = false;
+        try {
+            JSONObject env = new JSONObject(db.select("presence", query));
+            if (!env.optBoolean("ok")) {
+                log.w(TAG, "sync ✗ status=" + env.optInt("status"));
+            } else {
+                JSONArray arr = new JSONArray(env.optString("body", "[]"));
+                fetchedRows += arr.length();
+                for (int i = 0; i < arr.length(); i++) {
+                    JSONObject r = arr.getJSONObject(i);
+                    String u = r.optString("username", "");
+                    if (u.isEmpty()) continue;
+                    long ts = r.optLong("ts", 0);
+                    JSONObject old = rows.get(u);
+                    if (old != null && old.optLong("ts", 0) >= ts) continue;
+                    rows.put(u, r);
+                    changed = true;
+                }
+                // Полная страница дельты (ts, username по возрастанию) — дальше есть ещё:
+                // следующая продолжит строго после последней строки, курсор времени ждёт конца
+                JSONObject last = !full && arr.length() >= DELTA_LIMIT
+                        ? arr.getJSONObject(arr.length() - 1) : null;
+                if (last != null) {
+                    pageTs   = last.optLong("ts", 0);
+                    pageUser = last.optString("username", "");
+                } else {
+                    pageUser   = null;
+                    lastSyncTs = requestedAt;
+                }
+                known = rows.size();
+                if (full) log.i(TAG, "sync ▸ полный: " + known + " пользователей");
+            }
+        } catch (Exception e) {
+            log.w(TAG, "sync ✗ " + e.getMessage());
+        }
+        // Истечение онлайна — без запросов, по ts уже известных строк
+        changed |= recomputeOnline();
+        if (changed) {
+            snapshot = buildSnapshot();
+            notifyListeners();
+        }
+    }
+
+    /** Значение для or=(…) PostgREST: в кавычках, затем URL-кодирование. */
+    private static String quote(String value) {
+        String q = "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+        try {
+            return URLEncoder.encode(q, "UTF-8").replace("+", "%20");
+        } catch (Exception e) {
+            return q;
+        }
+    }
+
+    private String buildSnapshot() {
+        JSONArray arr = new JSONArray();
+        Set<String> on = online;
+        for (JSONObject r : rows.values()) {
+            try {
+                JSONObject o = new JSONObject(r.toString());
+                o.put("_online", on.contains(r.optString("username")));
+                arr.put(o);
+            } catch (JSONException ignored) {}
+        }
+        return arr.toString();
+    }
+
+    private boolean recomputeOnline() {
+        long now = System.currentTimeMillis();
+        Set<String> next = new HashSet<>();
+        for (JSONObject r : rows.values()) {
+            if ("offline".equals(r.optString("status"))) continue;
+            if (now - r.optLong("ts", 0) < ONLINE_MS) next.add(r.optString("username"));
+        }
+        if (next.equals(online)) return false;
+        online = next;
+        return true;
+    }
+
+    private void notifyListeners() {
+        for (Listener l : new ArrayList<>(listeners)) {
+            try {
+                l.onPresenceChanged();
+            } catch (Exception e) {
+                log.w(TAG, "listener ✗ " + e.getMessage());
+            }
+        }
+    }
+
+    private static boolean sameProfile(JSONObject a, JSONObject b) {
+        String[] keys = {"username", "name", "avatar", "avatar_type", "avatar_data", "color", "status", "vip", "badge"};
+        for (String k : keys) {
+            if (!String.valueOf(a.opt(k)).equals(String.valueOf(b.opt(k)))) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,174 @@
+package com.schedule.app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Кэш ответов SELECT для SupabaseClient.
+ *
+ *  – ключ: таблица + нормализованный query (параметры отсортированы) + токен
+ *  – TTL задаётся на таблицу; таблица без TTL не кэшируется (opt-in)
+ *  – ограничен суммарным размером, вытесняется самый давно использованный (LRU)
+ *  – любая запись в таблицу (insert/update/upsert/delete) сбрасывает её записи;
+ *    JS, пишущий мимо клиента (_sbFetch), сбрасывает таблицу через supabaseCacheInvalidate
+ *
+ * Поколение таблицы (generation) защищает от гонки: SELECT, стартовавший до записи,
+ * не положит в кэш устаревший ответ после инвалидации.
+ */
+class SupabaseCache {
+
+    /**
+     * Таблицы, которые не кэшируются никогда — даже через setTtl(): проверка пароля
+     * и регистрация должны видеть сервер, а не копию.
+     */
+    static final Set<String> NEVER_CACHED = new HashSet<>(Arrays.asList("accounts"));
+
+    static final long DEFAULT_MAX_BYTES = 2 * 1024 * 1024;   // 2 MB
+
+    private static final class Entry {
+        final String table;
+        final String value;
+        final long   expiresAt;
+        final long   size;
+
+        Entry(String table, String value, long expiresAt) {
+            this.table     = table;
+            this.value     = value;
+            this.expiresAt = expiresAt;
+            this.size      = value.length() * 2L;   // UTF-16
+        }
+    }
+
+    private final long maxBytes;
+    private final Map<String, Long>  ttlByTable = new HashMap<>();
+    private final Map<String, Long>  generation = new HashMap<>();
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<>(64, 0.75f, true);   // accessOrder = LRU
+    private long bytes;
+    private long hits, misses, evictions;
+
+    SupabaseCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // ── Настройка ─────────────────────────────────────────────────────────────
+
+    /** ttlMs <= 0 — таблица не кэшируется. */
+    synchronized void setTtl(String table, long ttlMs) {
+        if (ttlMs > 0 && !NEVER_CACHED.contains(table)) ttlByTable.put(table, ttlMs);
+        else {
+            ttlByTable.remove(table);
+            invalidateTable(table);
+        }
+    }
+
+    synchronized boolean isCached(String table) {
+        return ttlByTable.containsKey(table);
+    }
+
+    // ── Чтение / запись ───────────────────────────────────────────────────────
+
+    static String key(String table, String query, String token) {
+        return table + "?" + normalize(query) + "#" + (token != null ? token.hashCode() : 0);
+    }
+
+    /** Параметры query в каноническом порядке: "b=2&a=1" и "a=1&b=2" — один ключ. */
+    static String normalize(String query) {
+        if (query == null || query.isEmpty()) return "";
+        String[] parts = query.split("&");
+        Arrays.sort(parts);
+        StringBuilder sb = new StringBuilder(query.length());
+        for (String p : parts) {
+            if (p.isEmpty()) continue;
+            if (sb.length() > 0) sb.append('&');
+            sb.append(p);
+        }
+        return sb.toString();
+    }
+
+    synchronized String get(String key) {
+        Entry e = entries.get(key);
+        if (e == null) { misses++; return null; }
+        if (e.expiresAt < System.currentTimeMillis()) {
+            remove(key);
+            misses++;
+            return null;
+        }
+        hits++;
+        return e.value;
+    }
+
+    /** Текущее поколение таблицы — запоминается перед запросом и сверяется в put(). */
+    synchronized long generation(String table) {
+        Long g = generation.get(table);
+        return g != null ? g : 0L;
+    }
+
+    synchronized void put(String table, String key, String value, long gen) {
+        Long ttl = ttlByTable.get(table);
+        if (ttl == null || value == null) return;
+        if (generation(table) != gen) return;   // была запись — ответ мог устареть
+        Entry e = new Entry(table, value, System.currentTimeMillis() + ttl);
+        if (e.size > maxBytes / 4) return;      // слишком большой ответ — не вытесняем ради него всё
+        remove(key);
+        entries.put(key, e);
+        bytes += e.size;
+        trim();
+    }
+
+    synchronized void invalidateTable(String table) {
+        generation.put(table, generation(table) + 1);
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry e = it.next().getValue();
+            if (e.table.equals(table)) {
+                bytes -= e.size;
+                it.remove();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        for (String table : new ArrayList<>(generation.keySet())) {
+            generation.put(table, generation(table) + 1);
+        }
+        entries.clear();
+        bytes = 0;
+    }
+
+    // ── Статистика ────────────────────────────────────────────────────────────
+
+    synchronized long hits()      { return hits; }
+    synchronized long misses()    { return misses; }
+    synchronized long evictions() { return evictions; }
+    synchronized long bytes()     { return bytes; }
+    synchronized int  size()      { return entries.size(); }
+
+    synchronized List<String> tables() {
+        return new ArrayList<>(ttlByTable.keySet());
+    }
+
+    // ── Внутреннее ────────────────────────────────────────────────────────────
+
+    private void remove(String key) {
+        Entry old = entries.remove(key);
+        if (old != null) bytes -= old.size;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Entry e = it.next().getValue();
+            bytes -= e.size;
+            it.remove();
+            evictions++;
+        }
+    }
+}
@@ -0,0 +1,564 @@
+package com.schedule.app;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Политика выполнения запросов SupabaseClient: повторы, хеджирование, предохранитель.
+ *
+ *  – повторы только для идемпотентных запросов (GET, PATCH, DELETE, upsert,
+ *    RPC из списка безопасных); INSERT и auth не повторяются никогда.
+ *    Повод для повтора: сетевая ошибка, 408, 429, 5xx. Пауза — экспоненциальная
+ *    с полным джиттером (или Retry-After, если сервер его прислал)
+ *  – хеджирование GET: если ответа нет дольше p95 этого эндпоинта, уходит второй
+ *    такой же запрос; кто ответил первым — тот и результат, второй отменяется
+ *  – предохранитель на хост: после BREAKER_THRESHOLD сбоев подряд запросы
+ *    к хосту BREAKER_COOLDOWN_MS сразу получают ошибку, без сети; потом один
+ *    пробный запрос решает — закрыть предохранитель или открыть снова (на вдвое дольше)
+ *
+ * Отмена: cancel() у Call из enqueue() гасит текущий вызов, хедж и запланированный
+ * повтор; пробный запрос предохранителя при этом освобождается.
+ */
+class SupabaseCallPolicy {
+
+    private static final String TAG = "SupabasePolicy";
+
+    static final int  MAX_RETRIES         = 2;
+    static final long BACKOFF_BASE_MS     = 250;
+    static final long BACKOFF_CAP_MS      = 4_000;
+    static final long RETRY_AFTER_CAP_MS  = 10_000;
+
+    static final double HEDGE_PERCENTILE  = 0.95;
+    static final int    HEDGE_MIN_SAMPLES = 20;
+    static final long   HEDGE_MIN_MS      = 200;
+    static final long   HEDGE_MAX_MS      = 3_000;
+
+    static final int  BREAKER_THRESHOLD       = 5;
+    static final long BREAKER_COOLDOWN_MS     = 15_000;
+    static final long BREAKER_MAX_COOLDOWN_MS = 120_000;
+
+    private final OkHttpClient    http;
+    private final SupabaseMetrics metrics;
+    private final AppLogger       log;
+    private final Random          random = new Random();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "supabase-policy");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Set<String>          safeRpc  = new HashSet<>();
+    private final Map<String, Breaker> breakers = new HashMap<>();
+
+    private final AtomicLong retries   = new AtomicLong();
+    private final AtomicLong hedges    = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong rejected  = new AtomicLong();
+    private final AtomicLong trips     = new AtomicLong();
+
+    /** Предохранитель одного хоста. Все поля — под synchronized(breakers). */
+    private static final class Breaker {
+        int     failures;
+        long    openUntil;
+        long    cooldown = BREAKER_COOLDOWN_MS;
+        boolean trialInFlight;
+    }
+
+    SupabaseCallPolicy(OkHttpClient http, SupabaseMetrics metrics, AppLogger log) {
+        this.http    = http;
+        this.metrics = metrics;
+        this.log     = log;
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Идемпотентность
+    // ════════════════════════════════════════════════════════════════════════
+
+    /** Разрешить повторы для RPC-функции (только если она ничего не пишет или пишет идемпотентно). */
+    synchronized void markRpcSafe(String function) {
+        safeRpc.add(function);
+    }
+
+    synchronized boolean isIdempotent(Request req) {
+        String method = req.method();
+        String path   = req.url().encodedPath();
+        if (path.startsWith("/auth/")) return false;
+        switch (method) {
+            case "GET":
+            case "HEAD":
+                return true;
+            case "PATCH":    // PostgREST PATCH ставит значения, а не прибавляет — повтор безопасен
+            case "DELETE":
+                return path.startsWith("/rest/v1/");
+            case "POST":
+                if (path.startsWith("/rest/v1/rpc/")) {
+                    return safeRpc.contains(path.substring("/rest/v1/rpc/".length()));
+                }
+                if (path.startsWith("/rest/v1/")) {
+                    String prefer = req.header("Prefer");
+                    return prefer != null && prefer.contains("resolution=merge-duplicates");
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean retryableStatus(int code) {
+        return code == 408 || code == 429 || code == 500 || code == 502
+                || code == 503 || code == 504;
+    }
+
+    /** Что считается «хост деградировал» для предохранителя. */
+    private static boolean breakerFailure(int code) {
+        return code == 429 || code >= 500;
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Синхронное выполнение
+    // ════════════════════════════════════════════════════════════════════════
+
+    /** Выполнить запрос с политикой. Ответ закрывает вызывающий. */
+    Response execute(Request req) throws IOException {
+        if (hedgeDelay(req) > 0) return executeViaAsync(req);
+        boolean idempotent = isIdempotent(req);
+        String  host       = req.url().host();
+        for (int attempt = 0; ; attempt++) {
+            if (!allow(host)) throw circuitOpen(host);
+            long t0 = System.currentTimeMillis();
+            Response resp;
+            try {
+                resp = http.newCall(req).execute();
+            } catch (IOException e) {
+                onResult(host, -1);
+                if (!idempotent || attempt >= MAX_RETRIES) throw e;
+                metrics.record(req.method(), pathOf(req), System.currentTimeMillis() - t0, 0, 0);
+                sleepBeforeRetry(req, attempt, -1, e.getMessage());
+                continue;
+            }
+            int code = resp.code();
+            onResult(host, code);
+            if (!idempotent || !retryableStatus(code) || attempt >= MAX_RETRIES) return resp;
+            long retryAfter = retryAfterMs(resp);
+            resp.close();
+            metrics.record(req.method(), pathOf(req), System.currentTimeMillis() - t0, 0, code);
+            sleepBeforeRetry(req, attempt, retryAfter, "HTTP " + code);
+        }
+    }
+
+    private void sleepBeforeRetry(Request req, int attempt, long retryAfter, String why)
+            throws InterruptedIOException {
+        long delay = backoffMs(attempt, retryAfter);
+        retries.incrementAndGet();
+        log.w(TAG, "↻ повтор " + (attempt + 1) + "/" + MAX_RETRIES + " через " + delay + "мс: "
+                + req.method() + " " + pathOf(req) + " (" + why + ")");
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted");
+        }
+    }
+
+    /** Хеджирование требует двух параллельных вызовов — ждём асинхронный вариант. */
+    private Response executeViaAsync(Request req) throws IOException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final Response[]     resp = new Response[1];
+        final IOException[]  err  = new IOException[1];
+        Call call = enqueue(req, new Callback() {
+            @Override
+            public void onResponse(Call c, Response r) {
+                resp[0] = r;
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(Call c, IOException e) {
+                err[0] = e;
+                done.countDown();
+            }
+        });
+        try {
+            done.await();
+        } catch (InterruptedException ie) {
+            call.cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted");
+        }
+        if (err[0] != null) throw err[0];
+        return resp[0];
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Асинхронное выполнение
+    // ════════════════════════════════════════════════════════════════════════
+
+    /**
+     * Поставить запрос в очередь с политикой. Возвращённый Call — ручка отмены:
+     * его cancel() отменяет идущий вызов раунда, хедж и запланированный повтор.
+     * Колбэк получает ровно один итог; Response закрывает колбэк.
+     */
+    Call enqueue(Request req, Callback cb) {
+        Exchange ex = new Exchange(req, cb);
+        ex.round(http.newCall(req), 0, hedgeDelay(req));
+        return ex.handle;
+    }
+
+    /** Один логический запрос: раунды попыток, в первом раунде — возможный хедж. */
+    private final class Exchange {
+        final Request  req;
+        final Callback cb;
+        final String   host;
+        final boolean  idempotent;
+        final ExchangeCall handle = new ExchangeCall(this);
+
+        /** Всё ниже — под synchronized(this). */
+        private boolean canceled;
+        /** Вызовы текущего раунда: основной и хедж. */
+        private final Call[] live = new Call[2];
+        /** Ждущий хедж или повтор. */
+        private ScheduledFuture<?> scheduled;
+        /** Итог уже отдан в cb — отмена ничего не досылает. */
+        private boolean delivered;
+
+        Exchange(Request req, Callback cb) {
+            this.req        = req;
+            this.cb         = cb;
+            this.host       = req.url().host();
+            this.idempotent = isIdempotent(req);
+        }
+
+        synchronized boolean isCanceled() { return canceled; }
+
+        /** Отмена снаружи: всё живое гасится, cb получает «Canceled» ровно один раз. */
+        void cancel() {
+            boolean notify;
+            synchronized (this) {
+                if (canceled) return;
+                canceled = true;
+                for (Call c : live) if (c != null) c.cancel();
+                // Между раундами вызовов нет — итог дошлём сами
+                notify = live[0] == null && live[1] == null && !delivered;
+                if (notify) delivered = true;
+                if (scheduled != null) scheduled.cancel(false);
+            }
+            if (notify) cb.onFailure(handle, new IOException("Canceled"));
+        }
+
+        void round(Call first, int attempt, long hedgeAfterMs) {
+            if (!allow(host)) {
+                finish(null, circuitOpen(host));
+                return;
+            }
+            synchronized (this) {
+                if (canceled) {
+                    release(host);
+                    return;
+                }
+                live[0] = first;
+                live[1] = null;
+            }
+            final AtomicBoolean finished = new AtomicBoolean();
+            final AtomicInteger pending  = new AtomicInteger(1);
+            final long          t0       = System.currentTimeMillis();
+
+            first.enqueue(roundCallback(finished, pending, attempt, t0, false));
+
+            if (hedgeAfterMs > 0) {
+                ScheduledFuture<?> f = timer.schedule(() -> {
+                    // Полуоткрытому хосту хедж не положен — и пробный запрос он не забирает
+                    if (finished.get() || !closed(host)) return;
+                    Call hedge = http.newCall(req);
+                    synchronized (this) {
+                        if (canceled) return;
+                        live[1] = hedge;
+                    }
+                    pending.incrementAndGet();
+                    hedges.incrementAndGet();
+                    log.i(TAG, "⇉ хедж после " + hedgeAfterMs + "мс: " + req.method() + " " + pathOf(req));
+                    hedge.enqueue(roundCallback(finished, pending, attempt, t0, true));
+                }, hedgeAfterMs, TimeUnit.MILLISECONDS);
+                synchronized (this) { scheduled = f; }
+            }
+        }
+
+        Callback roundCallback(AtomicBoolean finished, AtomicInteger pending,
+                               int attempt, long t0, boolean isHedge) {
+            return new Callback() {
+                @Override
+                public void onResponse(Call c, Response resp) {
+                    pending.decrementAndGet();
+                    if (!finished.compareAndSet(false, true)) { resp.close(); return; }
+                    if (isHedge) hedgeWins.incrementAndGet();
+                    cancelOthers(c);
+                    outcome(resp, null, attempt, t0);
+                }
+
+                @Override
+                public void onFailure(Call c, IOException e) {
+                    // Второй вызов раунда ещё идёт — ждём его, а не сдаёмся
+                    if (pending.decrementAndGet() > 0 && !isCanceled()) return;
+                    if (!finished.compareAndSet(false, true)) return;
+                    outcome(null, e, attempt, t0);
+                }
+            };
+        }
+
+        private void cancelOthers(Call winner) {
+            synchronized (this) {
+                for (Call c : live) if (c != null && c != winner) c.cancel();
+                if (scheduled != null) scheduled.cancel(false);   // хедж, не успевший уйти
+            }
+        }
+
+        void outcome(Response resp, IOException e, int attempt, long t0) {
+            int code = resp != null ? resp.code() : -1;
+            synchronized (this) {
+                live[0] = null;
+                live[1] = null;
+            }
+            if (isCanceled()) {
+                // Пробный запрос отменён — ни успех, ни сбой, но слот пробы надо вернуть,
+                // иначе полуоткрытый предохранитель не пропустит больше ни одного запроса
+                release(host);
+                if (resp != null) resp.close();
+                finish(null, e != null ? e : new IOException("Canceled"));
+                return;
+            }
+            onResult(host, code);
+            boolean retry = idempotent && attempt < MAX_RETRIES
+                    && (resp == null || retryableStatus(code));
+            if (!retry) {
+                finish(resp, e);
+                return;
+            }
+            long retryAfter = resp != null ? retryAfterMs(resp) : -1;
+            if (resp != null) resp.close();
+            metrics.record(req.method(), pathOf(req), System.currentTimeMillis() - t0, 0,
+                    code > 0 ? code : 0);
+            long delay = backoffMs(attempt, retryAfter);
+            retries.incrementAndGet();
+            log.w(TAG, "↻ повтор " + (attempt + 1) + "/" + MAX_RETRIES + " через " + delay + "мс: "
+                    + req.method() + " " + pathOf(req)
+                    + " (" + (resp != null ? "HTTP " + code : e.getMessage()) + ")");
+            synchronized (this) {
+                if (!canceled) {
+                    scheduled = timer.schedule(() -> round(http.newCall(req), attempt + 1, 0),
+                            delay, TimeUnit.MILLISECONDS);
+                    return;
+                }
+            }
+            finish(null, new IOException("Canceled"));
+        }
+
+        /** Отдать итог в cb, если его ещё не отдала отмена. */
+        private void finish(Response resp, IOException e) {
+            synchronized (this) {
+                if (delivered) {
+                    if (resp != null) resp.close();
+                    return;
+                }
+                delivered = true;
+            }
+            if (resp == null) {
+                cb.onFailure(handle, e);
+                return;
+            }
+            try {
+                cb.onResponse(handle, resp);
+            } catch (IOException io) {
+                resp.close();
+            }
+        }
+    }
+
+    /**
+     * Ручка логического запроса для вызывающего: отмена доходит до всех раундов.
+     * Сам по себе не выполняется — его уже ведёт Exchange.
+     */
+    private static final class ExchangeCall implements Call {
+        private final Exchange ex;
+
+        ExchangeCall(Exchange ex) { this.ex = ex; }
+
+        @Override public Request request()      { return ex.req; }
+        @Override public void    cancel()       { ex.cancel(); }
+        @Override public boolean isCanceled()   { return ex.isCanceled(); }
+        @Override public boolean isExecuted()   { return true; }
+        @Override public okio.Timeout timeout() { return okio.Timeout.NONE; }
+
+        @Override
+        public Response execute() {
+            throw new UnsupportedOperationException("запрос уже поставлен в очередь политикой");
+        }
+
+        @Override
+        public void enqueue(Callback responseCallback) {
+            throw new UnsupportedOperationException("запрос уже поставлен в очередь политикой");
+        }
+
+        @Override
+        public Call clone() {
+            throw new UnsupportedOperationException("запрос уже поставлен в очередь политикой");
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Хеджирование / пауза
+    // ════════════════════════════════════════════════════════════════════════
+
+    /** Задержка хеджа для запроса или 0 — не хеджировать. */
+    private long hedgeDelay(Request req) {
+        if (!"GET".equals(req.method())) return 0;
+        String host = req.url().host();
+        synchronized (breakers) {
+            Breaker b = breakers.get(host);
+            if (b != null && b.failures > 0) return 0;   // хост и так плохо себя чувствует
+        }
+        long p = metrics.percentileMs(req.method(), pathOf(req), HEDGE_PERCENTILE, HEDGE_MIN_SAMPLES);
+        if (p <= 0) return 0;
+        return Math.max(HEDGE_MIN_MS, Math.min(HEDGE_MAX_MS, p));
+    }
+
+    /** Полный джиттер: случайно в [0, min(cap, base·2^attempt)]; Retry-After важнее. */
+    private long backoffMs(int attempt, long retryAfterMs) {
+        if (retryAfterMs > 0) return Math.min(retryAfterMs, RETRY_AFTER_CAP_MS);
+        long ceiling = Math.min(BACKOFF_CAP_MS, BACKOFF_BASE_MS << attempt);
+        synchronized (random) {
+            return (long) (random.nextDouble() * ceiling);
+        }
+    }
+
+    private static long retryAfterMs(Response resp) {
+        String h = resp.header("Retry-After");
+        if (h == null) return -1;
+        try {
+            return Long.parseLong(h.trim()) * 1000L;
+        } catch (NumberFormatException e) {
+            return -1;   // HTTP-дата — не разбираем, хватит обычной паузы
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Предохранитель
+    // ════════════════════════════════════════════════════════════════════════
+
+    private boolean allow(String host) {
+        synchronized (breakers) {
+            Breaker b = breakers.get(host);
+            if (b == null || b.openUntil == 0) return true;
+            long now = System.currentTimeMillis();
+            if (now < b.openUntil || b.trialInFlight) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            b.trialInFlight = true;   // полуоткрыт: пропускаем один пробный запрос
+            log.i(TAG, "◐ предохранитель " + host + ": пробный запрос");
+            return true;
+        }
+    }
+
+    /** Предохранитель хоста закрыт — без побочных эффектов (allow() забирает пробу). */
+    private boolean closed(String host) {
+        synchronized (breakers) {
+            Breaker b = breakers.get(host);
+            return b == null || b.openUntil == 0;
+        }
+    }
+
+    /** Запрос, получивший пробу, отменён без ответа — следующий может пробовать. */
+    private void release(String host) {
+        synchronized (breakers) {
+            Breaker b = breakers.get(host);
+            if (b != null) b.trialInFlight = false;
+        }
+    }
+
+    /** @param code HTTP-код или -1 для сетевой ошибки */
+    private void onResult(String host, int code) {
+        boolean failed = code < 0 || breakerFailure(code);
+        synchronized (breakers) {
+            Breaker b = breakers.get(host);
+            if (b == null) {
+                if (!failed) return;
+                b = new Breaker();
+                breakers.put(host, b);
+            }
+            if (!failed) {
+                if (b.openUntil != 0) log.i(TAG, "● предохранитель " + host + " закрыт");
+                b.failures      = 0;
+                b.openUntil     = 0;
+                b.cooldown      = BREAKER_COOLDOWN_MS;
+                b.trialInFlight = false;
+                return;
+            }
+            b.failures++;
+            if (b.trialInFlight) {
+                b.trialInFlight = false;
+                b.cooldown  = Math.min(BREAKER_MAX_COOLDOWN_MS, b.cooldown * 2);
+                b.openUntil = System.currentTimeMillis() + b.cooldown;
+                trips.incrementAndGet();
+                log.w(TAG, "○ предохранитель " + host + " снова открыт на " + b.cooldown + "мс");
+            } else if (b.openUntil == 0 && b.failures >= BREAKER_THRESHOLD) {
+                b.openUntil = System.currentTimeMillis() + b.cooldown;
+                trips.incrementAndGet();
+                log.w(TAG, "○ предохранитель " + host + " открыт на " + b.cooldown
+                        + "мс после " + b.failures + " сбоев подряд");
+            }
+        }
+    }
+
+    private static IOException circuitOpen(String host) {
+        return new IOException("circuit open: " + host + " временно недоступен");
+    }
+
+    // ── Статистика ────────────────────────────────────────────────────────────
+
+    /** {retries, hedges, hedgeWins, rejected, trips, open:[host…]} */
+    JSONObject stats() {
+        JSONObject o = new JSONObject();
+        try {
+            o.put("retries",   retries.get());
+            o.put("hedges",    hedges.get());
+            o.put("hedgeWins", hedgeWins.get());
+            o.put("rejected",  rejected.get());
+            o.put("trips",     trips.get());
+            JSONArray open = new JSONArray();
+            long now = System.currentTimeMillis();
+            synchronized (breakers) {
+                for (Map.Entry<String, Breaker> e : breakers.entrySet()) {
+                    if (e.getValue().openUntil > now) open.put(e.getKey());
+                }
+            }
+            o.put("open", open);
+        } catch (Exception ignored) {}
+        return o;
+    }
+
+    private static String pathOf(Request req) {
+        return req.url().encodedPath() +
+                (req.url().encodedQuery() != null ? "?" + req.url().encodedQuery() : "");
+    }
+}
@@ -2,17 +2,34 @@ package com.schedule.app;
 
 import android.content.Context;
 import android.util.Base64;
+import android.util.JsonReader;
 
 import org.json.JSONObject;
 
-import java.util.concurrent.TimeUnit;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 
+import okhttp3.Call;
+import okhttp3.Dispatcher;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
 
 /**
  * Supabase REST API клиент.
@@ -23,8 +40,17 @@ import okhttp3.ResponseBody;
  *  – Auth      : signUp / signIn / signOut / getUser / setToken
  *  – Storage   : upload (bytes/base64) / getPublicUrl / delete
  *
- * Все методы — синхронные, вызываются из фонового потока
+ * Синхронные методы вызываются из фонового потока
  * (JS делает Android.supabase*() в worker / async).
+ * У каждого запроса к БД/RPC/Storage есть асинхронный вариант *Async(…, Callback) —
+ * он ставит запрос в очередь OkHttp (enqueue) и не блокирует вызывающий поток.
+ * Число одновременных асинхронных запросов ограничено MAX_IN_FLIGHT.
+ * Одинаковые SELECT, пришедшие одновременно, склеиваются в один HTTP-запрос
+ * (single-flight) — результат раздаётся всем ждущим.
+ * Опционально SELECT кэшируются (SupabaseCache) с TTL на таблицу;
+ * запись в таблицу сбрасывает её кэш.
+ * Java/Kotlin-код читает строки через selectRows* (SupabaseResponse, тоже single-flight);
+ * строковый конверт {ok, status, body} нужен только JS-мосту.
  * Каждый шаг логируется через AppLogger.
  */
 public class SupabaseClient {
@@ -41,13 +67,80 @@ public class SupabaseClient {
     private static final MediaType JSON_MT =
             MediaType.get("application/json; charset=utf-8");
 
+    /** Максимум одновременных асинхронных запросов (остальные ждут в очереди диспетчера). */
+    public static final int MAX_IN_FLIGHT = 6;
+
+    /** TTL кэша профилей (users): меняются редко, свои записи сбрасывают кэш сразу. */
+    public static final long USERS_CACHE_TTL_MS = 60_000L;
+
+    /**
+     * Колбэк асинхронного запроса.
+     * Получает тот же JSON {ok, status, body, error?}, что и синхронные методы.
+     * Вызывается на потоке OkHttp — в UI переключайся сам (post / runOnUiThread).
+     */
+    public interface Callback {
+        void onResult(String resultJson);
+    }
+
     // ── Поля ─────────────────────────────────────────────────────────────────
     private static volatile SupabaseClient instance;
 
     private final OkHttpClient http;
+    private final Dispatcher   dispatcher;
     private final AppLogger    log;
     private volatile String    authToken = null;   // JWT после signIn/signUp
 
+    // ── Single-flight: ключ запроса → идущий HTTP-вызов ───────────────────────
+    private final Map<String, InFlight> inFlight = new HashMap<>();
+    private final AtomicLong selectCalls  = new AtomicLong();
+    private final AtomicLong dedupedCalls = new AtomicLong();
+
+    private final SupabaseCache   cache   = new SupabaseCache(SupabaseCache.DEFAULT_MAX_BYTES);
+    private final SupabaseMetrics metrics = new SupabaseMetrics();
+    private final SupabaseCallPolicy policy;
+
+    /**
+     * Ответ HTTP как есть: код и тело в байтах (или ошибка сети). Его делят ждущие
+     * single-flight — типизированный SELECT разбирает строки прямо из байт, а
+     * конверт {ok, status, body} для JS собирается только по требованию, один раз.
+     */
+    private static final class Raw {
+        final int    status;
+        final byte[] body;
+        /** Исключение вместо ответа (сеть, отмена); null — ответ пришёл. */
+        final String error;
+        private String envelope;
+
+        Raw(int status, byte[] body, String error) {
+            this.status = status;
+            this.body   = body;
+            this.error  = error;
+        }
+
+        static Raw failure(String error) { return new Raw(0, new byte[0], error != null ? error : "unknown"); }
+
+        boolean ok() { return error == null && status >= 200 && status < 300; }
+
+        String text() { return new String(body, StandardCharsets.UTF_8); }
+    }
+
+    /** Колбэк общего запроса — получает сырой ответ. */
+    private interface RawCallback {
+        void onRaw(Raw raw);
+    }
+
+    /** Идущий GET, к которому могут присоединиться одинаковые запросы. */
+    private static final class InFlight {
+        final CountDownLatch    done    = new CountDownLatch(1);
+        final List<RawCallback> waiters = new ArrayList<>();
+        /** Синхронные присоединившиеся (ждут на done) — тоже держат общий запрос. */
+        int                    blocked;
+        /** Общий HTTP-вызов async-лидера; отменяется, только когда ушли все ждущие. */
+        Call                   call;
+        boolean                finished;
+        volatile Raw           result;
+    }
+
     // ── Singleton ─────────────────────────────────────────────────────────────
     public static SupabaseClient get(Context ctx, AppLogger log) {
         if (instance == null) {
@@ -60,13 +153,18 @@ public class SupabaseClient {
 
     private SupabaseClient(Context ctx, AppLogger log) {
         this.log  = log;
-        this.http = new OkHttpClient.Builder()
-                .connectTimeout(15, TimeUnit.SECONDS)
-                .readTimeout(30,  TimeUnit.SECONDS)
-                .writeTimeout(30, TimeUnit.SECONDS)
+        this.dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_IN_FLIGHT);
+        dispatcher.setMaxRequestsPerHost(MAX_IN_FLIGHT);
+        // Пул соединений и DNS — общие с остальным приложением (NetworkStack),
+        // свой только диспетчер: он ограничивает число запросов в полёте
+        this.http = NetworkStack.get(ctx, log).client(NetworkStack.Purpose.API).newBuilder()
+                .dispatcher(dispatcher)
                 .build();
+        this.policy = new SupabaseCallPolicy(http, metrics, log);
         log.i(TAG, "▶ SupabaseClient готов [" + URL + "]");
         log.i(TAG, "  anonKey=" + ANON_KEY.substring(0, 20) + "...");
+        metrics.startPeriodicSummary(log);
     }
 
     // ── Управление токеном ────────────────────────────────────────────────────
@@ -83,6 +181,78 @@ public class SupabaseClient {
 
     public String getAuthToken() { return authToken; }
 
+    /** Сколько запросов сейчас выполняется (синхронные + асинхронные). */
+    public int getInFlightCount() { return dispatcher.runningCallsCount(); }
+
+    /** Сколько асинхронных запросов ждут свободного слота в диспетчере. */
+    public int getQueuedCount() { return dispatcher.queuedCallsCount(); }
+
+    /** Всего вызовов select/selectAsync. */
+    public long getSelectCount() { return selectCalls.get(); }
+
+    /** Сколько select не пошли в сеть, а дождались уже идущего такого же запроса. */
+    public long getDedupedCount() { return dedupedCalls.get(); }
+
+    // ── Кэш ответов ───────────────────────────────────────────────────────────
+
+    /**
+     * Включить кэш SELECT для таблицы. ttlMs <= 0 — выключить.
+     * По умолчанию кэш выключен для всех таблиц: таблицу включает тот, кто её читает
+     * (users — SupabaseHelper и AppViewModel); accounts не кэшируется никогда
+     * (SupabaseCache.NEVER_CACHED).
+     */
+    public void setCacheTtl(String table, long ttlMs) {
+        cache.setTtl(table, ttlMs);
+        log.i(TAG, "cache ▸ " + table + " ttl=" + ttlMs + "ms");
+    }
+
+    /** Сбросить кэш одной таблицы (например, после записи в обход клиента). */
+    public void invalidateCache(String table) { cache.invalidateTable(table); }
+
+    public void clearCache() { cache.clear(); }
+
+    /** Статистика кэша: {entries, bytes, hits, misses, evictions}. */
+    public JSONObject getCacheStats() {
+        JSONObject o = new JSONObject();
+        try {
+            o.put("entries",   cache.size());
+            o.put("bytes",     cache.bytes());
+            o.put("hits",      cache.hits());
+            o.put("misses",    cache.misses());
+            o.put("evictions", cache.evictions());
+        } catch (Exception ignored) {}
+        return o;
+    }
+
+    /** Успешный ли конверт. envelope() всегда кладёт "ok" первым полем. */
+    static boolean isOkResult(String result) {
+        return result != null && result.startsWith("{\"ok\":true");
+    }
+
+    // ── Метрики ───────────────────────────────────────────────────────────────
+
+    /**
+     * Метрики по эндпоинтам (метод + таблица/RPC): вызовы, ошибки, коды, байты,
+     * p50/p95/p99. Формат — см. SupabaseMetrics.snapshot().
+     */
+    public JSONObject getMetrics() { return metrics.snapshot(); }
+
+    public void resetMetrics() { metrics.reset(); }
+
+    /** Записать сводку метрик в лог сейчас, не дожидаясь периодической. */
+    public void logMetricsSummary() { metrics.writeSummary(); }
+
+    // ── Политика повторов ─────────────────────────────────────────────────────
+
+    /**
+     * Разрешить повторы и хедж-запросы для RPC-функции. Только для функций,
+     * которые ничего не меняют или меняют идемпотентно (повтор = тот же итог).
+     */
+    public void markRpcIdempotent(String function) { policy.markRpcSafe(function); }
+
+    /** {retries, hedges, hedgeWins, rejected, trips, open:[host…]} */
+    public JSONObject getPolicyStats() { return policy.stats(); }
+
     // ── Построитель запросов ──────────────────────────────────────────────────
 
     /** Базовые заголовки Supabase для всех запросов. */
@@ -97,50 +267,309 @@ public class SupabaseClient {
 
     /** Выполнить запрос и вернуть JSON: {ok, status, body, error?}. */
     private String exec(Request req) {
-        String method  = req.method();
-        String urlPath = req.url().encodedPath() +
-                (req.url().encodedQuery() != null ? "?" + req.url().encodedQuery() : "");
-        log.i(TAG, "→ " + method + " " + urlPath);
+        return envelope(execRaw(req));
+    }
+
+    private Raw execRaw(Request req) {
+        String urlPath = pathOf(req);
+        log.i(TAG, "→ " + req.method() + " " + urlPath);
         long t0 = System.currentTimeMillis();
-        try (Response resp = http.newCall(req).execute()) {
-            long ms     = System.currentTimeMillis() - t0;
-            int  status = resp.code();
-            ResponseBody rb   = resp.body();
-            String       body = rb != null ? rb.string() : "";
-            boolean ok = status >= 200 && status < 300;
-
-            if (ok) {
-                log.i(TAG, "← " + status + " OK (" + ms + "ms) " + urlPath
-                        + " | body_len=" + body.length());
-            } else {
-                // Логируем первые 300 символов тела ошибки
-                String snippet = body.length() > 300 ? body.substring(0, 300) + "…" : body;
-                log.e(TAG, "← " + status + " ERR (" + ms + "ms) " + urlPath
-                        + " | " + snippet);
+        try (Response resp = policy.execute(req)) {
+            return readRaw(resp, urlPath, t0);
+        } catch (Exception e) {
+            return failure(req.method(), urlPath, t0, e);
+        }
+    }
+
+    /**
+     * Асинхронный exec: ставит запрос в очередь диспетчера и сразу возвращает Call
+     * (им можно отменить запрос). Результат — тот же JSON, что у exec().
+     */
+    private Call execAsync(Request req, Callback cb) {
+        return execRawAsync(req, raw -> deliver(cb, envelope(raw)));
+    }
+
+    private Call execRawAsync(Request req, RawCallback cb) {
+        final String urlPath = pathOf(req);
+        log.i(TAG, "⇢ " + req.method() + " " + urlPath + " (async, в полёте "
+                + dispatcher.runningCallsCount() + ", в очереди " + dispatcher.queuedCallsCount() + ")");
+        final long t0 = System.currentTimeMillis();
+        return policy.enqueue(req, new okhttp3.Callback() {
+            @Override
+            public void onResponse(Call c, Response resp) {
+                Raw result;
+                try (Response r = resp) {
+                    result = readRaw(r, urlPath, t0);
+                } catch (Exception e) {
+                    result = failure(req.method(), urlPath, t0, e);
+                }
+                deliverRaw(cb, result);
             }
 
-            JSONObject res = new JSONObject();
-            res.put("ok",     ok);
-            res.put("status", status);
-            res.put("body",   body);
-            return res.toString();
+            @Override
+            public void onFailure(Call c, IOException e) {
+                deliverRaw(cb, failure(req.method(), urlPath, t0, e));
+            }
+        });
+    }
 
-        } catch (Exception e) {
-            long ms = System.currentTimeMillis() - t0;
-            log.e(TAG, "← EXCEPTION (" + ms + "ms) " + urlPath + " | " + e.getMessage());
+    private void deliverRaw(RawCallback cb, Raw raw) {
+        if (cb == null) return;
+        try {
+            cb.onRaw(raw);
+        } catch (Throwable t) {
+            log.e(TAG, "async callback упал: " + t.getMessage());
+        }
+    }
+
+    private void deliver(Callback cb, String result) {
+        if (cb == null) return;
+        try {
+            cb.onResult(result);
+        } catch (Throwable t) {
+            log.e(TAG, "async callback упал: " + t.getMessage());
+        }
+    }
+
+    // ── Запись с инвалидацией кэша ────────────────────────────────────────────
+
+    /**
+     * exec() для insert/update/upsert/delete: сбрасывает кэш таблицы до запроса
+     * (никто не прочитает старое, пока идёт запись) и после (ответ SELECT,
+     * стартовавшего параллельно, тоже отбрасывается).
+     */
+    private String execWrite(String table, Request req) {
+        cache.invalidateTable(table);
+        try {
+            return exec(req);
+        } finally {
+            cache.invalidateTable(table);
+        }
+    }
+
+    private Call execWriteAsync(String table, Request req, Callback cb) {
+        cache.invalidateTable(table);
+        return execAsync(req, r -> {
+            cache.invalidateTable(table);
+            deliver(cb, r);
+        });
+    }
+
+    // ── Single-flight ─────────────────────────────────────────────────────────
+
+    /** Ключ склейки: метод + полный URL + токен (под разными JWT RLS может отдать разные строки). */
+    private String flightKey(Request req) {
+        return req.method() + " " + req.url() + " " + req.header("Authorization");
+    }
+
+    /**
+     * exec() с single-flight: если такой же GET уже в полёте — ждём его результат
+     * вместо нового HTTP-запроса.
+     */
+    private Raw execShared(Request req) {
+        selectCalls.incrementAndGet();
+        String key = flightKey(req);
+        InFlight f;
+        boolean leader;
+        synchronized (inFlight) {
+            f = inFlight.get(key);
+            leader = f == null;
+            if (leader) {
+                f = new InFlight();
+                inFlight.put(key, f);
+            } else {
+                // В том же блоке, что и поиск: иначе leaveFlight успеет увидеть
+                // ноль ждущих и отменить вызов, которого мы ещё ждём
+                f.blocked++;
+            }
+        }
+        if (!leader) {
+            dedupedCalls.incrementAndGet();
+            log.i(TAG, "⇄ single-flight: ждём уже идущий " + pathOf(req));
             try {
-                JSONObject err = new JSONObject();
-                err.put("ok",     false);
-                err.put("status", 0);
-                err.put("body",   "");
-                err.put("error",  e.getMessage());
-                return err.toString();
-            } catch (Exception ex) {
-                return "{\"ok\":false,\"error\":\"unknown\"}";
+                f.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Raw.failure("interrupted");
+            } finally {
+                synchronized (inFlight) { f.blocked--; }
+            }
+            return f.result;
+        }
+        Raw result = null;
+        try {
+            result = execRaw(req);
+            return result;
+        } finally {
+            completeFlight(key, f, result != null ? result : Raw.failure("single-flight: запрос прерван"));
+        }
+    }
+
+    /**
+     * execAsync() с single-flight. Каждый вызывающий (и лидер, и присоединившийся)
+     * получает свой Call-дескриптор: его cancel() снимает только этого ждущего,
+     * а общий HTTP-вызов отменяется, когда ушёл последний.
+     */
+    private Call execSharedAsync(Request req, RawCallback cb) {
+        selectCalls.incrementAndGet();
+        final String key = flightKey(req);
+        final InFlight f;
+        synchronized (inFlight) {
+            InFlight existing = inFlight.get(key);
+            if (existing != null) {
+                existing.waiters.add(cb);
+                dedupedCalls.incrementAndGet();
+                log.i(TAG, "⇄ single-flight: async ждёт уже идущий " + pathOf(req));
+                return new FlightCall(key, existing, cb, req);
+            }
+            f = new InFlight();
+            f.waiters.add(cb);
+            inFlight.put(key, f);
+        }
+        Call call = execRawAsync(req, r -> completeFlight(key, f, r));
+        boolean orphan;
+        synchronized (inFlight) {
+            f.call = call;
+            // Все успели уйти, пока запрос ставился в очередь
+            orphan = !f.finished && f.waiters.isEmpty() && f.blocked == 0;
+            if (orphan && inFlight.get(key) == f) inFlight.remove(key);
+        }
+        if (orphan) call.cancel();
+        return new FlightCall(key, f, cb, req);
+    }
+
+    private void completeFlight(String key, InFlight f, Raw result) {
+        List<RawCallback> waiters;
+        synchronized (inFlight) {
+            if (inFlight.get(key) == f) inFlight.remove(key);
+            f.finished = true;
+            f.result   = result;
+            waiters    = new ArrayList<>(f.waiters);
+        }
+        f.done.countDown();
+        for (RawCallback cb : waiters) deliverRaw(cb, result);
+    }
+
+    /** Ждущий cb уходит из общего запроса; последний ушедший отменяет HTTP-вызов. */
+    private void leaveFlight(String key, InFlight f, RawCallback cb) {
+        Call orphan = null;
+        synchronized (inFlight) {
+            if (f.finished || !f.waiters.remove(cb)) return;
+            // Синхронного лидера (call == null) не отменить — он сам допишет результат
+            if (f.call != null && f.waiters.isEmpty() && f.blocked == 0) {
+                // Новые такие же запросы пойдут своим вызовом, а не к отменяемому
+                if (inFlight.get(key) == f) inFlight.remove(key);
+                orphan = f.call;
+            }
+        }
+        if (orphan != null) orphan.cancel();
+        deliverRaw(cb, Raw.failure("Canceled"));
+    }
+
+    /**
+     * Дескриптор одного ждущего общего запроса. Не выполняется сам по себе —
+     * только отмена участия (см. {@link #leaveFlight}).
+     */
+    private final class FlightCall implements Call {
+        private final String   key;
+        private final InFlight flight;
+        private final RawCallback cb;
+        private final Request  request;
+        private volatile boolean canceled;
+
+        FlightCall(String key, InFlight flight, RawCallback cb, Request request) {
+            this.key     = key;
+            this.flight  = flight;
+            this.cb      = cb;
+            this.request = request;
+        }
+
+        @Override public Request request()    { return request; }
+        @Override public boolean isExecuted() { return true; }
+        @Override public boolean isCanceled() { return canceled; }
+        @Override public okio.Timeout timeout() { return okio.Timeout.NONE; }
+
+        @Override
+        public void cancel() {
+            if (canceled) return;
+            canceled = true;
+            leaveFlight(key, flight, cb);
+        }
+
+        @Override
+        public Response execute() {
+            throw new UnsupportedOperationException("single-flight: вызов уже выполняется");
+        }
+
+        @Override
+        public void enqueue(okhttp3.Callback responseCallback) {
+            throw new UnsupportedOperationException("single-flight: вызов уже выполняется");
+        }
+
+        @Override
+        public Call clone() {
+            throw new UnsupportedOperationException("single-flight: вызов уже выполняется");
+        }
+    }
+
+    private static String pathOf(Request req) {
+        return req.url().encodedPath() +
+                (req.url().encodedQuery() != null ? "?" + req.url().encodedQuery() : "");
+    }
+
+    /** Читает тело ответа в байты и логирует; разбор — у вызывающего. */
+    private Raw readRaw(Response resp, String urlPath, long t0) throws IOException {
+        int          status = resp.code();
+        ResponseBody rb     = resp.body();
+        byte[]       body   = rb != null ? rb.bytes() : new byte[0];
+        long         ms     = System.currentTimeMillis() - t0;
+        boolean ok = status >= 200 && status < 300;
+        metrics.record(resp.request().method(), urlPath, ms, body.length, status);
+
+        if (ok) {
+            log.i(TAG, "← " + status + " OK (" + ms + "ms) " + urlPath
+                    + " | bytes=" + body.length);
+        } else {
+            // Логируем первые 300 символов тела ошибки
+            log.e(TAG, "← " + status + " ERR (" + ms + "ms) " + urlPath
+                    + " | " + snippet(new String(body, StandardCharsets.UTF_8)));
+        }
+        return new Raw(status, body, null);
+    }
+
+    /** Конверт {ok, status, body, error?} для JS-моста — собирается один раз на ответ. */
+    private String envelope(Raw raw) {
+        synchronized (raw) {
+            if (raw.envelope == null) {
+                if (raw.error != null) {
+                    raw.envelope = errorJson(raw.error);
+                } else {
+                    try {
+                        JSONObject res = new JSONObject();
+                        res.put("ok",     raw.ok());
+                        res.put("status", raw.status);
+                        res.put("body",   raw.text());
+                        raw.envelope = res.toString();
+                    } catch (Exception e) {
+                        raw.envelope = errorJson(e.getMessage());
+                    }
+                }
             }
+            return raw.envelope;
         }
     }
 
+    private Raw failure(String method, String urlPath, long t0, Exception e) {
+        long ms = System.currentTimeMillis() - t0;
+        metrics.record(method, urlPath, ms, 0, 0);
+        log.e(TAG, "← EXCEPTION (" + ms + "ms) " + urlPath + " | " + e.getMessage());
+        return Raw.failure(e.getMessage());
+    }
+
+    private static String snippet(String body) {
+        return body.length() > 300 ? body.substring(0, 300) + "…" : body;
+    }
+
     // ════════════════════════════════════════════════════════════════════════
     // DATABASE — REST API
     // ════════════════════════════════════════════════════════════════════════
@@ -152,16 +581,205 @@ public class SupabaseClient {
      *   "select=*"
      *   "select=id,name&status=eq.active&order=created_at.desc&limit=50"
      *   "select=*&id=eq.42"
+     *
+     * Если такой же SELECT уже выполняется (поллеры JS/Kotlin/Java совпали по времени),
+     * нового HTTP-запроса не будет — вернётся результат идущего.
+     *
+     * Строковый конверт нужен JS-мосту; из Java/Kotlin читай строки через {@link #selectRows}.
      */
     public String select(String table, String query) {
         log.i(TAG, "select ▸ table=" + table + " query=" + query);
+        String key = SupabaseCache.key(table, query, authToken);
+        String cached = cache.get(key);
+        if (cached != null) {
+            log.i(TAG, "← CACHE " + table + " | body_len≈" + cached.length());
+            return cached;
+        }
+        long gen = cache.generation(table);
+        Raw raw = execShared(selectRequest(table, query));
+        String result = envelope(raw);
+        if (raw.ok()) cache.put(table, key, result, gen);
+        return result;
+    }
+
+    /**
+     * Асинхронный SELECT — см. {@link #select(String, String)}.
+     * Возвращает null, если ответ взят из кэша. Отмена Call снимает только этого
+     * вызывающего — присоединившиеся к тому же запросу получат ответ.
+     */
+    public Call selectAsync(String table, String query, Callback cb) {
+        log.i(TAG, "selectAsync ▸ table=" + table + " query=" + query);
+        final String key = SupabaseCache.key(table, query, authToken);
+        String cached = cache.get(key);
+        if (cached != null) {
+            log.i(TAG, "← CACHE " + table + " | body_len≈" + cached.length());
+            deliver(cb, cached);
+            return null;
+        }
+        final long gen = cache.generation(table);
+        return execSharedAsync(selectRequest(table, query), raw -> {
+            String r = envelope(raw);
+            if (raw.ok()) cache.put(table, key, r, gen);
+            deliver(cb, r);
+        });
+    }
+
+    private Request selectRequest(String table, String query) {
         String path = "/rest/v1/" + table +
                 (query != null && !query.isEmpty() ? "?" + query : "");
-        Request req = base(path)
+        return base(path)
                 .header("Prefer", "return=representation")
                 .get()
                 .build();
-        return exec(req);
+    }
+
+    // ── Типизированный SELECT ─────────────────────────────────────────────────
+
+    /**
+     * SELECT с разбором строк без конверта {ok, status, body} для вызывающего —
+     * для Java/Kotlin-кода; конверт — только для JS-моста.
+     *
+     * Идёт через тот же single-flight, что и {@link #select}: одинаковые запросы
+     * поллеров делят один HTTP-вызов, тело читается один раз в байты, а строки
+     * каждый ждущий разбирает из них своим декодером — без конверта и второй
+     * копии тела строкой. Если для таблицы включён кэш, в него кладётся сырое тело.
+     */
+    public <T> SupabaseResponse<T> selectRows(String table, String query,
+                                              SupabaseResponse.RowDecoder<T> decoder) {
+        log.i(TAG, "selectRows ▸ table=" + table + " query=" + query);
+        final String key = rawCacheKey(table, query);
+        SupabaseResponse<T> hit = fromCache(table, key, decoder);
+        if (hit != null) return hit;
+        final long gen = cache.generation(table);
+        return rowsOf(execShared(selectRequest(table, query)), table, key, gen, decoder);
+    }
+
+    /** selectRows() со строками как JSONObject. */
+    public SupabaseResponse<JSONObject> selectRows(String table, String query) {
+        return selectRows(table, query, SupabaseResponse.JSON_OBJECT);
+    }
+
+    /**
+     * Асинхронный {@link #selectRows}. Строки декодируются на потоке OkHttp.
+     * Возвращает null, если ответ взят из кэша. Отмена Call снимает только этого
+     * вызывающего — как у {@link #selectAsync}.
+     */
+    public <T> Call selectRowsAsync(String table, String query,
+                                    SupabaseResponse.RowDecoder<T> decoder,
+                                    SupabaseResponse.Callback<T> cb) {
+        log.i(TAG, "selectRowsAsync ▸ table=" + table + " query=" + query);
+        final String key = rawCacheKey(table, query);
+        SupabaseResponse<T> hit = fromCache(table, key, decoder);
+        if (hit != null) {
+            deliverRows(cb, hit);
+            return null;
+        }
+        final long gen = cache.generation(table);
+        return execSharedAsync(selectRequest(table, query),
+                r -> deliverRows(cb, rowsOf(r, table, key, gen, decoder)));
+    }
+
+    /** Ответ общего запроса → строки этого вызывающего. Тело ошибки — в error (до 300 символов). */
+    private <T> SupabaseResponse<T> rowsOf(Raw raw, String table, String cacheKey, long gen,
+                                           SupabaseResponse.RowDecoder<T> decoder) {
+        if (!raw.ok()) {
+            return SupabaseResponse.failure(raw.status,
+                    raw.error != null ? raw.error : snippet(raw.text()));
+        }
+        try {
+            List<T> rows = raw.body.length == 0 ? new ArrayList<>()
+                    : SupabaseResponse.readRows(new JsonReader(new InputStreamReader(
+                            new ByteArrayInputStream(raw.body), StandardCharsets.UTF_8)), decoder);
+            if (cache.isCached(table)) cache.put(table, cacheKey, raw.text(), gen);
+            return SupabaseResponse.success(raw.status, rows);
+        } catch (Exception e) {
+            log.e(TAG, "selectRows: не удалось разобрать " + table + " — " + e.getMessage());
+            return SupabaseResponse.failure(0, e.getMessage());
+        }
+    }
+
+    /** Кэш типизированного SELECT хранит сырое тело, а не конверт — отдельное пространство ключей. */
+    private String rawCacheKey(String table, String query) {
+        return "rows:" + SupabaseCache.key(table, query, authToken);
+    }
+
+    private <T> SupabaseResponse<T> fromCache(String table, String key,
+                                              SupabaseResponse.RowDecoder<T> decoder) {
+        String body = cache.get(key);
+        if (body == null) return null;
+        try {
+            List<T> rows = SupabaseResponse.readRows(new JsonReader(new StringReader(body)), decoder);
+            log.i(TAG, "← CACHE " + table + " | rows=" + rows.size());
+            return SupabaseResponse.success(200, rows);
+        } catch (Exception e) {
+            log.w(TAG, "cache: не удалось разобрать " + table + " — " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** Читает ответ прямо в строки. Тело ошибки — в error (до 300 символов). */
+    private <T> SupabaseResponse<T> toRows(Response resp, String urlPath, long t0,
+                                           String table, String cacheKey, long gen,
+                                           SupabaseResponse.RowDecoder<T> decoder) throws IOException {
+        int          status = resp.code();
+        ResponseBody rb     = resp.body();
+        String       method = resp.request().method();
+        if (status < 200 || status >= 300) {
+            String body    = rb != null ? rb.string() : "";
+            String snippet = snippet(body);
+            long   ms      = System.currentTimeMillis() - t0;
+            metrics.record(method, urlPath, ms, SupabaseMetrics.utf8Length(body), status);
+            log.e(TAG, "← " + status + " ERR (" + ms + "ms) " + urlPath + " | " + snippet);
+            return SupabaseResponse.failure(status, snippet);
+        }
+        List<T> rows;
+        long bytes;
+        if (rb == null) {
+            rows  = new ArrayList<>();
+            bytes = 0;
+        } else if (cache.isCached(table)) {
+            String body = rb.string();
+            rows  = SupabaseResponse.readRows(new JsonReader(new StringReader(body)), decoder);
+            bytes = SupabaseMetrics.utf8Length(body);
+            cache.put(table, cacheKey, body, gen);
+        } else {
+            // Считаем байты по ходу чтения — тело целиком в памяти не собирается
+            final long[] counted = new long[1];
+            BufferedSource src = Okio.buffer(new ForwardingSource(rb.source()) {
+                @Override
+                public long read(Buffer sink, long byteCount) throws IOException {
+                    long n = super.read(sink, byteCount);
+                    if (n > 0) counted[0] += n;
+                    return n;
+                }
+            });
+            try (JsonReader jr = new JsonReader(
+                    new InputStreamReader(src.inputStream(), StandardCharsets.UTF_8))) {
+                rows = SupabaseResponse.readRows(jr, decoder);
+            }
+            bytes = counted[0];
+        }
+        long ms = System.currentTimeMillis() - t0;
+        metrics.record(method, urlPath, ms, bytes, status);
+        log.i(TAG, "← " + status + " OK (" + ms + "ms) " + urlPath
+                + " | rows=" + rows.size() + " bytes=" + bytes);
+        return SupabaseResponse.success(status, rows);
+    }
+
+    private <T> SupabaseResponse<T> rowsFailure(String method, String urlPath, long t0, Exception e) {
+        long ms = System.currentTimeMillis() - t0;
+        metrics.record(method, urlPath, ms, 0, 0);
+        log.e(TAG, "← EXCEPTION (" + ms + "ms) " + urlPath + " | " + e.getMessage());
+        return SupabaseResponse.failure(0, e.getMessage());
+    }
+
+    private <T> void deliverRows(SupabaseResponse.Callback<T> cb, SupabaseResponse<T> result) {
+        if (cb == null) return;
+        try {
+            cb.onResponse(result);
+        } catch (Throwable t) {
+            log.e(TAG, "async callback упал: " + t.getMessage());
+        }
     }
 
     /**
@@ -169,13 +787,21 @@ public class SupabaseClient {
      * json — одиночный объект "{…}" или массив "[{…},{…}]"
      */
     public String insert(String table, String json) {
-        String preview = json.length() > 150 ? json.substring(0, 150) + "…" : json;
-        log.i(TAG, "insert ▸ table=" + table + " body=" + preview);
-        Request req = base("/rest/v1/" + table)
+        log.i(TAG, "insert ▸ table=" + table + " body=" + preview(json));
+        return execWrite(table, insertRequest(table, json));
+    }
+
+    /** Асинхронный INSERT — см. {@link #insert(String, String)}. */
+    public Call insertAsync(String table, String json, Callback cb) {
+        log.i(TAG, "insertAsync ▸ table=" + table + " body=" + preview(json));
+        return execWriteAsync(table, insertRequest(table, json), cb);
+    }
+
+    private Request insertRequest(String table, String json) {
+        return base("/rest/v1/" + table)
                 .header("Prefer", "return=representation")
                 .post(RequestBody.create(json, JSON_MT))
                 .build();
-        return exec(req);
     }
 
     /**
@@ -183,15 +809,23 @@ public class SupabaseClient {
      * filter пример: "id=eq.5"  или  "user_id=eq.42&status=eq.pending"
      */
     public String update(String table, String filter, String json) {
-        String preview = json.length() > 150 ? json.substring(0, 150) + "…" : json;
-        log.i(TAG, "update ▸ table=" + table + " filter=" + filter + " body=" + preview);
+        log.i(TAG, "update ▸ table=" + table + " filter=" + filter + " body=" + preview(json));
+        return execWrite(table, updateRequest(table, filter, json));
+    }
+
+    /** Асинхронный UPDATE — см. {@link #update(String, String, String)}. */
+    public Call updateAsync(String table, String filter, String json, Callback cb) {
+        log.i(TAG, "updateAsync ▸ table=" + table + " filter=" + filter + " body=" + preview(json));
+        return execWriteAsync(table, updateRequest(table, filter, json), cb);
+    }
+
+    private Request updateRequest(String table, String filter, String json) {
         String path = "/rest/v1/" + table +
                 (filter != null && !filter.isEmpty() ? "?" + filter : "");
-        Request req = base(path)
+        return base(path)
                 .header("Prefer", "return=representation")
                 .patch(RequestBody.create(json, JSON_MT))
                 .build();
-        return exec(req);
     }
 
     /**
@@ -199,13 +833,40 @@ public class SupabaseClient {
      * Вставляет, если нет; обновляет, если есть (по primary key).
      */
     public String upsert(String table, String json) {
-        String preview = json.length() > 150 ? json.substring(0, 150) + "…" : json;
-        log.i(TAG, "upsert ▸ table=" + table + " body=" + preview);
-        Request req = base("/rest/v1/" + table)
+        log.i(TAG, "upsert ▸ table=" + table + " body=" + preview(json));
+        return execWrite(table, upsertRequest(table, json));
+    }
+
+    /** Асинхронный UPSERT — см. {@link #upsert(String, String)}. */
+    public Call upsertAsync(String table, String json, Callback cb) {
+        log.i(TAG, "upsertAsync ▸ table=" + table + " body=" + preview(json));
+        return execWriteAsync(table, upsertRequest(table, json), cb);
+    }
+
+    /**
+     * Пакетный UPSERT массива строк одним POST (для SupabaseWriteBatcher).
+     * Все объекты в jsonArray должны иметь одинаковый набор ключей — требование PostgREST.
+     * Ответ без тела (return=minimal): строки нужны только серверу.
+     *
+     * @param onConflict колонки уникального ключа через запятую или null (primary key)
+     */
+    public Call upsertManyAsync(String table, String onConflict, String jsonArray, Callback cb) {
+        log.i(TAG, "upsertManyAsync ▸ table=" + table + " on_conflict=" + onConflict
+                + " body=" + preview(jsonArray));
+        String path = "/rest/v1/" + table;
+        if (onConflict != null && !onConflict.isEmpty()) path += "?on_conflict=" + onConflict;
+        Request req = base(path)
+                .header("Prefer", "resolution=merge-duplicates,return=minimal")
+                .post(RequestBody.create(jsonArray, JSON_MT))
+                .build();
+        return execWriteAsync(table, req, cb);
+    }
+
+    private Request upsertRequest(String table, String json) {
+        return base("/rest/v1/" + table)
                 .header("Prefer", "resolution=merge-duplicates,return=representation")
                 .post(RequestBody.create(json, JSON_MT))
                 .build();
-        return exec(req);
     }
 
     /**
@@ -218,12 +879,25 @@ public class SupabaseClient {
             log.e(TAG, "delete ОТКЛОНЁН: filter не задан (защита от удаления всей таблицы)");
             return "{\"ok\":false,\"error\":\"filter required for delete\"}";
         }
-        String path = "/rest/v1/" + table + "?" + filter;
-        Request req = base(path)
+        return execWrite(table, deleteRequest(table, filter));
+    }
+
+    /** Асинхронный DELETE — см. {@link #delete(String, String)}. Без filter колбэк сразу получает ошибку. */
+    public Call deleteAsync(String table, String filter, Callback cb) {
+        log.i(TAG, "deleteAsync ▸ table=" + table + " filter=" + filter);
+        if (filter == null || filter.isEmpty()) {
+            log.e(TAG, "deleteAsync ОТКЛОНЁН: filter не задан (защита от удаления всей таблицы)");
+            deliver(cb, "{\"ok\":false,\"error\":\"filter required for delete\"}");
+            return null;
+        }
+        return execWriteAsync(table, deleteRequest(table, filter), cb);
+    }
+
+    private Request deleteRequest(String table, String filter) {
+        return base("/rest/v1/" + table + "?" + filter)
                 .header("Prefer", "return=representation")
                 .delete()
                 .build();
-        return exec(req);
     }
 
     // ════════════════════════════════════════════════════════════════════════
@@ -236,12 +910,39 @@ public class SupabaseClient {
      *   "{\"user_id\": 42, \"amount\": 100}"
      */
     public String rpc(String function, String paramsJson) {
+        log.i(TAG, "rpc ▸ function=" + function + " params=" + paramsJson);
+        return exec(rpcRequest(function, paramsJson));
+    }
+
+    /** Асинхронный RPC — см. {@link #rpc(String, String)}. */
+    public Call rpcAsync(String function, String paramsJson, Callback cb) {
+        log.i(TAG, "rpcAsync ▸ function=" + function + " params=" + paramsJson);
+        return execAsync(rpcRequest(function, paramsJson), cb);
+    }
+
+    /**
+     * RPC с разбором строк прямо из потока ответа — как {@link #selectRows},
+     * для функций, возвращающих SETOF/TABLE. Ответы RPC не кэшируются.
+     */
+    public <T> SupabaseResponse<T> rpcRows(String function, String paramsJson,
+                                           SupabaseResponse.RowDecoder<T> decoder) {
+        log.i(TAG, "rpcRows ▸ function=" + function + " params=" + paramsJson);
+        Request req = rpcRequest(function, paramsJson);
+        String urlPath = pathOf(req);
+        log.i(TAG, "→ " + req.method() + " " + urlPath);
+        long t0 = System.currentTimeMillis();
+        try (Response resp = policy.execute(req)) {
+            return toRows(resp, urlPath, t0, "rpc/" + function, null, 0, decoder);
+        } catch (Exception e) {
+            return rowsFailure(req.method(), urlPath, t0, e);
+        }
+    }
+
+    private Request rpcRequest(String function, String paramsJson) {
         String body = (paramsJson == null || paramsJson.isEmpty()) ? "{}" : paramsJson;
-        log.i(TAG, "rpc ▸ function=" + function + " params=" + body);
-        Request req = base("/rest/v1/rpc/" + function)
+        return base("/rest/v1/rpc/" + function)
                 .post(RequestBody.create(body, JSON_MT))
                 .build();
-        return exec(req);
     }
 
     // ════════════════════════════════════════════════════════════════════════
@@ -347,13 +1048,23 @@ public class SupabaseClient {
     public String storageUpload(String bucket, String path, byte[] data, String mimeType) {
         log.i(TAG, "storageUpload ▸ bucket=" + bucket + " path=" + path
                 + " size=" + data.length + " mime=" + mimeType);
-        MediaType mt = MediaType.parse(
-                mimeType != null ? mimeType : "application/octet-stream");
-        Request req = base("/storage/v1/object/" + bucket + "/" + path)
-                .header("Content-Type", mimeType != null ? mimeType : "application/octet-stream")
-                .post(RequestBody.create(data, mt))
+        return exec(storageUploadRequest(bucket, path, data, mimeType));
+    }
+
+    /** Асинхронная загрузка в Storage — см. {@link #storageUpload(String, String, byte[], String)}. */
+    public Call storageUploadAsync(String bucket, String path, byte[] data,
+                                   String mimeType, Callback cb) {
+        log.i(TAG, "storageUploadAsync ▸ bucket=" + bucket + " path=" + path
+                + " size=" + data.length + " mime=" + mimeType);
+        return execAsync(storageUploadRequest(bucket, path, data, mimeType), cb);
+    }
+
+    private Request storageUploadRequest(String bucket, String path, byte[] data, String mimeType) {
+        String ct = mimeType != null ? mimeType : "application/octet-stream";
+        return base("/storage/v1/object/" + bucket + "/" + path)
+                .header("Content-Type", ct)
+                .post(RequestBody.create(data, MediaType.parse(ct)))
                 .build();
-        return exec(req);
     }
 
     /**
@@ -389,10 +1100,19 @@ public class SupabaseClient {
      */
     public String storageDelete(String bucket, String path) {
         log.i(TAG, "storageDelete ▸ bucket=" + bucket + " path=" + path);
-        Request req = base("/storage/v1/object/" + bucket + "/" + path)
+        return exec(storageDeleteRequest(bucket, path));
+    }
+
+    /** Асинхронное удаление из Storage — см. {@link #storageDelete(String, String)}. */
+    public Call storageDeleteAsync(String bucket, String path, Callback cb) {
+        log.i(TAG, "storageDeleteAsync ▸ bucket=" + bucket + " path=" + path);
+        return execAsync(storageDeleteRequest(bucket, path), cb);
+    }
+
+    private Request storageDeleteRequest(String bucket, String path) {
+        return base("/storage/v1/object/" + bucket + "/" + path)
                 .delete()
                 .build();
-        return exec(req);
     }
 
     /**
@@ -402,24 +1122,44 @@ public class SupabaseClient {
     public String storageList(String bucket, String prefix) {
         log.i(TAG, "storageList ▸ bucket=" + bucket + " prefix=" + prefix);
         try {
-            JSONObject b = new JSONObject();
-            b.put("prefix", prefix != null ? prefix : "");
-            b.put("limit",  100);
-            b.put("offset", 0);
-            Request req = base("/storage/v1/object/list/" + bucket)
-                    .post(RequestBody.create(b.toString(), JSON_MT))
-                    .build();
-            return exec(req);
+            return exec(storageListRequest(bucket, prefix));
         } catch (Exception e) {
             log.e(TAG, "storageList ошибка: " + e.getMessage());
             return errorJson(e.getMessage());
         }
     }
 
+    /** Асинхронный список файлов — см. {@link #storageList(String, String)}. */
+    public Call storageListAsync(String bucket, String prefix, Callback cb) {
+        log.i(TAG, "storageListAsync ▸ bucket=" + bucket + " prefix=" + prefix);
+        try {
+            return execAsync(storageListRequest(bucket, prefix), cb);
+        } catch (Exception e) {
+            log.e(TAG, "storageListAsync ошибка: " + e.getMessage());
+            deliver(cb, errorJson(e.getMessage()));
+            return null;
+        }
+    }
+
+    private Request storageListRequest(String bucket, String prefix) throws Exception {
+        JSONObject b = new JSONObject();
+        b.put("prefix", prefix != null ? prefix : "");
+        b.put("limit",  100);
+        b.put("offset", 0);
+        return base("/storage/v1/object/list/" + bucket)
+                .post(RequestBody.create(b.toString(), JSON_MT))
+                .build();
+    }
+
     // ════════════════════════════════════════════════════════════════════════
     // Утилиты
     // ════════════════════════════════════════════════════════════════════════
 
+    private static String preview(String json) {
+        if (json == null) return "null";
+        return json.length() > 150 ? json.substring(0, 150) + "…" : json;
+    }
+
     private String errorJson(String msg) {
         try {
             JSONObject err = new JSONObject();
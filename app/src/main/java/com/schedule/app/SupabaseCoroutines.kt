@@ -0,0 +1,86 @@
+package com.schedule.app
+
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.withTimeoutOrNull
+import okhttp3.Call
+import org.json.JSONObject
+import kotlin.coroutines.resume
+
+// ══════════════════════════════════════════════════════════════════════════════
+//  Корутинные обёртки над SupabaseClient.*Async
+//  Не занимают поток Dispatchers.IO на время сетевого запроса;
+//  отмена корутины отменяет и HTTP-вызов.
+//  *Await возвращают тот же JSON {ok, status, body, error?}, что и синхронные методы;
+//  selectRowsAwait — разобранные строки (SupabaseResponse) без конверта.
+// ══════════════════════════════════════════════════════════════════════════════
+
+private suspend inline fun awaitResult(
+    crossinline start: (SupabaseClient.Callback) -> Call?,
+): String = suspendCancellableCoroutine { cont ->
+    val call = start(SupabaseClient.Callback { result -> cont.resume(result) })
+    cont.invokeOnCancellation { call?.cancel() }
+}
+
+suspend fun SupabaseClient.selectAwait(table: String, query: String): String =
+    awaitResult { cb -> selectAsync(table, query, cb) }
+
+suspend fun SupabaseClient.insertAwait(table: String, json: String): String =
+    awaitResult { cb -> insertAsync(table, json, cb) }
+
+suspend fun SupabaseClient.updateAwait(table: String, filter: String, json: String): String =
+    awaitResult { cb -> updateAsync(table, filter, json, cb) }
+
+suspend fun SupabaseClient.upsertAwait(table: String, json: String): String =
+    awaitResult { cb -> upsertAsync(table, json, cb) }
+
+suspend fun SupabaseClient.deleteAwait(table: String, filter: String): String =
+    awaitResult { cb -> deleteAsync(table, filter, cb) }
+
+suspend fun SupabaseClient.rpcAwait(function: String, paramsJson: String): String =
+    awaitResult { cb -> rpcAsync(function, paramsJson, cb) }
+
+// ── Типизированные строки (SupabaseResponse) ─────────────────────────────────
+
+suspend fun <T> SupabaseClient.selectRowsAwait(
+    table: String,
+    query: String,
+    decoder: SupabaseResponse.RowDecoder<T>,
+): SupabaseResponse<T> = suspendCancellableCoroutine { cont ->
+    val call = selectRowsAsync(table, query, decoder,
+        SupabaseResponse.Callback<T> { response -> cont.resume(response) })
+    cont.invokeOnCancellation { call?.cancel() }
+}
+
+/** Строки как JSONObject — для кода, который работает с optString()/optInt(). */
+suspend fun SupabaseClient.selectRowsAwait(table: String, query: String): SupabaseResponse<JSONObject> =
+    selectRowsAwait(table, query, SupabaseResponse.JSON_OBJECT)
+
+// ── Realtime как будильник для поллеров ──────────────────────────────────────
+
+/**
+ * Подписка на INSERT, которая будит цикл опроса: новая строка или (пере)подписка
+ * после обрыва сокета → немедленный poll. Пока канал жив, цикл спит до события
+ * (со страховочным опросом раз в [liveMs]); сокет лёг — обычный интервал [fallbackMs].
+ *
+ *   val wake = RealtimeWakeup(realtime, "messages", "chat_key=eq.$key")
+ *   try { while (isActive) { poll(); wake.await(2_000, 30_000) } } finally { wake.close() }
+ */
+class RealtimeWakeup(realtime: SupabaseRealtime, table: String, filter: String) : AutoCloseable {
+    private val signal = Channel<Unit>(Channel.CONFLATED)
+    private val sub = realtime.subscribe(table, filter, object : SupabaseRealtime.Listener {
+        override fun onInsert(record: JSONObject) { signal.trySend(Unit) }
+        override fun onJoined() { signal.trySend(Unit) }
+    })
+
+    val isLive: Boolean get() = sub.isLive
+
+    suspend fun await(fallbackMs: Long, liveMs: Long) {
+        withTimeoutOrNull(if (sub.isLive) liveMs else fallbackMs) { signal.receive() }
+    }
+
+    override fun close() {
+        sub.close()
+        signal.close()
+    }
+}
@@ -5,6 +5,8 @@ import android.content.Context;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import okhttp3.Call;
+
 /**
  * Типизированный хелпер для таблиц ScheduleApp в Supabase.
  *
@@ -16,6 +18,8 @@ import org.json.JSONObject;
  *   accounts    – авторизация (username + pwd_hash)
  *
  * Все методы синхронные — вызывай из фонового потока (JS async/Worker).
+ * Для горячих запросов (presence, сообщения, профили) есть *Async-варианты
+ * поверх SupabaseClient.*Async — они не блокируют вызывающий поток.
  * Каждый метод возвращает JSON: {ok, status, body, error?}
  * При успехе body — это JSON-строка (массив или объект от PostgREST).
  */
@@ -25,8 +29,10 @@ public class SupabaseHelper {
 
     private static volatile SupabaseHelper instance;
 
-    private final SupabaseClient db;
-    private final AppLogger      log;
+    private final SupabaseClient       db;
+    private final SupabaseWriteBatcher batcher;
+    private final AvatarStore          avatars;
+    private final AppLogger            log;
 
     // ── Singleton ─────────────────────────────────────────────────────────────
     public static SupabaseHelper get(Context ctx, AppLogger log) {
@@ -39,8 +45,15 @@ public class SupabaseHelper {
     }
 
     private SupabaseHelper(Context ctx, AppLogger log) {
-        this.log = log;
-        this.db  = SupabaseClient.get(ctx, log);
+        this.log     = log;
+        this.db      = SupabaseClient.get(ctx, log);
+        this.batcher = SupabaseWriteBatcher.get(ctx, log);
+        this.avatars = AvatarStore.get(ctx, log);
+        // Чтение без побочных эффектов — политике можно повторять и хеджировать
+        db.markRpcIdempotent("inbox_since");
+        db.markRpcIdempotent("chat_summaries");
+        // userGet/userGetAll — одни и те же профили на каждом заходе в экран
+        db.setCacheTtl("users", SupabaseClient.USERS_CACHE_TTL_MS);
         log.i(TAG, "SupabaseHelper инициализирован");
     }
 
@@ -51,12 +64,14 @@ public class SupabaseHelper {
     /**
      * Обновить/создать присутствие пользователя (heartbeat).
      * Вызывать каждые ~15-30 секунд пока пользователь онлайн.
+     * Запись идёт через SupabaseWriteBatcher: повторные heartbeat склеиваются,
+     * ответ — {ok:true, status:202, queued:true} без тела.
      *
      * @param username   уникальный ник
      * @param name       отображаемое имя
      * @param avatar     эмодзи или URL
      * @param avatarType "emoji" | "url" | "base64"
-     * @param avatarData base64-данные аватара (или null)
+     * @param avatarData URL аватара или base64 (base64 выгружается в Storage, в строку идёт URL)
      * @param color      hex-цвет профиля, например "#e87722"
      * @param status     "online" | "away" | "offline"
      * @param vip        VIP-статус
@@ -81,13 +96,35 @@ public class SupabaseHelper {
             if (badge != null)     obj.put("badge", badge);
             if (pwdHash != null)   obj.put("pwd_hash", pwdHash);
             obj.put("ts",          System.currentTimeMillis());
-            return db.upsert("presence", obj.toString());
+            return presenceEnqueue(obj);
         } catch (Exception e) {
             log.e(TAG, "presenceUpsert ошибка: " + e.getMessage());
             return errorJson(e.getMessage());
         }
     }
 
+    /**
+     * Строка presence в батчер без блокировки вызывающего (зовётся с JavaBridge):
+     * новый base64-аватар грузится в Storage на потоке AvatarStore, строка уходит сразу
+     * без него, ссылка дописывается после загрузки.
+     */
+    public String presenceEnqueue(JSONObject row) {
+        final String username = row.optString("username", null);
+        if (username != null) avatars.offloadFieldAsync(row, url -> presenceAvatar(username, url));
+        return batcher.enqueue("presence", row);
+    }
+
+    /** Ссылка на выгруженный аватар — в ждущую/летящую строку батчера или PATCH'ем. */
+    private void presenceAvatar(String username, String url) {
+        try {
+            JSONObject fields = new JSONObject().put("avatar_data", url);
+            if (batcher.amend("presence", new JSONObject(fields.toString()).put("username", username))) return;
+            db.updateAsync("presence", "username=eq." + encodeFilter(username), fields.toString(), null);
+        } catch (Exception e) {
+            log.e(TAG, "presenceAvatar ошибка: " + e.getMessage());
+        }
+    }
+
     /**
      * Пометить пользователя как оффлайн (status=offline).
      */
@@ -97,6 +134,13 @@ public class SupabaseHelper {
             JSONObject obj = new JSONObject();
             obj.put("status", "offline");
             obj.put("ts", System.currentTimeMillis());
+            // Heartbeat ещё в очереди или в незавершённом запросе — offline идёт через
+            // батчер следом за ним; прямой PATCH мог бы обогнать летящий online и быть перетёрт
+            JSONObject pendingRow = new JSONObject(obj.toString()).put("username", username);
+            if (batcher.amend("presence", pendingRow)) {
+                batcher.flush("presence");
+                return SupabaseWriteBatcher.QUEUED_JSON;
+            }
             return db.update("presence", "username=eq." + encodeFilter(username), obj.toString());
         } catch (Exception e) {
             log.e(TAG, "presenceOffline ошибка: " + e.getMessage());
@@ -110,12 +154,21 @@ public class SupabaseHelper {
      */
     public String presenceGetOnline() {
         log.i(TAG, "presenceGetOnline ▸");
-        return db.select("presence",
-                "select=username,name,avatar,avatar_type,avatar_data,color,status,vip,badge,ts" +
-                "&status=neq.offline" +
-                "&order=ts.desc");
+        return db.select("presence", PRESENCE_ONLINE_QUERY);
+    }
+
+    /** Асинхронный {@link #presenceGetOnline()}. */
+    public Call presenceGetOnlineAsync(SupabaseClient.Callback cb) {
+        log.i(TAG, "presenceGetOnlineAsync ▸");
+        return db.selectAsync("presence", PRESENCE_ONLINE_QUERY, cb);
     }
 
+    /** avatar_data:avatar_ref — только ссылка; строки со старым base64 не тянут картинку в каждый опрос. */
+    private static final String PRESENCE_ONLINE_QUERY =
+            "select=username,name,avatar,avatar_type,avatar_data:avatar_ref,color,status,vip,badge,ts" +
+            "&status=neq.offline" +
+            "&order=ts.desc";
+
     /**
      * Получить одного пользователя из presence.
      */
@@ -149,19 +202,38 @@ public class SupabaseHelper {
         log.i(TAG, "messageSend ▸ chat=" + chatKey + " from=" + fromUser
                 + " to=" + toUser + " len=" + (text != null ? text.length() : 0));
         try {
-            JSONObject obj = new JSONObject();
-            obj.put("chat_key",  chatKey);
-            obj.put("from_user", fromUser);
-            obj.put("to_user",   toUser);
-            obj.put("text",      text);
-            obj.put("ts",        System.currentTimeMillis());
-            return db.insert("messages", obj.toString());
+            return db.insert("messages", messageJson(chatKey, fromUser, toUser, text));
         } catch (Exception e) {
             log.e(TAG, "messageSend ошибка: " + e.getMessage());
             return errorJson(e.getMessage());
         }
     }
 
+    /** Асинхронный {@link #messageSend(String, String, String, String)}. */
+    public Call messageSendAsync(String chatKey, String fromUser, String toUser, String text,
+                                 SupabaseClient.Callback cb) {
+        log.i(TAG, "messageSendAsync ▸ chat=" + chatKey + " from=" + fromUser
+                + " to=" + toUser + " len=" + (text != null ? text.length() : 0));
+        try {
+            return db.insertAsync("messages", messageJson(chatKey, fromUser, toUser, text), cb);
+        } catch (Exception e) {
+            log.e(TAG, "messageSendAsync ошибка: " + e.getMessage());
+            if (cb != null) cb.onResult(errorJson(e.getMessage()));
+            return null;
+        }
+    }
+
+    private String messageJson(String chatKey, String fromUser, String toUser, String text)
+            throws Exception {
+        JSONObject obj = new JSONObject();
+        obj.put("chat_key",  chatKey);
+        obj.put("from_user", fromUser);
+        obj.put("to_user",   toUser);
+        obj.put("text",      text);
+        obj.put("ts",        System.currentTimeMillis());
+        return obj.toString();
+    }
+
     /**
      * Получить историю чата по chat_key.
      * @param chatKey  ключ чата
@@ -171,10 +243,22 @@ public class SupabaseHelper {
     public String messageGetByChatKey(String chatKey, long afterTs, int limit) {
         log.i(TAG, "messageGetByChatKey ▸ chat=" + chatKey
                 + " afterTs=" + afterTs + " limit=" + limit);
+        return db.select("messages", chatKeyQuery(chatKey, afterTs, limit));
+    }
+
+    /** Асинхронный {@link #messageGetByChatKey(String, long, int)}. */
+    public Call messageGetByChatKeyAsync(String chatKey, long afterTs, int limit,
+                                         SupabaseClient.Callback cb) {
+        log.i(TAG, "messageGetByChatKeyAsync ▸ chat=" + chatKey
+                + " afterTs=" + afterTs + " limit=" + limit);
+        return db.selectAsync("messages", chatKeyQuery(chatKey, afterTs, limit), cb);
+    }
+
+    private String chatKeyQuery(String chatKey, long afterTs, int limit) {
         String filter = "select=*&chat_key=eq." + encodeFilter(chatKey)
                 + "&order=ts.asc&limit=" + limit;
         if (afterTs > 0) filter += "&ts=gt." + afterTs;
-        return db.select("messages", filter);
+        return filter;
     }
 
     /**
@@ -183,10 +267,195 @@ public class SupabaseHelper {
      */
     public String messageGetInbox(String toUser, long afterTs, int limit) {
         log.i(TAG, "messageGetInbox ▸ to=" + toUser + " afterTs=" + afterTs + " limit=" + limit);
+        return db.select("messages", inboxQuery(toUser, afterTs, limit));
+    }
+
+    /** Асинхронный {@link #messageGetInbox(String, long, int)}. */
+    public Call messageGetInboxAsync(String toUser, long afterTs, int limit,
+                                     SupabaseClient.Callback cb) {
+        log.i(TAG, "messageGetInboxAsync ▸ to=" + toUser + " afterTs=" + afterTs + " limit=" + limit);
+        return db.selectAsync("messages", inboxQuery(toUser, afterTs, limit), cb);
+    }
+
+    private String inboxQuery(String toUser, long afterTs, int limit) {
         String filter = "select=*&to_user=eq." + encodeFilter(toUser)
                 + "&order=ts.asc&limit=" + limit;
         if (afterTs > 0) filter += "&ts=gt." + afterTs;
-        return db.select("messages", filter);
+        return filter;
+    }
+
+    // ── Постраничная история (keyset по (ts, id)) ────────────────────────────
+    //
+    // ts=gt.X теряет сообщения с одинаковым ts на границе страницы и не умеет
+    // листать назад. Курсор (ts, id) однозначен: порядок ts, id строгий.
+    // Индексы под запросы — supabase_migration_messages_keyset.sql.
+
+    /**
+     * Страница истории чата относительно курсора (ts, id).
+     * @param cursorTs ts крайнего известного сообщения (0 — без курсора)
+     * @param cursorId id крайнего известного сообщения
+     * @param older    true — страница старше курсора (без курсора — самые свежие),
+     *                 false — новее курсора (без курсора — с начала чата)
+     * @return строки всегда по возрастанию (ts, id), независимо от направления
+     */
+    public String messagePageByChatKey(String chatKey, long cursorTs, long cursorId,
+                                       boolean older, int limit) {
+        log.i(TAG, "messagePageByChatKey ▸ chat=" + chatKey + " cursor=(" + cursorTs + ","
+                + cursorId + ") " + (older ? "older" : "newer") + " limit=" + limit);
+        String res = db.select("messages",
+                keysetQuery("chat_key=eq." + encodeFilter(chatKey), cursorTs, cursorId, older, limit));
+        return older ? reverseBody(res) : res;
+    }
+
+    /** Асинхронный {@link #messagePageByChatKey}. */
+    public Call messagePageByChatKeyAsync(String chatKey, long cursorTs, long cursorId,
+                                          boolean older, int limit, SupabaseClient.Callback cb) {
+        log.i(TAG, "messagePageByChatKeyAsync ▸ chat=" + chatKey + " cursor=(" + cursorTs + ","
+                + cursorId + ") " + (older ? "older" : "newer") + " limit=" + limit);
+        return db.selectAsync("messages",
+                keysetQuery("chat_key=eq." + encodeFilter(chatKey), cursorTs, cursorId, older, limit),
+                older && cb != null ? r -> cb.onResult(reverseBody(r)) : cb);
+    }
+
+    /**
+     * Входящие новее курсора (ts, id) — замена messageGetInbox для поллинга
+     * без пропусков сообщений с одинаковым ts.
+     */
+    public String messageInboxPage(String toUser, long cursorTs, long cursorId, int limit) {
+        log.i(TAG, "messageInboxPage ▸ to=" + toUser + " cursor=(" + cursorTs + ","
+                + cursorId + ") limit=" + limit);
+        return db.select("messages",
+                keysetQuery("to_user=eq." + encodeFilter(toUser), cursorTs, cursorId, false, limit));
+    }
+
+    /**
+     * Все новые входящие — личные и групповые — одним вызовом RPC inbox_since
+     * (supabase_migration_inbox.sql). Число запросов не зависит от числа групп.
+     *
+     * @param groupIds id групп пользователя ("grp_…"), chat_key = "group_" + id
+     * @param sinceTs  курсор (ts, id) последней обработанной строки; 0 — с начала
+     * @return {ok, status, body} — body: строки по возрастанию (ts, id)
+     */
+    public String inboxSince(String username, java.util.List<String> groupIds,
+                             long sinceTs, long sinceId, int limit) {
+        log.i(TAG, "inboxSince ▸ user=" + username + " groups=" + groupIds.size()
+                + " cursor=(" + sinceTs + "," + sinceId + ") limit=" + limit);
+        try {
+            JSONObject params = new JSONObject();
+            params.put("p_username",  username);
+            params.put("p_group_ids", new JSONArray(groupIds));
+            params.put("p_since_ts",  sinceTs);
+            params.put("p_since_id",  sinceId);
+            params.put("p_limit",     limit);
+            return db.rpc("inbox_since", params.toString());
+        } catch (Exception e) {
+            log.e(TAG, "inboxSince ошибка: " + e.getMessage());
+            return errorJson(e.getMessage());
+        }
+    }
+
+    /**
+     * inboxSince() для Java-кода: строки разбираются декодером прямо из потока
+     * ответа, без конверта и JSONArray.
+     */
+    public <T> SupabaseResponse<T> inboxSinceRows(String username, java.util.List<String> groupIds,
+                                                  long sinceTs, long sinceId, int limit,
+                                                  SupabaseResponse.RowDecoder<T> decoder) {
+        try {
+            JSONObject params = new JSONObject();
+            params.put("p_username",  username);
+            params.put("p_group_ids", new JSONArray(groupIds));
+            params.put("p_since_ts",  sinceTs);
+            params.put("p_since_id",  sinceId);
+            params.put("p_limit",     limit);
+            return db.rpcRows("inbox_since", params.toString(), decoder);
+        } catch (Exception e) {
+            log.e(TAG, "inboxSinceRows ошибка: " + e.getMessage());
+            return SupabaseResponse.failure(0, e.getMessage());
+        }
+    }
+
+    /**
+     * Реакции и "прочитано" для пользователя новее курсора — таблица message_events
+     * (supabase_migration_message_events.sql). По строке на сообщение / читателя,
+     * свои изменения (с другого устройства) не возвращаются.
+     *
+     * @param sinceUpdatedAt курсор по серверному updated_at
+     */
+    public <T> SupabaseResponse<T> messageEventsSince(String username, long sinceUpdatedAt, int limit,
+                                                      SupabaseResponse.RowDecoder<T> decoder) {
+        String me = encodeFilter(username);
+        return db.selectRows("message_events",
+                "select=chat_key,kind,target_ts,from_user,to_user,reactions,up_to_ts,ts,updated_at"
+                + "&to_user=eq." + me + "&from_user=neq." + me
+                + "&updated_at=gt." + sinceUpdatedAt
+                + "&order=updated_at.asc&limit=" + limit,
+                decoder);
+    }
+
+    /**
+     * Сводка личных чатов одним вызовом RPC chat_summaries
+     * (supabase_migration_chat_summaries.sql): последнее сообщение,
+     * непрочитанные и время активности на чат.
+     *
+     * @param sinceTs 0 — все чаты; иначе только изменившиеся после курсора (activity_ts)
+     * @return {ok, status, body} — body: [{peer, chat_key, last_*, unread, activity_ts}]
+     */
+    public String chatSummaries(String username, long sinceTs, int limit) {
+        log.i(TAG, "chatSummaries ▸ user=" + username + " since=" + sinceTs + " limit=" + limit);
+        try {
+            JSONObject params = new JSONObject();
+            params.put("p_username", username);
+            params.put("p_since_ts", sinceTs);
+            params.put("p_limit",    limit);
+            return db.rpc("chat_summaries", params.toString());
+        } catch (Exception e) {
+            log.e(TAG, "chatSummaries ошибка: " + e.getMessage());
+            return errorJson(e.getMessage());
+        }
+    }
+
+    /**
+     * PostgREST-запрос страницы по ключу (ts, id).
+     * Вперёд:  or=(ts.gt.T,and(ts.eq.T,id.gt.I))&order=ts.asc,id.asc
+     * Назад:   or=(ts.lt.T,and(ts.eq.T,id.lt.I))&order=ts.desc,id.desc
+     * @param filter базовый фильтр, например "chat_key=eq.a_b"
+     */
+    public static String keysetQuery(String filter, long cursorTs, long cursorId,
+                                     boolean older, int limit) {
+        StringBuilder q = new StringBuilder("select=*&").append(filter);
+        if (cursorTs > 0) {
+            String cmp = older ? "lt" : "gt";
+            q.append("&or=(ts.").append(cmp).append('.').append(cursorTs)
+             .append(",and(ts.eq.").append(cursorTs)
+             .append(",id.").append(cmp).append('.').append(cursorId).append("))");
+        }
+        q.append(older ? "&order=ts.desc,id.desc" : "&order=ts.asc,id.asc");
+        q.append("&limit=").append(limit);
+        return q.toString();
+    }
+
+    /**
+     * (ts, id) строго после (cursorTs, cursorId) — тот же порядок, что у keysetQuery
+     * и row-сравнения (ts, id) > (…) в inbox_since. По нему двигаются курсоры.
+     */
+    public static boolean keysetAfter(long ts, long id, long cursorTs, long cursorId) {
+        return ts > cursorTs || (ts == cursorTs && id > cursorId);
+    }
+
+    /** Страница «назад» приходит от новых к старым — разворачиваем body к возрастанию. */
+    private String reverseBody(String result) {
+        try {
+            JSONObject res = new JSONObject(result);
+            if (!res.optBoolean("ok")) return result;
+            JSONArray in  = new JSONArray(res.optString("body", "[]"));
+            JSONArray out = new JSONArray();
+            for (int i = in.length() - 1; i >= 0; i--) out.put(in.get(i));
+            res.put("body", out.toString());
+            return res.toString();
+        } catch (Exception e) {
+            return result;
+        }
     }
 
     /**
@@ -234,7 +503,7 @@ public class SupabaseHelper {
             obj.put("color",    color != null ? color : "#e87722");
             obj.put("score",    score);
             obj.put("ts",       System.currentTimeMillis());
-            return db.upsert("leaderboard", obj.toString());
+            return batcher.enqueue("leaderboard", obj);
         } catch (Exception e) {
             log.e(TAG, "leaderboardUpsert ошибка: " + e.getMessage());
             return errorJson(e.getMessage());
@@ -319,6 +588,13 @@ public class SupabaseHelper {
                 "select=*&username=eq." + encodeFilter(username) + "&limit=1");
     }
 
+    /** Асинхронный {@link #userGet(String)}. */
+    public Call userGetAsync(String username, SupabaseClient.Callback cb) {
+        log.i(TAG, "userGetAsync ▸ username=" + username);
+        return db.selectAsync("users",
+                "select=*&username=eq." + encodeFilter(username) + "&limit=1", cb);
+    }
+
     /**
      * Обновить поля профиля.
      * @param username  чей профиль обновлять
@@ -334,7 +610,7 @@ public class SupabaseHelper {
      * Обновить аватар пользователя.
      * @param avatarType "emoji" | "url" | "base64"
      * @param avatar     эмодзи или URL
-     * @param avatarData base64-данные (только если type="base64"), иначе null
+     * @param avatarData URL или base64 (base64 выгружается в Storage, в строку идёт URL), иначе null
      */
     public String userUpdateAvatar(String username, String avatarType,
                                     String avatar, String avatarData) {
@@ -344,6 +620,7 @@ public class SupabaseHelper {
             obj.put("avatar",      avatar);
             obj.put("avatar_type", avatarType);
             if (avatarData != null) obj.put("avatar_data", avatarData);
+            avatars.offloadField(obj);
             return db.update("users", "username=eq." + encodeFilter(username), obj.toString());
         } catch (Exception e) {
             log.e(TAG, "userUpdateAvatar ошибка: " + e.getMessage());
@@ -351,6 +628,35 @@ public class SupabaseHelper {
         }
     }
 
+    /**
+     * Перенос старого аватара: если в users.avatar_data ещё лежит base64,
+     * картинка уходит в Storage, а в users и presence пишется ссылка.
+     * Каждый клиент переносит свою строку при входе (RLS пускает только к своей).
+     * Блокирующий; повторный вызов после переноса — один маленький SELECT.
+     *
+     * @return URL аватара после переноса или null, если переносить было нечего / не вышло
+     */
+    public String migrateAvatar(String username) {
+        SupabaseResponse<String> r = db.selectRows("users",
+                "select=avatar_data&username=eq." + encodeFilter(username) + "&limit=1",
+                SupabaseResponse.column("avatar_data"));
+        String data = r.first();
+        if (!r.ok || !AvatarStore.isInline(data)) return null;
+        log.i(TAG, "migrateAvatar ▸ username=" + username + " base64=" + data.length() + " симв.");
+        String url = avatars.offload(data);
+        if (url == null) return null;
+        try {
+            String fields = new JSONObject().put("avatar_data", url).toString();
+            String filter = "username=eq." + encodeFilter(username);
+            if (!SupabaseClient.isOkResult(db.update("users", filter, fields))) return null;
+            db.update("presence", filter, fields);
+            return url;
+        } catch (Exception e) {
+            log.e(TAG, "migrateAvatar ошибка: " + e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * Обновить статус пользователя.
      * @param status "online" | "away" | "offline"
@@ -374,16 +680,11 @@ public class SupabaseHelper {
     public String userExists(String username) {
         log.i(TAG, "userExists ▸ username=" + username);
         try {
-            String result = db.select("users",
-                    "select=username&username=eq." + encodeFilter(username) + "&limit=1");
-            JSONObject res = new JSONObject(result);
-            boolean ok = res.optBoolean("ok", false);
-            String body = res.optString("body", "[]");
-            boolean exists = false;
-            if (ok) {
-                JSONArray arr = new JSONArray(body);
-                exists = arr.length() > 0;
-            }
+            SupabaseResponse<String> res = db.selectRows("users",
+                    "select=username&username=eq." + encodeFilter(username) + "&limit=1",
+                    SupabaseResponse.column("username"));
+            boolean ok     = res.ok;
+            boolean exists = res.ok && !res.isEmpty();
             JSONObject out = new JSONObject();
             out.put("ok",     ok);
             out.put("exists", exists);
@@ -0,0 +1,253 @@
+package com.schedule.app;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Метрики запросов SupabaseClient по эндпоинтам.
+ *
+ * Эндпоинт = метод + таблица / RPC / раздел API:
+ *   "GET messages", "POST rpc/inbox_since", "POST storage/avatars", "POST auth/token"
+ *
+ * На каждый эндпоинт: число вызовов, ошибок (не-2xx и исключений), коды ответов,
+ * байты ответа (после распаковки gzip) и гистограмма задержек с фиксированными
+ * корзинами — по ней считаются p50/p95/p99 без хранения отдельных замеров.
+ *
+ * Раз в SUMMARY_INTERVAL_MS в AppLogger пишется сводка по самым тяжёлым эндпоинтам.
+ */
+class SupabaseMetrics {
+
+    private static final String TAG = "SupabaseMetrics";
+
+    /** Верхние границы корзин задержки, мс. Последняя корзина — всё, что дольше. */
+    static final long[] BUCKETS_MS = { 50, 100, 200, 400, 800, 1600, 3200, 6400, 12800 };
+
+    static final long SUMMARY_INTERVAL_MS = 5 * 60_000L;
+    private static final int SUMMARY_TOP  = 8;
+
+    private static final class Endpoint {
+        final String key;
+        long calls, errors, exceptions, bytes, maxBytes, totalMs, maxMs;
+        final long[] hist = new long[BUCKETS_MS.length + 1];
+        final Map<Integer, Long> statuses = new TreeMap<>();
+
+        Endpoint(String key) { this.key = key; }
+
+        void add(long ms, long respBytes, int status) {
+            calls++;
+            totalMs += ms;
+            if (ms > maxMs) maxMs = ms;
+            bytes += respBytes;
+            if (respBytes > maxBytes) maxBytes = respBytes;
+            int b = 0;
+            while (b < BUCKETS_MS.length && ms > BUCKETS_MS[b]) b++;
+            hist[b]++;
+            if (status == 0) {
+                exceptions++;
+                errors++;
+            } else {
+                if (status < 200 || status >= 300) errors++;
+                Long n = statuses.get(status);
+                statuses.put(status, n != null ? n + 1 : 1L);
+            }
+        }
+
+        /** Перцентиль по гистограмме: верхняя граница корзины, в которую он попал. */
+        long percentile(double p) {
+            if (calls == 0) return 0;
+            long rank = (long) Math.ceil(calls * p);
+            long seen = 0;
+            for (int i = 0; i < hist.length; i++) {
+                seen += hist[i];
+                if (seen >= rank) return i < BUCKETS_MS.length ? BUCKETS_MS[i] : maxMs;
+            }
+            return maxMs;
+        }
+    }
+
+    private final Map<String, Endpoint> endpoints = new HashMap<>();
+    private long since = System.currentTimeMillis();
+    private long callsAtLastSummary;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private AppLogger summaryLog;
+    private final Runnable summaryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            writeSummary();
+            handler.postDelayed(this, SUMMARY_INTERVAL_MS);
+        }
+    };
+
+    // ── Запись ────────────────────────────────────────────────────────────────
+
+    /**
+     * @param status HTTP-код или 0, если запрос упал исключением
+     * @param bytes  размер тела ответа в байтах
+     */
+    synchronized void record(String method, String urlPath, long ms, long bytes, int status) {
+        String key = endpointOf(method, urlPath);
+        Endpoint e = endpoints.get(key);
+        if (e == null) {
+            e = new Endpoint(key);
+            endpoints.put(key, e);
+        }
+        e.add(ms, bytes, status);
+    }
+
+    /** "/rest/v1/messages?select=…" → "GET messages", "/storage/v1/object/avatars/a.png" → "POST storage/avatars". */
+    static String endpointOf(String method, String urlPath) {
+        String path = urlPath;
+        int q = path.indexOf('?');
+        if (q >= 0) path = path.substring(0, q);
+        String name;
+        if (path.startsWith("/rest/v1/")) {
+            name = path.substring("/rest/v1/".length());
+        } else if (path.startsWith("/storage/v1/")) {
+            // storage/v1/object/{bucket}/{path…} и storage/v1/object/list/{bucket}
+            String[] parts = path.substring("/storage/v1/".length()).split("/");
+            if (parts.length > 2 && "list".equals(parts[1])) name = "storage/list/" + parts[2];
+            else name = "storage/" + (parts.length > 1 ? parts[1] : parts[0]);
+        } else if (path.startsWith("/auth/v1/")) {
+            name = "auth/" + path.substring("/auth/v1/".length());
+        } else {
+            name = path;
+        }
+        return method + " " + name;
+    }
+
+    /**
+     * Перцентиль задержки эндпоинта, мс; -1 — замеров меньше minSamples
+     * (по нему SupabaseCallPolicy решает, когда хеджировать GET).
+     */
+    synchronized long percentileMs(String method, String urlPath, double p, int minSamples) {
+        Endpoint e = endpoints.get(endpointOf(method, urlPath));
+        if (e == null || e.calls < minSamples) return -1;
+        return e.percentile(p);
+    }
+
+    synchronized void reset() {
+        endpoints.clear();
+        since = System.currentTimeMillis();
+        callsAtLastSummary = 0;
+    }
+
+    // ── Снимок ────────────────────────────────────────────────────────────────
+
+    /**
+     * {since, buckets:[…], endpoints:[{endpoint, calls, errors, exceptions, bytes, maxBytes,
+     *  avgMs, p50, p95, p99, maxMs, status:{"200":n,…}, hist:[…]}]}
+     * Эндпоинты отсортированы по суммарным байтам (сверху — главные потребители трафика).
+     */
+    synchronized JSONObject snapshot() {
+        JSONObject o = new JSONObject();
+        try {
+            o.put("since", since);
+            JSONArray buckets = new JSONArray();
+            for (long b : BUCKETS_MS) buckets.put(b);
+            o.put("buckets", buckets);
+            JSONArray arr = new JSONArray();
+            for (Endpoint e : sortedByBytes()) {
+                JSONObject j = new JSONObject();
+                j.put("endpoint",   e.key);
+                j.put("calls",      e.calls);
+                j.put("errors",     e.errors);
+                j.put("exceptions", e.exceptions);
+                j.put("bytes",      e.bytes);
+                j.put("maxBytes",   e.maxBytes);
+                j.put("avgMs",      e.calls > 0 ? e.totalMs / e.calls : 0);
+                j.put("p50",        e.percentile(0.50));
+                j.put("p95",        e.percentile(0.95));
+                j.put("p99",        e.percentile(0.99));
+                j.put("maxMs",      e.maxMs);
+                JSONObject st = new JSONObject();
+                for (Map.Entry<Integer, Long> s : e.statuses.entrySet()) {
+                    st.put(String.valueOf(s.getKey()), s.getValue());
+                }
+                j.put("status", st);
+                JSONArray h = new JSONArray();
+                for (long n : e.hist) h.put(n);
+                j.put("hist", h);
+                arr.put(j);
+            }
+            o.put("endpoints", arr);
+        } catch (Exception ignored) {}
+        return o;
+    }
+
+    // ── Периодическая сводка в лог ────────────────────────────────────────────
+
+    synchronized void startPeriodicSummary(AppLogger log) {
+        if (summaryLog != null) return;
+        summaryLog = log;
+        handler.postDelayed(summaryRunnable, SUMMARY_INTERVAL_MS);
+    }
+
+    /** Пишет топ эндпоинтов по трафику. Если новых запросов не было — молчит. */
+    void writeSummary() {
+        List<String> lines = new ArrayList<>();
+        AppLogger log;
+        synchronized (this) {
+            log = summaryLog;
+            long total = 0, totalBytes = 0, totalErrors = 0;
+            for (Endpoint e : endpoints.values()) {
+                total       += e.calls;
+                totalBytes  += e.bytes;
+                totalErrors += e.errors;
+            }
+            if (log == null || total == callsAtLastSummary) return;
+            callsAtLastSummary = total;
+            long mins = Math.max(1, (System.currentTimeMillis() - since) / 60_000L);
+            lines.add("за " + mins + " мин: запросов " + total + ", ошибок " + totalErrors
+                    + ", " + formatBytes(totalBytes));
+            List<Endpoint> sorted = sortedByBytes();
+            for (int i = 0; i < sorted.size() && i < SUMMARY_TOP; i++) {
+                Endpoint e = sorted.get(i);
+                lines.add(String.format(Locale.US,
+                        "  %-28s ×%-5d err=%-3d %9s  p50=%dms p95=%dms p99=%dms max=%dms",
+                        e.key, e.calls, e.errors, formatBytes(e.bytes),
+                        e.percentile(0.50), e.percentile(0.95), e.percentile(0.99), e.maxMs));
+            }
+        }
+        log.section("Supabase: сводка запросов");
+        for (String l : lines) log.i(TAG, l);
+    }
+
+    // ── Внутреннее ────────────────────────────────────────────────────────────
+
+    private List<Endpoint> sortedByBytes() {
+        List<Endpoint> list = new ArrayList<>(endpoints.values());
+        Collections.sort(list, (a, b) -> Long.compare(b.bytes, a.bytes));
+        return list;
+    }
+
+    private static String formatBytes(long b) {
+        if (b < 1024) return b + " B";
+        if (b < 1024 * 1024) return (b / 1024) + " KB";
+        return String.format(Locale.US, "%.1f MB", b / (1024.0 * 1024.0));
+    }
+
+    /** Длина строки в UTF-8 без копирования в byte[]. */
+    static long utf8Length(String s) {
+        long n = 0;
+        for (int i = 0, len = s.length(); i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) n++;
+            else if (c < 0x800) n += 2;
+            else if (Character.isHighSurrogate(c)) { n += 4; i++; }
+            else n += 3;
+        }
+        return n;
+    }
+}
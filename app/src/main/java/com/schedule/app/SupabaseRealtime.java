@@ -0,0 +1,434 @@
+package com.schedule.app;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+
+/**
+ * Клиент Supabase Realtime (протокол каналов Phoenix поверх websocket).
+ *
+ * Подписка на INSERT в таблицу с фильтром PostgREST-вида:
+ *
+ *   SupabaseRealtime.Subscription s = SupabaseRealtime.get(ctx, log)
+ *       .subscribe("messages", "to_user=eq.alex", listener);
+ *   ...
+ *   s.close();
+ *
+ * Один сокет на всё приложение: открывается с первой подпиской, закрывается
+ * с последней. Heartbeat каждые HEARTBEAT_MS; если ответ на прошлый не пришёл —
+ * сокет считается мёртвым. Переподключение — с экспоненциальной паузой и
+ * джиттером, после него все каналы подписываются заново, а слушатель получает
+ * onJoined(): Realtime не хранит пропущенное, догнать его — обычным запросом.
+ *
+ * Пока Subscription.isLive() == false, вызывающие продолжают поллить как раньше;
+ * когда сокет жив — поллинг остаётся только редкой страховкой.
+ */
+public class SupabaseRealtime {
+
+    private static final String TAG = "SupabaseRealtime";
+
+    static final long HEARTBEAT_MS       = 25_000;
+    static final long RECONNECT_BASE_MS  = 1_000;
+    static final long RECONNECT_MAX_MS   = 30_000;
+
+    /** Колбэки приходят на потоке сокета — тяжёлую работу уносить к себе. */
+    public interface Listener {
+        /** Новая строка (payload.data.record); для подписки на "*" — и изменённая. */
+        void onInsert(JSONObject record);
+
+        /** Канал подписан (впервые или после переподключения) — пора добрать пропущенное. */
+        void onJoined();
+    }
+
+    /** Подписка на один канал. close() отписывает; повторный close() ничего не делает. */
+    public final class Subscription {
+        final String   topic;
+        final String   table;
+        final String   filter;
+        /** "INSERT" или "*" (INSERT + UPDATE). */
+        final String   event;
+        final Listener listener;
+        String  joinRef;
+        boolean joined;
+        /**
+         * Канал подписан, но postgres_changes сервер не принял (system со status=error:
+         * таблицы нет в публикации, фильтр не разобран) — событий не будет.
+         */
+        boolean changesFailed;
+
+        Subscription(String topic, String table, String filter, String event, Listener listener) {
+            this.topic    = topic;
+            this.table    = table;
+            this.filter   = filter;
+            this.event    = event;
+            this.listener = listener;
+        }
+
+        /** Канал подписан, сокет жив и сервер не отверг postgres_changes: поллинг можно разредить. */
+        public boolean isLive() {
+            synchronized (SupabaseRealtime.this) {
+                return open && joined && !changesFailed;
+            }
+        }
+
+        public void close() {
+            unsubscribe(this);
+        }
+    }
+
+    private static volatile SupabaseRealtime instance;
+
+    private final SupabaseClient db;
+    private final AppLogger      log;
+    private final OkHttpClient   http;
+    private final String         socketUrl;
+    private final Random         random = new Random();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "supabase-realtime");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Всё ниже — под synchronized(this)
+    private final Map<String, Subscription> subs = new LinkedHashMap<>();
+    private WebSocket          socket;
+    private boolean            open;
+    private int                attempts;
+    private long               ref;
+    private String             pendingHeartbeat;
+    private ScheduledFuture<?> heartbeatTask;
+    private ScheduledFuture<?> reconnectTask;
+    private int                topicSeq;
+
+    private final AtomicLong inserts    = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+
+    // ── Singleton ─────────────────────────────────────────────────────────────
+    public static SupabaseRealtime get(Context ctx, AppLogger log) {
+        if (instance == null) {
+            synchronized (SupabaseRealtime.class) {
+                if (instance == null) instance = new SupabaseRealtime(ctx, log);
+            }
+        }
+        return instance;
+    }
+
+    private SupabaseRealtime(Context ctx, AppLogger log) {
+        this.log  = log;
+        this.db   = SupabaseClient.get(ctx, log);
+        // Websocket живёт долго — без read timeout, пул и DNS общие
+        this.http = NetworkStack.get(ctx, log).client(NetworkStack.Purpose.API).newBuilder()
+                .readTimeout(0, TimeUnit.MILLISECONDS)
+                .build();
+        this.socketUrl = SupabaseClient.URL.replaceFirst("^http", "ws")
+                + "/realtime/v1/websocket?apikey=" + SupabaseClient.ANON_KEY + "&vsn=1.0.0";
+    }
+
+    /** Для тестов: свой сокет (локальный сервер-заглушка), без SupabaseClient — join с anon-ключом. */
+    SupabaseRealtime(OkHttpClient http, String socketUrl, AppLogger log) {
+        this.log       = log;
+        this.db        = null;
+        this.http      = http;
+        this.socketUrl = socketUrl;
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Публичный API
+    // ════════════════════════════════════════════════════════════════════════
+
+    /**
+     * Подписаться на INSERT в таблицу.
+     * @param filter фильтр Realtime: "to_user=eq.alex", "chat_key=in.(group_1,group_2)"
+     */
+    public Subscription subscribe(String table, String filter, Listener listener) {
+        return subscribe(table, filter, "INSERT", listener);
+    }
+
+    /**
+     * Подписаться на INSERT и UPDATE — для таблиц, где строка обновляется на месте
+     * (upsert агрегатов: message_events). Обе приходят в onInsert.
+     */
+    public Subscription subscribeChanges(String table, String filter, Listener listener) {
+        return subscribe(table, filter, "*", listener);
+    }
+
+    private synchronized Subscription subscribe(String table, String filter, String event, Listener listener) {
+        String topic = "realtime:" + table + ":" + (++topicSeq);
+        Subscription s = new Subscription(topic, table, filter, event, listener);
+        subs.put(topic, s);
+        log.i(TAG, "subscribe ▸ " + table + " " + event + " [" + filter + "] → " + topic);
+        if (socket == null) connect();
+        else if (open) join(s);
+        return s;
+    }
+
+    /** Сокет открыт (мёртвый по heartbeat сразу закрывается). */
+    public synchronized boolean isConnected() {
+        return open;
+    }
+
+    /** {connected, channels, joined, failed, inserts, reconnects} */
+    public synchronized JSONObject stats() {
+        JSONObject o = new JSONObject();
+        try {
+            int joined = 0, failed = 0;
+            for (Subscription s : subs.values()) {
+                if (s.joined) joined++;
+                if (s.changesFailed) failed++;
+            }
+            o.put("connected",  isConnected());
+            o.put("channels",   subs.size());
+            o.put("joined",     joined);
+            o.put("failed",     failed);
+            o.put("inserts",    inserts.get());
+            o.put("reconnects", reconnects.get());
+        } catch (Exception ignored) {}
+        return o;
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Сокет
+    // ════════════════════════════════════════════════════════════════════════
+
+    private synchronized void unsubscribe(Subscription s) {
+        if (subs.remove(s.topic) == null) return;
+        log.i(TAG, "unsubscribe ▸ " + s.topic);
+        if (open && s.joined) send(s.topic, "phx_leave", new JSONObject(), s.joinRef);
+        if (subs.isEmpty()) disconnect();
+    }
+
+    private void connect() {
+        log.i(TAG, "→ connect (попытка " + (attempts + 1) + ")");
+        socket = http.newWebSocket(new Request.Builder().url(socketUrl).build(), new SocketListener());
+    }
+
+    private void disconnect() {
+        log.i(TAG, "disconnect — подписок нет");
+        cancelTimers();
+        if (socket != null) socket.close(1000, "no subscriptions");
+        socket = null;
+        open   = false;
+        attempts = 0;
+    }
+
+    private void cancelTimers() {
+        if (heartbeatTask != null) { heartbeatTask.cancel(false); heartbeatTask = null; }
+        if (reconnectTask != null) { reconnectTask.cancel(false); reconnectTask = null; }
+        pendingHeartbeat = null;
+    }
+
+    /** Сокет умер: каналы помечаются неподписанными, переподключение — после паузы. */
+    private synchronized void onSocketLost(WebSocket ws, String why) {
+        if (ws != socket) return;   // старый сокет, уже заменён
+        log.w(TAG, "✗ сокет потерян: " + why);
+        cancelTimers();
+        socket = null;
+        open   = false;
+        for (Subscription s : subs.values()) s.joined = false;
+        if (subs.isEmpty()) return;
+        long ceiling = Math.min(RECONNECT_MAX_MS, RECONNECT_BASE_MS << Math.min(attempts, 5));
+        long delay   = ceiling / 2 + (long) (random.nextDouble() * ceiling / 2);
+        attempts++;
+        reconnects.incrementAndGet();
+        log.i(TAG, "↻ переподключение через " + delay + "мс");
+        reconnectTask = timer.schedule(() -> {
+            synchronized (SupabaseRealtime.this) {
+                reconnectTask = null;
+                if (socket == null && !subs.isEmpty()) connect();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void onSocketOpen(WebSocket ws) {
+        if (ws != socket) return;
+        open = true;
+        log.i(TAG, "✓ сокет открыт, каналов: " + subs.size());
+        heartbeatTask = timer.scheduleAtFixedRate(this::heartbeat,
+                HEARTBEAT_MS, HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+        for (Subscription s : subs.values()) join(s);
+    }
+
+    private synchronized void heartbeat() {
+        if (!open || socket == null) return;
+        if (pendingHeartbeat != null) {
+            // Прошлый heartbeat без ответа — соединение зависло (NAT, смена сети)
+            WebSocket dead = socket;
+            dead.cancel();
+            onSocketLost(dead, "нет ответа на heartbeat");
+            return;
+        }
+        pendingHeartbeat = send("phoenix", "heartbeat", new JSONObject(), null);
+    }
+
+    private void join(Subscription s) {
+        try {
+            JSONObject change = new JSONObject()
+                    .put("event",  s.event)
+                    .put("schema", "public")
+                    .put("table",  s.table);
+            if (s.filter != null && !s.filter.isEmpty()) change.put("filter", s.filter);
+            JSONObject config = new JSONObject()
+                    .put("broadcast", new JSONObject().put("self", false))
+                    .put("presence",  new JSONObject().put("key", ""))
+                    .put("postgres_changes", new JSONArray().put(change));
+            String token = db != null ? db.getAuthToken() : null;
+            JSONObject payload = new JSONObject()
+                    .put("config", config)
+                    .put("access_token", token != null && !token.isEmpty() ? token : SupabaseClient.ANON_KEY);
+            s.joinRef = String.valueOf(ref + 1);
+            s.changesFailed = false;
+            send(s.topic, "phx_join", payload, s.joinRef);
+        } catch (Exception e) {
+            log.e(TAG, "join " + s.topic + " ошибка: " + e.getMessage());
+        }
+    }
+
+    /** @return ref отправленного сообщения */
+    private String send(String topic, String event, JSONObject payload, String joinRef) {
+        String r = String.valueOf(++ref);
+        try {
+            JSONObject msg = new JSONObject()
+                    .put("topic",   topic)
+                    .put("event",   event)
+                    .put("payload", payload)
+                    .put("ref",     r);
+            if (joinRef != null) msg.put("join_ref", joinRef);
+            if (socket != null) socket.send(msg.toString());
+        } catch (Exception e) {
+            log.e(TAG, "send " + event + " ошибка: " + e.getMessage());
+        }
+        return r;
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Входящие
+    // ════════════════════════════════════════════════════════════════════════
+
+    private void onMessage(WebSocket ws, String text) {
+        JSONObject msg;
+        try {
+            msg = new JSONObject(text);
+        } catch (Exception e) {
+            log.w(TAG, "не JSON: " + text.substring(0, Math.min(text.length(), 80)));
+            return;
+        }
+        String topic   = msg.optString("topic");
+        String event   = msg.optString("event");
+        String msgRef  = msg.optString("ref", null);
+        JSONObject payload = msg.optJSONObject("payload");
+        if (payload == null) payload = new JSONObject();
+
+        Subscription s;
+        List<Listener> notifyJoined = new ArrayList<>();
+        synchronized (this) {
+            if (ws != socket) return;
+            if ("phoenix".equals(topic)) {
+                if (msgRef != null && msgRef.equals(pendingHeartbeat)) pendingHeartbeat = null;
+                return;
+            }
+            s = subs.get(topic);
+            if (s == null) return;
+            switch (event) {
+                case "phx_reply":
+                    if (msgRef == null || !msgRef.equals(s.joinRef)) return;
+                    if ("ok".equals(payload.optString("status"))) {
+                        s.joined = true;
+                        attempts = 0;
+                        log.i(TAG, "✓ подписан " + topic + " [" + s.filter + "]");
+                        notifyJoined.add(s.listener);
+                    } else {
+                        log.w(TAG, "✗ подписка " + topic + " отклонена: " + payload);
+                    }
+                    break;
+                case "phx_error":
+                case "phx_close":
+                    // Канал упал на сервере — подписываемся заново
+                    s.joined = false;
+                    log.w(TAG, event + " на " + topic + " — повторная подписка");
+                    timer.schedule(() -> {
+                        synchronized (SupabaseRealtime.this) {
+                            if (open && subs.get(s.topic) == s && !s.joined) join(s);
+                        }
+                    }, RECONNECT_BASE_MS, TimeUnit.MILLISECONDS);
+                    return;
+                case "system":
+                    // Итог подписки на postgres_changes приходит отдельно от phx_reply
+                    if ("postgres_changes".equals(payload.optString("extension"))
+                            && "error".equals(payload.optString("status"))) {
+                        s.changesFailed = true;
+                        log.w(TAG, "✗ postgres_changes " + topic + " [" + s.filter + "] отклонён: "
+                                + payload.optString("message") + " — остаётся поллинг");
+                    }
+                    return;
+                case "postgres_changes":
+                    break;
+                default:
+                    return;
+            }
+        }
+        for (Listener l : notifyJoined) safeJoined(l);
+        if (!"postgres_changes".equals(event)) return;
+
+        JSONObject data = payload.optJSONObject("data");
+        if (data == null) return;
+        String type = data.optString("type");
+        if (!"INSERT".equals(type) && !("*".equals(s.event) && "UPDATE".equals(type))) return;
+        JSONObject record = data.optJSONObject("record");
+        if (record == null) return;
+        inserts.incrementAndGet();
+        try {
+            s.listener.onInsert(record);
+        } catch (Throwable t) {
+            log.e(TAG, "listener.onInsert упал: " + t.getMessage());
+        }
+    }
+
+    private void safeJoined(Listener l) {
+        try {
+            l.onJoined();
+        } catch (Throwable t) {
+            log.e(TAG, "listener.onJoined упал: " + t.getMessage());
+        }
+    }
+
+    private final class SocketListener extends WebSocketListener {
+        @Override
+        public void onOpen(WebSocket ws, Response response) {
+            onSocketOpen(ws);
+        }
+
+        @Override
+        public void onMessage(WebSocket ws, String text) {
+            SupabaseRealtime.this.onMessage(ws, text);
+        }
+
+        @Override
+        public void onClosing(WebSocket ws, int code, String reason) {
+            ws.close(1000, null);
+            onSocketLost(ws, "closing " + code + " " + reason);
+        }
+
+        @Override
+        public void onFailure(WebSocket ws, Throwable t, Response response) {
+            onSocketLost(ws, t.getMessage() != null ? t.getMessage() : t.getClass().getSimpleName());
+        }
+    }
+}
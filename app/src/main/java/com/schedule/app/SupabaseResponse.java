@@ -0,0 +1,163 @@
+package com.schedule.app;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Типизированный ответ SupabaseClient: статус + уже разобранные строки.
+ *
+ * В отличие от конверта {ok, status, body} тело не превращается в строку
+ * и не парсится повторно: JsonReader читает поток ответа и сразу отдаёт
+ * каждую строку в RowDecoder. Конверт-строка остаётся только для JS-моста.
+ *
+ *   SupabaseResponse<JSONObject> r = db.selectRows("users", "select=*&limit=50");
+ *   if (r.ok) for (JSONObject row : r.rows) { ... }
+ */
+public final class SupabaseResponse<T> {
+
+    /** Декодер одной строки (объекта) ответа PostgREST. */
+    public interface RowDecoder<T> {
+        T decode(JsonReader reader) throws IOException;
+    }
+
+    /** Колбэк асинхронного типизированного запроса. Вызывается на потоке OkHttp. */
+    public interface Callback<T> {
+        void onResponse(SupabaseResponse<T> response);
+    }
+
+    public final boolean ok;
+    /** HTTP-статус; 0 — запрос не дошёл до сервера. */
+    public final int     status;
+    /** Строки ответа (пусто при ошибке). */
+    public final List<T> rows;
+    /** Текст ошибки (тело ответа сервера или сообщение исключения), null при успехе. */
+    public final String  error;
+
+    SupabaseResponse(boolean ok, int status, List<T> rows, String error) {
+        this.ok     = ok;
+        this.status = status;
+        this.rows   = rows;
+        this.error  = error;
+    }
+
+    static <T> SupabaseResponse<T> success(int status, List<T> rows) {
+        return new SupabaseResponse<>(true, status, rows, null);
+    }
+
+    static <T> SupabaseResponse<T> failure(int status, String error) {
+        return new SupabaseResponse<>(false, status, Collections.<T>emptyList(),
+                error != null ? error : "unknown");
+    }
+
+    /** Первая строка или null. */
+    public T first() {
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    public boolean isEmpty() {
+        return rows.isEmpty();
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Готовые декодеры
+    // ════════════════════════════════════════════════════════════════════════
+
+    /** Строка как JSONObject — для кода, который работает с optString()/optInt(). */
+    public static final RowDecoder<JSONObject> JSON_OBJECT = reader -> {
+        try {
+            return (JSONObject) readValue(reader);
+        } catch (ClassCastException e) {
+            throw new IOException("ожидался объект строки");
+        }
+    };
+
+    /** Значение одной колонки как строка (остальные поля пропускаются). */
+    public static RowDecoder<String> column(final String name) {
+        return reader -> {
+            String value = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (name.equals(reader.nextName()) && reader.peek() != JsonToken.NULL) {
+                    value = reader.peek() == JsonToken.STRING
+                            ? reader.nextString()
+                            : String.valueOf(readValue(reader));
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return value;
+        };
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Разбор потока
+    // ════════════════════════════════════════════════════════════════════════
+
+    /** Тело PostgREST: массив строк или одиночный объект (Prefer: return=representation + single). */
+    static <T> List<T> readRows(JsonReader reader, RowDecoder<T> decoder) throws IOException {
+        List<T> rows = new ArrayList<>();
+        JsonToken top = reader.peek();
+        if (top == JsonToken.BEGIN_ARRAY) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (reader.peek() == JsonToken.NULL) { reader.nextNull(); continue; }
+                rows.add(decoder.decode(reader));
+            }
+            reader.endArray();
+        } else if (top == JsonToken.BEGIN_OBJECT) {
+            rows.add(decoder.decode(reader));
+        } else {
+            reader.skipValue();
+        }
+        return rows;
+    }
+
+    /** Любое JSON-значение → JSONObject / JSONArray / String / Long / Double / Boolean / NULL. */
+    static Object readValue(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT: {
+                JSONObject o = new JSONObject();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String k = reader.nextName();
+                    try { o.put(k, readValue(reader)); } catch (Exception e) { throw new IOException(e.getMessage()); }
+                }
+                reader.endObject();
+                return o;
+            }
+            case BEGIN_ARRAY: {
+                JSONArray a = new JSONArray();
+                reader.beginArray();
+                while (reader.hasNext()) a.put(readValue(reader));
+                reader.endArray();
+                return a;
+            }
+            case STRING:
+                return reader.nextString();
+            case NUMBER: {
+                String n = reader.nextString();
+                if (n.indexOf('.') < 0 && n.indexOf('e') < 0 && n.indexOf('E') < 0) {
+                    try { return Long.parseLong(n); } catch (NumberFormatException ignored) {}
+                }
+                return Double.parseDouble(n);
+            }
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            default:
+                reader.skipValue();
+                return JSONObject.NULL;
+        }
+    }
+}
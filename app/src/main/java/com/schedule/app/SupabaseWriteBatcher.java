@@ -0,0 +1,437 @@
+package com.schedule.app;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Копит UPSERT'ы «горячих» таблиц (presence, leaderboard) и отправляет их пачкой.
+ *
+ *  – строки склеиваются по ключу (например, username): поля новой записи
+ *    перекрывают поля старой — last-write-wins, на сервер уходит только итог
+ *  – раз в FLUSH_INTERVAL_MS (или сразу при MAX_PENDING строк в таблице)
+ *    на таблицу уходит один POST с массивом строк
+ *  – flush() принудительно отправляет всё, кроме строк на паузе после ошибки —
+ *    вызывается при уходе приложения в фон
+ *  – повторы при сетевой ошибке / 429 / 5xx внутри одного запроса делает
+ *    SupabaseCallPolicy (upsert идемпотентен). Если и они не помогли, строка
+ *    возвращается в очередь с паузой RETRY_BASE_MS · 2^(попытка−1) (до RETRY_MAX_MS);
+ *    пришедшая за это время свежая запись с тем же ключом ложится поверх неё.
+ *    После MAX_ATTEMPTS неудачных отправок строка отбрасывается (log.e, счётчик dropped)
+ *  – строка, ключ которой ещё летит в незавершённом запросе, ждёт его ответа:
+ *    два POST с одним ключом не обгоняют друг друга
+ *
+ * Сеть — через SupabaseClient.upsertManyAsync, поток вызывающего не блокируется.
+ */
+public class SupabaseWriteBatcher {
+
+    private static final String TAG = "SupabaseWriteBatcher";
+
+    public static final long FLUSH_INTERVAL_MS = 5_000;
+    public static final int  MAX_PENDING       = 20;
+
+    /** Неудачных отправок строки (после повторов политики), после которых она отбрасывается. */
+    public static final int  MAX_ATTEMPTS  = 5;
+    public static final long RETRY_BASE_MS = FLUSH_INTERVAL_MS;
+    public static final long RETRY_MAX_MS  = 60_000;
+
+    /**
+     * Ответ enqueue(): строка принята в очередь (202 Accepted), но ещё не записана —
+     * ok здесь не значит «на сервере». Судьба строки — в getStats() (retrying/dropped).
+     */
+    public static final String QUEUED_JSON =
+            "{\"ok\":true,\"status\":202,\"body\":\"\",\"queued\":true}";
+
+    private static volatile SupabaseWriteBatcher instance;
+
+    private final SupabaseClient db;
+    private final AppLogger      log;
+    private final Handler        handler = new Handler(Looper.getMainLooper());
+
+    /** Описание таблицы: колонки ключа склейки и on_conflict для PostgREST. */
+    private static final class TableSpec {
+        final String[] keyColumns;
+        final String   onConflict;
+
+        TableSpec(String[] keyColumns, String onConflict) {
+            this.keyColumns = keyColumns;
+            this.onConflict = onConflict;
+        }
+    }
+
+    private static final class Pending {
+        JSONObject row;
+        /** Неудачных отправок подряд. */
+        int  attempts;
+        /** Не отправлять раньше (SystemClock.uptimeMillis), 0 — сразу. */
+        long notBefore;
+
+        Pending(JSONObject row) { this.row = row; }
+    }
+
+    private final Map<String, TableSpec> specs = new HashMap<>();
+    /** table → (ключ строки → строка), порядок вставки сохраняется */
+    private final Map<String, LinkedHashMap<String, Pending>> pending = new HashMap<>();
+    /** table → (ключ строки → строка) в отправленных, но ещё не ответивших запросах */
+    private final Map<String, HashMap<String, JSONObject>> sending = new HashMap<>();
+    private boolean flushScheduled;
+    private long    flushAt;
+
+    private long enqueued, coalesced, requests, rowsSent, retried, dropped;
+
+    private final Runnable flushRunnable = () -> {
+        synchronized (this) { flushScheduled = false; }
+        flush();
+    };
+
+    // ── Singleton ─────────────────────────────────────────────────────────────
+    public static SupabaseWriteBatcher get(Context ctx, AppLogger log) {
+        if (instance == null) {
+            synchronized (SupabaseWriteBatcher.class) {
+                if (instance == null) instance = new SupabaseWriteBatcher(ctx, log);
+            }
+        }
+        return instance;
+    }
+
+    private SupabaseWriteBatcher(Context ctx, AppLogger log) {
+        this.log = log;
+        this.db  = SupabaseClient.get(ctx.getApplicationContext(), log);
+        register("presence",    "username",      "username");
+        register("leaderboard", "game,username", null);
+        log.i(TAG, "SupabaseWriteBatcher инициализирован [interval=" + FLUSH_INTERVAL_MS
+                + "мс, maxPending=" + MAX_PENDING + "]");
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // API
+    // ════════════════════════════════════════════════════════════════════════
+
+    /**
+     * Разрешить пакетную запись в таблицу.
+     * @param keyColumns колонки, по которым склеиваются строки, через запятую
+     * @param onConflict on_conflict для PostgREST или null (primary key)
+     */
+    public synchronized void register(String table, String keyColumns, String onConflict) {
+        specs.put(table, new TableSpec(keyColumns.split(","), onConflict));
+    }
+
+    public synchronized boolean isBatched(String table) {
+        return specs.containsKey(table);
+    }
+
+    /**
+     * Поставить строку в очередь. Возвращает сразу:
+     * {ok:true, status:202, body:"", queued:true} — принята, не записана (см. QUEUED_JSON),
+     * или {ok:false, ...}, если таблица не зарегистрирована или в строке нет ключевых колонок.
+     */
+    public String enqueue(String table, JSONObject row) {
+        boolean flushNow;
+        synchronized (this) {
+            TableSpec spec = specs.get(table);
+            if (spec == null) return errorJson("таблица " + table + " не пакетная");
+            String key = rowKey(spec, row);
+            if (key == null) return errorJson("нет ключа " + Arrays.toString(spec.keyColumns));
+
+            LinkedHashMap<String, Pending> rows = pending.get(table);
+            if (rows == null) {
+                rows = new LinkedHashMap<>();
+                pending.put(table, rows);
+            }
+            enqueued++;
+            Pending old = rows.get(key);
+            if (old != null) {
+                merge(old.row, row);
+                coalesced++;
+            } else {
+                rows.put(key, new Pending(copy(row)));
+            }
+            flushNow = rows.size() >= MAX_PENDING;
+            if (!flushNow) scheduleFlush();
+        }
+        if (flushNow) flush(table);
+        return QUEUED_JSON;
+    }
+
+    /**
+     * Дописать поля в строку, которая ещё ждёт отправки или летит в запросе.
+     * Для летящей в очередь встаёт её копия с этими полями — уйдёт после ответа,
+     * так что старая строка не перетрёт новые поля, даже если ответ задержится.
+     * @return false — такой строки нет ни в очереди, ни в полёте, писать нужно напрямую
+     */
+    public synchronized boolean amend(String table, JSONObject fields) {
+        TableSpec spec = specs.get(table);
+        String key = spec != null ? rowKey(spec, fields) : null;
+        if (key == null) return false;
+        LinkedHashMap<String, Pending> rows = pending.get(table);
+        Pending p = rows != null ? rows.get(key) : null;
+        if (p != null) {
+            merge(p.row, fields);
+            coalesced++;
+            return true;
+        }
+        HashMap<String, JSONObject> flying = sending.get(table);
+        JSONObject sent = flying != null ? flying.get(key) : null;
+        if (sent == null) return false;
+        JSONObject row = copy(sent);
+        merge(row, fields);
+        if (rows == null) {
+            rows = new LinkedHashMap<>();
+            pending.put(table, rows);
+        }
+        rows.put(key, new Pending(row));
+        coalesced++;
+        return true;
+    }
+
+    /** Отправить всё накопленное по всем таблицам. */
+    public void flush() {
+        List<String> tables;
+        synchronized (this) { tables = new ArrayList<>(pending.keySet()); }
+        for (String t : tables) flush(t);
+    }
+
+    /**
+     * Отправить накопленное по одной таблице: один POST на каждый набор колонок.
+     * Строки, ждущие паузы после неудачной отправки, остаются в очереди до своего срока.
+     */
+    public void flush(String table) {
+        TableSpec spec;
+        List<Pending> batch;
+        synchronized (this) {
+            spec = specs.get(table);
+            LinkedHashMap<String, Pending> rows = pending.get(table);
+            if (spec == null || rows == null || rows.isEmpty()) return;
+            HashMap<String, JSONObject> flying = sending.get(table);
+            if (flying == null) {
+                flying = new HashMap<>();
+                sending.put(table, flying);
+            }
+            batch = new ArrayList<>();
+            long now = SystemClock.uptimeMillis();
+            long nextRetry = Long.MAX_VALUE;
+            Iterator<Map.Entry<String, Pending>> it = rows.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Pending> e = it.next();
+                if (flying.containsKey(e.getKey())) continue;   // дождётся ответа предыдущего
+                Pending p = e.getValue();
+                if (p.notBefore > now) {
+                    nextRetry = Math.min(nextRetry, p.notBefore);
+                    continue;
+                }
+                flying.put(e.getKey(), p.row);
+                batch.add(p);
+                it.remove();
+            }
+            if (rows.isEmpty()) pending.remove(table);
+            if (nextRetry != Long.MAX_VALUE) scheduleFlush(nextRetry - now);
+            if (batch.isEmpty()) return;
+        }
+
+        // PostgREST требует одинаковые ключи у всех объектов массива —
+        // строки с разным набором полей идут разными запросами
+        Map<String, List<Pending>> byShape = new LinkedHashMap<>();
+        for (Pending p : batch) {
+            String shape = shapeOf(p.row);
+            List<Pending> group = byShape.get(shape);
+            if (group == null) {
+                group = new ArrayList<>();
+                byShape.put(shape, group);
+            }
+            group.add(p);
+        }
+
+        for (List<Pending> group : byShape.values()) {
+            JSONArray arr = new JSONArray();
+            for (Pending p : group) arr.put(p.row);
+            synchronized (this) {
+                requests++;
+                rowsSent += group.size();
+            }
+            log.i(TAG, "flush ▸ table=" + table + " rows=" + group.size());
+            db.upsertManyAsync(table, spec.onConflict, arr.toString(),
+                    result -> onFlushResult(table, spec, group, result));
+        }
+    }
+
+    /** Статистика: {pending, retrying, enqueued, coalesced, requests, rowsSent, retried, dropped} */
+    public synchronized JSONObject getStats() {
+        JSONObject o = new JSONObject();
+        try {
+            int n = 0, waiting = 0;
+            for (LinkedHashMap<String, Pending> rows : pending.values()) {
+                n += rows.size();
+                for (Pending p : rows.values()) if (p.attempts > 0) waiting++;
+            }
+            o.put("pending",   n);
+            o.put("retrying",  waiting);
+            o.put("enqueued",  enqueued);
+            o.put("coalesced", coalesced);
+            o.put("requests",  requests);
+            o.put("rowsSent",  rowsSent);
+            o.put("retried",   retried);
+            o.put("dropped",   dropped);
+        } catch (Exception ignored) {}
+        return o;
+    }
+
+    // ════════════════════════════════════════════════════════════════════════
+    // Внутреннее
+    // ════════════════════════════════════════════════════════════════════════
+
+    private void onFlushResult(String table, TableSpec spec, List<Pending> group, String result) {
+        int status = 0;
+        boolean ok = false;
+        try {
+            JSONObject r = new JSONObject(result);
+            ok     = r.optBoolean("ok");
+            status = r.optInt("status", 0);
+        } catch (Exception ignored) {}
+
+        // 4xx (кроме 429) — ошибка в данных: её поля не переносим и в свежую строку
+        boolean retryable = status == 0 || status == 429 || status >= 500;
+        boolean flushHeld = false;
+        synchronized (this) {
+            HashMap<String, JSONObject> flying = sending.get(table);
+            LinkedHashMap<String, Pending> rows = pending.get(table);
+            for (Pending p : group) {
+                String key = rowKey(spec, p.row);
+                if (flying != null && key != null) flying.remove(key);
+                // строка, ждавшая этот запрос (например, offline поверх heartbeat),
+                // уходит сразу: плановый flush её уже пропустил
+                if (rows != null && key != null && rows.containsKey(key)) flushHeld = true;
+            }
+            if (flying != null && flying.isEmpty()) sending.remove(table);
+
+            if (!ok && !retryable) {
+                dropped += group.size();
+                log.e(TAG, "flush ✗ table=" + table + " status=" + status + " — строки отброшены");
+            } else if (!ok) {
+                // Политика уже исчерпала свои повторы — строка возвращается в очередь
+                // с паузой; отбрасывается только после MAX_ATTEMPTS отправок
+                int lost = 0, attempt = 0;
+                long earliest = Long.MAX_VALUE;
+                for (Pending p : group) {
+                    String key = rowKey(spec, p.row);
+                    if (key == null) continue;
+                    Pending retry = rows != null ? rows.get(key) : null;
+                    int attempts = Math.max(p.attempts, retry != null ? retry.attempts : 0) + 1;
+                    if (attempts >= MAX_ATTEMPTS) {
+                        // свежая запись поверх неё (если есть) уйдёт сама, но уже без этих полей
+                        lost++;
+                        continue;
+                    }
+                    if (retry != null) {
+                        // поля свежей записи поверх неотправленных старых
+                        JSONObject row = copy(p.row);
+                        merge(row, retry.row);
+                        retry.row = row;
+                    } else {
+                        if (rows == null) {
+                            rows = new LinkedHashMap<>();
+                            pending.put(table, rows);
+                        }
+                        retry = p;
+                        rows.put(key, retry);
+                    }
+                    retry.attempts  = attempts;
+                    retry.notBefore = SystemClock.uptimeMillis() + retryDelay(attempts);
+                    earliest = Math.min(earliest, retry.notBefore);
+                    attempt  = Math.max(attempt, attempts);
+                    retried++;
+                }
+                if (lost > 0) {
+                    dropped += lost;
+                    log.e(TAG, "flush ✗ table=" + table + " status=" + status + " — " + lost
+                            + " строк ОТБРОШЕНО после " + MAX_ATTEMPTS + " попыток, на сервер не попали");
+                }
+                if (earliest != Long.MAX_VALUE) {
+                    long delay = earliest - SystemClock.uptimeMillis();
+                    log.w(TAG, "flush ✗ table=" + table + " status=" + status + " — "
+                            + (group.size() - lost) + " строк снова в очереди, попытка "
+                            + attempt + "/" + MAX_ATTEMPTS + " через " + delay + "мс");
+                    scheduleFlush(delay);
+                }
+            }
+        }
+        if (flushHeld) flush(table);
+    }
+
+    /** Пауза после attempt-й неудачной отправки: RETRY_BASE_MS · 2^(attempt−1), не больше RETRY_MAX_MS. */
+    static long retryDelay(int attempt) {
+        return Math.min(RETRY_MAX_MS, RETRY_BASE_MS << Math.min(attempt - 1, 16));
+    }
+
+    /** Вызывать под synchronized(this). */
+    private void scheduleFlush() {
+        scheduleFlush(FLUSH_INTERVAL_MS);
+    }
+
+    /** Плановый flush не позже чем через delayMs. Вызывать под synchronized(this). */
+    private void scheduleFlush(long delayMs) {
+        long at = SystemClock.uptimeMillis() + Math.max(0, delayMs);
+        if (flushScheduled && flushAt <= at) return;
+        handler.removeCallbacks(flushRunnable);
+        flushScheduled = true;
+        flushAt        = at;
+        handler.postAtTime(flushRunnable, at);
+    }
+
+    private static String rowKey(TableSpec spec, JSONObject row) {
+        StringBuilder sb = new StringBuilder();
+        for (String col : spec.keyColumns) {
+            Object v = row.opt(col);
+            if (v == null || v == JSONObject.NULL) return null;
+            sb.append(v).append('\u0001');
+        }
+        return sb.toString();
+    }
+
+    private static String shapeOf(JSONObject row) {
+        List<String> keys = new ArrayList<>();
+        Iterator<String> it = row.keys();
+        while (it.hasNext()) keys.add(it.next());
+        Collections.sort(keys);
+        return keys.toString();
+    }
+
+    private static void merge(JSONObject into, JSONObject from) {
+        Iterator<String> it = from.keys();
+        while (it.hasNext()) {
+            String k = it.next();
+            try { into.put(k, from.opt(k)); } catch (Exception ignored) {}
+        }
+    }
+
+    private static JSONObject copy(JSONObject row) {
+        JSONObject c = new JSONObject();
+        merge(c, row);
+        return c;
+    }
+
+    private String errorJson(String msg) {
+        try {
+            JSONObject err = new JSONObject();
+            err.put("ok",     false);
+            err.put("status", 0);
+            err.put("body",   "");
+            err.put("error",  msg != null ? msg : "unknown");
+            return err.toString();
+        } catch (Exception e) {
+            return "{\"ok\":false,\"error\":\"unknown\"}";
+        }
+    }
+}
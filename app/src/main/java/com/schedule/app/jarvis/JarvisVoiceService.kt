@@ -9,7 +9,9 @@ import android.speech.RecognizerIntent
 import android.speech.SpeechRecognizer
 import android.util.Log
 import androidx.core.app.NotificationCompat
+import com.schedule.app.AppLogger
 import com.schedule.app.MainActivity
+import com.schedule.app.NetworkStack
 import kotlinx.coroutines.*
 
 /**
@@ -76,6 +78,8 @@ class JarvisVoiceService : Service() {
     override fun onCreate() {
         super.onCreate()
         isRunning = true
+        // JarvisRelayClient ходит через общий NetworkStack, а сервис живёт и без AppViewModel
+        NetworkStack.get(this, AppLogger.get(this))
         createNotificationChannel()
         startForeground(NOTIF_ID, buildNotification("Слушаю..."))
         Log.i(TAG, "Сервис запущен")
@@ -2,14 +2,25 @@ package com.schedule.app.ui
 
 import android.app.Application
 import android.content.Context
+import android.util.JsonToken
 import android.util.Log
 import androidx.compose.runtime.*
 import androidx.compose.ui.graphics.Color
 import androidx.lifecycle.AndroidViewModel
 import androidx.lifecycle.viewModelScope
 import com.schedule.app.AppLogger
+import com.schedule.app.AvatarStore
 import com.schedule.app.BuildConfig
+import com.schedule.app.InboxSyncEngine
+import com.schedule.app.MessageStore
+import com.schedule.app.PresenceService
+import com.schedule.app.RealtimeWakeup
 import com.schedule.app.SupabaseClient
+import com.schedule.app.SupabaseHelper
+import com.schedule.app.SupabaseRealtime
+import com.schedule.app.SupabaseResponse
+import com.schedule.app.SupabaseWriteBatcher
+import com.schedule.app.selectRowsAwait
 import com.schedule.app.jarvis.JarvisAudioPlayer
 import com.schedule.app.jarvis.JarvisChatBridge
 import com.schedule.app.jarvis.JarvisRelayClient
@@ -22,7 +33,9 @@ import kotlinx.coroutines.Job
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeoutOrNull
 import org.json.JSONArray
 import org.json.JSONObject
 import java.net.HttpURLConnection
@@ -41,11 +54,59 @@ data class ChatMessage(
     val fileUrl: String? = null,
 )
 
+/**
+ * Строка messages → ChatMessage прямо из потока ответа (без JSONObject на строку).
+ * @param toUser для групп — id группы вместо to_user
+ */
+internal fun chatMessageDecoder(chatKey: String, toUser: String? = null) =
+    SupabaseResponse.RowDecoder { r ->
+        var id = ""; var from = ""; var to = ""; var text = ""
+        var ts = 0L; var type = "text"; var fileUrl: String? = null
+        r.beginObject()
+        while (r.hasNext()) {
+            val name = r.nextName()
+            if (r.peek() == JsonToken.NULL) { r.nextNull(); continue }
+            when (name) {
+                "id"        -> id      = r.nextString()
+                "from_user" -> from    = r.nextString()
+                "to_user"   -> to      = r.nextString()
+                "text"      -> text    = r.nextString()
+                "ts"        -> ts      = r.nextLong()
+                "type"      -> type    = r.nextString()
+                "file_url"  -> fileUrl = r.nextString().ifEmpty { null }
+                else        -> r.skipValue()
+            }
+        }
+        r.endObject()
+        ChatMessage(
+            id       = id,
+            chatKey  = chatKey,
+            fromUser = from,
+            toUser   = toUser ?: to,
+            text     = text,
+            ts       = ts,
+            type     = type,
+            fileUrl  = fileUrl,
+        )
+    }
+
 class AppViewModel(app: Application) : AndroidViewModel(app) {
 
     private val prefs = app.getSharedPreferences("sapp_prefs", Context.MODE_PRIVATE)
     private val log   = AppLogger.get(app)
+    /** users в кэше: loadPeerProfile/loadFriendsFromSupabase перечитывают те же профили на каждом заходе. */
     val sb: SupabaseClient = SupabaseClient.get(app, log)
+        .also { it.setCacheTtl("users", SupabaseClient.USERS_CACHE_TTL_MS) }
+    /** Пакетные upsert'ы presence/leaderboard (склейка heartbeat'ов Kotlin и JS). */
+    val writeBatcher: SupabaseWriteBatcher = SupabaseWriteBatcher.get(app, log)
+    private val helper  = SupabaseHelper.get(app, log)
+    /** Аватары по хэшу: загрузка в Storage и кэш картинок (память + диск). */
+    private val avatars = AvatarStore.get(app, log)
+    /** WebSocket Realtime: INSERT в messages будят поллеры, опрос — только пока сокет лежит. */
+    private val realtime = SupabaseRealtime.get(app, log)
+    /** SQLite-копия истории: чат открывается с диска, сеть дочитывает дельту. */
+    private val messageStore = MessageStore.get(app, log)
+    private val inbox    = InboxSyncEngine.get(app, log)
 
     // ══════════════════════════════════════════════════════════════════════════
     // ДЖАРВИС — Протокол Астра
@@ -288,7 +349,10 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
 
     fun setUrl(url: String)          { yandexUrl = url; prefs.edit().putString("yandex_url", url).apply() }
     fun toggleMute()                 { isMuted = !isMuted; prefs.edit().putBoolean("muted", isMuted).apply() }
-    fun setMode(teacher: Boolean)    { isTeacher = teacher; prefs.edit().putBoolean("is_teacher", teacher).apply() }
+    fun setMode(teacher: Boolean)    {
+        isTeacher = teacher; prefs.edit().putBoolean("is_teacher", teacher).apply()
+        if (teacher) refreshTeacherIndex()
+    }
 
     // ── Файлы / расписание ────────────────────────────────────────────────────
     var files         by mutableStateOf<List<ScheduleFile>>(emptyList())
@@ -306,6 +370,8 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
                     try {
                         statusText = "Загружаю с Яндекс.Диска..."
                         files = withContext(Dispatchers.IO) { fetchYandexFiles(yandexUrl) }
+                        revalidateSelectedFile()
+                        refreshTeacherIndex()
                         loadProgress = 1f
                         statusText = "Найдено: ${files.size} файлов"
                         delay(1200); loadProgress = 0f; statusText = ""
@@ -322,6 +388,8 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
 
                 // ── Попытка 2: GitHub ─────────────────────────────────────
                 files = withContext(Dispatchers.IO) { fetchGitHubFiles() }
+                revalidateSelectedFile()
+                refreshTeacherIndex()
                 loadProgress = 1f
                 statusText = "GitHub: ${files.size} файлов"
                 delay(1200); loadProgress = 0f; statusText = ""
@@ -355,36 +423,164 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
         loadScheduleForTeacher(teacher)
     }
 
+    private val rooms = RoomOccupancy.get(app)
+    private val teacherIndex = TeacherIndex.get(app).also { it.rooms = rooms }
+    private var teacherIndexJob: Job? = null
+    /** Преподаватель, чьё расписание сейчас показано (null — показана группа). */
+    private var shownTeacher: String? = null
+
+    /** Расписание из индекса — без скачивания и разбора файлов. */
     private fun loadScheduleForTeacher(teacher: String) {
+        shownTeacher = teacher
+        viewModelScope.launch {
+            val days = withContext(Dispatchers.Default) {
+                DocParser.buildTeacherDays(teacherIndex.lookup(teacher))
+            }
+            if (shownTeacher != teacher) return@launch
+            scheduleDays = days
+            // Индекс ещё строится — покажем, как только он дойдёт до этого преподавателя
+            isLoading = days.isEmpty() && teacherIndexJob?.isActive == true
+            log.i("AppViewModel", "loadScheduleForTeacher: $teacher — ${days.sumOf { it.pairs.size }} пар")
+        }
+    }
+
+    /**
+     * Доиндексировать листинг в фоне: преподавателю — всегда, студенту — после
+     * первого запроса свободных кабинетов (иначе незачем качать все файлы).
+     */
+    private fun refreshTeacherIndex() {
+        if (!isTeacher && !prefs.getBoolean("rooms_index", false)) return
+        if (files.isEmpty()) return
+        val listing = files
+        val url = yandexUrl
+        teacherIndexJob?.cancel()
+        teacherIndexJob = viewModelScope.launch {
+            val changed = try {
+                teacherIndex.update(listing, url)
+            } catch (e: Exception) {
+                if (e is kotlinx.coroutines.CancellationException) throw e
+                log.w("AppViewModel", "teacherIndex ✗ ${e.message}")
+                0
+            }
+            if (changed > 0) onTeacherIndexChanged()
+            else if (shownTeacher != null && scheduleDays.isEmpty()) isLoading = false
+        }
+    }
+
+    private suspend fun onTeacherIndexChanged() {
+        val file = selectedFile
+        teachers = withContext(Dispatchers.IO) {
+            file?.let { teacherIndex.teachersIn(it.path, it.version) } ?: teacherIndex.teachers()
+        }
+        shownTeacher?.let { loadScheduleForTeacher(it) }
+    }
+
+    /** Режим преподавателя: список имён файла из индекса; нет в индексе — разобрать один этот файл. */
+    private fun selectTeacherFile(file: ScheduleFile) {
         viewModelScope.launch {
+            val known = withContext(Dispatchers.IO) { teacherIndex.teachersIn(file.path, file.version) }
+            if (known != null) {
+                teachers = known
+                return@launch
+            }
             isLoading = true
-            delay(400)
-            scheduleDays = listOf(
-                ScheduleDay(
-                    header = "Расписание: $teacher",
-                    pairs  = listOf(
-                        Pair("I",  "08:30","09:15","09:20","10:05","Группа 101","","ауд. 201"),
-                        Pair("II", "10:15","11:00","11:05","11:50","Группа 204","","ауд. 201"),
-                        Pair("III","12:20","13:05","13:10","13:55","Группа 302","","ауд. 315"),
-                    )
-                )
-            )
-            isLoading = false
+            statusText = "Разбираю файл..."
+            try {
+                teacherIndex.update(listOf(file), yandexUrl, prune = false)
+                val found = withContext(Dispatchers.IO) { teacherIndex.teachersIn(file.path, file.version) }
+                if (found == null) {
+                    statusText = "❌ Не удалось разобрать файл"
+                } else {
+                    teachers = found
+                    statusText = "Найдено: ${found.size} преподавателей"
+                    delay(1200); statusText = ""
+                }
+            } finally { isLoading = false }
+        }
+    }
+
+    // ── Свободные кабинеты ────────────────────────────────────────────────────
+
+    /** Студенту индекс нужен только ради кабинетов — включаем по первому запросу. */
+    private fun ensureRoomIndex() {
+        if (isTeacher || prefs.getBoolean("rooms_index", false)) return
+        prefs.edit().putBoolean("rooms_index", true).apply()
+        refreshTeacherIndex()
+    }
+
+    /** /free [корпус] [пара] — свободные кабинеты сегодня; без пары — текущая или ближайшая. */
+    private fun freeRoomsCommand(arg: String) {
+        val parts  = arg.split(Regex("\\s+")).filter { it.isNotEmpty() }
+        val korpus = parts.getOrNull(0)?.takeIf { it != "*" }
+        val roman  = parts.getOrNull(1)?.let {
+            RoomOccupancy.romanOf(it) ?: run { cmdPrint("err", "⚠️ Пара: 1–6 или I–VI"); return }
+        }
+        ensureRoomIndex()
+        viewModelScope.launch {
+            val (pair, free) = withContext(Dispatchers.IO) {
+                val p = roman ?: rooms.currentPair()
+                p to p?.let { rooms.freeRooms(korpus, it) }
+            }
+            val where = if (korpus != null) "корпус $korpus" else "все корпуса"
+            when {
+                free == null && teacherIndexJob?.isActive == true ->
+                    cmdPrint("warn", "⏳ Кабинеты ещё индексируются — повтори через минуту")
+                pair == null -> cmdPrint("warn", "Сегодня пар больше нет — укажи пару: /free ${korpus ?: "*"} III")
+                free == null -> cmdPrint("warn", "На сегодня расписания нет")
+                free.isEmpty() -> cmdPrint("warn", "🚪 $where, $pair пара: свободных нет")
+                else -> cmdPrint("ok", "🚪 $where, $pair пара: " + free.joinToString(", "))
+            }
+        }
+    }
+
+    /** /room <номер>[(корпус)] — когда кабинет свободен. */
+    private fun roomCommand(arg: String) {
+        val m = Regex("(\\d+)\\D*(\\d)?").find(arg) ?: run {
+            cmdPrint("err", "⚠️ Используй: /room 315 или /room 315(2)")
+            return
+        }
+        val cabinet = m.groupValues[1]
+        val korpus  = m.groupValues[2]
+        ensureRoomIndex()
+        viewModelScope.launch {
+            val found = withContext(Dispatchers.IO) {
+                rooms.find(cabinet)
+                    .filter { korpus.isEmpty() || it.korpus == korpus }
+                    .map { it to rooms.nextFree(it) }
+            }
+            if (found.isEmpty()) {
+                cmdPrint("warn", if (teacherIndexJob?.isActive == true) "⏳ Кабинеты ещё индексируются — повтори через минуту"
+                                 else "Кабинет к.$cabinet в расписании не встречается")
+                return@launch
+            }
+            for ((room, slot) in found) {
+                cmdPrint(if (slot != null) "ok" else "warn", "🚪 $room: " + when {
+                    slot == null -> "свободных пар в известных днях нет"
+                    slot.now     -> "свободен сейчас (${slot.roman} пара)"
+                    slot.today   -> "свободен с ${slot.roman} пары сегодня"
+                    else         -> "свободен ${slot.date}, ${slot.roman} пара"
+                })
+            }
         }
     }
 
     fun selectFile(file: ScheduleFile) {
         selectedFile = file
+        saveLastFile(file)
         groups   = emptyList()
         teachers = emptyList()
         log.i("AppViewModel", "selectFile: ${file.name}")
+        if (isTeacher) {
+            selectTeacherFile(file)
+            return
+        }
         viewModelScope.launch {
             isLoading = true
             statusText = "Разбираю файл..."
             log.i("AppViewModel", "selectFile: скачиваем ${file.name}...")
             try {
                 val bytes = withContext(Dispatchers.IO) {
-                    DocParser.downloadFile(yandexUrl, file.path) { p ->
+                    DocParser.downloadFile(yandexUrl, file.path, file.version) { p ->
                         loadProgress = 0.2f + p * 0.5f
                     }
                 }
@@ -406,25 +602,31 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
     // ── Расписание ────────────────────────────────────────────────────────────
     var scheduleDays by mutableStateOf<List<ScheduleDay>>(emptyList())
 
-    private fun loadSchedule(group: String) {
+    /** @param keepCurrent не очищать показанное расписание (фоновое обновление после проверки версии) */
+    private fun loadSchedule(group: String, keepCurrent: Boolean = false) {
         val file = selectedFile ?: run {
             log.w("AppViewModel", "loadSchedule: нет выбранного файла")
             return
         }
+        shownTeacher = null
         viewModelScope.launch {
             isLoading = true
-            scheduleDays = emptyList()
+            if (!keepCurrent) scheduleDays = emptyList()
             log.i("AppViewModel", "loadSchedule: group=$group file=${file.name}")
             try {
                 val bytes = withContext(Dispatchers.IO) {
-                    DocParser.downloadFile(yandexUrl, file.path) { p ->
+                    DocParser.downloadFile(yandexUrl, file.path, file.version) { p ->
                         loadProgress = p * 0.7f
                     }
                 }
                 log.i("AppViewModel", "loadSchedule: файл скачан ${bytes.size} байт, парсим...")
                 loadProgress = 0.8f
                 val (rawSched, header) = withContext(Dispatchers.IO) {
-                    DocParser.parseDoc(bytes, group)
+                    DocParser.parseDoc(bytes, group).also {
+                        // Разобранный файл — заодно в индекс (занятость кабинетов)
+                        if (!teacherIndex.has(file.path, file.version))
+                            teacherIndex.add(file, ParsedScheduleDocument.of(bytes))
+                    }
                 }
                 if (rawSched.isEmpty()) {
                     log.w("AppViewModel", "loadSchedule: группа $group не найдена в файле")
@@ -445,6 +647,88 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
         }
     }
 
+    // ── Последний файл: мгновенный старт из дискового кэша ────────────────────
+
+    /** Старт без сохранённой копии — расписание подтянет первый листинг. */
+    private var restorePending = false
+
+    init {
+        DocParser.diskCache = ScheduleFileCache.get(app)
+        restoreLastSchedule()
+    }
+
+    private fun saveLastFile(file: ScheduleFile) {
+        val o = JSONObject()
+            .put("name", file.name)
+            .put("path", file.path)
+            .put("size", file.size)
+            .put("version", file.version)
+        prefs.edit().putString("last_file", o.toString()).apply()
+    }
+
+    private fun loadLastFile(): ScheduleFile? = try {
+        prefs.getString("last_file", null)?.let {
+            val o = JSONObject(it)
+            ScheduleFile(o.getString("name"), o.getString("path"), o.optLong("size"), o.optString("version"))
+        }
+    } catch (_: Exception) { null }
+
+    /**
+     * Старт: расписание последней группы из сохранённой копии файла, без сети.
+     * Листинг (loadFiles) потом сверит версию и при изменении тихо перезагрузит.
+     */
+    private fun restoreLastSchedule() {
+        if (isTeacher) {
+            restoreLastTeacher()
+            return
+        }
+        val group = selectedGroup ?: return
+        val file  = loadLastFile() ?: return
+        selectedFile = file
+        restorePending = true
+        viewModelScope.launch {
+            val restored = withContext(Dispatchers.IO) {
+                val bytes = DocParser.cachedCopy(yandexUrl, file.path) ?: return@withContext null
+                val doc = ParsedScheduleDocument.of(bytes)
+                val (rawSched, header) = doc.schedule(group)
+                doc.groups to DocParser.buildScheduleDays(rawSched, header, file.name)
+            }
+            if (restored == null || restored.second.isEmpty()) {
+                log.i("AppViewModel", "restoreLastSchedule: копии ${file.name} нет — ждём листинг")
+                return@launch
+            }
+            restorePending = false
+            if (groups.isEmpty()) groups = restored.first
+            if (scheduleDays.isEmpty()) scheduleDays = restored.second
+            log.i("AppViewModel", "restoreLastSchedule: $group из кэша (${file.name})")
+        }
+    }
+
+    /** Режим преподавателя: имена и расписание последнего преподавателя — из индекса на диске. */
+    private fun restoreLastTeacher() {
+        loadLastFile()?.let { selectedFile = it }
+        viewModelScope.launch {
+            val file = selectedFile
+            teachers = withContext(Dispatchers.IO) {
+                file?.let { teacherIndex.teachersIn(it.path, it.version) } ?: teacherIndex.teachers()
+            }
+            selectedTeacher?.let { loadScheduleForTeacher(it) }
+        }
+    }
+
+    /** После листинга: выбранный файл обновился на сервере — перезагрузить его группу. */
+    private fun revalidateSelectedFile() {
+        val cur   = selectedFile ?: return
+        val fresh = files.firstOrNull { it.path == cur.path } ?: return
+        if (fresh.version == cur.version && !restorePending) return
+        restorePending = false
+        log.i("AppViewModel", "revalidate: ${fresh.name} ${cur.version} → ${fresh.version}")
+        selectedFile = fresh
+        saveLastFile(fresh)
+        // Преподавателю файл переиндексирует refreshTeacherIndex()
+        if (!isTeacher) selectedGroup?.let { loadSchedule(it, keepCurrent = true) }
+    }
+
     // ── Расписание ────────────────────────────────────────────────────────────
     
 
@@ -606,6 +890,8 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
         viewModelScope.launch {
             withContext(Dispatchers.IO) { runCatching { sb.signOut() } }
             presenceJob?.cancel()
+            presence.clearSelf()
+            presence.release(PRESENCE_OWNER)
             userProfile = null
             friends = emptyList()
             leaderboard = emptyList()
@@ -616,16 +902,12 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
 
     private suspend fun loadProfileFromSupabase(username: String) {
         try {
-            val result = withContext(Dispatchers.IO) {
-                sb.select("users",
-                    "select=username,name,avatar,avatar_type,avatar_data,status,bio,vip,banner,color" +
-                    "&username=eq.$username&limit=1")
-            }
-            val json = JSONObject(result)
-            if (json.optBoolean("ok")) {
-                val arr = JSONArray(json.optString("body", "[]"))
-                if (arr.length() > 0) {
-                    val row = arr.getJSONObject(0)
+            val res = sb.selectRowsAwait("users",
+                "select=username,name,avatar,avatar_type,avatar_data,status,bio,vip,banner,color" +
+                "&username=eq.$username&limit=1")
+            if (res.ok) {
+                val row = res.first()
+                if (row != null) {
                     val colorHex = row.optString("color", "")
                     val accent = if (colorHex.isNotEmpty()) {
                         try { Color(android.graphics.Color.parseColor(colorHex)) }
@@ -644,6 +926,12 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
                         vip        = row.optBoolean("vip",     false),
                         banner     = row.optString("banner",   "").ifEmpty { null },
                     )
+                    // Свой профиль читается с полным avatar_data: если там ещё base64 —
+                    // переносим в Storage, дальше все видят только ссылку
+                    if (AvatarStore.isInline(userProfile?.avatarData)) {
+                        val url = withContext(Dispatchers.IO) { helper.migrateAvatar(username) }
+                        if (url != null) userProfile = userProfile?.copy(avatarData = url)
+                    }
                 }
             }
             // После загрузки профиля — грузим друзей и лидерборд
@@ -660,47 +948,35 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
 
     var onlineUsers by mutableStateOf<List<String>>(emptyList())
     private var presenceJob: Job? = null
+    /** Общий с JS heartbeat и дельта-синк presence; onlineUsers — его онлайн-набор. */
+    private val presence = PresenceService.get(app, log)
+    private val PRESENCE_OWNER = "compose"
+    private val presenceListener = PresenceService.Listener {
+        viewModelScope.launch { onlineUsers = presence.onlineUsernames().toList() }
+    }
 
     private fun startPresencePoller() {
         presenceJob?.cancel()
-        presenceJob = viewModelScope.launch {
-            while (isActive) {
-                updatePresence()
-                delay(30_000) // каждые 30 сек
-            }
-        }
+        presence.addListener(presenceListener)
+        presence.acquire(PRESENCE_OWNER)
+        onlineUsers = presence.onlineUsernames().toList()
+        presenceJob = viewModelScope.launch { updatePresence() }
     }
 
-    private suspend fun updatePresence() {
+    /** Своя строка — сервис шлёт её с каждым heartbeat (раз в 30 с). */
+    private fun updatePresence() {
         val p = userProfile ?: return
-        try {
-            // Обновляем свой presence
-            val now = System.currentTimeMillis()
-            val presenceJson = JSONObject().apply {
-                put("username", p.username)
-                put("status",   p.status)
-                put("ts",       now)
-            }.toString()
-            withContext(Dispatchers.IO) { sb.upsert("presence", presenceJson) }
-
-            // Получаем кто онлайн (активен последние 2 минуты)
-            val since = now - 2 * 60 * 1000
-            val result = withContext(Dispatchers.IO) {
-                sb.select("presence", "select=username,status&ts=gte.$since&order=ts.desc&limit=200")
-            }
-            val json = JSONObject(result)
-            if (json.optBoolean("ok")) {
-                val arr = JSONArray(json.optString("body", "[]"))
-                onlineUsers = (0 until arr.length()).map { arr.getJSONObject(it).optString("username") }
-            }
-        } catch (e: Exception) {
-            log.e("AppViewModel", "presence error: ${e.message}")
-        }
+        presence.setSelf(JSONObject().apply {
+            put("username", p.username)
+            put("status",   p.status)
+        })
     }
 
     override fun onCleared() {
         super.onCleared()
         presenceJob?.cancel()
+        presence.removeListener(presenceListener)
+        presence.release(PRESENCE_OWNER)
     }
 
     // ══════════════════════════════════════════════════════════════════════════
@@ -715,15 +991,10 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
         try {
             friendsLoading = true
             // Получаем список друзей из таблицы users
-            val result = withContext(Dispatchers.IO) {
-                sb.select("users", "select=friends&username=eq.$username&limit=1")
-            }
-            val json = JSONObject(result)
-            if (!json.optBoolean("ok")) return
-            val arr = JSONArray(json.optString("body", "[]"))
-            if (arr.length() == 0) return
+            val res = sb.selectRowsAwait("users", "select=friends&username=eq.$username&limit=1")
+            if (!res.ok) return
+            val row = res.first() ?: return
 
-            val row = arr.getJSONObject(0)
             val friendsRaw = row.optString("friends", "[]")
             val friendsArr = try { JSONArray(friendsRaw) } catch (e: Exception) { JSONArray() }
             if (friendsArr.length() == 0) { friends = emptyList(); return }
@@ -732,17 +1003,12 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
             val usernames = (0 until friendsArr.length()).joinToString(",") {
                 "\"${friendsArr.getString(it)}\""
             }
-            val profilesResult = withContext(Dispatchers.IO) {
-                sb.select("users",
-                    "select=username,name,avatar,avatar_type,avatar_data,status,vip,color" +
-                    "&username=in.($usernames)&limit=100")
-            }
-            val profilesJson = JSONObject(profilesResult)
-            if (!profilesJson.optBoolean("ok")) return
-            val profilesArr = JSONArray(profilesJson.optString("body", "[]"))
+            val profiles = sb.selectRowsAwait("users",
+                "select=username,name,avatar,status,vip,color" +
+                "&username=in.($usernames)&limit=100")
+            if (!profiles.ok) return
 
-            friends = (0 until profilesArr.length()).map { i ->
-                val u = profilesArr.getJSONObject(i)
+            friends = profiles.rows.map { u ->
                 FriendEntry(
                     username = u.optString("username"),
                     name     = u.optString("name"),
@@ -778,16 +1044,11 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
     private suspend fun loadLeaderboardFromSupabase() {
         try {
             leaderboardLoading = true
-            val result = withContext(Dispatchers.IO) {
-                sb.select("leaderboard",
-                    "select=username,name,avatar,score,game&game=eq.$leaderboardGame" +
-                    "&order=score.desc&limit=50")
-            }
-            val json = JSONObject(result)
-            if (!json.optBoolean("ok")) return
-            val arr = JSONArray(json.optString("body", "[]"))
-            leaderboard = (0 until arr.length()).mapIndexed { index, i ->
-                val row = arr.getJSONObject(i)
+            val res = sb.selectRowsAwait("leaderboard",
+                "select=username,name,avatar,score,game&game=eq.$leaderboardGame" +
+                "&order=score.desc&limit=50")
+            if (!res.ok) return
+            leaderboard = res.rows.mapIndexed { index, row ->
                 LeaderboardEntry(
                     rank     = index + 1,
                     username = row.optString("username"),
@@ -886,113 +1147,167 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
     var messageInput     by mutableStateOf("")
     var sendingMessage   by mutableStateOf(false)
     private var messagesJob: Job? = null
-    private var lastMsgTs: Long = 0
+    /** Постраничная история открытого чата (keyset по ts, id). */
+    private var history: MessageHistory? = null
+    var messagesHasMoreOlder by mutableStateOf(false)
+    var messagesLoadingOlder by mutableStateOf(false)
+
+    /** Сколько сообщений держим в списке при поступлении новых; старые догружаются скроллом. */
+    private val MESSAGES_IN_MEMORY = 500
+
+    /** Собеседник открытого личного чата — ему уходят квитанции "прочитано". */
+    private var readPeer: String? = null
+    /** ts последнего входящего, о котором сервер уже знает; null — ещё не сверяли. */
+    private var readUpTo: Long? = null
+    /** По сводке в чате были непрочитанные — первая сверка шлёт квитанцию. */
+    private var readPending = false
 
     fun openChat(withUsername: String) {
         currentChatUser = withUsername
+        readPeer = withUsername
+        readUpTo = null
+        // Без сводки непрочитанные неизвестны — квитанцию шлём на всякий случай
+        readPending = chatSummaries?.let { idx ->
+            idx.markRead(withUsername).also { if (it) publishMessengerChats(idx) }
+        } ?: true
         messages = emptyList()
-        lastMsgTs = 0
-        startMessagesPoller(withUsername)
+        val myUsername = userProfile?.username
+        history = myUsername?.let {
+            MessageHistory(sb, listOf(it, withUsername).sorted().joinToString("_"), store = messageStore)
+        }
+        messagesHasMoreOlder = false
+        startMessagesPoller()
     }
 
     fun closeChat() {
         messagesJob?.cancel()
         currentChatUser = null
+        readPeer = null
         messages = emptyList()
+        history = null
     }
 
     fun openGroupChat(groupId: String) {
         // Group chat uses group_<id> as chat_key prefix
         currentChatUser = groupId
+        readPeer = null
         messages = emptyList()
-        lastMsgTs = 0
-        startGroupMessagesPoller(groupId)
+        history = MessageHistory(sb, "group_$groupId", toUser = groupId, store = messageStore)
+        messagesHasMoreOlder = false
+        startMessagesPoller()
     }
 
-    private fun startGroupMessagesPoller(groupId: String) {
+    /**
+     * Сначала — окно из локального хранилища (без сети), затем новые сообщения
+     * приходят push'ем через Realtime (INSERT по chat_key) и сразу дочитываются
+     * keyset-запросом после последнего известного; после переподключения сокета —
+     * тоже, так что пропущенное за время обрыва не теряется. Пока сокет лежит —
+     * опрос раз в 2 с.
+     */
+    private fun startMessagesPoller() {
         messagesJob?.cancel()
+        val h = history ?: return
+        val key = h.chatKey
         messagesJob = viewModelScope.launch {
-            while (isActive) {
-                pollGroupMessages(groupId)
-                delay(2_000)
+            try {
+                val cached = h.loadCached()
+                if (history === h && cached.isNotEmpty()) {
+                    messages = cached
+                    messagesHasMoreOlder = h.hasMoreOlder
+                }
+            } catch (e: Exception) {
+                log.e("AppViewModel", "loadCached error: ${e.message}")
+            }
+            val wake = RealtimeWakeup(realtime, "messages", "chat_key=eq.$key")
+            try {
+                while (isActive) {
+                    pollMessages()
+                    wake.await(2_000, 30_000)
+                }
+            } finally {
+                wake.close()
             }
         }
     }
 
-    private suspend fun pollGroupMessages(groupId: String) {
-        val chatKey = "group_$groupId"
+    /** Первый тик — последняя страница чата, дальше — только новее последнего (ts, id). */
+    private suspend fun pollMessages() {
+        val h = history ?: return
         try {
             messagesLoading = messages.isEmpty()
-            val result = withContext(Dispatchers.IO) {
-                sb.select("messages", "select=*&chat_key=eq.$chatKey&ts=gt.$lastMsgTs&order=ts.asc&limit=100")
-            }
-            val json = JSONObject(result)
-            if (!json.optBoolean("ok")) return
-            val arr = JSONArray(json.optString("body","[]"))
-            if (arr.length() > 0) {
-                val newMsgs = (0 until arr.length()).map { i ->
-                    val row = arr.getJSONObject(i)
-                    ChatMessage(
-                        id       = row.optString("id",""),
-                        chatKey  = chatKey,
-                        fromUser = row.optString("from_user"),
-                        toUser   = groupId,
-                        text     = row.optString("text",""),
-                        ts       = row.optLong("ts",0),
-                        type     = row.optString("type","text"),
-                        fileUrl  = row.optString("file_url","").ifEmpty { null },
-                    )
+            val newer = h.loadNewer() ?: return
+            if (newer.reset) {
+                messages = newer.messages
+            } else if (newer.messages.isNotEmpty()) {
+                var list = messages + newer.messages
+                if (list.size > MESSAGES_IN_MEMORY) {
+                    list = list.takeLast(MESSAGES_IN_MEMORY)
+                    h.trimmedTo(list.first())
                 }
-                messages = (messages + newMsgs).takeLast(500)
-                lastMsgTs = newMsgs.last().ts
+                messages = list
             }
-        } catch (e: Exception) { log.e("AppViewModel","pollGroupMessages error: ${e.message}") }
-        finally { messagesLoading = false }
+            messagesHasMoreOlder = h.hasMoreOlder
+            if (history === h) markChatRead()
+        } catch (e: Exception) {
+            log.e("AppViewModel", "pollMessages error: ${e.message}")
+        } finally {
+            messagesLoading = false
+        }
     }
 
-    private fun startMessagesPoller(withUsername: String) {
-        messagesJob?.cancel()
-        messagesJob = viewModelScope.launch {
-            while (isActive) {
-                pollMessages(withUsername)
-                delay(2_000)
-            }
+    /**
+     * Открытый личный чат прочитан до последнего входящего. Сводка chat_summaries
+     * считает непрочитанные по квитанциям из message_events, поэтому без неё
+     * бейдж вернулся бы со следующей дельтой. Первая сверка только запоминает
+     * границу (если непрочитанных не было), дальше квитанция — на каждое новое входящее.
+     */
+    private fun markChatRead() {
+        val peer = readPeer ?: return
+        val upTo = messages.lastOrNull { it.fromUser == peer }?.ts ?: 0L
+        val known = readUpTo
+        if (known != null && upTo <= known) return
+        readUpTo = upTo
+        if (upTo > 0 && (known != null || readPending)) {
+            readPending = false
+            sendReadReceipt(peer, upTo)
         }
     }
 
-    private suspend fun pollMessages(withUsername: String) {
-        val myUsername = userProfile?.username ?: return
-        val chatKey = listOf(myUsername, withUsername).sorted().joinToString("_")
-        try {
-            messagesLoading = messages.isEmpty()
-            val result = withContext(Dispatchers.IO) {
-                sb.select("messages",
-                    "select=*&chat_key=eq.$chatKey&ts=gt.$lastMsgTs&order=ts.asc&limit=100")
+    /** Квитанция как _sbSendReadReceipt в JS: служебная строка, триггер сворачивает её в message_events. */
+    private fun sendReadReceipt(peer: String, upToTs: Long) {
+        val me = userProfile?.username ?: return
+        val row = JSONObject().apply {
+            put("chat_key",  listOf(me, peer).sorted().joinToString("_"))
+            put("from_user", me)
+            put("to_user",   peer)
+            put("text",      "")
+            put("ts",        System.currentTimeMillis())
+            put("extra",     JSONObject().put("type", "read_receipt").put("upToTs", upToTs).toString())
+        }.toString()
+        viewModelScope.launch {
+            try {
+                withContext(Dispatchers.IO) { sb.insert("messages", row) }
+            } catch (e: Exception) {
+                log.e("AppViewModel", "sendReadReceipt error: ${e.message}")
             }
-            val json = JSONObject(result)
-            if (!json.optBoolean("ok")) return
-            val arr = JSONArray(json.optString("body", "[]"))
-            if (arr.length() > 0) {
-                val newMsgs = (0 until arr.length()).map { i ->
-                    val row = arr.getJSONObject(i)
-                    ChatMessage(
-                        id       = row.optString("id", ""),
-                        chatKey  = chatKey,
-                        fromUser = row.optString("from_user"),
-                        toUser   = row.optString("to_user"),
-                        text     = row.optString("text", ""),
-                        ts       = row.optLong("ts", 0),
-                        type     = row.optString("type", "text"),
-                        fileUrl  = row.optString("file_url", "").ifEmpty { null },
-                    )
-                }
-                messages = (messages + newMsgs).takeLast(500)
-                lastMsgTs = newMsgs.last().ts
+        }
+    }
+
+    /** Подгрузить страницу старше первой показанной (скролл к началу чата). */
+    fun loadOlderMessages() {
+        val h = history ?: return
+        if (messagesLoadingOlder || !h.hasMoreOlder) return
+        viewModelScope.launch {
+            messagesLoadingOlder = true
+            try {
+                val page = h.loadOlder() ?: return@launch
+                if (history === h && page.isNotEmpty()) messages = page + messages
+                messagesHasMoreOlder = h.hasMoreOlder
+            } catch (e: Exception) {
+                log.e("AppViewModel", "loadOlderMessages error: ${e.message}")
+            } finally {
+                messagesLoadingOlder = false
             }
-        } catch (e: Exception) {
-            log.e("AppViewModel", "pollMessages error: ${e.message}")
-        } finally {
-            messagesLoading = false
         }
     }
 
@@ -1012,6 +1327,10 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
                 // Оптимистично добавляем в список
                 val localMsg = ChatMessage("local_$ts", chatKey, myUsername, toUsername, text, ts)
                 messages = messages + localMsg
+                chatSummaries?.takeIf { it.me == myUsername }?.let {
+                    it.applyOutgoing(toUsername, text, ts)
+                    publishMessengerChats(it)
+                }
 
                 val msgJson = JSONObject().apply {
                     put("chat_key",  chatKey)
@@ -1023,6 +1342,8 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
                 }.toString()
 
                 withContext(Dispatchers.IO) { sb.insert("messages", msgJson) }
+                // Ответ, скорее всего, скоро — фоновый синк входящих ускоряется
+                inbox.noteChatActivity()
             } catch (e: Exception) {
                 log.e("AppViewModel", "sendMessage error: ${e.message}")
                 messageInput = text // вернуть текст если ошибка
@@ -1195,6 +1516,7 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
                 name = it.getString("name"),
                 path = it.optString("path", "/" + it.getString("name")),
                 size = it.optLong("size", 0),
+                version = it.optString("md5", "").ifEmpty { it.optString("modified", "") },
             )}
     }
 
@@ -1231,6 +1553,7 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
                             // префикс "github:schedule/" — сигнал DocParser скачивать из schedule/
                             path = "github:$folder/$name",
                             size = item.optLong("size", 0),
+                            version = item.optString("sha", ""),
                         ))
                     }
                 }
@@ -1255,74 +1578,152 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
     var messengerLoading   by mutableStateOf(false)
     private var messengerJob: Job? = null
 
+    /** Сводка чатов (chat_summaries + локальные обновления); пересоздаётся при смене аккаунта. */
+    private var chatSummaries: ChatSummaryIndex? = null
+    /** Профили собеседников: догружаются только для новых. */
+    private val chatProfiles = HashMap<String, JSONObject>()
+    /** RPC chat_summaries нет на сервере — старый путь с запросом на каждый чат. */
+    private var chatSummariesRpcMissing = false
+
+    /** Страховочная дельта при живом сокете — на случай строк, которых Realtime не приносит. */
+    private val MESSENGER_SAFETY_MS = 5 * 60_000L
+
+    /**
+     * Список чатов: первый запрос — полная сводка одним RPC, дальше входящие из
+     * Realtime (to_user = я) обновляют её локально без запросов. Дельта по курсору
+     * запрашивается после (пере)подписки сокета и раз в MESSENGER_SAFETY_MS;
+     * пока сокет лежит — раз в 5 с.
+     */
     fun startMessengerPoller() {
         messengerJob?.cancel()
+        val myUsername = userProfile?.username
         messengerJob = viewModelScope.launch {
-            while (isActive) {
-                refreshMessengerChats()
-                delay(5_000)
+            if (myUsername == null) return@launch
+            val index = chatSummaries?.takeIf { it.me == myUsername }
+                ?: ChatSummaryIndex(myUsername).also { chatSummaries = it; chatProfiles.clear() }
+            // Пустой объект — сигнал «сокет (пере)подписан, нужна дельта»
+            val events = Channel<JSONObject>(Channel.UNLIMITED)
+            val sub = realtime.subscribe("messages", "to_user=eq.$myUsername", object : SupabaseRealtime.Listener {
+                override fun onInsert(record: JSONObject) { events.trySend(record) }
+                override fun onJoined() { events.trySend(JSONObject()) }
+            })
+            try {
+                refreshMessengerChats(index)
+                while (isActive) {
+                    val ev = withTimeoutOrNull(if (sub.isLive) MESSENGER_SAFETY_MS else 5_000) { events.receive() }
+                    if (ev == null || ev.length() == 0 || chatSummariesRpcMissing) {
+                        refreshMessengerChats(index)
+                        continue
+                    }
+                    val peer = index.applyIncoming(ev, currentChatUser) ?: continue
+                    // Новый собеседник — нужен его профиль, заодно и серверная сводка
+                    if (peer !in chatProfiles) refreshMessengerChats(index) else publishMessengerChats(index)
+                }
+            } finally {
+                sub.close()
+                events.close()
             }
         }
     }
 
-    private suspend fun refreshMessengerChats() {
-        val myUsername = userProfile?.username ?: return
+    /** Дельта сводки одним RPC (первый раз — полная) + профили только новых собеседников. */
+    private suspend fun refreshMessengerChats(index: ChatSummaryIndex) {
+        if (chatSummariesRpcMissing) { refreshMessengerChatsLegacy(); return }
         try {
             messengerLoading = messengerChats.isEmpty()
-            // Получаем последние сообщения из всех чатов где я участник
-            val sentResult = withContext(Dispatchers.IO) {
-                sb.select("messages", "select=to_user&from_user=eq.$myUsername&order=ts.desc&limit=200")
+            val env = JSONObject(withContext(Dispatchers.IO) {
+                helper.chatSummaries(index.me, index.cursor, 200)
+            })
+            if (!env.optBoolean("ok")) {
+                val body = env.optString("body", "")
+                if (env.optInt("status") == 404 || body.contains("PGRST202")) {
+                    log.w("AppViewModel", "chat_summaries нет на сервере — список чатов по-старому")
+                    chatSummariesRpcMissing = true
+                    refreshMessengerChatsLegacy()
+                }
+                return
+            }
+            val changed = index.applyServer(JSONArray(env.optString("body", "[]")))
+            val unknown = index.peers.filter { it !in chatProfiles }
+            if (unknown.isNotEmpty()) {
+                val unames = unknown.joinToString(",") { "\"$it\"" }
+                val profiles = sb.selectRowsAwait("users",
+                    "select=username,name,avatar,avatar_type,avatar_data:avatar_ref,status,vip&username=in.($unames)&limit=100")
+                if (profiles.ok) {
+                    for (row in profiles.rows) chatProfiles[row.optString("username")] = row
+                }
             }
-            val rcvResult = withContext(Dispatchers.IO) {
-                sb.select("messages", "select=from_user&to_user=eq.$myUsername&order=ts.desc&limit=200")
+            if (changed.isNotEmpty() || unknown.isNotEmpty() || messengerChats.isEmpty()) {
+                publishMessengerChats(index)
             }
+        } catch (e: Exception) {
+            log.e("AppViewModel", "refreshMessengerChats error: ${e.message}")
+        } finally {
+            messengerLoading = false
+        }
+    }
+
+    /** Сводка → ChatPreview; неизменившиеся превью — те же объекты, Compose их не перерисует. */
+    private fun publishMessengerChats(index: ChatSummaryIndex) {
+        val prev = messengerChats.associateBy { it.id }
+        messengerChats = index.summaries().map { s ->
+            val peer = chatProfiles[s.peer]
+            val preview = com.schedule.app.ui.screens.ChatPreview(
+                id             = s.peer,
+                name           = peer?.optString("name", s.peer) ?: s.peer,
+                avatar         = peer?.optString("avatar", "😊") ?: "😊",
+                avatarType     = peer?.optString("avatar_type", "emoji") ?: "emoji",
+                avatarData     = peer?.optString("avatar_data", "")?.ifEmpty { null },
+                lastMessage    = s.lastText,
+                lastMessageTime= s.lastTs,
+                unreadCount    = s.unread,
+                isOnline       = onlineUsers.contains(s.peer),
+                isMe           = s.lastFromMe,
+            )
+            prev[s.peer]?.takeIf { it == preview } ?: preview
+        }.sortedByDescending { it.lastMessageTime }
+    }
+
+    /** Без RPC chat_summaries (миграция не выполнена): по запросу на каждый чат. */
+    private suspend fun refreshMessengerChatsLegacy() {
+        val myUsername = userProfile?.username ?: return
+        try {
+            messengerLoading = messengerChats.isEmpty()
+            // Получаем последние сообщения из всех чатов где я участник
+            val sent = sb.selectRowsAwait("messages",
+                "select=to_user&from_user=eq.$myUsername&order=ts.desc&limit=200",
+                SupabaseResponse.column("to_user"))
+            val rcv  = sb.selectRowsAwait("messages",
+                "select=from_user&to_user=eq.$myUsername&order=ts.desc&limit=200",
+                SupabaseResponse.column("from_user"))
 
-            val sentJson = JSONObject(sentResult)
-            val rcvJson  = JSONObject(rcvResult)
             val chatUsernames = mutableSetOf<String>()
-            if (sentJson.optBoolean("ok")) {
-                val arr = JSONArray(sentJson.optString("body","[]"))
-                for (i in 0 until arr.length()) chatUsernames.add(arr.getJSONObject(i).optString("to_user"))
-            }
-            if (rcvJson.optBoolean("ok")) {
-                val arr = JSONArray(rcvJson.optString("body","[]"))
-                for (i in 0 until arr.length()) chatUsernames.add(arr.getJSONObject(i).optString("from_user"))
-            }
+            if (sent.ok) sent.rows.filterNotNullTo(chatUsernames)
+            if (rcv.ok)  rcv.rows.filterNotNullTo(chatUsernames)
             chatUsernames.remove(myUsername)
             if (chatUsernames.isEmpty()) { messengerLoading = false; return }
 
             // Загружаем профили собеседников
             val unames = chatUsernames.joinToString(",") { "\"$it\"" }
-            val profilesResult = withContext(Dispatchers.IO) {
-                sb.select("users", "select=username,name,avatar,avatar_type,avatar_data,status,vip&username=in.($unames)&limit=100")
-            }
-            val profilesJson = JSONObject(profilesResult)
+            val profiles = sb.selectRowsAwait("users",
+                "select=username,name,avatar,avatar_type,avatar_data:avatar_ref,status,vip&username=in.($unames)&limit=100")
             val profilesMap = mutableMapOf<String, JSONObject>()
-            if (profilesJson.optBoolean("ok")) {
-                val arr = JSONArray(profilesJson.optString("body","[]"))
-                for (i in 0 until arr.length()) {
-                    val row = arr.getJSONObject(i)
-                    profilesMap[row.optString("username")] = row
-                }
+            if (profiles.ok) {
+                for (row in profiles.rows) profilesMap[row.optString("username")] = row
             }
 
             // Для каждого чата получаем последнее сообщение
             val previews = mutableListOf<com.schedule.app.ui.screens.ChatPreview>()
             for (username in chatUsernames) {
                 val chatKey = listOf(myUsername, username).sorted().joinToString("_")
-                val lastMsgResult = withContext(Dispatchers.IO) {
-                    sb.select("messages", "select=text,ts,from_user&chat_key=eq.$chatKey&order=ts.desc&limit=1")
-                }
-                val lastMsgJson = JSONObject(lastMsgResult)
+                val lastMsg = sb.selectRowsAwait("messages",
+                    "select=text,ts,from_user&chat_key=eq.$chatKey&order=ts.desc&limit=1")
                 var lastText = ""; var lastTs = 0L; var isMe = false
-                if (lastMsgJson.optBoolean("ok")) {
-                    val arr = JSONArray(lastMsgJson.optString("body","[]"))
-                    if (arr.length() > 0) {
-                        val row = arr.getJSONObject(0)
-                        lastText = row.optString("text","")
-                        lastTs   = row.optLong("ts",0)
-                        isMe     = row.optString("from_user") == myUsername
-                    }
+                val row = if (lastMsg.ok) lastMsg.first() else null
+                if (row != null) {
+                    lastText = row.optString("text","")
+                    lastTs   = row.optLong("ts",0)
+                    isMe     = row.optString("from_user") == myUsername
                 }
                 val peer = profilesMap[username]
                 previews.add(com.schedule.app.ui.screens.ChatPreview(
@@ -1339,7 +1740,7 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
             }
             messengerChats = previews.sortedByDescending { it.lastMessageTime }
         } catch (e: Exception) {
-            log.e("AppViewModel", "refreshMessengerChats error: ${e.message}")
+            log.e("AppViewModel", "refreshMessengerChatsLegacy error: ${e.message}")
         } finally {
             messengerLoading = false
         }
@@ -1357,27 +1758,16 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
         viewModelScope.launch {
             onlineListLoading = true
             try {
-                val since = System.currentTimeMillis() - 2 * 60 * 1000
-                val presenceResult = withContext(Dispatchers.IO) {
-                    sb.select("presence", "select=username,status&ts=gte.$since&order=ts.desc&limit=200")
-                }
-                val presenceJson = JSONObject(presenceResult)
-                if (!presenceJson.optBoolean("ok")) return@launch
-                val presenceArr = JSONArray(presenceJson.optString("body","[]"))
-                val onlineNames = (0 until presenceArr.length()).map {
-                    presenceArr.getJSONObject(it).optString("username")
-                }.filter { it != (userProfile?.username ?: "") }
+                // Онлайн-набор уже есть в PresenceService — запрос только за профилями
+                val onlineNames = presence.onlineUsernames()
+                    .filter { it != (userProfile?.username ?: "") }
                 if (onlineNames.isEmpty()) { onlineUsersList = emptyList(); return@launch }
 
                 val unames = onlineNames.joinToString(",") { "\"$it\"" }
-                val profilesResult = withContext(Dispatchers.IO) {
-                    sb.select("users", "select=username,name,avatar,avatar_type,avatar_data,status,bio,vip&username=in.($unames)&limit=200")
-                }
-                val profilesJson = JSONObject(profilesResult)
-                if (!profilesJson.optBoolean("ok")) return@launch
-                val arr = JSONArray(profilesJson.optString("body","[]"))
-                onlineUsersList = (0 until arr.length()).map { i ->
-                    val row = arr.getJSONObject(i)
+                val profiles = sb.selectRowsAwait("users",
+                    "select=username,name,avatar,avatar_type,avatar_data:avatar_ref,status,bio,vip&username=in.($unames)&limit=200")
+                if (!profiles.ok) return@launch
+                onlineUsersList = profiles.rows.map { row ->
                     com.schedule.app.ui.screens.OnlineUser(
                         username   = row.optString("username"),
                         name       = row.optString("name", row.optString("username")),
@@ -1405,14 +1795,11 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
         viewModelScope.launch {
             peerProfileLoading = true
             try {
-                val result = withContext(Dispatchers.IO) {
-                    sb.select("users", "select=username,name,avatar,avatar_type,avatar_data,status,bio,vip&username=eq.$username&limit=1")
-                }
-                val json = JSONObject(result)
-                if (json.optBoolean("ok")) {
-                    val arr = JSONArray(json.optString("body","[]"))
-                    if (arr.length() > 0) {
-                        val row = arr.getJSONObject(0)
+                val res = sb.selectRowsAwait("users",
+                    "select=username,name,avatar,avatar_type,avatar_data:avatar_ref,status,bio,vip&username=eq.$username&limit=1")
+                if (res.ok) {
+                    val row = res.first()
+                    if (row != null) {
                         peerProfile = com.schedule.app.ui.screens.OnlineUser(
                             username   = row.optString("username"),
                             name       = row.optString("name", username),
@@ -1473,14 +1860,10 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
         viewModelScope.launch {
             groupChatsLoading = true
             try {
-                val result = withContext(Dispatchers.IO) {
-                    sb.select("groups", "select=id,name,avatar,members&members=cs.{\"$myUsername\"}&order=updated_at.desc&limit=100")
-                }
-                val json = JSONObject(result)
-                if (json.optBoolean("ok")) {
-                    val arr = JSONArray(json.optString("body","[]"))
-                    groupChats = (0 until arr.length()).map { i ->
-                        val row = arr.getJSONObject(i)
+                val res = sb.selectRowsAwait("groups",
+                    "select=id,name,avatar,members&members=cs.{\"$myUsername\"}&order=updated_at.desc&limit=100")
+                if (res.ok) {
+                    groupChats = res.rows.map { row ->
                         val membersArr = try { JSONArray(row.optString("members","[]")) } catch(e:Exception){ JSONArray() }
                         com.schedule.app.ui.screens.GroupChat(
                             id          = row.optString("id"),
@@ -1558,6 +1941,8 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
                 cmdPrint("ok",   "  /settings  — открыть настройки ⚙️")
                 cmdPrint("ok",   "  /theme <id> — сменить тему")
                 cmdPrint("ok",   "  /group — случайная группа 🎲")
+                cmdPrint("ok",   "  /free [корпус] [пара] — свободные кабинеты 🚪")
+                cmdPrint("ok",   "  /room <номер> — когда кабинет свободен 🚪")
             }
             "fact" -> {
                 activeFunOverlay = com.schedule.app.ui.FunOverlay.None
@@ -1660,6 +2045,8 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
                     cmdPrint("warn", "Сначала загрузи файл расписания")
                 }
             }
+            "free" -> freeRoomsCommand(arg)
+            "room" -> roomCommand(arg)
             "deleteaccount" -> {
                 cmdPrint("warn", "⚠️ Введи /deleteaccount ПОДТВЕРЖДАЮ для удаления")
                 if (arg == "ПОДТВЕРЖДАЮ") {
@@ -1834,8 +2221,9 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
             }
             val fileName = "avatar_${p.username}_${System.currentTimeMillis()}.$ext"
 
-            // Загружаем в GitHub — получаем raw URL (поддерживает GIF-анимацию)
-            val avatarUrl = uploadToGitHub(bytes, fileName, "avatars")
+            // Storage под хэшем содержимого (GIF сохраняется как есть); GitHub — запасной путь
+            val avatarUrl = withContext(Dispatchers.IO) { avatars.put(bytes, mimeType) }
+                ?: uploadToGitHub(bytes, fileName, "avatars")
 
             // Обновляем локально: avatarData = URL, а не base64
             userProfile = p.copy(avatarType = "photo", avatarData = avatarUrl)
@@ -1869,14 +2257,10 @@ class AppViewModel(app: Application) : AndroidViewModel(app) {
     viewModelScope.launch {
         authLoading = true; regError = ""
         try {
-            val checkResult = withContext(Dispatchers.IO) {
-                sb.select("users", "select=username&username=eq.$username&limit=1")
-            }
-            val checkJson = JSONObject(checkResult)
-            if (checkJson.optBoolean("ok")) {
-                val arr = JSONArray(checkJson.optString("body", "[]"))
-                if (arr.length() > 0) { regError = "Этот никнейм уже занят"; return@launch }
-            }
+            val check = sb.selectRowsAwait("users",
+                "select=username&username=eq.$username&limit=1",
+                SupabaseResponse.column("username"))
+            if (check.ok && !check.isEmpty) { regError = "Этот никнейм уже занят"; return@launch }
 
             val email = "$username@sapp.local"
             val signUpResult = withContext(Dispatchers.IO) { sb.signUp(email, password) }
@@ -0,0 +1,109 @@
+package com.schedule.app.ui
+
+import org.json.JSONArray
+import org.json.JSONObject
+
+// ══════════════════════════════════════════════════════════════════════════════
+//  Сводка списка чатов — инкрементальный индекс на клиенте
+//
+//  Полная сводка приходит одним RPC chat_summaries; дальше индекс обновляется
+//  сам: входящее из Realtime, своё отправленное, открытие чата — без сети.
+//  RPC с курсором (activity_ts) нужен только после обрыва сокета и как редкая
+//  страховка, и возвращает лишь изменившиеся чаты.
+// ══════════════════════════════════════════════════════════════════════════════
+
+class ChatSummaryIndex(val me: String) {
+
+    data class Summary(
+        val peer: String,
+        val lastId: Long,
+        val lastTs: Long,
+        val lastText: String,
+        val lastFromMe: Boolean,
+        val unread: Int,
+    )
+
+    private val byPeer = HashMap<String, Summary>()
+
+    /** Курсор для RPC: максимальный activity_ts из полученных сводок. */
+    var cursor = 0L
+        private set
+
+    val peers: Set<String> get() = byPeer.keys
+
+    fun summaries(): Collection<Summary> = byPeer.values
+
+    /**
+     * Строки chat_summaries. Сводка с сервера — истина: заменяет локальную,
+     * если не старее её последнего сообщения.
+     * @return собеседники, у которых что-то поменялось
+     */
+    fun applyServer(rows: JSONArray): Set<String> {
+        val changed = HashSet<String>()
+        for (i in 0 until rows.length()) {
+            val r = rows.optJSONObject(i) ?: continue
+            val peer = r.optString("peer", "")
+            if (peer.isEmpty() || peer == me) continue
+            cursor = maxOf(cursor, r.optLong("activity_ts", 0))
+            val s = Summary(
+                peer       = peer,
+                lastId     = r.optLong("last_id", 0),
+                lastTs     = r.optLong("last_ts", 0),
+                lastText   = r.optString("last_text", ""),
+                lastFromMe = r.optString("last_from") == me,
+                unread     = r.optInt("unread", 0),
+            )
+            val old = byPeer[peer]
+            if (old != null && old.lastTs > s.lastTs) continue
+            if (old != s) { byPeer[peer] = s; changed += peer }
+        }
+        return changed
+    }
+
+    /**
+     * Входящая строка messages из Realtime (to_user = я).
+     * @param openPeer чат, открытый на экране — его входящие сразу прочитаны
+     * @return собеседник, если сводка изменилась
+     */
+    fun applyIncoming(row: JSONObject, openPeer: String?): String? {
+        val from = row.optString("from_user", "")
+        if (from.isEmpty() || from == me || row.optString("to_user") != me) return null
+        val ts = row.optLong("ts", 0)
+        // Курсор не двигаем: строки старше ts (например, свои с другого устройства)
+        // Realtime не приносит — их заберёт следующий RPC
+        if (isService(row)) return null
+        val old = byPeer[from]
+        if (old != null && old.lastTs > ts) return null
+        byPeer[from] = Summary(
+            peer       = from,
+            lastId     = row.optLong("id", 0),
+            lastTs     = ts,
+            lastText   = row.optString("text", ""),
+            lastFromMe = false,
+            unread     = if (from == openPeer) 0 else (old?.unread ?: 0) + 1,
+        )
+        return from
+    }
+
+    /** Своё сообщение — превью сразу, строку с id дочитает следующий RPC. */
+    fun applyOutgoing(peer: String, text: String, ts: Long) {
+        val old = byPeer[peer]
+        if (old != null && old.lastTs > ts) return
+        byPeer[peer] = Summary(peer, 0L, ts, text, lastFromMe = true, unread = old?.unread ?: 0)
+    }
+
+    /** Чат открыт — непрочитанных нет. @return true, если было что сбросить */
+    fun markRead(peer: String): Boolean {
+        val old = byPeer[peer] ?: return false
+        if (old.unread == 0) return false
+        byPeer[peer] = old.copy(unread = 0)
+        return true
+    }
+
+    private fun isService(row: JSONObject): Boolean {
+        val extra = row.optString("extra", "")
+        if (extra.isEmpty()) return false
+        val type = runCatching { JSONObject(extra).optString("type") }.getOrDefault("")
+        return type == "reaction" || type == "read_receipt"
+    }
+}
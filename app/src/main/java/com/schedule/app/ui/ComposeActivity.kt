@@ -107,4 +107,10 @@ class ComposeActivity : ComponentActivity() {
             }
         }
     }
+
+    override fun onStop() {
+        super.onStop()
+        // Приложение уходит в фон — отправляем накопленные presence/leaderboard сразу
+        vm.writeBatcher.flush()
+    }
 }
@@ -0,0 +1,238 @@
+package com.schedule.app.ui
+
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+
+// ══════════════════════════════════════════════════════════════════════════════
+//  OLE2 Compound File — чтение без копирования поверх одного ByteBuffer
+//
+//  Буфер — обёртка над скачанным ByteArray или mmap файла из кэша. FAT и
+//  mini-FAT — примитивные IntArray, DIFAT читается целиком (и за пределами
+//  первых 109 записей заголовка — файлы больше ~7 МБ), потоки меньше
+//  mini-cutoff берутся из mini-stream. Stream — представление потока поверх
+//  цепочки секторов: чтение по логическому смещению, сектора не копируются.
+// ══════════════════════════════════════════════════════════════════════════════
+
+class CompoundFile private constructor(buffer: ByteBuffer) {
+
+    private val b: ByteBuffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN)
+    private val limit = b.limit()
+
+    private val sectorShift = b.getShort(30).toInt() and 0xFFFF
+    private val sectorSize  = 1 shl sectorShift
+    private val miniShift   = b.getShort(32).toInt() and 0xFFFF
+    private val miniCutoff  = b.getInt(56).toLong() and 0xFFFFFFFFL
+
+    private val fat: IntArray     = readFat()
+    private val entries: List<Entry> = readDirectory()
+    private val miniFat: IntArray = readMiniFat()
+    /** Mini-stream — поток корневой записи; в нём живут маленькие потоки. */
+    private val miniStream: Stream? = entries.firstOrNull { it.type == TYPE_ROOT }
+        ?.let { regularStream(it.start, it.size) }
+
+    /** Запись каталога: имя, тип (1 — storage, 2 — stream, 5 — root), начало цепочки, размер. */
+    class Entry(val name: String, val type: Int, val start: Int, val size: Long)
+
+    /**
+     * Поток как представление над секторами буфера. sectors — цепочка
+     * (обычные или mini-сектора), base — для mini-потока: mini-stream.
+     */
+    inner class Stream internal constructor(
+        private val sectors: IntArray,
+        private val shift: Int,
+        private val base: Stream?,
+        val size: Int,
+    ) {
+        private val mask = (1 shl shift) - 1
+
+        /** Абсолютное смещение в буфере для логической позиции pos. */
+        private fun abs(pos: Int): Int {
+            val inner = (sectors[pos ushr shift] shl shift) + (pos and mask)
+            return if (base != null) base.abs(inner) else inner + sectorSize
+        }
+
+        /** Сколько байт от pos лежит подряд в буфере (до конца сектора). */
+        private fun run(pos: Int): Int = (1 shl shift) - (pos and mask)
+
+        fun byteAt(pos: Int): Int = b.get(abs(pos)).toInt() and 0xFF
+
+        fun intAt(pos: Int): Int =
+            if (run(pos) >= 4) b.getInt(abs(pos))
+            else byteAt(pos) or (byteAt(pos + 1) shl 8) or (byteAt(pos + 2) shl 16) or (byteAt(pos + 3) shl 24)
+
+        /** chars символов UTF-16LE с позиции from — сразу в строку, без промежуточного ByteArray. */
+        fun utf16(from: Int, chars: Int): String {
+            val out = CharArray(chars)
+            var pos = from
+            var i = 0
+            while (i < chars) {
+                val a = abs(pos)
+                // Целые символы подряд в текущем секторе (сектор чётного размера)
+                val n = minOf(chars - i, run(pos) / 2)
+                if (n == 0) {
+                    out[i++] = (byteAt(pos) or (byteAt(pos + 1) shl 8)).toChar()
+                    pos += 2
+                    continue
+                }
+                for (k in 0 until n) out[i + k] = b.getChar(a + k * 2)
+                i += n
+                pos += n * 2
+            }
+            return String(out)
+        }
+    }
+
+    fun entries(): List<Entry> = entries
+
+    /** Поток по имени записи каталога или null. */
+    fun stream(name: String): Stream? {
+        val e = entries.firstOrNull { it.type == TYPE_STREAM && it.name == name } ?: return null
+        if (e.size < miniCutoff) {
+            val mini = miniStream ?: return null
+            val chain = chain(miniFat, e.start, e.size, miniShift) ?: return null
+            return Stream(chain, miniShift, mini, e.size.toInt())
+        }
+        return regularStream(e.start, e.size)
+    }
+
+    // ── Структуры файла ───────────────────────────────────────────────────────
+
+    private fun regularStream(start: Int, size: Long): Stream? {
+        val chain = chain(fat, start, size, sectorShift) ?: return null
+        // Обрезанный файл: отдаём то, что есть
+        val have = minOf(size, chain.size.toLong() shl sectorShift).toInt()
+        return Stream(chain, sectorShift, null, have)
+    }
+
+    /**
+     * Цепочка секторов потока размера size; защита от петель и выхода за буфер.
+     * Секторов в цепочке не больше, чем записей в таблице, — битый size из
+     * каталога не раздует массив.
+     */
+    private fun chain(table: IntArray, start: Int, size: Long, shift: Int): IntArray? {
+        val need = minOf((size + (1 shl shift) - 1) ushr shift, table.size.toLong()).toInt()
+        if (need == 0) return IntArray(0)
+        val out = IntArray(need)
+        val visited = BooleanArray(table.size)
+        var sec = start
+        var n = 0
+        while (n < need && sec >= 0 && sec < table.size && !visited[sec]) {
+            visited[sec] = true
+            // Регулярный сектор за пределами буфера — файл обрезан
+            if (table === fat && sectorOffset(sec) + sectorSize > limit) break
+            out[n++] = sec
+            sec = table[sec]
+        }
+        if (n == 0) return null
+        return if (n == need) out else out.copyOf(n)
+    }
+
+    private fun sectorOffset(sec: Int): Int = (sec + 1) shl sectorShift
+
+    /** Сектора FAT: 109 из заголовка + цепочка DIFAT-секторов. */
+    private fun readFat(): IntArray {
+        val perSector = sectorSize / 4
+        // Больше секторов FAT, чем секторов в файле, быть не может — заголовок битый
+        val fatCount  = b.getInt(44).coerceIn(0, limit / sectorSize)
+        val fatSectors = IntArray(fatCount)
+        var n = 0
+        for (i in 0 until 109) {
+            if (n >= fatSectors.size) break
+            val v = b.getInt(76 + i * 4)
+            if (v < 0) break
+            fatSectors[n++] = v
+        }
+        var difat = b.getInt(68)
+        var guard = b.getInt(72).coerceAtLeast(0) + 1
+        while (n < fatSectors.size && difat >= 0 && guard-- > 0) {
+            val off = sectorOffset(difat)
+            if (off + sectorSize > limit) break
+            for (i in 0 until perSector - 1) {
+                if (n >= fatSectors.size) break
+                val v = b.getInt(off + i * 4)
+                if (v >= 0) fatSectors[n++] = v
+            }
+            difat = b.getInt(off + (perSector - 1) * 4)
+        }
+        val table = IntArray(n * perSector) { FREE }
+        for (k in 0 until n) {
+            val off = sectorOffset(fatSectors[k])
+            if (off + sectorSize > limit) continue
+            for (i in 0 until perSector) table[k * perSector + i] = b.getInt(off + i * 4)
+        }
+        return table
+    }
+
+    private fun readDirectory(): List<Entry> {
+        val dirStart = b.getInt(48)
+        // Размер каталога в заголовке v3 не хранится — идём по цепочке до конца
+        val chain = chain(fat, dirStart, fat.size.toLong() shl sectorShift, sectorShift) ?: return emptyList()
+        val list = ArrayList<Entry>()
+        val perSector = sectorSize / 128
+        for (sec in chain) {
+            val base = sectorOffset(sec)
+            for (i in 0 until perSector) {
+                val off = base + i * 128
+                val type = b.get(off + 66).toInt()
+                if (type != TYPE_STREAM && type != TYPE_STORAGE && type != TYPE_ROOT) {
+                    list.add(Entry("", type, -1, 0))
+                    continue
+                }
+                val nameLen = ((b.getShort(off + 64).toInt() and 0xFFFF) / 2 - 1).coerceIn(0, 31)
+                val name = CharArray(nameLen) { k -> b.getChar(off + k * 2) }
+                val size = b.getInt(off + 120).toLong() and 0xFFFFFFFFL
+                list.add(Entry(String(name), type, b.getInt(off + 116), size))
+            }
+        }
+        return list
+    }
+
+    private fun readMiniFat(): IntArray {
+        val start = b.getInt(60)
+        val count = b.getInt(64)
+        if (count <= 0 || start < 0) return IntArray(0)
+        val chain = chain(fat, start, count.toLong() shl sectorShift, sectorShift) ?: return IntArray(0)
+        val perSector = sectorSize / 4
+        val table = IntArray(chain.size * perSector)
+        for ((k, sec) in chain.withIndex()) {
+            val off = sectorOffset(sec)
+            for (i in 0 until perSector) table[k * perSector + i] = b.getInt(off + i * 4)
+        }
+        return table
+    }
+
+    companion object {
+        private const val FREE = -1
+        private const val TYPE_STORAGE = 1
+        private const val TYPE_STREAM  = 2
+        private const val TYPE_ROOT    = 5
+
+        private val SIGNATURE = byteArrayOf(
+            0xD0.toByte(), 0xCF.toByte(), 0x11, 0xE0.toByte(),
+            0xA1.toByte(), 0xB1.toByte(), 0x1A, 0xE1.toByte())
+
+        /** null — не OLE2 или заголовок повреждён. */
+        fun open(buffer: ByteBuffer): CompoundFile? {
+            if (buffer.limit() < 512) return null
+            for (i in SIGNATURE.indices) if (buffer.get(i) != SIGNATURE[i]) return null
+            val shift = (buffer.get(30).toInt() and 0xFF) or ((buffer.get(31).toInt() and 0xFF) shl 8)
+            if (shift != 9 && shift != 12) return null
+            return try {
+                CompoundFile(buffer)
+            } catch (e: IndexOutOfBoundsException) {
+                null
+            }
+        }
+
+        fun open(data: ByteArray): CompoundFile? = open(ByteBuffer.wrap(data))
+
+        /** Файл с диска через mmap — содержимое не читается в кучу. */
+        fun map(file: File): ByteBuffer =
+            RandomAccessFile(file, "r").use { raf ->
+                raf.channel.map(FileChannel.MapMode.READ_ONLY, 0, raf.length())
+            }
+    }
+}
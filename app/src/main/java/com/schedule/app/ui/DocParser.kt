@@ -1,129 +1,46 @@
 package com.schedule.app.ui
 
 import java.nio.ByteBuffer
-import java.nio.ByteOrder
 import java.util.Calendar
 
 // ══════════════════════════════════════════════════════════════════════════════
 //  DocParser  —  OLE2 / .doc  парсер расписания
-//  Точный порт с JS: ole2Text → getCells → detectGroups / parseDoc / parseDocForTeacher
+//  Порт с JS: ole2Text (CompoundFile) → getCells → detectGroups / parseDoc / parseDocForTeacher
 // ══════════════════════════════════════════════════════════════════════════════
 
 object DocParser {
 
     // ── OLE2 бинарный парсер ─────────────────────────────────────────────────
 
-    private fun u32(buf: ByteArray, off: Int): Long {
-        val b = ByteBuffer.wrap(buf, off, 4).order(ByteOrder.LITTLE_ENDIAN)
-        return b.int.toLong() and 0xFFFFFFFFL
-    }
-
-    private fun u16(buf: ByteArray, off: Int): Int {
-        val b = ByteBuffer.wrap(buf, off, 2).order(ByteOrder.LITTLE_ENDIAN)
-        return b.short.toInt() and 0xFFFF
-    }
-
-    /** Извлекает текст из OLE2 (.doc) файла — точный порт ole2Text() из JS */
-    fun ole2Text(data: ByteArray): String {
-        val sig = byteArrayOf(0xD0.toByte(), 0xCF.toByte(), 0x11.toByte(), 0xE0.toByte(),
-                              0xA1.toByte(), 0xB1.toByte(), 0x1A.toByte(), 0xE1.toByte())
-        if (data.size < 512) return ""
-        for (i in 0..7) if (data[i] != sig[i]) return ""
-
-        val ss = 1 shl u16(data, 30)
-
-        // DIFAT (FAT sector locations)
-        val difat = mutableListOf<Long>()
-        val difatCount = u32(data, 44).toInt()
-        for (i in 0 until minOf(109, difatCount)) {
-            val v = u32(data, 76 + i * 4)
-            if (v >= 0xFFFFFFFCL) break
-            difat.add(v)
-        }
+    /** Извлекает текст из OLE2 (.doc) файла — порт ole2Text() из JS поверх CompoundFile */
+    fun ole2Text(data: ByteArray): String = ole2Text(ByteBuffer.wrap(data))
 
-        // FAT
-        val fat = mutableListOf<Long>()
-        for (sn in difat) {
-            val off = 512 + sn.toInt() * ss
-            var i = 0
-            while (i * 4 + 4 <= ss) {
-                val p = off + i * 4
-                if (p + 4 <= data.size) fat.add(u32(data, p))
-                i++
-            }
-        }
-
-        fun readSectors(startSec: Long, maxSz: Int = 0): ByteArray {
-            val chunks = mutableListOf<ByteArray>()
-            var total = 0
-            var sec = startSec
-            val vis = mutableSetOf<Long>()
-            while (sec != 0xFFFFFFFEL && sec != 0xFFFFFFFFL && !vis.contains(sec)) {
-                vis.add(sec)
-                val off = 512 + sec.toInt() * ss
-                if (off >= data.size) break
-                val len = minOf(ss, data.size - off)
-                chunks.add(data.copyOfRange(off, off + len))
-                total += len
-                if (maxSz > 0 && total >= maxSz) break
-                if (sec >= fat.size) break
-                sec = fat[sec.toInt()]
-            }
-            val out = ByteArray(if (maxSz > 0) minOf(total, maxSz) else total)
-            var pos = 0
-            for (c in chunks) {
-                val take = minOf(c.size, out.size - pos)
-                System.arraycopy(c, 0, out, pos, take)
-                pos += take
-                if (pos >= out.size) break
-            }
-            return out
-        }
-
-        // Directory entries
-        val dirStart = u32(data, 48)
-        val dd = readSectors(dirStart)
-
-        // Find WordDocument stream
-        var wordDocStart = 0L
-        var wordDocSize = 0
-        val entryCount = dd.size / 128
-        for (i in 0 until entryCount) {
-            val entry = dd.copyOfRange(i * 128, (i + 1) * 128)
-            if (entry.size < 128) break
-            val nl = (entry[64].toInt() and 0xFF) or ((entry[65].toInt() and 0xFF) shl 8)
-            if (nl < 2) continue
-            val nameBytes = entry.copyOfRange(0, nl - 2)
-            val name = try { String(nameBytes, Charsets.UTF_16LE) } catch (e: Exception) { continue }
-            if (name == "WordDocument") {
-                val buf = ByteBuffer.wrap(dd, i * 128, 128).order(ByteOrder.LITTLE_ENDIAN)
-                wordDocStart = (buf.getInt(116).toLong() and 0xFFFFFFFFL)
-                wordDocSize  = buf.getInt(120)
-                break
-            }
-        }
-        if (wordDocSize == 0) return ""
-
-        val wsd = readSectors(wordDocStart, wordDocSize)
-        if (wsd.size < 32) return ""
-
-        val wsdBuf = ByteBuffer.wrap(wsd).order(ByteOrder.LITTLE_ENDIAN)
-        val fc = wsdBuf.getInt(24).toLong() and 0xFFFFFFFFL
-        val cc = wsdBuf.getInt(28).toLong() and 0xFFFFFFFFL
-        if (fc >= wsd.size) return ""
-
-        val startIdx = fc.toInt()
-        val endIdx   = minOf(startIdx + cc.toInt() * 2, wsd.size)
+    /** ole2Text() над буфером — в том числе mmap файла из кэша (CompoundFile.map). */
+    fun ole2Text(buf: ByteBuffer): String {
+        val cf = CompoundFile.open(buf) ?: return ""
         return try {
-            String(wsd.copyOfRange(startIdx, endIdx), Charsets.UTF_16LE)
-        } catch (e: Exception) { "" }
+            val wsd = cf.stream("WordDocument") ?: return ""
+            if (wsd.size < 32) return ""
+            // Как в JS: смещение текста — слово 24 FIB, длина в символах — слово 28
+            val fc = wsd.intAt(24).toLong() and 0xFFFFFFFFL
+            val cc = wsd.intAt(28).toLong() and 0xFFFFFFFFL
+            if (fc >= wsd.size) return ""
+            val chars = (minOf(cc * 2, wsd.size - fc) / 2).toInt()
+            wsd.utf16(fc.toInt(), chars)
+        } catch (e: IndexOutOfBoundsException) {
+            ""
+        }
     }
 
     // ── Получение ячеек из текста ─────────────────────────────────────────────
 
     /** getCells() из JS — разбивает OLE2-текст на ячейки таблицы по \x07 */
-    fun getCells(data: ByteArray): List<String> {
-        val raw = ole2Text(data)
+    fun getCells(data: ByteArray): List<String> = cellsOf(ole2Text(data))
+
+    /** getCells() над буфером (mmap файла из кэша). */
+    fun getCells(buf: ByteBuffer): List<String> = cellsOf(ole2Text(buf))
+
+    private fun cellsOf(raw: String): List<String> {
         if (raw.isEmpty()) return emptyList()
         return raw.split('\u0007').map { cell ->
             val clean = cell
@@ -149,69 +66,30 @@ object DocParser {
     // ── Регулярки (как в JS) ──────────────────────────────────────────────────
 
     // Группа: МПД-2-24, ИС-1-24, ПК-3-23 и т.п.
-    private val GRP = Regex("^[А-ЯЁA-Z0-9]{1,5}[\\-]?\\d[\\-]\\d{2}$")
-    private val GRP_SEARCH = Regex("\\b([А-ЯЁA-Z0-9]{1,5}[\\-]?\\d[\\-]\\d{2})\\b")
+    internal val GRP = Regex("^[А-ЯЁA-Z0-9]{1,5}[\\-]?\\d[\\-]\\d{2}$")
+    internal val GRP_SEARCH = Regex("\\b([А-ЯЁA-Z0-9]{1,5}[\\-]?\\d[\\-]\\d{2})\\b")
 
     // Римские цифры I-VI
-    private val ROM = Regex("^(I{1,3}V?|VI{0,3}|IV)$")
+    internal val ROM = Regex("^(I{1,3}V?|VI{0,3}|IV)$")
 
     // Заголовок блока расписания
-    private val HDR = Regex("Расписание занятий", RegexOption.IGNORE_CASE)
+    internal val HDR = Regex("Расписание занятий", RegexOption.IGNORE_CASE)
 
-    private fun norm(s: String) = s.trim().uppercase().replace(Regex("[\\s\\-.]"), "")
+    internal fun norm(s: String) = s.trim().uppercase().replace(Regex("[\\s\\-.]"), "")
 
     // ── Определение групп ─────────────────────────────────────────────────────
 
-    fun detectGroups(data: ByteArray): List<String> {
-        val seen = linkedMapOf<String, String>()
-        for (cell in getCells(data)) {
-            val t = cell.trim()
-            if (GRP.matches(t)) { val k = norm(t); if (!seen.containsKey(k)) seen[k] = t; continue }
-            val singleLine = t.split('\n').first().trim()
-            if (GRP.matches(singleLine)) { val k = norm(singleLine); if (!seen.containsKey(k)) seen[k] = singleLine; continue }
-            GRP_SEARCH.findAll(t).forEach { m ->
-                val k = norm(m.groupValues[1]); if (!seen.containsKey(k)) seen[k] = m.groupValues[1]
-            }
-        }
-        return seen.values.sorted()
-    }
+    /** Группы файла. Разбор кэшируется по содержимому — см. ParsedScheduleDocument. */
+    fun detectGroups(data: ByteArray): List<String> = ParsedScheduleDocument.of(data).groups
 
     // ── Парсинг расписания для группы ────────────────────────────────────────
 
-    /** parseDoc() из JS. Возвращает список пар [(roman, lesson)] и заголовок */
-    fun parseDoc(data: ByteArray, group: String): Pair<List<Pair<String, String>>, String> {
-        val cells = getCells(data)
-        val tn = norm(group)
-        val labels = mutableListOf<Int>()
-        cells.forEachIndexed { i, c -> if (HDR.containsMatchIn(c)) labels.add(i) }
-        if (labels.isEmpty()) return Pair(emptyList(), "")
-        labels.add(cells.size)
-
-        for (bi in 0 until labels.size - 1) {
-            var li = labels[bi]
-            val nx = labels[bi + 1]
-            var gs = li + 1
-            while (gs < nx && !GRP.matches(cells[gs])) gs++
-            if (gs >= nx) continue
-            var ge = gs
-            while (ge < nx && GRP.matches(cells[ge])) ge++
-            val fi = (gs until ge).firstOrNull { norm(cells[it]) == tn } ?: continue
-            val off = fi - li
-            val hdr = cells[li].split('\n').firstOrNull { HDR.containsMatchIn(it) }?.trim() ?: ""
-            val sched = mutableListOf<Pair<String, String>>()
-            val seen = mutableSetOf<String>()
-            for (ri in ge until nx) {
-                val c = cells[ri]
-                if (ROM.matches(c) && !seen.contains(c)) {
-                    seen.add(c)
-                    val li2 = ri + off
-                    sched.add(c to (if (li2 < cells.size) cells[li2].trim() else ""))
-                }
-            }
-            return Pair(sched, hdr)
-        }
-        return Pair(emptyList(), "")
-    }
+    /**
+     * parseDoc() из JS. Возвращает список пар [(roman, lesson)] и заголовок.
+     * Повторные вызовы с тем же файлом (смена группы) — поиск в индексе без разбора.
+     */
+    fun parseDoc(data: ByteArray, group: String): Pair<List<Pair<String, String>>, String> =
+        ParsedScheduleDocument.of(data).schedule(group)
 
     // ── Парсинг строки преподавателя ─────────────────────────────────────────
 
@@ -236,6 +114,52 @@ object DocParser {
         return null
     }
 
+    // ── Разбор ячейки урока по преподавателям ────────────────────────────────
+
+    /** "Фамилия И.О." (возможно с двойной фамилией) — TEACHER_RE из JS. */
+    internal val TEACHER = Regex("([А-ЯЁ][а-яё]+(?:-[А-ЯЁ][а-яё]+)?\\s+[А-ЯЁ]\\.[А-ЯЁ]\\.)")
+
+    private val WS  = Regex("\\s+")
+    private val CAB = Regex("к\\.\\d")
+
+    /** normTeacher() из JS — ключ для сравнения имён. */
+    fun normTeacher(t: String) = t.replace(WS, " ").trim().uppercase()
+
+    /** Преподаватель в ячейке и его кабинет/корпус (у подгрупп — свои строки). */
+    data class LessonPlace(val teacher: String, val cabinet: String, val korpus: String)
+
+    data class LessonCell(val subject: String, val places: List<LessonPlace>)
+
+    /** Ячейка урока → предмет и преподаватели с кабинетами (как в parseDocForTeacher из JS). */
+    fun parseLessonCell(lesson: String): LessonCell {
+        var subject = ""
+        val places = ArrayList<LessonPlace>(2)
+        fun addAll(text: String, info: TeacherInfo) {
+            var any = false
+            TEACHER.findAll(text).forEach { m ->
+                any = true
+                places.add(LessonPlace(m.groupValues[1].replace(WS, " ").trim(), info.cabinetNum, info.korpus))
+            }
+            // Кабинет без имени — остаётся занятость кабинета
+            if (!any && info.cabinetNum.isNotEmpty()) places.add(LessonPlace("", info.cabinetNum, info.korpus))
+        }
+        for (raw in lesson.split('\n')) {
+            val line = raw.trim()
+            if (line.isEmpty()) continue
+            val split = splitSubjectAndTeacher(line)
+            when {
+                split != null -> {
+                    subject = split.first
+                    addAll(split.second, parseTeacherLine(split.second))
+                }
+                TEACHER.containsMatchIn(line) || CAB.containsMatchIn(line) ->
+                    addAll(line, parseTeacherLine(line))
+                subject.isEmpty() -> subject = line
+            }
+        }
+        return LessonCell(subject, places)
+    }
+
     // ── Расписание звонков ────────────────────────────────────────────────────
 
     // [start1, end1, start2?, end2?] — как в JS BELL_MON/TUE/SAT
@@ -264,6 +188,16 @@ object DocParser {
         "VI"  to listOf("14:20","15:20",null,null),
     )
 
+    /** Звонки дня по имени файла: понедельник, суббота, остальные — вторник–пятница. */
+    internal fun bellFor(filename: String): Map<String, List<String?>> {
+        val upper = filename.uppercase()
+        return when {
+            upper.contains("ПОНЕДЕЛЬНИК") -> BELL_MON
+            upper.contains("СУББОТ")      -> BELL_SAT
+            else                          -> BELL_TUE
+        }
+    }
+
     private fun toMin(t: String): Int {
         val parts = t.split(':')
         return parts[0].toInt() * 60 + parts[1].toInt()
@@ -279,50 +213,9 @@ object DocParser {
 
         if (rawSched.isEmpty()) return emptyList()
 
-        val isMon = filename.uppercase().contains("ПОНЕДЕЛЬНИК")
-        val isSat = filename.uppercase().contains("СУББОТ")
-        val bell  = if (isMon) BELL_MON else if (isSat) BELL_SAT else BELL_TUE
-
-        val cal    = Calendar.getInstance()
-        val nowMin = cal.get(Calendar.HOUR_OF_DAY) * 60 + cal.get(Calendar.MINUTE)
-        val dow    = cal.get(Calendar.DAY_OF_WEEK)
-
-        // Определяем «сегодня» — сравниваем дату файла с сегодня
-        val dateMatch = Regex("(\\d{2})\\.(\\d{2})\\.(\\d{4})").find(header)
-        val isToday = if (dateMatch != null) {
-            val d = dateMatch.groupValues[1].toInt()
-            val m = dateMatch.groupValues[2].toInt() - 1
-            val y = dateMatch.groupValues[3].toInt()
-            d == cal.get(Calendar.DAY_OF_MONTH) &&
-            m == cal.get(Calendar.MONTH) &&
-            y == cal.get(Calendar.YEAR)
-        } else false
+        val clock = DayClock(header, filename)
 
         val pairs = rawSched.map { (roman, lesson) ->
-            val b = bell[roman]
-
-            var isNow       = false
-            var isNext      = false
-            var remainText: String? = null
-            var progressPct = 0f
-
-            if (isToday && b != null && b[0] != null) {
-                val startMin = toMin(b[0]!!)
-                val endRaw   = b[3] ?: b[1]
-                val endMin   = if (endRaw != null) toMin(endRaw) else startMin + 90
-                isNow = nowMin in startMin..endMin
-                if (isNow) {
-                    val diff    = endMin - nowMin
-                    remainText  = if (diff <= 0) "заканч." else "$diff мин"
-                    val total   = (endMin - startMin).coerceAtLeast(1)
-                    val elapsed = (nowMin - startMin).coerceIn(0, total)
-                    progressPct = elapsed.toFloat() / total.toFloat() * 100f
-                } else {
-                    val diff = startMin - nowMin
-                    isNext = diff in 1..30
-                }
-            }
-
             // Разбираем ячейку урока
             val rawLines = if (lesson.isNotEmpty())
                 lesson.split('\n').map { it.trim() }.filter { it.isNotEmpty() }
@@ -348,12 +241,108 @@ object DocParser {
                 if (info.cabinetNum.isNotEmpty()) cabinet = info.cabinetNum
                 if (info.korpus.isNotEmpty()) korpus = info.korpus
             }
-            if (cabinet != null && korpus != null) cabinet = "к.$cabinet(${korpus})"
-            else if (cabinet != null) cabinet = "к.$cabinet"
+
+            clock.pair(roman, subject, teacher, formatCabinet(cabinet, korpus), isEmpty)
+        }
+
+        val cleanDate = formatScheduleDate(header)
+        return listOf(com.schedule.app.ui.screens.ScheduleDay(header = cleanDate ?: header, pairs = pairs))
+    }
+
+    /**
+     * Расписание преподавателя из TeacherIndex: день на файл (по дате),
+     * пары по порядку; вместо преподавателя в карточке — группа.
+     */
+    fun buildTeacherDays(hits: List<TeacherIndex.Hit>): List<com.schedule.app.ui.screens.ScheduleDay> =
+        hits.groupBy { it.day }
+            .entries
+            .sortedBy { (day, _) -> dateKey(day.header) }
+            .map { (day, dayHits) ->
+                val clock = DayClock(day.header, day.name)
+                val pairs = dayHits
+                    .sortedBy { ROMAN_ORDER[it.roman] ?: 9 }
+                    .map { h ->
+                        clock.pair(h.roman, h.subject.ifEmpty { h.group }, h.group,
+                                   formatCabinet(h.cabinet, h.korpus), false)
+                    }
+                com.schedule.app.ui.screens.ScheduleDay(
+                    header = formatScheduleDate(day.header) ?: day.header.ifEmpty { day.name },
+                    pairs  = pairs,
+                )
+            }
+
+    internal val ROMAN_ORDER = mapOf("I" to 1, "II" to 2, "III" to 3, "IV" to 4, "V" to 5, "VI" to 6)
+
+    private fun formatCabinet(cabinet: String?, korpus: String?): String? = when {
+        cabinet.isNullOrEmpty() -> null
+        !korpus.isNullOrEmpty() -> "к.$cabinet($korpus)"
+        else                    -> "к.$cabinet"
+    }
+
+    /** "дд.мм.гггг" из заголовка → гггг-мм-дд для сортировки; без даты — в конец. */
+    private fun dateKey(header: String): String {
+        val m = Regex("(\\d{2})\\.(\\d{2})\\.(\\d{4})").find(header) ?: return "~"
+        return "${m.groupValues[3]}-${m.groupValues[2]}-${m.groupValues[1]}"
+    }
+
+    /** Звонки дня (по имени файла) и «сейчас»/«скоро» — если файл на сегодня. */
+    private class DayClock(header: String, filename: String) {
+        val bell: Map<String, List<String?>>
+        private val isToday: Boolean
+        private val nowMin: Int
+
+        init {
+            bell = bellFor(filename)
+
+            val cal = Calendar.getInstance()
+            nowMin  = cal.get(Calendar.HOUR_OF_DAY) * 60 + cal.get(Calendar.MINUTE)
+
+            // Определяем «сегодня» — сравниваем дату файла с сегодня
+            val dateMatch = Regex("(\\d{2})\\.(\\d{2})\\.(\\d{4})").find(header)
+            isToday = if (dateMatch != null) {
+                val d = dateMatch.groupValues[1].toInt()
+                val m = dateMatch.groupValues[2].toInt() - 1
+                val y = dateMatch.groupValues[3].toInt()
+                d == cal.get(Calendar.DAY_OF_MONTH) &&
+                m == cal.get(Calendar.MONTH) &&
+                y == cal.get(Calendar.YEAR)
+            } else false
+        }
+
+        fun pair(
+            roman: String,
+            subject: String,
+            teacher: String?,
+            room: String?,
+            isWindow: Boolean,
+        ): com.schedule.app.ui.screens.Pair {
+            val b = bell[roman]
+
+            var isNow       = false
+            var isNext      = false
+            var remainText: String? = null
+            var progressPct = 0f
+
+            if (isToday && b != null && b[0] != null) {
+                val startMin = toMin(b[0]!!)
+                val endRaw   = b[3] ?: b[1]
+                val endMin   = if (endRaw != null) toMin(endRaw) else startMin + 90
+                isNow = nowMin in startMin..endMin
+                if (isNow) {
+                    val diff    = endMin - nowMin
+                    remainText  = if (diff <= 0) "заканч." else "$diff мин"
+                    val total   = (endMin - startMin).coerceAtLeast(1)
+                    val elapsed = (nowMin - startMin).coerceIn(0, total)
+                    progressPct = elapsed.toFloat() / total.toFloat() * 100f
+                } else {
+                    val diff = startMin - nowMin
+                    isNext = diff in 1..30
+                }
+            }
 
             val (s1, e1, s2, e2) = b ?: listOf(null, null, null, null)
 
-            com.schedule.app.ui.screens.Pair(
+            return com.schedule.app.ui.screens.Pair(
                 num         = roman,
                 timeStart   = s1 ?: "",
                 timeEnd     = e1 ?: "",
@@ -361,17 +350,14 @@ object DocParser {
                 breakEnd    = e2,
                 subject     = subject,
                 teacher     = teacher,
-                room        = cabinet,
+                room        = room,
                 isNow       = isNow,
                 isNext      = isNext,
-                isWindow    = isEmpty,
+                isWindow    = isWindow,
                 remainText  = remainText,
                 progressPct = progressPct,
             )
         }
-
-        val cleanDate = formatScheduleDate(header)
-        return listOf(com.schedule.app.ui.screens.ScheduleDay(header = cleanDate ?: header, pairs = pairs))
     }
 
     /** Форматирует дату из заголовка расписания */
@@ -382,7 +368,70 @@ object DocParser {
 
     // ── Скачивание файла с Яндекс.Диска / GitHub ─────────────────────────────
 
-    private val fileCache = mutableMapOf<String, ByteArray>()
+    /** Версия из листинга и содержимое; несколько последних файлов, доступ под локом. */
+    private class Cached(val version: String, val data: ByteArray)
+
+    private const val MEM_FILES = 4
+    private val fileCache = object : LinkedHashMap<String, Cached>(8, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Cached>) = size > MEM_FILES
+    }
+
+    /** Дисковый кэш — подключает AppViewModel (нужен Context). */
+    @Volatile var diskCache: ScheduleFileCache? = null
+
+    private fun cacheKey(publicKey: String, filePath: String): String =
+        if (filePath.startsWith("github:")) "github|${filePath.removePrefix("github:")}"
+        else "$publicKey|${normalizePath(filePath)}"
+
+    // Яндекс возвращает path вида "disk:/folder/file.doc"
+    private fun normalizePath(filePath: String): String = when {
+        filePath.startsWith("disk:/") -> filePath.removePrefix("disk:")
+        filePath.startsWith("disk:")  -> "/" + filePath.removePrefix("disk:")
+        filePath.startsWith("/")      -> filePath
+        else                          -> "/$filePath"
+    }
+
+    /** Память → диск; version пустая — только память (как раньше, без сверки с листингом). */
+    private fun cached(key: String, version: String): ByteArray? {
+        synchronized(fileCache) {
+            fileCache[key]?.let { if (version.isEmpty() || it.version == version) return it.data }
+        }
+        if (version.isEmpty()) return null
+        val data = diskCache?.read(key, version) ?: return null
+        synchronized(fileCache) { fileCache[key] = Cached(version, data) }
+        return data
+    }
+
+    private fun store(key: String, version: String, data: ByteArray) {
+        synchronized(fileCache) { fileCache[key] = Cached(version, data) }
+        diskCache?.put(key, version, data)
+    }
+
+    /**
+     * Ячейки файла прямо из дискового кэша через mmap (CompoundFile.map) — байты
+     * в кучу не читаются: индексация всех файлов листинга не держит их в памяти.
+     * null — этой версии в кэше нет (или файл не разобрался), нужен downloadFile.
+     */
+    fun cachedCells(publicKey: String, filePath: String, version: String): List<String>? {
+        if (version.isEmpty()) return null
+        val f = diskCache?.fileFor(cacheKey(publicKey, filePath), version) ?: return null
+        return try {
+            getCells(CompoundFile.map(f)).takeIf { it.isNotEmpty() }
+        } catch (e: Exception) {
+            android.util.Log.w("DocParser", "cachedCells ✗ ${f.name}: ${e.message}")
+            null
+        }
+    }
+
+    /**
+     * Любая сохранённая копия файла, без сети — чтобы показать расписание сразу
+     * при старте, пока листинг проверяет, не вышла ли новая версия.
+     */
+    fun cachedCopy(publicKey: String, filePath: String): ByteArray? {
+        val key = cacheKey(publicKey, filePath)
+        synchronized(fileCache) { fileCache[key]?.let { return it.data } }
+        return diskCache?.read(key, null)
+    }
 
     // GitHub репозиторий с файлами расписания
     const val GITHUB_REPO = "LomKich/scheduletxt"
@@ -392,29 +441,30 @@ object DocParser {
      * Скачивает файл. Сначала пробует Яндекс.Диск, при ошибке — GitHub.
      * filePath — путь внутри публичной папки (может начинаться с "disk:/", убираем).
      * Если filePath начинается с "github:", скачивает только с GitHub.
+     * version — md5/modified (Яндекс) или sha (GitHub) из листинга: совпала с
+     * сохранённой копией — сеть не нужна.
      */
     suspend fun downloadFile(
         publicKey: String,
         filePath: String,
+        version: String = "",
         onProgress: (Float) -> Unit = {},
     ): ByteArray = kotlinx.coroutines.withContext(kotlinx.coroutines.Dispatchers.IO) {
 
+        val cacheKey = cacheKey(publicKey, filePath)
+        cached(cacheKey, version)?.let {
+            onProgress(1.0f)
+            return@withContext it
+        }
+
         // Файл пришёл из GitHub — сразу качаем оттуда
         if (filePath.startsWith("github:")) {
             val relativePath = filePath.removePrefix("github:")  // напр. "schedule/file.doc"
             return@withContext downloadFromGitHub(relativePath, onProgress)
+                .also { store(cacheKey, version, it) }
         }
 
-        // Яндекс возвращает path вида "disk:/folder/file.doc"
-        val normalizedPath = when {
-            filePath.startsWith("disk:/") -> filePath.removePrefix("disk:")
-            filePath.startsWith("disk:")  -> "/" + filePath.removePrefix("disk:")
-            filePath.startsWith("/")      -> filePath
-            else                          -> "/$filePath"
-        }
-
-        val cacheKey = "$publicKey|$normalizedPath"
-        fileCache[cacheKey]?.let { return@withContext it }
+        val normalizedPath = normalizePath(filePath)
 
         // ── Попытка 1: Яндекс.Диск ───────────────────────────────────────
         try {
@@ -424,15 +474,7 @@ object DocParser {
                           "?public_key=$enc&path=$pathEnc"
 
             onProgress(0.1f)
-            val conn = java.net.URL(dlUrl).openConnection() as java.net.HttpURLConnection
-            conn.connectTimeout = 12_000
-            conn.readTimeout    = 25_000
-
-            val code1 = conn.responseCode
-            val body1 = if (code1 in 200..299)
-                conn.inputStream.bufferedReader().readText()
-            else
-                (conn.errorStream ?: conn.inputStream).bufferedReader().readText()
+            val (code1, body1) = httpGet(dlUrl) { it.body?.string() ?: "" }
 
             if (code1 !in 200..299) {
                 val msg = try { org.json.JSONObject(body1).optString("message", "HTTP $code1") }
@@ -444,17 +486,12 @@ object DocParser {
             if (href.isNullOrEmpty()) throw Exception("Яндекс не вернул ссылку")
 
             onProgress(0.4f)
-            val fc = java.net.URL(href).openConnection() as java.net.HttpURLConnection
-            fc.connectTimeout = 12_000
-            fc.readTimeout    = 90_000
-            fc.instanceFollowRedirects = true
+            val (code2, bytes) = httpGet(href) { it.body?.bytes() }
+            if (code2 !in 200..299 || bytes == null)
+                throw Exception("Ошибка загрузки: HTTP $code2")
 
-            if (fc.responseCode !in 200..299)
-                throw Exception("Ошибка загрузки: HTTP ${fc.responseCode}")
-
-            val bytes = fc.inputStream.readBytes()
             onProgress(1.0f)
-            fileCache[cacheKey] = bytes
+            store(cacheKey, version, bytes)
             return@withContext bytes
 
         } catch (yandexErr: Exception) {
@@ -462,12 +499,24 @@ object DocParser {
         }
 
         // ── Попытка 2: GitHub ─────────────────────────────────────────────
+        // version — md5 Яндекса, а зеркало может отдать другую редакцию файла:
+        // под этой версией на диск кладём, только если md5 совпал. Иначе копия
+        // живёт лишь в памяти без версии, и следующий запрос снова спросит Яндекс.
         val relativePath = normalizedPath.trimStart('/')
         val bytes = downloadFromGitHub(relativePath, onProgress)
-        fileCache[cacheKey] = bytes
+        if (version.isNotEmpty() && md5Hex(bytes).equals(version, ignoreCase = true)) {
+            store(cacheKey, version, bytes)
+        } else {
+            android.util.Log.i("DocParser", "GitHub ▸ md5 не совпал с версией Яндекса — только в памяти")
+            synchronized(fileCache) { fileCache[cacheKey] = Cached("", bytes) }
+        }
         bytes
     }
 
+    private fun md5Hex(data: ByteArray): String =
+        java.security.MessageDigest.getInstance("MD5").digest(data)
+            .joinToString("") { String.format("%02x", it.toInt() and 0xFF) }
+
     /**
      * Скачивает файл напрямую с GitHub (raw content).
      * relativePath — путь относительно корня репо, напр. "schedule/file.doc"
@@ -491,16 +540,10 @@ object DocParser {
         var lastErr: Exception? = null
         mirrors.forEachIndexed { i, url ->
             try {
-                val conn = java.net.URL(url).openConnection() as java.net.HttpURLConnection
-                conn.connectTimeout = 12_000
-                conn.readTimeout    = 60_000
-                conn.instanceFollowRedirects = true
-                conn.setRequestProperty("User-Agent", "ScheduleApp/1.0")
+                val (code, bytes) = httpGet(url, "ScheduleApp/1.0") { it.body?.bytes() }
+                if (code !in 200..299 || bytes == null)
+                    throw Exception("HTTP $code")
 
-                if (conn.responseCode !in 200..299)
-                    throw Exception("HTTP ${conn.responseCode}")
-
-                val bytes = conn.inputStream.readBytes()
                 onProgress(1.0f)
                 android.util.Log.i("DocParser", "GitHub OK: $url")
                 return bytes
@@ -513,5 +556,27 @@ object DocParser {
         throw Exception("GitHub недоступен: ${lastErr?.message}")
     }
 
-    fun clearCache() = fileCache.clear()
+    /**
+     * GET через общий NetworkStack (пул соединений + DNS-кэш): Яндекс API, CDN-ссылка
+     * и зеркала GitHub переиспользуют соединения между загрузками файлов.
+     * read — читает тело, пока ответ открыт. Возвращает (HTTP-код, результат read).
+     */
+    private fun <T> httpGet(
+        url: String,
+        userAgent: String? = null,
+        read: (okhttp3.Response) -> T,
+    ): Pair<Int, T> {
+        val req = okhttp3.Request.Builder().url(url).apply {
+            if (userAgent != null) header("User-Agent", userAgent)
+        }.build()
+        return com.schedule.app.NetworkStack.get()
+            .client(com.schedule.app.NetworkStack.Purpose.TRANSFER)
+            .newCall(req).execute().use { resp -> resp.code to read(resp) }
+    }
+
+    fun clearCache() {
+        synchronized(fileCache) { fileCache.clear() }
+        diskCache?.clear()
+        ParsedScheduleDocument.clearCache()
+    }
 }
@@ -0,0 +1,193 @@
+package com.schedule.app.ui
+
+import com.schedule.app.MessageStore
+import com.schedule.app.SupabaseClient
+import com.schedule.app.SupabaseHelper
+import com.schedule.app.selectRowsAwait
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.withContext
+
+// ══════════════════════════════════════════════════════════════════════════════
+//  История чата постранично — keyset-курсор по (ts, id)
+//
+//  Открытие чата = одна маленькая страница последних сообщений.
+//  Старые страницы подгружаются по требованию (скролл вверх), новые — поллером
+//  строго после последнего известного (ts, id): сообщения с одинаковым ts
+//  на границе страницы не теряются и не дублируются.
+//
+//  С MessageStore открытие чата — локальный запрос (loadCached), сеть
+//  дочитывает только дельту новее синхронизированного диапазона, а старые
+//  страницы сначала берутся с диска и лишь за его границей — с сервера.
+// ══════════════════════════════════════════════════════════════════════════════
+
+class MessageHistory(
+    private val sb: SupabaseClient,
+    val chatKey: String,
+    /** Для групп — id группы вместо to_user (как в chatMessageDecoder). */
+    private val toUser: String? = null,
+    private val pageSize: Int = PAGE_SIZE,
+    /** Локальная копия истории; null — только сеть. */
+    private val store: MessageStore? = null,
+) {
+    companion object {
+        const val PAGE_SIZE = 30
+        /** Поллер новых сообщений берёт больше — после возврата из фона их может накопиться. */
+        const val NEWER_LIMIT = 100
+        /** Страниц дельты за один loadNewer; пропуск длиннее — заново с последней страницы. */
+        const val NEWER_PAGES = 5
+    }
+
+    /** Результат loadNewer: reset — пропуск не дочитан, messages заменяют список целиком. */
+    class Newer(val messages: List<ChatMessage>, val reset: Boolean)
+
+    private data class Cursor(val ts: Long, val id: Long)
+
+    private var oldest: Cursor? = null
+    private var newest: Cursor? = null
+
+    /** Есть ли ещё страницы старше загруженных. */
+    var hasMoreOlder = true
+        private set
+
+    /**
+     * Последняя страница из локального хранилища, без сети. Курсоры встают на неё,
+     * так что следующий loadNewer() запросит только то, что пришло с прошлого раза.
+     * Пустой список — локальной истории нет (или store не задан).
+     */
+    suspend fun loadCached(): List<ChatMessage> {
+        val s = store ?: return emptyList()
+        val page = withContext(Dispatchers.IO) {
+            s.window(chatKey, Long.MAX_VALUE, Long.MAX_VALUE, pageSize).map { it.toChatMessage() }
+        }
+        if (page.isEmpty()) return page
+        // newest — граница диапазона, а не последняя строка окна: дельта строго после неё
+        val range = withContext(Dispatchers.IO) { s.range(chatKey) } ?: return emptyList()
+        oldest = null; newest = null
+        remember(page)
+        newest = Cursor(range.newestTs, range.newestId)
+        hasMoreOlder = page.size >= pageSize || !range.complete
+        return page
+    }
+
+    /**
+     * Последняя страница чата (самые свежие pageSize сообщений, по возрастанию).
+     * null — ошибка сети/сервера, курсоры не тронуты.
+     */
+    suspend fun loadLatest(): List<ChatMessage>? {
+        oldest = null; newest = null; hasMoreOlder = true
+        val page = fetch(null, older = true, limit = pageSize) ?: return null
+        hasMoreOlder = page.size >= pageSize
+        remember(page)
+        persist(page, reachedStart = !hasMoreOlder, reset = true)
+        return page
+    }
+
+    /** Страница старше самой старой загруженной. Пустой список — история кончилась. */
+    suspend fun loadOlder(): List<ChatMessage>? {
+        if (!hasMoreOlder) return emptyList()
+        val from = oldest ?: return loadLatest()
+        store?.let { s ->
+            val local = withContext(Dispatchers.IO) {
+                s.window(chatKey, from.ts, from.id, pageSize).map { it.toChatMessage() }
+            }
+            if (local.isNotEmpty()) {
+                remember(local)
+                val complete = withContext(Dispatchers.IO) { s.range(chatKey)?.complete } ?: false
+                hasMoreOlder = local.size >= pageSize || !complete
+                return local
+            }
+        }
+        val page = fetch(from, older = true, limit = pageSize) ?: return null
+        hasMoreOlder = page.size >= pageSize
+        remember(page)
+        persist(page, reachedStart = !hasMoreOlder, reset = false)
+        return page
+    }
+
+    /**
+     * Всё, что новее самого свежего загруженного (для поллера): страницы по
+     * NEWER_LIMIT, пока не придёт неполная. Полная страница значит, что за ней
+     * есть ещё — без дочитывания между ней и следующим опросом осталась бы дыра.
+     * Больше NEWER_PAGES страниц — дельту бросаем и берём последнюю страницу
+     * (reset), старое догрузит скролл вверх.
+     */
+    suspend fun loadNewer(): Newer? {
+        if (newest == null) return loadLatest()?.let { Newer(it, reset = true) }
+        val all = ArrayList<ChatMessage>()
+        repeat(NEWER_PAGES) {
+            val from = newest ?: return Newer(all, reset = false)
+            val page = fetch(from, older = false, limit = NEWER_LIMIT)
+                ?: return if (all.isEmpty()) null else Newer(all, reset = false)
+            remember(page)
+            persist(page, reachedStart = false, reset = false)
+            all += page
+            if (page.size < NEWER_LIMIT) return Newer(all, reset = false)
+        }
+        return loadLatest()?.let { Newer(it, reset = true) } ?: Newer(all, reset = false)
+    }
+
+    /**
+     * Ленивый поток старых страниц: следующая страница запрашивается,
+     * только когда коллектор готов её принять. Заканчивается на начале чата или ошибке.
+     */
+    fun olderPages(): Flow<List<ChatMessage>> = flow {
+        while (hasMoreOlder) {
+            val page = loadOlder() ?: break
+            if (page.isNotEmpty()) emit(page)
+        }
+    }
+
+    /**
+     * Список в UI обрезан сверху — подгрузка старых продолжится с его первого сообщения.
+     */
+    fun trimmedTo(first: ChatMessage) {
+        val id = first.id.toLongOrNull() ?: return
+        oldest = Cursor(first.ts, id)
+        hasMoreOlder = true
+    }
+
+    private suspend fun fetch(from: Cursor?, older: Boolean, limit: Int): List<ChatMessage>? {
+        val query = SupabaseHelper.keysetQuery(
+            "chat_key=eq.$chatKey", from?.ts ?: 0, from?.id ?: 0, older, limit)
+        val res = sb.selectRowsAwait("messages", query, chatMessageDecoder(chatKey, toUser))
+        if (!res.ok) return null
+        // Назад сервер отдаёт от новых к старым — в UI всегда по возрастанию
+        return if (older) res.rows.asReversed() else res.rows
+    }
+
+    /** Страница с сервера примыкает к диапазону — в хранилище и расширить диапазон. */
+    private suspend fun persist(page: List<ChatMessage>, reachedStart: Boolean, reset: Boolean) {
+        val s = store ?: return
+        if (page.isEmpty() && !reachedStart && !reset) return
+        withContext(Dispatchers.IO) {
+            s.putSynced(chatKey, page.map { it.toRow() }, reachedStart, reset)
+        }
+    }
+
+    private fun ChatMessage.toRow() = MessageStore.Row(
+        id.toLongOrNull() ?: 0L, chatKey, fromUser, toUser, ts, type, text, fileUrl)
+
+    private fun MessageStore.Row.toChatMessage() = ChatMessage(
+        id       = id.toString(),
+        chatKey  = chatKey,
+        fromUser = from ?: "",
+        toUser   = to ?: "",
+        text     = text ?: "",
+        ts       = ts,
+        type     = type ?: "text",
+        fileUrl  = fileUrl,
+    )
+
+    private fun remember(page: List<ChatMessage>) {
+        val first = page.firstOrNull { it.id.toLongOrNull() != null } ?: return
+        val last  = page.lastOrNull  { it.id.toLongOrNull() != null } ?: return
+        val firstCur = Cursor(first.ts, first.id.toLong())
+        val lastCur  = Cursor(last.ts,  last.id.toLong())
+        if (oldest == null || before(firstCur, oldest!!)) oldest = firstCur
+        if (newest == null || before(newest!!, lastCur))  newest = lastCur
+    }
+
+    private fun before(a: Cursor, b: Cursor) = SupabaseHelper.keysetAfter(b.ts, b.id, a.ts, a.id)
+}
@@ -0,0 +1,187 @@
+package com.schedule.app.ui
+
+import java.security.MessageDigest
+
+// ══════════════════════════════════════════════════════════════════════════════
+//  Разобранный файл расписания — ole2Text → getCells один раз на содержимое
+//
+//  Раньше detectGroups и каждый parseDoc (на каждое переключение группы)
+//  заново гоняли весь конвейер и пересканировали блоки «Расписание занятий».
+//  Теперь документ строится один раз на хэш содержимого: ячейки, границы
+//  блоков, строки пар (I–VI) каждого блока и индекс группа → (блок, смещение
+//  колонки). Расписание группы — поиск в карте и проход по строкам пар блока.
+// ══════════════════════════════════════════════════════════════════════════════
+
+class ParsedScheduleDocument private constructor(
+    /** SHA-1 содержимого файла (hex); для разобранного из mmap — версия из листинга. */
+    val hash: String,
+    val cells: List<String>,
+    val blocks: List<Block>,
+    /** Группы как в detectGroups(): все найденные в ячейках, отсортированы. */
+    val groups: List<String>,
+    private val byGroup: Map<String, Slot>,
+    /** Индексы ячеек-заголовков блоков и в конце cells.size — границы для forEachLesson. */
+    private val labels: IntArray,
+) {
+
+    /**
+     * Блок «Расписание занятий»: ячейка заголовка [headerIndex], строка групп
+     * [groupStart, groupEnd), тело до [end). romRows — индексы ячеек с номером
+     * пары (первое вхождение каждого), урок группы — romRow + смещение колонки.
+     */
+    class Block(
+        val headerIndex: Int,
+        val header: String,
+        val groupStart: Int,
+        val groupEnd: Int,
+        val end: Int,
+        val romRows: IntArray,
+    )
+
+    /** Группа найдена в блоке [block]; её колонка — ячейка заголовка + offset. */
+    data class Slot(val block: Int, val offset: Int)
+
+    fun slotOf(group: String): Slot? = byGroup[DocParser.norm(group)]
+
+    /** То же, что DocParser.parseDoc(): [(roman, lesson)] и строка заголовка. */
+    fun schedule(group: String): Pair<List<Pair<String, String>>, String> {
+        val slot = slotOf(group) ?: return Pair(emptyList(), "")
+        val b = blocks[slot.block]
+        val sched = ArrayList<Pair<String, String>>(b.romRows.size)
+        for (ri in b.romRows) {
+            val li = ri + slot.offset
+            sched.add(cells[ri] to (if (li < cells.size) cells[li].trim() else ""))
+        }
+        return Pair(sched, b.header)
+    }
+
+    /**
+     * Все непустые ячейки уроков: (группа, номер пары, текст) — как обходит
+     * parseDocForTeacher: группа узнаётся и по первой строке ячейки (в строке
+     * групп бывают приписки), блоки не схлопываются — у группы, встреченной
+     * в нескольких блоках, индексируются уроки каждого.
+     */
+    fun forEachLesson(action: (group: String, roman: String, lesson: String) -> Unit) {
+        for (bi in 0 until labels.size - 1) {
+            val li = labels[bi]
+            val nx = labels[bi + 1]
+            var gs = li + 1
+            while (gs < nx && groupName(cells[gs]) == null) gs++
+            if (gs >= nx) continue
+            var ge = gs
+            while (ge < nx && groupName(cells[ge]) != null) ge++
+            val groups = (gs until ge).map { groupName(cells[it])!! }
+
+            val seen = HashSet<String>()
+            for (ri in ge until nx) {
+                val roman = cells[ri]
+                if (!DocParser.ROM.matches(roman) || !seen.add(roman)) continue
+                for ((gi, group) in groups.withIndex()) {
+                    val target = ri + (gs + gi - li)
+                    if (target >= nx) continue
+                    val lesson = cells[target].trim()
+                    if (lesson.isNotEmpty()) action(group, roman, lesson)
+                }
+            }
+        }
+    }
+
+    companion object {
+        /** Сколько разобранных файлов держать в памяти (обычно открыт один-два). */
+        private const val MAX_CACHED = 4
+
+        private val cache = object : LinkedHashMap<String, ParsedScheduleDocument>(8, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, ParsedScheduleDocument>) =
+                size > MAX_CACHED
+        }
+
+        /** Последний массив байт → документ: повторный вызов с тем же файлом не считает хэш. */
+        @Volatile private var last: Pair<ByteArray, ParsedScheduleDocument>? = null
+
+        /** Документ для содержимого файла — из кэша или разбор (блокирующий, звать на IO). */
+        fun of(data: ByteArray): ParsedScheduleDocument {
+            last?.let { (bytes, doc) -> if (bytes === data) return doc }
+            val hash = sha1(data)
+            val cached = synchronized(cache) { cache[hash] }
+            val doc = cached ?: build(hash, DocParser.getCells(data)).also {
+                synchronized(cache) { cache[hash] = it }
+            }
+            last = data to doc
+            return doc
+        }
+
+        /** Разбор без кэша — фоновая индексация всех файлов листинга не вытесняет открытые. */
+        fun parse(data: ByteArray): ParsedScheduleDocument = build(sha1(data), DocParser.getCells(data))
+
+        /** То же по готовым ячейкам (DocParser.cachedCells — файл из кэша через mmap). */
+        fun parse(cells: List<String>, version: String): ParsedScheduleDocument = build(version, cells)
+
+        fun clearCache() {
+            synchronized(cache) { cache.clear() }
+            last = null
+        }
+
+        private fun build(hash: String, cells: List<String>): ParsedScheduleDocument {
+            val labels = ArrayList<Int>()
+            cells.forEachIndexed { i, c -> if (DocParser.HDR.containsMatchIn(c)) labels.add(i) }
+            labels.add(cells.size)
+
+            val blocks = ArrayList<Block>()
+            val byGroup = HashMap<String, Slot>()
+            for (bi in 0 until labels.size - 1) {
+                val li = labels[bi]
+                val nx = labels[bi + 1]
+                var gs = li + 1
+                while (gs < nx && !DocParser.GRP.matches(cells[gs])) gs++
+                if (gs >= nx) continue
+                var ge = gs
+                while (ge < nx && DocParser.GRP.matches(cells[ge])) ge++
+
+                val rom = ArrayList<Int>()
+                val seen = HashSet<String>()
+                for (ri in ge until nx) {
+                    val c = cells[ri]
+                    if (DocParser.ROM.matches(c) && seen.add(c)) rom.add(ri)
+                }
+                val hdr = cells[li].split('\n').firstOrNull { DocParser.HDR.containsMatchIn(it) }?.trim() ?: ""
+                val index = blocks.size
+                blocks.add(Block(li, hdr, gs, ge, nx, rom.toIntArray()))
+                // Как в parseDoc: группа берётся из первого блока, где она есть
+                for (fi in gs until ge) {
+                    val k = DocParser.norm(cells[fi])
+                    if (k !in byGroup) byGroup[k] = Slot(index, fi - li)
+                }
+            }
+            return ParsedScheduleDocument(hash, cells, blocks, detectGroups(cells), byGroup, labels.toIntArray())
+        }
+
+        /** detectGroups() по уже готовым ячейкам. */
+        private fun detectGroups(cells: List<String>): List<String> {
+            val seen = linkedMapOf<String, String>()
+            fun add(name: String) { val k = DocParser.norm(name); if (k !in seen) seen[k] = name }
+            for (cell in cells) {
+                val t = cell.trim()
+                if (DocParser.GRP.matches(t)) { add(t); continue }
+                val singleLine = t.split('\n').first().trim()
+                if (DocParser.GRP.matches(singleLine)) { add(singleLine); continue }
+                DocParser.GRP_SEARCH.findAll(t).forEach { m -> add(m.groupValues[1]) }
+            }
+            return seen.values.sorted()
+        }
+
+        /** Имя группы из ячейки строки групп: первая строка или вся ячейка; null — не группа. */
+        private fun groupName(cell: String): String? {
+            val line1 = cell.substringBefore('\n').trim()
+            if (DocParser.GRP.matches(line1)) return line1
+            val t = cell.trim()
+            return t.takeIf { DocParser.GRP.matches(it) }
+        }
+
+        private fun sha1(data: ByteArray): String {
+            val d = MessageDigest.getInstance("SHA-1").digest(data)
+            val sb = StringBuilder(d.size * 2)
+            for (b in d) sb.append(String.format("%02x", b.toInt() and 0xFF))
+            return sb.toString()
+        }
+    }
+}
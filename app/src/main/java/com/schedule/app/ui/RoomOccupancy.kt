@@ -0,0 +1,272 @@
+package com.schedule.app.ui
+
+import android.content.Context
+import org.json.JSONArray
+import org.json.JSONObject
+import java.io.File
+import java.util.Calendar
+
+// ══════════════════════════════════════════════════════════════════════════════
+//  Занятость кабинетов — битовая маска пар I–VI на кабинет и день
+//
+//  «Свободна ли 315-я на третьей?» раньше можно было узнать только глазами,
+//  пролистав все группы. Теперь из уроков TeacherIndex (кабинет/корпус из
+//  parseTeacherLine) на каждый день строится карта кабинет → Int, бит k —
+//  занята пара k+1. День добавляется по мере разбора файлов, карта лежит на
+//  диске. Запрос — пара битовых операций, без разбора документов.
+//  Кабинеты — все, что встречались в индексе хоть раз (реестра аудиторий нет).
+// ══════════════════════════════════════════════════════════════════════════════
+
+class RoomOccupancy internal constructor(
+    private val file: File,
+    /** Текущее время, мс (в тестах — фиксированное). */
+    private val clock: () -> Long = System::currentTimeMillis,
+) {
+
+    /** Кабинет: номер и корпус ("" — корпус в расписании не указан). */
+    data class Room(val cabinet: String, val korpus: String) {
+        override fun toString() = if (korpus.isEmpty()) "к.$cabinet" else "к.$cabinet($korpus)"
+    }
+
+    /** Ближайшая свободная пара кабинета. today — сегодня (now — идёт прямо сейчас). */
+    data class FreeSlot(val date: String, val dayName: String, val roman: String, val today: Boolean, val now: Boolean)
+
+    /** date — "дд.мм.гггг" из заголовка ("" — без даты, в запросах по дням не участвует). */
+    private class Day(val path: String, val version: String, val name: String, val date: String, val rooms: Map<Room, Int>)
+
+    private val days = LinkedHashMap<String, Day>()
+    private var loaded = false
+
+    /** День из индекса: пересчитать его маски. */
+    @Synchronized
+    fun put(d: TeacherIndex.Day) {
+        load()
+        days[d.path] = occupancyOf(d)
+        save()
+    }
+
+    @Synchronized
+    fun remove(path: String) {
+        load()
+        if (days.remove(path) != null) save()
+    }
+
+    /** Привести к дням индекса — из готовых уроков, без разбора файлов. */
+    @Synchronized
+    fun sync(index: List<TeacherIndex.Day>) {
+        load()
+        var changed = false
+        val live = HashSet<String>()
+        for (d in index) {
+            live.add(d.path)
+            if (days[d.path]?.version == d.version && d.version.isNotEmpty()) continue
+            days[d.path] = occupancyOf(d)
+            changed = true
+        }
+        if (days.keys.retainAll(live)) changed = true
+        if (changed) save()
+    }
+
+    @Synchronized
+    fun clear() {
+        days.clear()
+        file.delete()
+        loaded = true
+    }
+
+    /** Все известные кабинеты корпуса (null — всех корпусов). */
+    @Synchronized
+    fun rooms(korpus: String? = null): List<Room> {
+        load()
+        return allRooms().filter { korpus == null || it.korpus == korpus }
+    }
+
+    /** Кабинеты с таким номером во всех корпусах. */
+    @Synchronized
+    fun find(cabinet: String): List<Room> {
+        load()
+        return allRooms().filter { it.cabinet == cabinet }
+    }
+
+    /**
+     * Свободные кабинеты корпуса на паре roman в день date.
+     * @return null — файла на этот день в индексе нет
+     */
+    @Synchronized
+    fun freeRooms(korpus: String?, roman: String, date: String = today()): List<Room>? {
+        load()
+        val bit = bitOf(roman)
+        if (bit == 0) return emptyList()
+        val day = dayOn(date) ?: return null
+        return allRooms().filter { (korpus == null || it.korpus == korpus) && (day.rooms[it] ?: 0) and bit == 0 }
+    }
+
+    /** Пара, идущая сейчас или ближайшая сегодня; null — сегодня пар больше нет или файла нет. */
+    @Synchronized
+    fun currentPair(): String? {
+        load()
+        val day = dayOn(today()) ?: return null
+        return romansFrom(day, nowMin()).firstOrNull()
+    }
+
+    /** Когда кабинет свободен: с текущей пары сегодня, затем по следующим дням индекса. */
+    @Synchronized
+    fun nextFree(room: Room): FreeSlot? {
+        load()
+        val today = today()
+        val todayKey = dateKey(today)
+        val now = nowMin()
+        val ahead = days.values
+            .filter { it.date.isNotEmpty() && dateKey(it.date) >= todayKey }
+            .sortedBy { dateKey(it.date) }
+        for (day in ahead) {
+            val isToday = day.date == today
+            val busy = day.rooms[room] ?: 0
+            val romans = if (isToday) romansFrom(day, now) else ROMANS
+            for ((i, roman) in romans.withIndex()) {
+                if (busy and bitOf(roman) == 0)
+                    return FreeSlot(day.date, day.name, roman, isToday, isToday && i == 0 && isRunning(day, roman, now))
+            }
+        }
+        return null
+    }
+
+    // ── Внутреннее ────────────────────────────────────────────────────────────
+
+    private fun occupancyOf(d: TeacherIndex.Day): Day {
+        val rooms = HashMap<Room, Int>()
+        for (l in d.lessons) {
+            val bit = bitOf(l.roman)
+            if (bit == 0) continue
+            for (p in l.places) {
+                if (p.cabinet.isEmpty()) continue
+                val r = Room(p.cabinet, p.korpus)
+                rooms[r] = (rooms[r] ?: 0) or bit
+            }
+        }
+        return Day(d.path, d.version, d.name, DocParser.formatScheduleDate(d.header) ?: "", rooms)
+    }
+
+    private fun allRooms(): List<Room> {
+        val set = HashSet<Room>()
+        for (d in days.values) set.addAll(d.rooms.keys)
+        return set.sortedWith(compareBy<Room>({ it.korpus }, { it.cabinet.toIntOrNull() ?: Int.MAX_VALUE }, { it.cabinet }))
+    }
+
+    private fun dayOn(date: String): Day? = days.values.firstOrNull { it.date == date }
+
+    /** Пары дня, которые ещё не закончились к nowMin. */
+    private fun romansFrom(day: Day, nowMin: Int): List<String> {
+        val bell = DocParser.bellFor(day.name)
+        return ROMANS.filter { r ->
+            val b = bell[r] ?: return@filter true
+            val end = b[3] ?: b[1] ?: return@filter true
+            toMin(end) >= nowMin
+        }
+    }
+
+    private fun isRunning(day: Day, roman: String, nowMin: Int): Boolean {
+        val start = DocParser.bellFor(day.name)[roman]?.get(0) ?: return false
+        return toMin(start) <= nowMin
+    }
+
+    private fun now(): Calendar = Calendar.getInstance().apply { timeInMillis = clock() }
+
+    private fun today(): String {
+        val c = now()
+        return String.format("%02d.%02d.%04d",
+            c.get(Calendar.DAY_OF_MONTH), c.get(Calendar.MONTH) + 1, c.get(Calendar.YEAR))
+    }
+
+    private fun nowMin(): Int {
+        val c = now()
+        return c.get(Calendar.HOUR_OF_DAY) * 60 + c.get(Calendar.MINUTE)
+    }
+
+    private fun load() {
+        if (loaded) return
+        loaded = true
+        try {
+            if (!file.exists()) return
+            val o = JSONObject(file.readText())
+            if (o.optInt("format") != FORMAT) return
+            val arr = o.getJSONArray("days")
+            for (i in 0 until arr.length()) {
+                val d = arr.getJSONObject(i)
+                // [кабинет, корпус, маска, …]
+                val rs = d.getJSONArray("rooms")
+                val rooms = HashMap<Room, Int>(rs.length() / 3)
+                var k = 0
+                while (k + 2 < rs.length()) {
+                    rooms[Room(rs.getString(k), rs.getString(k + 1))] = rs.getInt(k + 2)
+                    k += 3
+                }
+                val path = d.getString("path")
+                days[path] = Day(path, d.optString("version"), d.optString("name"), d.optString("date"), rooms)
+            }
+        } catch (e: Exception) {
+            android.util.Log.w(TAG, "load ✗ ${e.message}")
+            days.clear()
+        }
+    }
+
+    private fun save() {
+        try {
+            val arr = JSONArray()
+            for (d in days.values) {
+                val rs = JSONArray()
+                for ((r, mask) in d.rooms) rs.put(r.cabinet).put(r.korpus).put(mask)
+                arr.put(JSONObject()
+                    .put("path", d.path)
+                    .put("version", d.version)
+                    .put("name", d.name)
+                    .put("date", d.date)
+                    .put("rooms", rs))
+            }
+            file.parentFile?.mkdirs()
+            val tmp = File(file.path + ".tmp")
+            tmp.writeText(JSONObject().put("format", FORMAT).put("days", arr).toString())
+            if (!tmp.renameTo(file)) tmp.delete()
+        } catch (e: Exception) {
+            android.util.Log.w(TAG, "save ✗ ${e.message}")
+        }
+    }
+
+    companion object {
+        private const val TAG = "RoomOccupancy"
+        private const val FORMAT = 1
+        private val ROMANS = listOf("I", "II", "III", "IV", "V", "VI")
+
+        @Volatile private var instance: RoomOccupancy? = null
+
+        fun get(ctx: Context): RoomOccupancy =
+            instance ?: synchronized(this) {
+                instance ?: RoomOccupancy(File(ctx.applicationContext.cacheDir, "room_occupancy.json"))
+                    .also { instance = it }
+            }
+
+        /** Бит пары: I → 1, II → 2, III → 4 … (0 — не номер пары). */
+        fun bitOf(roman: String): Int {
+            val order = DocParser.ROMAN_ORDER[roman] ?: return 0
+            return if (order in 1..6) 1 shl (order - 1) else 0
+        }
+
+        /** Номер пары из ввода пользователя: "3", "III", "iii". */
+        fun romanOf(input: String): String? {
+            val s = input.trim().uppercase()
+            s.toIntOrNull()?.let { return ROMANS.getOrNull(it - 1) }
+            return s.takeIf { it in ROMANS }
+        }
+
+        /** "дд.мм.гггг" → "гггг-мм-дд" для сравнения. */
+        private fun dateKey(date: String): String {
+            val p = date.split('.')
+            return if (p.size == 3) "${p[2]}-${p[1]}-${p[0]}" else ""
+        }
+
+        private fun toMin(t: String): Int {
+            val parts = t.split(':')
+            return parts[0].toInt() * 60 + parts[1].toInt()
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.schedule.app.ui
+
+import android.content.Context
+import org.json.JSONObject
+import java.io.File
+
+// ══════════════════════════════════════════════════════════════════════════════
+//  Дисковый кэш файлов расписания
+//
+//  Ключ — "publicKey|path" (как у кэша в памяти DocParser), рядом хранится
+//  версия файла из листинга: md5 (или modified) у Яндекс.Диска, sha блоба
+//  у GitHub. Если листинг показывает ту же версию — файл не скачивается
+//  (раньше каждый холодный старт: resolve href + загрузка). Размер ограничен,
+//  вытесняются давно не открывавшиеся.
+// ══════════════════════════════════════════════════════════════════════════════
+
+class ScheduleFileCache private constructor(private val dir: File) {
+
+    private class Entry(val file: String, val version: String, val size: Long, var lastUsed: Long)
+
+    private val indexFile = File(dir, "index.json")
+    private val index = LinkedHashMap<String, Entry>()
+    private var loaded = false
+    /** Когда index.json последний раз записан (для ленивого lastUsed). */
+    private var savedAt = 0L
+
+    /**
+     * Содержимое из кэша.
+     * @param version ожидаемая версия; null — любая (показать сразу, пока идёт проверка)
+     */
+    fun read(key: String, version: String?): ByteArray? {
+        // Чтение — вне монитора: параллельная индексация не ждёт чужой диск.
+        // put() подменяет файл через rename, так что читаем целую копию.
+        val f = fileFor(key, version) ?: return null
+        return try {
+            f.readBytes()
+        } catch (e: Exception) {
+            android.util.Log.w(TAG, "read ✗ $key: ${e.message}")
+            null
+        }
+    }
+
+    /** Файл на диске (для mmap через CompoundFile.map) — те же правила, что у read(). */
+    @Synchronized
+    fun fileFor(key: String, version: String?): File? {
+        load()
+        val e = index[key] ?: return null
+        if (version != null && e.version != version) return null
+        val f = File(dir, e.file)
+        if (!f.exists()) {
+            index.remove(key)
+            save()
+            return null
+        }
+        // lastUsed нужен только для вытеснения: в памяти сразу, на диск —
+        // вместе со следующим put() или не чаще раза в TOUCH_SAVE_MS
+        e.lastUsed = System.currentTimeMillis()
+        if (e.lastUsed - savedAt > TOUCH_SAVE_MS) save()
+        return f
+    }
+
+    @Synchronized
+    fun put(key: String, version: String, data: ByteArray) {
+        if (version.isEmpty() || data.size > MAX_BYTES) return
+        load()
+        val name = fileName(key)
+        try {
+            dir.mkdirs()
+            val tmp = File(dir, "$name.tmp")
+            tmp.writeBytes(data)
+            if (!tmp.renameTo(File(dir, name))) { tmp.delete(); return }
+        } catch (e: Exception) {
+            android.util.Log.w(TAG, "put ✗ $key: ${e.message}")
+            return
+        }
+        index[key] = Entry(name, version, data.size.toLong(), System.currentTimeMillis())
+        trim()
+        save()
+    }
+
+    @Synchronized
+    fun clear() {
+        dir.listFiles()?.forEach { it.delete() }
+        index.clear()
+        loaded = true
+    }
+
+    // ── Внутреннее ────────────────────────────────────────────────────────────
+
+    /** Самые давно открывавшиеся уходят, пока не уложимся в лимиты. */
+    private fun trim() {
+        var total = index.values.sumOf { it.size }
+        val byAge = index.entries.sortedBy { it.value.lastUsed }
+        var count = index.size
+        for ((key, e) in byAge) {
+            if (total <= MAX_BYTES && count <= MAX_FILES) break
+            File(dir, e.file).delete()
+            index.remove(key)
+            total -= e.size
+            count--
+        }
+    }
+
+    private fun load() {
+        if (loaded) return
+        loaded = true
+        try {
+            if (!indexFile.exists()) return
+            val o = JSONObject(indexFile.readText())
+            for (key in o.keys()) {
+                val e = o.getJSONObject(key)
+                index[key] = Entry(e.getString("file"), e.getString("version"),
+                                   e.optLong("size"), e.optLong("lastUsed"))
+            }
+        } catch (e: Exception) {
+            android.util.Log.w(TAG, "index ✗ ${e.message}")
+            index.clear()
+        }
+    }
+
+    private fun save() {
+        try {
+            val o = JSONObject()
+            for ((key, e) in index) {
+                o.put(key, JSONObject()
+                    .put("file", e.file)
+                    .put("version", e.version)
+                    .put("size", e.size)
+                    .put("lastUsed", e.lastUsed))
+            }
+            dir.mkdirs()
+            indexFile.writeText(o.toString())
+            savedAt = System.currentTimeMillis()
+        } catch (e: Exception) {
+            android.util.Log.w(TAG, "save ✗ ${e.message}")
+        }
+    }
+
+    private fun fileName(key: String): String {
+        val d = java.security.MessageDigest.getInstance("SHA-1").digest(key.toByteArray())
+        return d.joinToString("") { String.format("%02x", it.toInt() and 0xFF) } + ".doc"
+    }
+
+    companion object {
+        private const val TAG = "ScheduleFileCache"
+        /** Все файлы листинга обычно влезают (нужно индексу преподавателей). */
+        private const val MAX_BYTES = 48L * 1024 * 1024
+        private const val MAX_FILES = 60
+        /** Как часто одни лишь попадания (lastUsed) переписывают index.json. */
+        private const val TOUCH_SAVE_MS = 10 * 60_000L
+
+        @Volatile private var instance: ScheduleFileCache? = null
+
+        fun get(ctx: Context): ScheduleFileCache =
+            instance ?: synchronized(this) {
+                instance ?: ScheduleFileCache(File(ctx.applicationContext.cacheDir, "schedule_files"))
+                    .also { instance = it }
+            }
+    }
+}
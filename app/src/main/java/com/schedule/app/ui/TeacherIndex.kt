@@ -0,0 +1,304 @@
+package com.schedule.app.ui
+
+import android.content.Context
+import com.schedule.app.ui.screens.ScheduleFile
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.coroutines.withContext
+import org.json.JSONArray
+import org.json.JSONObject
+import java.io.File
+import java.text.Collator
+import java.util.Locale
+
+// ══════════════════════════════════════════════════════════════════════════════
+//  Индекс преподавателей по всем файлам листинга
+//
+//  Раньше расписание преподавателя было заглушкой, а честный вариант
+//  (parseDocForTeacher из JS) — скачать и пересканировать каждый файл на
+//  каждый выбор имени. Теперь каждый файл листинга разбирается один раз
+//  (параллельно, не больше PARALLEL загрузок), его уроки раскладываются по
+//  преподавателям: имя → [(день, группа, пара, кабинет, корпус)]. Индекс
+//  лежит на диске с версиями файлов — на следующем старте перечитываются
+//  только изменившиеся, а выбор преподавателя — поиск в карте.
+// ══════════════════════════════════════════════════════════════════════════════
+
+class TeacherIndex private constructor(private val file: File) {
+
+    /** Проиндексированный файл листинга — один учебный день. */
+    class Day(
+        val path: String,
+        val name: String,
+        val version: String,
+        val header: String,
+        val lessons: List<Lesson>,
+    )
+
+    /** Ячейка урока: группа, пара, предмет и кто где его ведёт. */
+    class Lesson(
+        val group: String,
+        val roman: String,
+        val subject: String,
+        val places: List<DocParser.LessonPlace>,
+    )
+
+    /** Пара преподавателя. */
+    class Hit(
+        val day: Day,
+        val group: String,
+        val roman: String,
+        val subject: String,
+        val cabinet: String,
+        val korpus: String,
+    )
+
+    private val days = LinkedHashMap<String, Day>()
+    /** normTeacher(имя) → пары; пересобирается после каждого изменения days. */
+    private var byTeacher: Map<String, List<Hit>> = emptyMap()
+    private var names: List<String> = emptyList()
+    /** Файлы без версии в листинге: проверить их можно только разобрав заново — раз за запуск. */
+    private val unversionedDone = HashSet<String>()
+    private var loaded = false
+    private var dirty = false
+
+    /** Занятость кабинетов строится из тех же уроков по мере индексации. */
+    @Volatile var rooms: RoomOccupancy? = null
+
+    /** Все преподаватели индекса, по алфавиту. */
+    @Synchronized
+    fun teachers(): List<String> {
+        load()
+        return names
+    }
+
+    /** Преподаватели одного файла или null, если он не проиндексирован в этой версии. */
+    @Synchronized
+    fun teachersIn(path: String, version: String): List<String>? {
+        load()
+        val d = days[path] ?: return null
+        if (isStale(d, version)) return null
+        val seen = LinkedHashMap<String, String>()
+        for (l in d.lessons) for (p in l.places) {
+            if (p.teacher.isEmpty()) continue
+            val k = DocParser.normTeacher(p.teacher)
+            if (k !in seen) seen[k] = p.teacher
+        }
+        return seen.values.sortedWith(COLLATOR)
+    }
+
+    /** Все пары преподавателя по всем дням. */
+    @Synchronized
+    fun lookup(teacher: String): List<Hit> {
+        load()
+        return byTeacher[DocParser.normTeacher(teacher)] ?: emptyList()
+    }
+
+    /**
+     * Доиндексировать файлы: новые и сменившие версию скачиваются (через
+     * дисковый кэш DocParser) и разбираются параллельно. Готовый файл сразу
+     * попадает в индекс — отмена не теряет сделанного.
+     * @param prune files — весь листинг: удалить из индекса дни, которых в нём нет
+     * @return сколько файлов (пере)индексировано или удалено
+     */
+    suspend fun update(files: List<ScheduleFile>, publicKey: String, prune: Boolean = true): Int {
+        // load() читает индекс и синхронизирует занятость кабинетов, save() пишет
+        // JSON — всё это диск, а update зовут из viewModelScope (Main)
+        val stale = withContext(Dispatchers.IO) { synchronized(this@TeacherIndex) {
+            load()
+            var removed = 0
+            if (prune) {
+                val live = files.mapTo(HashSet()) { it.path }
+                val gone = days.keys.filter { it !in live }
+                gone.forEach { days.remove(it); rooms?.remove(it) }
+                removed = gone.size
+                if (removed > 0) { dirty = true; rebuild() }
+            }
+            files.filter { f -> days[f.path]?.let { isStale(it, f.version) } ?: true } to removed
+        } }
+        val (todo, removed) = stale
+        if (todo.isEmpty()) {
+            if (removed > 0) withContext(Dispatchers.IO) { synchronized(this@TeacherIndex) { save() } }
+            return removed
+        }
+        android.util.Log.i(TAG, "update ▸ ${todo.size} из ${files.size} файлов")
+        val gate = Semaphore(PARALLEL)
+        try {
+            val done = coroutineScope {
+                todo.map { f ->
+                    async(Dispatchers.IO) {
+                        gate.withPermit {
+                            try {
+                                // Версия уже в дисковом кэше — разбор прямо из mmap, без копии в куче
+                                val doc = DocParser.cachedCells(publicKey, f.path, f.version)
+                                    ?.let { ParsedScheduleDocument.parse(it, f.version) }
+                                    ?: ParsedScheduleDocument.parse(DocParser.downloadFile(publicKey, f.path, f.version))
+                                add(f, doc)
+                                1
+                            } catch (e: CancellationException) {
+                                throw e
+                            } catch (e: Exception) {
+                                android.util.Log.w(TAG, "update ✗ ${f.name}: ${e.message}")
+                                0
+                            }
+                        }
+                    }
+                }.awaitAll().sum()
+            }
+            android.util.Log.i(TAG, "update ✓ $done файлов, ${names.size} преподавателей")
+            return done + removed
+        } finally {
+            withContext(NonCancellable + Dispatchers.IO) { synchronized(this@TeacherIndex) { save() } }
+        }
+    }
+
+    /**
+     * Файл, уже разобранный для показа группы, — в индекс без повторной загрузки
+     * (блокирующий, звать на IO). Так и студент копит занятость кабинетов.
+     */
+    fun add(f: ScheduleFile, doc: ParsedScheduleDocument) {
+        val day = index(f, doc)
+        synchronized(this) {
+            load()
+            days[f.path] = day
+            if (f.version.isEmpty()) unversionedDone.add(f.path)
+            dirty = true
+            rebuild()
+        }
+        rooms?.put(day)
+    }
+
+    /** Уже проиндексирован в этой версии. */
+    @Synchronized
+    fun has(path: String, version: String): Boolean {
+        load()
+        return days[path]?.let { !isStale(it, version) } ?: false
+    }
+
+    @Synchronized
+    fun clear() {
+        rooms?.clear()
+        days.clear()
+        unversionedDone.clear()
+        rebuild()
+        file.delete()
+        loaded = true
+        dirty = false
+    }
+
+    // ── Внутреннее ────────────────────────────────────────────────────────────
+
+    private fun isStale(d: Day, version: String): Boolean =
+        if (version.isEmpty()) d.version.isNotEmpty() || d.path !in unversionedDone
+        else d.version != version
+
+    /** Разбор файла: все непустые ячейки уроков с преподавателями/кабинетами. */
+    private fun index(f: ScheduleFile, doc: ParsedScheduleDocument): Day {
+        val lessons = ArrayList<Lesson>()
+        doc.forEachLesson { group, roman, lesson ->
+            val cell = DocParser.parseLessonCell(lesson)
+            if (cell.places.isNotEmpty()) lessons.add(Lesson(group, roman, cell.subject, cell.places))
+        }
+        val header = doc.blocks.firstOrNull()?.header ?: ""
+        return Day(f.path, f.name, f.version, header, lessons)
+    }
+
+    private fun rebuild() {
+        val map = HashMap<String, MutableList<Hit>>()
+        val display = HashMap<String, String>()
+        for (d in days.values) for (l in d.lessons) for (p in l.places) {
+            if (p.teacher.isEmpty()) continue
+            val k = DocParser.normTeacher(p.teacher)
+            if (k !in display) display[k] = p.teacher
+            map.getOrPut(k) { ArrayList() }
+                .add(Hit(d, l.group, l.roman, l.subject, p.cabinet, p.korpus))
+        }
+        byTeacher = map
+        names = display.values.sortedWith(COLLATOR)
+    }
+
+    private fun load() {
+        if (loaded) return
+        loaded = true
+        try {
+            if (!file.exists()) return
+            val o = JSONObject(file.readText())
+            if (o.optInt("format") != FORMAT) return
+            val arr = o.getJSONArray("days")
+            for (i in 0 until arr.length()) {
+                val d = arr.getJSONObject(i)
+                val ls = d.getJSONArray("lessons")
+                val lessons = ArrayList<Lesson>(ls.length())
+                for (j in 0 until ls.length()) {
+                    // [группа, пара, предмет, [преподаватель, кабинет, корпус, …]]
+                    val l = ls.getJSONArray(j)
+                    val pl = l.getJSONArray(3)
+                    val places = ArrayList<DocParser.LessonPlace>(pl.length() / 3)
+                    var k = 0
+                    while (k + 2 < pl.length()) {
+                        places.add(DocParser.LessonPlace(pl.getString(k), pl.getString(k + 1), pl.getString(k + 2)))
+                        k += 3
+                    }
+                    lessons.add(Lesson(l.getString(0), l.getString(1), l.getString(2), places))
+                }
+                val path = d.getString("path")
+                days[path] = Day(path, d.optString("name"), d.optString("version"), d.optString("header"), lessons)
+            }
+        } catch (e: Exception) {
+            android.util.Log.w(TAG, "load ✗ ${e.message}")
+            days.clear()
+        }
+        rebuild()
+        rooms?.sync(ArrayList(days.values))
+    }
+
+    private fun save() {
+        if (!dirty) return
+        try {
+            val arr = JSONArray()
+            for (d in days.values) {
+                val ls = JSONArray()
+                for (l in d.lessons) {
+                    val pl = JSONArray()
+                    for (p in l.places) pl.put(p.teacher).put(p.cabinet).put(p.korpus)
+                    ls.put(JSONArray().put(l.group).put(l.roman).put(l.subject).put(pl))
+                }
+                arr.put(JSONObject()
+                    .put("path", d.path)
+                    .put("name", d.name)
+                    .put("version", d.version)
+                    .put("header", d.header)
+                    .put("lessons", ls))
+            }
+            file.parentFile?.mkdirs()
+            val tmp = File(file.path + ".tmp")
+            tmp.writeText(JSONObject().put("format", FORMAT).put("days", arr).toString())
+            if (!tmp.renameTo(file)) tmp.delete()
+            dirty = false
+        } catch (e: Exception) {
+            android.util.Log.w(TAG, "save ✗ ${e.message}")
+        }
+    }
+
+    companion object {
+        private const val TAG = "TeacherIndex"
+        /** Одновременных загрузок/разборов — больше не ускоряет, только душит сеть. */
+        private const val PARALLEL = 3
+        private const val FORMAT = 1
+
+        private val COLLATOR: Collator = Collator.getInstance(Locale("ru"))
+
+        @Volatile private var instance: TeacherIndex? = null
+
+        fun get(ctx: Context): TeacherIndex =
+            instance ?: synchronized(this) {
+                instance ?: TeacherIndex(File(ctx.applicationContext.cacheDir, "teacher_index.json"))
+                    .also { instance = it }
+            }
+    }
+}
@@ -31,7 +31,11 @@ import coil.compose.AsyncImage
 import coil.decode.GifDecoder
 import coil.decode.ImageDecoderDecoder
 import coil.request.ImageRequest
+import com.schedule.app.AppLogger
+import com.schedule.app.AvatarStore
 import com.schedule.app.ui.theme.LocalTheme
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
 
 // ─────────────────────────────────────────────────────────────────────────────
 // HEADER  (.hdr)
@@ -661,9 +665,24 @@ fun AvatarView(
     ) {
         if (avatarType == "photo" && avatarData != null) {
 
-            // ── Вариант 1: URL (GitHub raw или любой https) — поддержка GIF ──
+            // ── Вариант 1: URL (Storage по хэшу, GitHub raw или любой https) — поддержка GIF ──
             if (avatarData.startsWith("http")) {
                 val context = LocalContext.current
+                // Аватар из Storage адресован хэшем: байты берём из AvatarStore
+                // (память → диск → сеть), уже виденные хэши не качаются повторно
+                val store = remember(context) {
+                    AvatarStore.get(context.applicationContext, AppLogger.get(context))
+                }
+                val stored by produceState(
+                    initialValue = store.peek(avatarData),
+                    key1 = avatarData,
+                ) {
+                    // state переживает смену avatarData — значение пересчитываем всегда
+                    value = store.peek(avatarData)
+                        ?: if (store.hashOf(avatarData) != null)
+                            withContext(Dispatchers.IO) { store.load(avatarData) }
+                        else null
+                }
                 val imageLoader = remember(context) {
                     ImageLoader.Builder(context)
                         .components {
@@ -677,7 +696,7 @@ fun AvatarView(
                 }
                 AsyncImage(
                     model = ImageRequest.Builder(context)
-                        .data(avatarData)
+                        .data(stored ?: avatarData.takeIf { store.hashOf(it) == null })
                         .crossfade(true)
                         .build(),
                     imageLoader    = imageLoader,
@@ -341,6 +341,9 @@ fun AppScreen(
                         onSend         = vm::sendMessage,
                         onPickMedia    = onPickChatMedia,
                         onBack         = { vm.closeChat(); goBack(Screen.Messenger) },
+                        hasMoreOlder   = vm.messagesHasMoreOlder,
+                        isLoadingOlder = vm.messagesLoadingOlder,
+                        onLoadOlder    = vm::loadOlderMessages,
                     )
                 }
 
@@ -429,6 +432,9 @@ fun AppScreen(
                     onSend       = vm::sendMessage,
                     onPickMedia  = onPickChatMedia,
                     onBack       = { vm.closeChat(); goBack(Screen.GroupChats) },
+                    hasMoreOlder   = vm.messagesHasMoreOlder,
+                    isLoadingOlder = vm.messagesLoadingOlder,
+                    onLoadOlder    = vm::loadOlderMessages,
                 )
 
                 Screen.Games -> {
@@ -3,6 +3,7 @@ package com.schedule.app.ui.screens
 import androidx.compose.foundation.*
 import androidx.compose.foundation.ExperimentalFoundationApi
 import androidx.compose.foundation.combinedClickable
+import androidx.compose.foundation.interaction.DragInteraction
 import androidx.compose.foundation.interaction.MutableInteractionSource
 import androidx.compose.foundation.layout.*
 import androidx.compose.foundation.lazy.*
@@ -52,19 +53,44 @@ fun ChatScreen(
     onSend: () -> Unit,
     onPickMedia: () -> Unit = {},
     onBack: () -> Unit,
+    hasMoreOlder: Boolean = false,
+    isLoadingOlder: Boolean = false,
+    onLoadOlder: () -> Unit = {},
 ) {
     val t = LocalTheme.current
     val listState = rememberLazyListState()
     var replyTo by remember { mutableStateOf<ChatMessage?>(null) }
     var showMenu by remember { mutableStateOf<ChatMessage?>(null) }
 
-    // Автоскролл при новых сообщениях
-    LaunchedEffect(messages.size) {
+    // До первого автоскролла вниз список стоит в начале, и «близко к верху» —
+    // не жест пользователя: без этих флагов открытие чата грузило страницу
+    // за страницей. Старшие страницы — только после того, как сам потянул список
+    var initialScrolled by remember { mutableStateOf(false) }
+    var userScrolled by remember { mutableStateOf(false) }
+    LaunchedEffect(listState) {
+        listState.interactionSource.interactions.collect {
+            if (it is DragInteraction.Start) userScrolled = true
+        }
+    }
+
+    // Автоскролл только при новом последнем сообщении —
+    // подгрузка старых страниц сверху не дёргает список вниз
+    LaunchedEffect(messages.lastOrNull()?.id) {
         if (messages.isNotEmpty()) {
-            listState.animateScrollToItem(messages.size - 1)
+            listState.animateScrollToItem(listState.layoutInfo.totalItemsCount.coerceAtLeast(1) - 1)
+            initialScrolled = true
         }
     }
 
+    // Бесконечный скролл вверх: дошли до первых элементов — просим страницу старше
+    val nearTop by remember {
+        derivedStateOf { listState.firstVisibleItemIndex <= 2 }
+    }
+    LaunchedEffect(nearTop, hasMoreOlder, messages.size, initialScrolled, userScrolled) {
+        if (nearTop && initialScrolled && userScrolled && hasMoreOlder && !isLoadingOlder &&
+            messages.isNotEmpty()) onLoadOlder()
+    }
+
     Box(modifier = Modifier.fillMaxSize().background(t.bg)) {
         Column(modifier = Modifier.fillMaxSize()) {
             // ── Header — как в Telegram: аватар + имя + статус ───────────
@@ -140,6 +166,17 @@ fun ChatScreen(
                     contentPadding = PaddingValues(vertical = 8.dp),
                     verticalArrangement = Arrangement.spacedBy(2.dp),
                 ) {
+                    if (isLoadingOlder) {
+                        item(key = "older_loader") {
+                            Box(
+                                modifier = Modifier.fillMaxWidth().padding(vertical = 8.dp),
+                                contentAlignment = Alignment.Center,
+                            ) {
+                                CircularProgressIndicator(color = t.accent,
+                                    modifier = Modifier.size(20.dp), strokeWidth = 2.dp)
+                            }
+                        }
+                    }
                     // Group by date
                     var lastDate = ""
                     messages.forEach { msg ->
@@ -27,6 +27,8 @@ data class ScheduleFile(
     val name: String,
     val path: String,
     val size: Long = 0L,
+    /** Версия из листинга: md5/modified (Яндекс.Диск) или sha блоба (GitHub). */
+    val version: String = "",
 )
 
 // ─────────────────────────────────────────────────────────────────────────────
@@ -0,0 +1,156 @@
+package com.schedule.app;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Курсоры по ключу (ts, id): keysetQuery (MessageHistory, страницы чата) и
+ * keysetAfter (InboxSyncEngine — курсор синка и ackData). Страницы гоняются
+ * по таблице в памяти, где много строк с одинаковым ts попадает на границу
+ * страницы, — ни одна строка не должна потеряться или прийти дважды.
+ */
+public class KeysetCursorTest {
+
+    private static final Pattern OR = Pattern.compile(
+        "\\(ts\\.(gt|lt)\\.(\\d+),and\\(ts\\.eq\\.(\\d+),id\\.(gt|lt)\\.(\\d+)\\)\\)");
+
+    private static final Comparator<long[]> BY_KEY =
+        (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]);
+
+    @Test
+    public void forwardQuery() {
+        assertEquals(
+            "select=*&chat_key=eq.a_b&or=(ts.gt.100,and(ts.eq.100,id.gt.7))&order=ts.asc,id.asc&limit=50",
+            SupabaseHelper.keysetQuery("chat_key=eq.a_b", 100, 7, false, 50));
+    }
+
+    @Test
+    public void backwardQuery() {
+        assertEquals(
+            "select=*&chat_key=eq.a_b&or=(ts.lt.100,and(ts.eq.100,id.lt.7))&order=ts.desc,id.desc&limit=30",
+            SupabaseHelper.keysetQuery("chat_key=eq.a_b", 100, 7, true, 30));
+    }
+
+    @Test
+    public void noCursorMeansNoFilter() {
+        assertEquals("select=*&chat_key=eq.a_b&order=ts.desc,id.desc&limit=30",
+            SupabaseHelper.keysetQuery("chat_key=eq.a_b", 0, 0, true, 30));
+    }
+
+    @Test
+    public void keysetAfterOrdersByTsThenId() {
+        assertTrue(SupabaseHelper.keysetAfter(101, 1, 100, 9));
+        assertTrue(SupabaseHelper.keysetAfter(100, 10, 100, 9));
+        assertFalse(SupabaseHelper.keysetAfter(100, 9, 100, 9));
+        assertFalse(SupabaseHelper.keysetAfter(100, 8, 100, 9));
+        assertFalse(SupabaseHelper.keysetAfter(99, 50, 100, 9));
+    }
+
+    @Test
+    public void forwardPagesVisitEveryRowOnceAcrossTies() {
+        List<long[]> table = tableWithTies();
+        List<Long> seen = new ArrayList<>();
+        long ts = 0, id = 0;
+        for (int guard = 0; guard < 100; guard++) {
+            List<long[]> page = run(table, SupabaseHelper.keysetQuery("chat_key=eq.a_b", ts, id, false, 4));
+            for (long[] r : page) {
+                seen.add(r[1]);
+                // Как в InboxSyncEngine.syncInbox: курсор — максимум (ts, id) страницы
+                if (SupabaseHelper.keysetAfter(r[0], r[1], ts, id)) { ts = r[0]; id = r[1]; }
+            }
+            if (page.size() < 4) break;
+        }
+        assertEquals(ids(table, false), seen);
+    }
+
+    @Test
+    public void backwardPagesVisitEveryRowOnceAcrossTies() {
+        List<long[]> table = tableWithTies();
+        List<Long> seen = new ArrayList<>();
+        long ts = 0, id = 0;
+        for (int guard = 0; guard < 100; guard++) {
+            List<long[]> page = run(table, SupabaseHelper.keysetQuery("chat_key=eq.a_b", ts, id, true, 3));
+            for (long[] r : page) seen.add(r[1]);
+            if (page.size() < 3) break;
+            // Как в MessageHistory.loadOlder: следующая страница — от самой старой строки
+            long[] last = page.get(page.size() - 1);
+            ts = last[0];
+            id = last[1];
+        }
+        assertEquals(ids(table, true), seen);
+    }
+
+    @Test
+    public void staleAckDoesNotMoveCursorBack() {
+        // ackData: курсор данных только растёт, повторное/старое подтверждение — no-op
+        long[] cursor = {0, 0};
+        long[][] acks = {{100, 5}, {100, 3}, {90, 99}, {100, 5}, {100, 6}, {120, 1}};
+        for (long[] a : acks) {
+            if (SupabaseHelper.keysetAfter(a[0], a[1], cursor[0], cursor[1])) cursor = a;
+        }
+        assertEquals(120, cursor[0]);
+        assertEquals(1, cursor[1]);
+    }
+
+    // ── Таблица в памяти ──────────────────────────────────────────────────────
+
+    /** [ts, id]: по пять строк на ts — при странице в 3–4 строки каждая граница внутри группы. */
+    private static List<long[]> tableWithTies() {
+        List<long[]> t = new ArrayList<>();
+        long id = 1;
+        for (long ts = 1000; ts < 1006; ts++) {
+            for (int k = 0; k < 5; k++) t.add(new long[]{ts, id++});
+        }
+        // id не монотонны по ts: поздняя вставка со старым ts
+        t.add(new long[]{1002, 99});
+        return t;
+    }
+
+    private static List<Long> ids(List<long[]> table, boolean desc) {
+        List<long[]> sorted = new ArrayList<>(table);
+        sorted.sort(desc ? BY_KEY.reversed() : BY_KEY);
+        List<Long> out = new ArrayList<>();
+        for (long[] r : sorted) out.add(r[1]);
+        return out;
+    }
+
+    /** Мини-PostgREST: or=(…) из keysetQuery, order и limit. */
+    private static List<long[]> run(List<long[]> table, String query) {
+        Map<String, String> params = new HashMap<>();
+        for (String part : query.split("&")) {
+            int eq = part.indexOf('=');
+            params.put(part.substring(0, eq), part.substring(eq + 1));
+        }
+        boolean desc = params.get("order").startsWith("ts.desc");
+        int limit = Integer.parseInt(params.get("limit"));
+        String or = params.get("or");
+        List<long[]> rows = new ArrayList<>();
+        for (long[] r : table) {
+            if (or != null) {
+                Matcher m = OR.matcher(or);
+                assertTrue("неожиданный фильтр " + or, m.matches());
+                long t = Long.parseLong(m.group(2));
+                long i = Long.parseLong(m.group(5));
+                boolean gt = m.group(1).equals("gt");
+                boolean match = gt
+                    ? r[0] > t || (r[0] == t && r[1] > i)
+                    : r[0] < t || (r[0] == t && r[1] < i);
+                if (!match) continue;
+            }
+            rows.add(r);
+        }
+        rows.sort(desc ? BY_KEY.reversed() : BY_KEY);
+        return new ArrayList<>(rows.subList(0, Math.min(limit, rows.size())));
+    }
+}
@@ -0,0 +1,194 @@
+package com.schedule.app;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * SupabaseRealtime против локального сервера-заглушки: phx_join → phx_reply,
+ * system-ответ postgres_changes и доставка INSERT. isLive() — то, по чему
+ * AppViewModel/InboxSyncEngine решают, разрежать ли поллинг.
+ */
+public class SupabaseRealtimeTest {
+
+    private MockWebServer    server;
+    private SupabaseRealtime rt;
+    private final BlockingQueue<JSONObject> fromClient = new LinkedBlockingQueue<>();
+    private volatile WebSocket serverSide;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.enqueue(new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+            @Override
+            public void onOpen(WebSocket ws, Response response) {
+                serverSide = ws;
+            }
+
+            @Override
+            public void onMessage(WebSocket ws, String text) {
+                try {
+                    fromClient.add(new JSONObject(text));
+                } catch (Exception ignored) {}
+            }
+        }));
+        server.start();
+        String url = server.url("/realtime/v1/websocket").toString().replaceFirst("^http", "ws");
+        rt = new SupabaseRealtime(new OkHttpClient(), url, mock(AppLogger.class));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void joinReplyMakesSubscriptionLiveAndDeliversInserts() throws Exception {
+        BlockingQueue<JSONObject> records = new LinkedBlockingQueue<>();
+        CountDownLatch joined = new CountDownLatch(1);
+        SupabaseRealtime.Subscription sub = rt.subscribe("messages", "to_user=eq.alex", listener(records, joined));
+
+        JSONObject join = nextFromClient("phx_join");
+        JSONObject change = join.getJSONObject("payload").getJSONObject("config")
+                .getJSONArray("postgres_changes").getJSONObject(0);
+        assertEquals("messages", change.getString("table"));
+        assertEquals("INSERT", change.getString("event"));
+        assertEquals("to_user=eq.alex", change.getString("filter"));
+        assertFalse("до phx_reply канал не живой", sub.isLive());
+
+        reply(join, "ok");
+        assertTrue(joined.await(5, TimeUnit.SECONDS));
+        assertTrue(sub.isLive());
+
+        send(join.getString("topic"), "postgres_changes", new JSONObject().put("data",
+                new JSONObject().put("type", "INSERT")
+                        .put("record", new JSONObject().put("id", 7).put("to_user", "alex"))));
+        JSONObject record = records.poll(5, TimeUnit.SECONDS);
+        assertNotNull(record);
+        assertEquals(7, record.getInt("id"));
+    }
+
+    @Test
+    public void systemErrorForPostgresChangesIsNotLive() throws Exception {
+        CountDownLatch joined = new CountDownLatch(1);
+        SupabaseRealtime.Subscription sub = rt.subscribe("messages", "to_user=eq.alex",
+                listener(new LinkedBlockingQueue<>(), joined));
+        JSONObject join = nextFromClient("phx_join");
+        reply(join, "ok");
+        assertTrue(joined.await(5, TimeUnit.SECONDS));
+        assertTrue(sub.isLive());
+
+        // Так Realtime отвечает, если таблицы нет в публикации supabase_realtime
+        send(join.getString("topic"), "system", new JSONObject()
+                .put("extension", "postgres_changes")
+                .put("status", "error")
+                .put("message", "Unable to subscribe to changes with given parameters"));
+        assertTrue(waitFor(() -> !sub.isLive()));
+        assertEquals(1, rt.stats().getInt("failed"));
+    }
+
+    @Test
+    public void systemOkKeepsSubscriptionLive() throws Exception {
+        CountDownLatch joined = new CountDownLatch(1);
+        SupabaseRealtime.Subscription sub = rt.subscribe("messages", "chat_key=eq.a_b",
+                listener(new LinkedBlockingQueue<>(), joined));
+        JSONObject join = nextFromClient("phx_join");
+        reply(join, "ok");
+        assertTrue(joined.await(5, TimeUnit.SECONDS));
+        send(join.getString("topic"), "system", new JSONObject()
+                .put("extension", "postgres_changes")
+                .put("status", "ok")
+                .put("message", "Subscribed to PostgreSQL"));
+        // Следующее сообщение того же сокета обработано после system — значит, и оно тоже
+        send(join.getString("topic"), "postgres_changes", new JSONObject());
+        Thread.sleep(200);
+        assertTrue(sub.isLive());
+    }
+
+    @Test
+    public void rejectedJoinIsNotLive() throws Exception {
+        SupabaseRealtime.Subscription sub = rt.subscribe("messages", "to_user=eq.alex",
+                listener(new LinkedBlockingQueue<>(), new CountDownLatch(1)));
+        JSONObject join = nextFromClient("phx_join");
+        reply(join, "error");
+        Thread.sleep(200);
+        assertFalse(sub.isLive());
+    }
+
+    // ── Вспомогательное ──────────────────────────────────────────────────────
+
+    private static SupabaseRealtime.Listener listener(BlockingQueue<JSONObject> records, CountDownLatch joined) {
+        return new SupabaseRealtime.Listener() {
+            @Override
+            public void onInsert(JSONObject record) {
+                records.add(record);
+            }
+
+            @Override
+            public void onJoined() {
+                joined.countDown();
+            }
+        };
+    }
+
+    private JSONObject nextFromClient(String event) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (System.currentTimeMillis() < deadline) {
+            JSONObject m = fromClient.poll(100, TimeUnit.MILLISECONDS);
+            if (m != null && event.equals(m.optString("event"))) return m;
+        }
+        throw new AssertionError("клиент не прислал " + event);
+    }
+
+    private void reply(JSONObject join, String status) throws Exception {
+        JSONObject msg = new JSONObject()
+                .put("topic",   join.getString("topic"))
+                .put("event",   "phx_reply")
+                .put("ref",     join.getString("ref"))
+                .put("payload", new JSONObject().put("status", status)
+                        .put("response", new JSONObject().put("postgres_changes", new JSONArray())));
+        serverSide.send(msg.toString());
+    }
+
+    private void send(String topic, String event, JSONObject payload) throws Exception {
+        serverSide.send(new JSONObject()
+                .put("topic",   topic)
+                .put("event",   event)
+                .put("payload", payload)
+                .put("ref",     JSONObject.NULL)
+                .toString());
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    private static boolean waitFor(Condition c) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (System.currentTimeMillis() < deadline) {
+            if (c.holds()) return true;
+            Thread.sleep(20);
+        }
+        return c.holds();
+    }
+}
@@ -0,0 +1,226 @@
+package com.schedule.app.ui
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * CompoundFile на собранных в тесте OLE2-файлах (v3, сектор 512 байт):
+ * маленький WordDocument в mini-stream, большой — с FAT больше 109 секторов
+ * (продолжение DIFAT в отдельном секторе), тот же файл через mmap.
+ */
+class CompoundFileTest {
+
+    @Test
+    fun smallStreamIsReadFromMiniStream() {
+        val text = "Расписание занятий\u0007ИС-1-24\u0007I\u0007Математика"
+        val file = Cfb().stream("WordDocument", wordDocument(text, pad = 0)).build()
+
+        val cf = CompoundFile.open(file)
+        assertNotNull(cf)
+        val wd = cf!!.stream("WordDocument")!!
+        assertTrue("поток должен быть меньше mini-cutoff", wd.size < 4096)
+        assertEquals(text, DocParser.ole2Text(file))
+    }
+
+    @Test
+    fun fatBeyond109SectorsIsReadThroughDifat() {
+        // 7.5 МБ потока: FAT > 109 секторов, хвост текста адресуется только через DIFAT-сектор
+        val text = "Конец файла: Расписание занятий"
+        val file = Cfb().stream("WordDocument", wordDocument(text, pad = 7_500_000)).build()
+        val header = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN)
+        assertTrue("FAT должна выйти за 109 записей заголовка", header.getInt(44) > 109)
+        assertTrue("нужен хотя бы один DIFAT-сектор", header.getInt(72) >= 1)
+
+        assertEquals(text, DocParser.ole2Text(file))
+    }
+
+    @Test
+    fun mappedFileMatchesHeapCopy() {
+        val text = "Расписание занятий\u0007ПК-3-23\u0007II\u0007Физика"
+        val data = Cfb()
+            .stream("Data", ByteArray(5000) { 7 })
+            .stream("WordDocument", wordDocument(text, pad = 0))
+            .build()
+        val f = File.createTempFile("cfb", ".doc")
+        try {
+            f.writeBytes(data)
+            assertEquals(DocParser.getCells(data), DocParser.getCells(CompoundFile.map(f)))
+            assertEquals(listOf("Расписание занятий", "ПК-3-23", "II", "Физика"), DocParser.getCells(data))
+        } finally {
+            f.delete()
+        }
+    }
+
+    @Test
+    fun corruptStreamSizeIsCappedByTable() {
+        val file = Cfb().stream("WordDocument", wordDocument("Текст", pad = 6000)).build()
+        // Размер потока в каталоге — почти 4 ГБ: цепочка не длиннее FAT, файл читается
+        val dir = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN)
+        val entry = dirEntryOffset(file, "WordDocument")
+        dir.putInt(entry + 120, 0xFFFFFFF0.toInt())
+        val wd = CompoundFile.open(file)!!.stream("WordDocument")
+        assertNotNull(wd)
+        assertTrue(wd!!.size <= file.size)
+    }
+
+    @Test
+    fun notOle2ReturnsNull() {
+        assertNull(CompoundFile.open(ByteArray(1024)))
+        assertEquals("", DocParser.ole2Text(ByteArray(16)))
+    }
+
+    // ── Сборка файла ──────────────────────────────────────────────────────────
+
+    /** Поток WordDocument: FIB (fc — слово 24, cc — слово 28), pad байт, затем текст UTF-16LE. */
+    private fun wordDocument(text: String, pad: Int): ByteArray {
+        val fc = 32 + pad
+        val b = ByteBuffer.allocate(fc + text.length * 2).order(ByteOrder.LITTLE_ENDIAN)
+        b.putInt(24, fc)
+        b.putInt(28, text.length)
+        b.position(fc)
+        for (c in text) b.putChar(c)
+        return b.array()
+    }
+
+    /** Смещение записи каталога (каталог тестового файла — один сектор). */
+    private fun dirEntryOffset(file: ByteArray, name: String): Int {
+        val b = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN)
+        val base = (b.getInt(48) + 1) * SECTOR
+        for (i in 0 until SECTOR / 128) {
+            val off = base + i * 128
+            val len = (b.getShort(off + 64).toInt() and 0xFFFF) / 2 - 1
+            if (len == name.length && (0 until len).all { b.getChar(off + it * 2) == name[it] }) return off
+        }
+        error("нет записи $name")
+    }
+
+    /**
+     * Минимальный писатель OLE2 v3: обычные потоки — цепочками секторов,
+     * меньше 4096 байт — в mini-stream корня; FAT и DIFAT считаются под итог.
+     */
+    private class Cfb {
+        private val streams = ArrayList<Pair<String, ByteArray>>()
+        private val sectors = ArrayList<ByteArray>()
+        private val fat = ArrayList<Int>()
+
+        fun stream(name: String, data: ByteArray) = apply { streams.add(name to data) }
+
+        fun build(): ByteArray {
+            val starts = IntArray(streams.size)
+            val mini = java.io.ByteArrayOutputStream()
+            val miniFat = ArrayList<Int>()
+            for ((i, s) in streams.withIndex()) {
+                val data = s.second
+                if (data.size >= MINI_CUTOFF) { starts[i] = chain(data); continue }
+                val first = miniFat.size
+                val n = (data.size + MINI - 1) / MINI
+                for (k in 0 until n) miniFat.add(if (k == n - 1) END else first + k + 1)
+                mini.write(data.copyOf(n * MINI))
+                starts[i] = if (n == 0) END else first
+            }
+            val miniBytes = mini.toByteArray()
+            val rootStart = if (miniBytes.isEmpty()) END else chain(miniBytes)
+            val miniFatStart = if (miniFat.isEmpty()) END else chain(ints(miniFat))
+            val miniFatCount = (miniFat.size * 4 + SECTOR - 1) / SECTOR
+
+            val dir = ByteBuffer.allocate(128 * (streams.size + 1)).order(ByteOrder.LITTLE_ENDIAN)
+            entry(dir, 0, "Root Entry", 5, rootStart, miniBytes.size.toLong(), child = if (streams.isEmpty()) -1 else 1)
+            for ((i, s) in streams.withIndex()) {
+                entry(dir, i + 1, s.first, 2, starts[i], s.second.size.toLong(),
+                      right = if (i + 2 <= streams.size) i + 2 else -1)
+            }
+            val dirStart = chain(dir.array())
+
+            // FAT-секторов столько, чтобы покрыть данные + себя + DIFAT-сектора
+            val data = sectors.size
+            var fatCount = 1
+            var difatCount = 0
+            while (true) {
+                difatCount = if (fatCount > 109) (fatCount - 109 + PER_SECTOR - 2) / (PER_SECTOR - 1) else 0
+                if (fatCount * PER_SECTOR >= data + fatCount + difatCount) break
+                fatCount++
+            }
+            val fatSecs = IntArray(fatCount) { data + it }
+            val difatSecs = IntArray(difatCount) { data + fatCount + it }
+            fatSecs.forEach { fat.add(FATSECT) }
+            difatSecs.forEach { fat.add(DIFSECT) }
+            val total = data + fatCount + difatCount
+
+            val out = ByteBuffer.allocate((total + 1) * SECTOR).order(ByteOrder.LITTLE_ENDIAN)
+            // Заголовок
+            SIGNATURE.forEachIndexed { i, v -> out.put(i, v.toByte()) }
+            out.putShort(24, 0x3E); out.putShort(26, 3); out.putShort(28, 0xFFFE.toShort())
+            out.putShort(30, 9); out.putShort(32, 6)
+            out.putInt(44, fatCount); out.putInt(48, dirStart)
+            out.putInt(56, MINI_CUTOFF); out.putInt(60, miniFatStart); out.putInt(64, miniFatCount)
+            out.putInt(68, if (difatCount > 0) difatSecs[0] else END); out.putInt(72, difatCount)
+            for (i in 0 until 109) out.putInt(76 + i * 4, if (i < fatCount) fatSecs[i] else FREE)
+            // Данные
+            for ((k, s) in sectors.withIndex()) { out.position((k + 1) * SECTOR); out.put(s) }
+            // FAT
+            for (k in 0 until fatCount) {
+                val base = (fatSecs[k] + 1) * SECTOR
+                for (i in 0 until PER_SECTOR) {
+                    val idx = k * PER_SECTOR + i
+                    out.putInt(base + i * 4, if (idx < fat.size) fat[idx] else FREE)
+                }
+            }
+            // DIFAT: 127 номеров FAT-секторов после первых 109 и ссылка на следующий
+            var next = 109
+            for ((d, sec) in difatSecs.withIndex()) {
+                val base = (sec + 1) * SECTOR
+                for (i in 0 until PER_SECTOR - 1) out.putInt(base + i * 4, if (next < fatCount) fatSecs[next++] else FREE)
+                out.putInt(base + (PER_SECTOR - 1) * 4, if (d + 1 < difatCount) difatSecs[d + 1] else END)
+            }
+            return out.array()
+        }
+
+        /** Данные — в новые сектора подряд, FAT связывает их цепочкой; номер первого. */
+        private fun chain(data: ByteArray): Int {
+            val first = sectors.size
+            val n = (data.size + SECTOR - 1) / SECTOR
+            for (k in 0 until n) {
+                sectors.add(data.copyOfRange(k * SECTOR, minOf(data.size, (k + 1) * SECTOR)).copyOf(SECTOR))
+                fat.add(if (k == n - 1) END else first + k + 1)
+            }
+            return first
+        }
+
+        private fun ints(list: List<Int>): ByteArray {
+            val b = ByteBuffer.allocate(list.size * 4).order(ByteOrder.LITTLE_ENDIAN)
+            list.forEach { b.putInt(it) }
+            return b.array()
+        }
+
+        private fun entry(b: ByteBuffer, i: Int, name: String, type: Int, start: Int, size: Long,
+                          child: Int = -1, right: Int = -1) {
+            val off = i * 128
+            for ((k, c) in name.withIndex()) b.putChar(off + k * 2, c)
+            b.putShort(off + 64, ((name.length + 1) * 2).toShort())
+            b.put(off + 66, type.toByte())
+            b.putInt(off + 68, -1)
+            b.putInt(off + 72, right)
+            b.putInt(off + 76, child)
+            b.putInt(off + 116, start)
+            b.putInt(off + 120, size.toInt())
+        }
+    }
+
+    private companion object {
+        const val SECTOR = 512
+        const val PER_SECTOR = SECTOR / 4
+        const val MINI = 64
+        const val MINI_CUTOFF = 4096
+        const val FREE = -1
+        const val END = -2
+        const val FATSECT = -3
+        const val DIFSECT = -4
+        val SIGNATURE = intArrayOf(0xD0, 0xCF, 0x11, 0xE0, 0xA1, 0xB1, 0x1A, 0xE1)
+    }
+}
@@ -0,0 +1,123 @@
+package com.schedule.app.ui
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * ParsedScheduleDocument.schedule() против прежнего parseDoc (пересканирование
+ * блоков на каждый вызов) — на ячейках с несколькими блоками, повторами групп
+ * и номеров пар, блоком без групп и обрезанным хвостом.
+ */
+class ParsedScheduleDocumentTest {
+
+    private val cells = listOf(
+        "Колледж",
+        // Блок 1
+        "Расписание занятий на 20.10.2026\nПонедельник",
+        "ИС-1-24", "ПК-3-23", "МПД-2-24",
+        "I", "Математика\nИванов И.И. к.315(1)", "", "Физика\nПетров П.П. к.210",
+        "II", "История\nСидоров С.С. к.101(2)", "Химия\nОрлова О.О. к.12", "",
+        "II", "повтор номера пары — не берётся", "x", "y",
+        "III", "", "Литература\nКозлов К.К. к.315(1)", "Биология",
+        // Блок 2 — ИС-1-24 ещё раз, в parseDoc берётся только первый блок
+        "Расписание занятий на 21.10.2026",
+        "ИС-1-24", "ТМ-1-25",
+        "I", "Информатика\nИванов И.И. к.404", "Черчение",
+        "IV", "Физкультура", "",
+        // Блок 3 — без строки групп, пропускается
+        "Расписание занятий (резерв)",
+        "I", "что-то",
+        // Блок 4 — колонка последней группы выходит за конец ячеек
+        "Расписание занятий на 22.10.2026",
+        "АБ-1-22", "ВГ-2-22",
+        "I", "Экономика",
+        "II",
+    )
+
+    @Test
+    fun scheduleMatchesOldParseDocForEveryGroup() {
+        val doc = ParsedScheduleDocument.parse(cells, "v1")
+        val probes = doc.groups + listOf("ис 1 24", "пк-3-23", "НЕТ-9-99", "")
+        for (g in probes) {
+            assertEquals("группа $g", oldParseDoc(cells, g), doc.schedule(g))
+        }
+    }
+
+    @Test
+    fun groupsAreDetectedOnceAndSorted() {
+        val doc = ParsedScheduleDocument.parse(cells, "v1")
+        assertEquals(listOf("АБ-1-22", "ВГ-2-22", "ИС-1-24", "МПД-2-24", "ПК-3-23", "ТМ-1-25"), doc.groups)
+    }
+
+    @Test
+    fun firstBlockWinsAndHeaderIsTheHdrLine() {
+        val (sched, hdr) = ParsedScheduleDocument.parse(cells, "v1").schedule("ИС-1-24")
+        assertEquals("Расписание занятий на 20.10.2026", hdr)
+        assertEquals(listOf("I", "II", "III"), sched.map { it.first })
+        assertEquals("Математика\nИванов И.И. к.315(1)", sched[0].second)
+    }
+
+    @Test
+    fun forEachLessonWalksEveryBlock() {
+        val doc = ParsedScheduleDocument.parse(cells, "v1")
+        val lessons = ArrayList<Triple<String, String, String>>()
+        doc.forEachLesson { g, r, l -> lessons.add(Triple(g, r, l)) }
+        // ИС-1-24 из второго блока тоже в индексе
+        assertTrue(Triple("ИС-1-24", "I", "Информатика\nИванов И.И. к.404") in lessons)
+        assertTrue(Triple("ИС-1-24", "I", "Математика\nИванов И.И. к.315(1)") in lessons)
+        assertTrue(lessons.none { it.third.startsWith("повтор") })
+    }
+
+    @Test
+    fun forEachLessonAcceptsGroupCellWithNote() {
+        val cells = listOf(
+            "Расписание занятий на 23.10.2026",
+            "ИС-2-24\n(1 подгруппа)", "ПК-1-24",
+            "I", "Алгебра\nИванов И.И. к.1", "Геометрия",
+        )
+        val doc = ParsedScheduleDocument.parse(cells, "v1")
+        val lessons = ArrayList<Triple<String, String, String>>()
+        doc.forEachLesson { g, r, l -> lessons.add(Triple(g, r, l)) }
+        assertEquals(
+            listOf(
+                Triple("ИС-2-24", "I", "Алгебра\nИванов И.И. к.1"),
+                Triple("ПК-1-24", "I", "Геометрия"),
+            ),
+            lessons)
+    }
+
+    /** parseDoc до ParsedScheduleDocument — по ячейкам, без кэша. */
+    private fun oldParseDoc(cells: List<String>, group: String): Pair<List<Pair<String, String>>, String> {
+        val tn = DocParser.norm(group)
+        val labels = mutableListOf<Int>()
+        cells.forEachIndexed { i, c -> if (DocParser.HDR.containsMatchIn(c)) labels.add(i) }
+        if (labels.isEmpty()) return Pair(emptyList(), "")
+        labels.add(cells.size)
+
+        for (bi in 0 until labels.size - 1) {
+            val li = labels[bi]
+            val nx = labels[bi + 1]
+            var gs = li + 1
+            while (gs < nx && !DocParser.GRP.matches(cells[gs])) gs++
+            if (gs >= nx) continue
+            var ge = gs
+            while (ge < nx && DocParser.GRP.matches(cells[ge])) ge++
+            val fi = (gs until ge).firstOrNull { DocParser.norm(cells[it]) == tn } ?: continue
+            val off = fi - li
+            val hdr = cells[li].split('\n').firstOrNull { DocParser.HDR.containsMatchIn(it) }?.trim() ?: ""
+            val sched = mutableListOf<Pair<String, String>>()
+            val seen = mutableSetOf<String>()
+            for (ri in ge until nx) {
+                val c = cells[ri]
+                if (DocParser.ROM.matches(c) && !seen.contains(c)) {
+                    seen.add(c)
+                    val li2 = ri + off
+                    sched.add(c to (if (li2 < cells.size) cells[li2].trim() else ""))
+                }
+            }
+            return Pair(sched, hdr)
+        }
+        return Pair(emptyList(), "")
+    }
+}
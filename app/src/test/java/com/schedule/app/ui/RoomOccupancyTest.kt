@@ -0,0 +1,142 @@
+package com.schedule.app.ui
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.util.Calendar
+
+/**
+ * RoomOccupancy.freeRooms / nextFree на двух днях индекса (вторник и среда,
+ * звонки вторника–пятницы) с фиксированным «сейчас».
+ */
+class RoomOccupancyTest {
+
+    private lateinit var file: File
+
+    private val r315 = RoomOccupancy.Room("315", "1")
+    private val r210 = RoomOccupancy.Room("210", "1")
+    private val r101 = RoomOccupancy.Room("101", "2")
+
+    @Before
+    fun setUp() {
+        file = File.createTempFile("rooms", ".json")
+        file.delete()
+    }
+
+    @After
+    fun tearDown() {
+        file.delete()
+    }
+
+    @Test
+    fun freeRoomsByPair() {
+        val occ = occupancy(at(20, 10, 0))
+        assertEquals(listOf(r210), occ.freeRooms("1", "I", "20.10.2026"))
+        assertEquals(emptyList<RoomOccupancy.Room>(), occ.freeRooms("1", "II", "20.10.2026"))
+        assertEquals(listOf(r210, r315), occ.freeRooms(null, "III", "20.10.2026"))
+        assertEquals(listOf(r101), occ.freeRooms("2", "I", "20.10.2026"))
+    }
+
+    @Test
+    fun freeRoomsDefaultsToToday() {
+        val occ = occupancy(at(21, 9, 0))
+        assertEquals(listOf(r210, r101), occ.freeRooms(null, "I"))
+    }
+
+    @Test
+    fun freeRoomsWithoutDayOrPair() {
+        val occ = occupancy(at(20, 10, 0))
+        assertNull(occ.freeRooms("1", "I", "25.10.2026"))
+        assertEquals(emptyList<RoomOccupancy.Room>(), occ.freeRooms("1", "VII", "20.10.2026"))
+    }
+
+    @Test
+    fun nextFreeIsTheRunningPair() {
+        // 10:00 — идёт I (08:30–10:05), 210 на ней свободна
+        val slot = occupancy(at(20, 10, 0)).nextFree(r210)
+        assertEquals(RoomOccupancy.FreeSlot("20.10.2026", "вторник.doc", "I", today = true, now = true), slot)
+    }
+
+    @Test
+    fun nextFreeLaterToday() {
+        val occ = occupancy(at(20, 10, 0))
+        assertEquals(RoomOccupancy.FreeSlot("20.10.2026", "вторник.doc", "III", today = true, now = false),
+                     occ.nextFree(r315))
+        // 12:00 — I и II уже закончились, III начнётся в 12:20
+        assertEquals(RoomOccupancy.FreeSlot("20.10.2026", "вторник.doc", "III", today = true, now = false),
+                     occupancy(at(20, 12, 0)).nextFree(r210))
+        assertEquals("IV", occupancy(at(20, 12, 0)).nextFree(r101)?.roman)
+    }
+
+    @Test
+    fun nextFreeMovesToNextDay() {
+        // 17:30 — пары вторника кончились, в среду 315 занята на I
+        val slot = occupancy(at(20, 17, 30)).nextFree(r315)
+        assertEquals(RoomOccupancy.FreeSlot("21.10.2026", "среда.doc", "II", today = false, now = false), slot)
+        assertNull(occupancy(at(22, 9, 0)).nextFree(r315))
+    }
+
+    @Test
+    fun currentPair() {
+        assertEquals("I", occupancy(at(20, 10, 0)).currentPair())
+        assertEquals("III", occupancy(at(20, 12, 0)).currentPair())
+        assertNull(occupancy(at(20, 18, 0)).currentPair())
+    }
+
+    @Test
+    fun survivesReload() {
+        occupancy(at(20, 10, 0))
+        val reloaded = RoomOccupancy(file) { at(20, 10, 0) }
+        assertEquals(listOf(r210), reloaded.freeRooms("1", "I", "20.10.2026"))
+        assertTrue(reloaded.rooms().containsAll(listOf(r315, r210, r101)))
+        assertEquals(listOf(r315), reloaded.find("315"))
+    }
+
+    @Test
+    fun removeAndSync() {
+        val occ = occupancy(at(20, 17, 30))
+        occ.remove("b.doc")
+        assertNull(occ.freeRooms("1", "I", "21.10.2026"))
+        assertNull(occ.nextFree(r315))
+        // sync — к дням индекса: среда вернулась, вторника больше нет
+        occ.sync(listOf(wednesday()))
+        assertNull(occ.freeRooms("1", "I", "20.10.2026"))
+        assertEquals("II", occ.nextFree(r315)?.roman)
+    }
+
+    // ── Данные ────────────────────────────────────────────────────────────────
+
+    private fun occupancy(now: Long): RoomOccupancy {
+        val occ = RoomOccupancy(file) { now }
+        occ.put(tuesday())
+        occ.put(wednesday())
+        return occ
+    }
+
+    private fun tuesday() = TeacherIndex.Day(
+        "a.doc", "вторник.doc", "v1", "Расписание занятий на 20.10.2026", listOf(
+            lesson("ИС-1-24", "I", "Иванов И.И.", "315", "1"),
+            lesson("ИС-1-24", "II", "Петров П.П.", "210", "1"),
+            lesson("ПК-3-23", "II", "Сидоров С.С.", "315", "1"),
+            lesson("ПК-3-23", "III", "Орлова О.О.", "101", "2"),
+        ))
+
+    private fun wednesday() = TeacherIndex.Day(
+        "b.doc", "среда.doc", "v1", "Расписание занятий на 21.10.2026", listOf(
+            lesson("ИС-1-24", "I", "Иванов И.И.", "315", "1"),
+        ))
+
+    private fun lesson(group: String, roman: String, teacher: String, cabinet: String, korpus: String) =
+        TeacherIndex.Lesson(group, roman, "Предмет", listOf(DocParser.LessonPlace(teacher, cabinet, korpus)))
+
+    /** Октябрь 2026, локальное время. */
+    private fun at(day: Int, hour: Int, minute: Int): Long =
+        Calendar.getInstance().apply {
+            clear()
+            set(2026, Calendar.OCTOBER, day, hour, minute)
+        }.timeInMillis
+}
@@ -0,0 +1,41 @@
+-- Миграция: аватары из строк users/presence → content-addressed объекты в Storage
+-- Выполни это в Supabase → SQL Editor (до выкатки клиента, который читает avatar_ref)
+--
+-- Клиент (AvatarStore) кладёт картинку в бакет avatars под именем "{sha256}.{ext}",
+-- а в avatar_data пишет только публичную ссылку. Списки (presence, чаты, онлайн,
+-- профиль собеседника) читают avatar_ref — ссылку или NULL, но никогда base64.
+-- Старые строки с base64 переносит сам владелец при следующем входе
+-- (SupabaseHelper.migrateAvatar); до этого у него в списках показывается эмодзи.
+
+-- 1. Публичный бакет
+INSERT INTO storage.buckets (id, name, public)
+VALUES ('avatars', 'avatars', true)
+ON CONFLICT (id) DO NOTHING;
+
+-- Чтение — всем; запись — только новых объектов (перезаписи нет: имя = хэш содержимого)
+DROP POLICY IF EXISTS "avatars read" ON storage.objects;
+CREATE POLICY "avatars read" ON storage.objects
+  FOR SELECT USING (bucket_id = 'avatars');
+
+DROP POLICY IF EXISTS "avatars insert" ON storage.objects;
+CREATE POLICY "avatars insert" ON storage.objects
+  FOR INSERT WITH CHECK (
+    bucket_id = 'avatars'
+    AND name ~ '^[0-9a-f]{64}\.(jpg|png|gif|webp)$'
+  );
+
+-- 2. avatar_ref: ссылка из avatar_data, base64 отсекается
+ALTER TABLE users
+  ADD COLUMN IF NOT EXISTS avatar_ref TEXT
+  GENERATED ALWAYS AS (CASE WHEN avatar_data LIKE 'http%' THEN avatar_data END) STORED;
+
+ALTER TABLE presence
+  ADD COLUMN IF NOT EXISTS avatar_ref TEXT
+  GENERATED ALWAYS AS (CASE WHEN avatar_data LIKE 'http%' THEN avatar_data END) STORED;
+
+-- Проверка: сколько строк ещё хранят картинку внутри и сколько это байт
+SELECT 'users' AS tbl, count(*) AS inline_rows, pg_size_pretty(sum(length(avatar_data))::bigint) AS inline_size
+FROM users WHERE avatar_data IS NOT NULL AND avatar_data NOT LIKE 'http%'
+UNION ALL
+SELECT 'presence', count(*), pg_size_pretty(sum(length(avatar_data))::bigint)
+FROM presence WHERE avatar_data IS NOT NULL AND avatar_data NOT LIKE 'http%';
@@ -0,0 +1,97 @@
+-- Миграция: сводка списка чатов одним запросом — RPC chat_summaries
+-- Выполни это в Supabase → SQL Editor
+--
+-- Раньше список чатов мессенджера каждые 5 секунд собирался так:
+-- 200 отправленных + 200 полученных строк, профили и ещё по запросу
+-- "последнее сообщение" на каждый чат — 40 чатов = 43 запроса за тик.
+-- chat_summaries отдаёт по строке на личный чат: последнее сообщение,
+-- число непрочитанных и время последней активности. С p_since_ts > 0 —
+-- только чаты, где что-то изменилось после курсора (клиент держит сводку
+-- у себя и обновляет её инкрементально: AppViewModel + ChatSummaryIndex).
+
+-- 1. Индексы: входящие (to_user, ts, id) — уже есть из supabase_migration_inbox.sql,
+-- для исходящих — (from_user, ts). Последнее сообщение чата — (chat_key, ts, id).
+CREATE INDEX IF NOT EXISTS messages_from_user_ts_idx
+  ON messages (from_user, ts);
+
+CREATE INDEX IF NOT EXISTS messages_to_user_ts_id_idx
+  ON messages (to_user, ts, id);
+
+CREATE INDEX IF NOT EXISTS messages_chat_key_ts_id_idx
+  ON messages (chat_key, ts, id);
+
+-- 2. Функция
+-- Служебные строки (реакции, квитанции о прочтении) двигают activity_ts —
+-- так клиент узнаёт, что непрочитанные изменились, — но не бывают last_*.
+-- Прочитано = максимальный upToTs из моих read_receipt в этом чате (как в social.js).
+CREATE OR REPLACE FUNCTION chat_summaries(
+  p_username text,
+  p_since_ts bigint  DEFAULT 0,
+  p_limit    integer DEFAULT 200
+)
+RETURNS TABLE (
+  peer        text,
+  chat_key    text,
+  last_id     bigint,
+  last_ts     bigint,
+  last_from   text,
+  last_text   text,
+  last_extra  text,
+  unread      integer,
+  activity_ts bigint
+)
+LANGUAGE sql
+STABLE
+AS $$
+  WITH touched AS (
+    SELECT m.chat_key, max(m.ts) AS activity_ts
+      FROM messages m
+     WHERE (m.from_user = p_username OR m.to_user = p_username)
+       AND m.to_user <> '__broadcast__'
+       AND m.ts > p_since_ts
+     GROUP BY m.chat_key
+     ORDER BY max(m.ts) DESC
+     LIMIT p_limit
+  )
+  SELECT
+    CASE WHEN l.from_user = p_username THEN l.to_user ELSE l.from_user END,
+    t.chat_key,
+    l.id,
+    l.ts,
+    l.from_user,
+    l.text,
+    l.extra,
+    (SELECT count(*)::integer
+       FROM messages u
+      WHERE u.chat_key = t.chat_key
+        AND u.to_user = p_username
+        AND u.ts > coalesce(r.read_upto, 0)
+        AND coalesce(u.extra, '') NOT LIKE '%"type":"reaction"%'
+        AND coalesce(u.extra, '') NOT LIKE '%"type":"read_receipt"%'),
+    t.activity_ts
+  FROM touched t
+  CROSS JOIN LATERAL (
+    SELECT x.id, x.ts, x.from_user, x.to_user, x.text, x.extra
+      FROM messages x
+     WHERE x.chat_key = t.chat_key
+       AND coalesce(x.extra, '') NOT LIKE '%"type":"reaction"%'
+       AND coalesce(x.extra, '') NOT LIKE '%"type":"read_receipt"%'
+     ORDER BY x.ts DESC, x.id DESC
+     LIMIT 1
+  ) l
+  LEFT JOIN LATERAL (
+    SELECT max((y.extra::jsonb ->> 'upToTs')::bigint) AS read_upto
+      FROM messages y
+     WHERE y.chat_key = t.chat_key
+       AND y.from_user = p_username
+       AND y.extra LIKE '%"type":"read_receipt"%'
+  ) r ON true
+  ORDER BY t.activity_ts DESC;
+$$;
+
+GRANT EXECUTE ON FUNCTION chat_summaries(text, bigint, integer) TO anon, authenticated;
+
+-- Проверка: BitmapOr по messages_from_user_ts_idx и messages_to_user_ts_id_idx,
+-- дальше Index Scan Backward по messages_chat_key_ts_id_idx на каждый чат
+EXPLAIN
+SELECT * FROM chat_summaries('alex', 1700000000000, 200);
@@ -0,0 +1,57 @@
+-- Миграция: входящие (личные + групповые) одним запросом — RPC inbox_since
+-- Выполни это в Supabase → SQL Editor
+--
+-- Раньше фоновый поллер делал запрос на личные и ещё по одному на каждую группу:
+-- пользователь в 15 группах = 16 HTTP-запросов каждые 7 секунд.
+-- inbox_since отдаёт всё новее курсора (ts, id) за один вызов
+-- (SupabaseHelper.inboxSince → InboxSyncEngine), цена опроса не зависит от числа групп.
+
+-- 1. Индексы: ключ + (ts, id) — диапазонное чтение новее курсора без сортировки.
+-- Те же, что в supabase_migration_messages_keyset.sql; IF NOT EXISTS — повтор безопасен.
+CREATE INDEX IF NOT EXISTS messages_to_user_ts_id_idx
+  ON messages (to_user, ts, id);
+
+CREATE INDEX IF NOT EXISTS messages_chat_key_ts_id_idx
+  ON messages (chat_key, ts, id);
+
+-- 2. Функция
+-- p_group_ids — id групп без префикса ('grp_…'); chat_key группы = 'group_' || id.
+-- Групповые берутся только broadcast и не от самого пользователя — как в клиенте.
+-- SECURITY INVOKER (по умолчанию): RLS на messages действует так же, как на select.
+-- Курсор — сравнение строк (ts, id) > (…): планировщик берёт его границей
+-- Index Scan по (ключ, ts, id); раскрытое OR на ts/id так не умеет.
+CREATE OR REPLACE FUNCTION inbox_since(
+  p_username  text,
+  p_group_ids text[]  DEFAULT '{}',
+  p_since_ts  bigint  DEFAULT 0,
+  p_since_id  bigint  DEFAULT 0,
+  p_limit     integer DEFAULT 100
+)
+RETURNS SETOF messages
+LANGUAGE sql
+STABLE
+AS $$
+  SELECT * FROM (
+    (SELECT * FROM messages
+      WHERE to_user = p_username
+        AND (ts, id) > (p_since_ts, p_since_id)
+      ORDER BY ts, id
+      LIMIT p_limit)
+    UNION ALL
+    (SELECT * FROM messages
+      WHERE chat_key = ANY (SELECT 'group_' || g FROM unnest(p_group_ids) AS g)
+        AND to_user = '__broadcast__'
+        AND from_user <> p_username
+        AND (ts, id) > (p_since_ts, p_since_id)
+      ORDER BY ts, id
+      LIMIT p_limit)
+  ) AS m
+  ORDER BY ts, id
+  LIMIT p_limit;
+$$;
+
+GRANT EXECUTE ON FUNCTION inbox_since(text, text[], bigint, bigint, integer) TO anon, authenticated;
+
+-- Проверка: в плане — Index Scan по messages_to_user_ts_id_idx и messages_chat_key_ts_id_idx
+EXPLAIN
+SELECT * FROM inbox_since('alex', ARRAY['grp_1', 'grp_2'], 1700000000000, 0, 100);
@@ -0,0 +1,219 @@
+-- Миграция: реакции и квитанции о прочтении — отдельная таблица message_events
+-- Выполни это в Supabase → SQL Editor (после supabase_migration_inbox.sql
+-- и supabase_migration_chat_summaries.sql)
+--
+-- Раньше реакция и "прочитано" были обычными строками messages с extra.type =
+-- 'reaction' / 'read_receipt': каждый клик по реакции — новая строка, и все
+-- поллеры (inbox_since, история чата, список чатов) качали их, разбирали extra
+-- и выбрасывали. Теперь триггер перехватывает такие INSERT и сворачивает их
+-- в message_events — одна строка на сообщение (реакции) и одна на читателя
+-- чата (прочитано до upToTs). Новые служебные строки в messages не попадают,
+-- а клиенты забирают события дельтой по updated_at (InboxSyncEngine,
+-- social.js _sbEventsPoll). Клиенты пишут события по-старому — INSERT в messages.
+
+-- 1. Таблица
+-- reader: для 'read' — кто прочитал; для 'reaction' — '' (набор реакций общий
+-- на сообщение, последний записавший присылает его целиком).
+CREATE TABLE IF NOT EXISTS message_events (
+  chat_key   text   NOT NULL,
+  kind       text   NOT NULL CHECK (kind IN ('reaction', 'read')),
+  target_ts  bigint NOT NULL DEFAULT 0,   -- ts сообщения с реакцией; 0 для 'read'
+  reader     text   NOT NULL DEFAULT '',
+  from_user  text   NOT NULL,             -- автор последнего изменения
+  to_user    text   NOT NULL,             -- кому его доставить
+  reactions  jsonb,                       -- {emoji: [username, …]}
+  up_to_ts   bigint,                      -- 'read': прочитано всё до этого ts
+  ts         bigint NOT NULL,             -- время клиента (как messages.ts)
+  updated_at bigint NOT NULL,             -- время сервера, мс — курсор дельты
+  PRIMARY KEY (chat_key, kind, target_ts, reader)
+);
+
+-- Дельта для получателя: to_user = я, updated_at > курсора
+CREATE INDEX IF NOT EXISTS message_events_to_user_updated_idx
+  ON message_events (to_user, updated_at);
+
+ALTER TABLE message_events ENABLE ROW LEVEL SECURITY;
+
+DROP POLICY IF EXISTS "message_events read" ON message_events;
+CREATE POLICY "message_events read" ON message_events
+  FOR SELECT USING (true);
+
+-- Realtime: INSERT/UPDATE будят InboxSyncEngine так же, как новые сообщения
+ALTER PUBLICATION supabase_realtime ADD TABLE message_events;
+
+-- 2. Триггер: служебные INSERT в messages → message_events
+-- SECURITY DEFINER: пишет в message_events в обход RLS (клиентам писать туда нельзя).
+-- RETURN NULL — строка в messages не попадает.
+CREATE OR REPLACE FUNCTION messages_route_events()
+RETURNS trigger
+LANGUAGE plpgsql
+SECURITY DEFINER
+SET search_path = public
+AS $$
+DECLARE
+  ex  jsonb;
+  now_ms bigint := (extract(epoch FROM clock_timestamp()) * 1000)::bigint;
+BEGIN
+  IF NEW.extra IS NULL
+     OR (NEW.extra NOT LIKE '%"type":"reaction"%' AND NEW.extra NOT LIKE '%"type":"read_receipt"%') THEN
+    RETURN NEW;
+  END IF;
+  BEGIN
+    ex := NEW.extra::jsonb;
+  EXCEPTION WHEN others THEN
+    RETURN NEW;
+  END;
+
+  IF ex->>'type' = 'reaction' AND ex ? 'msgTs' THEN
+    INSERT INTO message_events AS e
+      (chat_key, kind, target_ts, reader, from_user, to_user, reactions, ts, updated_at)
+    VALUES
+      (NEW.chat_key, 'reaction', (ex->>'msgTs')::bigint, '', NEW.from_user, NEW.to_user,
+       coalesce(ex->'reactions', '{}'::jsonb), NEW.ts, now_ms)
+    ON CONFLICT (chat_key, kind, target_ts, reader) DO UPDATE
+      SET from_user  = EXCLUDED.from_user,
+          to_user    = EXCLUDED.to_user,
+          reactions  = EXCLUDED.reactions,
+          ts         = EXCLUDED.ts,
+          updated_at = EXCLUDED.updated_at
+      WHERE e.ts <= EXCLUDED.ts;
+    RETURN NULL;
+  END IF;
+
+  IF ex->>'type' = 'read_receipt' AND ex ? 'upToTs' THEN
+    INSERT INTO message_events AS e
+      (chat_key, kind, target_ts, reader, from_user, to_user, up_to_ts, ts, updated_at)
+    VALUES
+      (NEW.chat_key, 'read', 0, NEW.from_user, NEW.from_user, NEW.to_user,
+       (ex->>'upToTs')::bigint, NEW.ts, now_ms)
+    ON CONFLICT (chat_key, kind, target_ts, reader) DO UPDATE
+      SET up_to_ts   = EXCLUDED.up_to_ts,
+          to_user    = EXCLUDED.to_user,
+          ts         = EXCLUDED.ts,
+          updated_at = EXCLUDED.updated_at
+      WHERE EXCLUDED.up_to_ts > e.up_to_ts;
+    RETURN NULL;
+  END IF;
+
+  RETURN NEW;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS messages_route_events ON messages;
+CREATE TRIGGER messages_route_events
+  BEFORE INSERT ON messages
+  FOR EACH ROW EXECUTE FUNCTION messages_route_events();
+
+-- 3. Перенос уже накопленных служебных строк в message_events
+-- Старые строки из messages пока НЕ удаляются: клиенты, которые ещё не грузят
+-- события чата при открытии (social.js _sbEventsLoadChat), видят старые реакции
+-- и "прочитано" только через них. chat_summaries ниже их по-прежнему пропускает.
+INSERT INTO message_events
+  (chat_key, kind, target_ts, reader, from_user, to_user, reactions, ts, updated_at)
+SELECT DISTINCT ON (chat_key, (extra::jsonb->>'msgTs')::bigint)
+       chat_key, 'reaction', (extra::jsonb->>'msgTs')::bigint, '', from_user, to_user,
+       coalesce(extra::jsonb->'reactions', '{}'::jsonb), ts, ts
+  FROM messages
+ WHERE extra LIKE '%"type":"reaction"%'
+   AND extra::jsonb ? 'msgTs'
+ ORDER BY chat_key, (extra::jsonb->>'msgTs')::bigint, ts DESC
+ON CONFLICT DO NOTHING;
+
+INSERT INTO message_events
+  (chat_key, kind, target_ts, reader, from_user, to_user, up_to_ts, ts, updated_at)
+SELECT chat_key, 'read', 0, from_user, from_user, max(to_user),
+       max((extra::jsonb->>'upToTs')::bigint), max(ts), max(ts)
+  FROM messages
+ WHERE extra LIKE '%"type":"read_receipt"%'
+   AND extra::jsonb ? 'upToTs'
+ GROUP BY chat_key, from_user
+ON CONFLICT DO NOTHING;
+
+-- Когда все клиенты обновятся:
+-- DELETE FROM messages
+--  WHERE extra LIKE '%"type":"reaction"%'
+--     OR extra LIKE '%"type":"read_receipt"%';
+
+-- 4. chat_summaries: "прочитано" теперь берётся из message_events,
+-- и моё "прочитано" с другого устройства двигает activity_ts чата
+CREATE OR REPLACE FUNCTION chat_summaries(
+  p_username text,
+  p_since_ts bigint  DEFAULT 0,
+  p_limit    integer DEFAULT 200
+)
+RETURNS TABLE (
+  peer        text,
+  chat_key    text,
+  last_id     bigint,
+  last_ts     bigint,
+  last_from   text,
+  last_text   text,
+  last_extra  text,
+  unread      integer,
+  activity_ts bigint
+)
+LANGUAGE sql
+STABLE
+AS $$
+  WITH touched AS (
+    SELECT a.chat_key, max(a.ts) AS activity_ts
+      FROM (
+        SELECT m.chat_key, m.ts
+          FROM messages m
+         WHERE (m.from_user = p_username OR m.to_user = p_username)
+           AND m.to_user <> '__broadcast__'
+           AND m.ts > p_since_ts
+        UNION ALL
+        SELECT e.chat_key, e.updated_at
+          FROM message_events e
+         WHERE e.kind = 'read'
+           AND e.reader = p_username
+           AND e.updated_at > p_since_ts
+      ) a
+     GROUP BY a.chat_key
+     ORDER BY max(a.ts) DESC
+     LIMIT p_limit
+  )
+  SELECT
+    CASE WHEN l.from_user = p_username THEN l.to_user ELSE l.from_user END,
+    t.chat_key,
+    l.id,
+    l.ts,
+    l.from_user,
+    l.text,
+    l.extra,
+    (SELECT count(*)::integer
+       FROM messages u
+      WHERE u.chat_key = t.chat_key
+        AND u.to_user = p_username
+        AND u.ts > coalesce(r.up_to_ts, 0)
+        AND coalesce(u.extra, '') NOT LIKE '%"type":"reaction"%'
+        AND coalesce(u.extra, '') NOT LIKE '%"type":"read_receipt"%'),
+    t.activity_ts
+  FROM touched t
+  CROSS JOIN LATERAL (
+    SELECT x.id, x.ts, x.from_user, x.to_user, x.text, x.extra
+      FROM messages x
+     WHERE x.chat_key = t.chat_key
+       AND coalesce(x.extra, '') NOT LIKE '%"type":"reaction"%'
+       AND coalesce(x.extra, '') NOT LIKE '%"type":"read_receipt"%'
+     ORDER BY x.ts DESC, x.id DESC
+     LIMIT 1
+  ) l
+  LEFT JOIN message_events r
+    ON r.chat_key = t.chat_key AND r.kind = 'read' AND r.target_ts = 0 AND r.reader = p_username
+  ORDER BY t.activity_ts DESC;
+$$;
+
+GRANT EXECUTE ON FUNCTION chat_summaries(text, bigint, integer) TO anon, authenticated;
+
+-- Проверка: реакция не появляется в messages, а сворачивается в одну строку
+-- INSERT INTO messages (chat_key, from_user, to_user, text, ts, extra)
+-- VALUES ('alex_bob', 'bob', 'alex', '', 1700000000001,
+--         '{"type":"reaction","msgTs":1700000000000,"reactions":{"👍":["bob"]}}');
+-- SELECT * FROM message_events WHERE chat_key = 'alex_bob';
+EXPLAIN
+SELECT * FROM message_events
+WHERE to_user = 'alex' AND from_user <> 'alex' AND updated_at > 1700000000000
+ORDER BY updated_at
+LIMIT 200;
@@ -0,0 +1,22 @@
+-- Миграция: индексы под постраничную историю сообщений (keyset по (ts, id))
+-- Выполни это в Supabase → SQL Editor
+--
+-- Запросы клиента (SupabaseHelper.keysetQuery):
+--   chat_key=eq.K & or=(ts.lt.T,and(ts.eq.T,id.lt.I)) & order=ts.desc,id.desc & limit=30
+--   to_user=eq.U  & or=(ts.gt.T,and(ts.eq.T,id.gt.I)) & order=ts.asc,id.asc   & limit=100
+-- Составной индекс (ключ, ts, id) отдаёт страницу чтением диапазона индекса
+-- в нужном направлении, без сортировки всего чата.
+
+CREATE INDEX IF NOT EXISTS messages_chat_key_ts_id_idx
+  ON messages (chat_key, ts, id);
+
+CREATE INDEX IF NOT EXISTS messages_to_user_ts_id_idx
+  ON messages (to_user, ts, id);
+
+-- Проверка: в плане должен быть Index Scan (Backward) по messages_chat_key_ts_id_idx
+EXPLAIN
+SELECT * FROM messages
+WHERE chat_key = 'alex_bob'
+  AND (ts < 1700000000000 OR (ts = 1700000000000 AND id < 100))
+ORDER BY ts DESC, id DESC
+LIMIT 30;
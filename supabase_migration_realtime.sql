@@ -0,0 +1,20 @@
+-- Миграция: messages в публикации supabase_realtime
+-- Выполни это в Supabase → SQL Editor
+--
+-- SupabaseRealtime подписывается на INSERT в messages (to_user=eq.U, chat_key=eq.K,
+-- chat_key=in.(…)). Без таблицы в публикации канал подписывается (phx_reply ok),
+-- но сервер присылает system-сообщение со status=error и событий не шлёт —
+-- клиент считает такую подписку неживой и продолжает поллить.
+
+DO $$
+BEGIN
+  IF NOT EXISTS (
+    SELECT 1 FROM pg_publication_tables
+    WHERE pubname = 'supabase_realtime' AND schemaname = 'public' AND tablename = 'messages'
+  ) THEN
+    ALTER PUBLICATION supabase_realtime ADD TABLE messages;
+  END IF;
+END $$;
+
+-- Проверка: в списке должны быть messages и message_events
+SELECT schemaname, tablename FROM pg_publication_tables WHERE pubname = 'supabase_realtime';